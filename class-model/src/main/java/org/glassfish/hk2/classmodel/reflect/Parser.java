@@ -40,13 +40,17 @@
 
 package org.glassfish.hk2.classmodel.reflect;
 
+import org.glassfish.hk2.classmodel.reflect.impl.ArchiveIndex;
 import org.glassfish.hk2.classmodel.reflect.impl.TypeProxy;
 import org.glassfish.hk2.classmodel.reflect.impl.TypesCtr;
 import org.glassfish.hk2.classmodel.reflect.util.DirectoryArchive;
 import org.glassfish.hk2.classmodel.reflect.util.JarArchive;
+import org.glassfish.hk2.classmodel.reflect.util.MappedJarArchive;
 import org.glassfish.hk2.classmodel.reflect.util.ResourceLocator;
 import org.glassfish.hk2.external.org.objectweb.asm.ClassReader;
+import org.glassfish.hk2.external.org.objectweb.asm.ClassVisitor;
 
+import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
@@ -68,6 +72,25 @@ import java.util.logging.Logger;
 public class Parser implements Closeable {
 
     public static final String DEFAULT_WAIT_SYSPROP = "hk2.parser.timeout";
+
+    /**
+     * System property giving the number of threads used to scan archives and
+     * their entries, defaults to the number of available processors
+     */
+    public static final String DEFAULT_THREADS_SYSPROP = "hk2.parser.threads";
+
+    /**
+     * System property to read jar files through {@link MappedJarArchive}
+     * instead of {@link JarArchive}, defaults to false since a mapped file
+     * stays locked on some platforms until the mapping is garbage collected
+     */
+    public static final String MAPPED_ARCHIVES_SYSPROP = "hk2.parser.mmap";
+
+    /**
+     * Maximum number of class entries read ahead of the visiting threads
+     * for a single archive, beyond that the reading thread visits them itself
+     */
+    private static final int MAX_PENDING_ENTRIES = 1024;
       
     private final ParsingContext context;
     private final Map<String, Types> processedURI = Collections.synchronizedMap(new HashMap<String, Types>());
@@ -80,6 +103,8 @@ public class Parser implements Closeable {
     private final ReadWriteLock lock = new ReentrantReadWriteLock();
 
     private final int DEFAULT_TIMEOUT = Integer.getInteger(DEFAULT_WAIT_SYSPROP, 100);
+    private final int DEFAULT_THREADS = Integer.getInteger(DEFAULT_THREADS_SYSPROP,
+            Runtime.getRuntime().availableProcessors());
     
     
     public Parser(ParsingContext context) {
@@ -244,6 +269,13 @@ public class Parser implements Closeable {
     private ArchiveAdapter createArchiveAdapter(File source, Runnable doneHook)
             throws IOException {
       try {
+        if (source.isFile() && Boolean.getBoolean(MAPPED_ARCHIVES_SYSPROP)) {
+            try {
+                return new MappedJarArchive(source.toURI());
+            } catch (IOException e) {
+                context.logger.log(Level.FINE, "Cannot map " + source + ", reading it as a jar file", e);
+            }
+        }
         ArchiveAdapter aa = source.isFile()?new JarArchive(this, source.toURI()):
                                             new DirectoryArchive(this, source);
         return aa;
@@ -278,6 +310,7 @@ public class Parser implements Closeable {
                 immediateShutdown = true;
             }
             final Logger logger = context.logger;
+            final ExecutorService jobES = es;
             Types types = getResult(source.getURI());
             if (types!=null) {
                 if (logger.isLoggable(Level.FINE)) {
@@ -301,7 +334,7 @@ public class Parser implements Closeable {
                             context.logger.log(Level.FINE, "started working at " + System.currentTimeMillis() + "in "
                                     + this + " on " + source.getURI().getPath());
                         }
-                        doJob(source, doneHook);
+                        doJob(source, doneHook, jobES);
 
                         return new Result(source.getURI().getPath(), null);
                     } catch (Exception e) {
@@ -330,7 +363,7 @@ public class Parser implements Closeable {
         this.processedURI.put(uri.getPath(), types);
     }
 
-    private void doJob(final ArchiveAdapter adapter, final Runnable doneHook) throws Exception {
+    private void doJob(final ArchiveAdapter adapter, final Runnable doneHook, ExecutorService es) throws Exception {
         final Logger logger = context.logger;
         long startTime = System.currentTimeMillis();
         if (logger.isLoggable(Level.FINE)) {
@@ -342,6 +375,36 @@ public class Parser implements Closeable {
                 logger.log(Level.FINE, "Parsing file {0}", uri.getPath());
             }
 
+            if (context.index!=null && context.index.replay(uri, context)) {
+                if (logger.isLoggable(Level.FINE)) {
+                    logger.log(Level.FINE, "Loaded {0} from the index", uri.getPath());
+                }
+            } else {
+                parseEntries(adapter, uri, es);
+            }
+            saveResult(uri, context.getTypes());
+        }
+        if (logger.isLoggable(Level.FINE)) {
+            logger.log(Level.FINE,"Finished parsing " + adapter.getURI().getPath() + " at " + System.currentTimeMillis() + " in "
+                + (System.currentTimeMillis() - startTime) + " ms");
+        }
+        if (logger.isLoggable(Level.FINE)) {
+            logger.log(Level.FINE, "before running doneHook" + adapter.getURI().getPath());
+        }
+        if (doneHook != null) {
+            doneHook.run();
+        }
+        if (logger.isLoggable(Level.FINE)) {
+            logger.log(Level.FINE, "after running doneHook " + adapter.getURI().getPath());
+        }
+    }
+
+    private void parseEntries(ArchiveAdapter adapter, URI uri, ExecutorService es) throws Exception {
+        final Logger logger = context.logger;
+        final ArchiveIndex.Recorder recorder = (context.index!=null?context.index.record(uri, context):null);
+        final EntryVisitor visitor = new EntryVisitor(uri, recorder);
+        visitor.start(es);
+        try {
             adapter.onSelectedEntries(
                     new ArchiveAdapter.Selector() {
                         @Override
@@ -352,34 +415,16 @@ public class Parser implements Closeable {
                     new ArchiveAdapter.EntryTask() {
                         @Override
                         public void on(ArchiveAdapter.Entry entry, InputStream is) throws IOException {
-                            if (logger.isLoggable(Level.FINER)) {
-                                logger.log(Level.FINER, "Parsing class " + entry.name);
-                            }
-                            try {
-                                ClassReader cr = new ClassReader(is);
-                                cr.accept(context.getClassVisitor(uri, entry.name, true), ClassReader.SKIP_DEBUG);
-                            } catch (Throwable e) {
-                                logger.log(Level.SEVERE, "Exception while visiting " + entry.name
-                                        + " of size " + entry.size, e);
-                            }
+                            visitor.offer(entry, is);
                         }
                     },
                     logger
             );
-            saveResult(uri, context.getTypes());
-        }
-        if (logger.isLoggable(Level.FINE)) {
-            logger.log(Level.FINE,"Finished parsing " + adapter.getURI().getPath() + " at " + System.currentTimeMillis() + " in "
-                + (System.currentTimeMillis() - startTime) + " ms");
-        }
-        if (logger.isLoggable(Level.FINE)) {
-            logger.log(Level.FINE, "before running doneHook" + adapter.getURI().getPath());
-        }
-        if (doneHook != null) {
-            doneHook.run();
+        } finally {
+            visitor.finish();
         }
-        if (logger.isLoggable(Level.FINE)) {
-            logger.log(Level.FINE, "after running doneHook " + adapter.getURI().getPath());
+        if (recorder!=null) {
+            recorder.commit();
         }
     }
 
@@ -394,12 +439,151 @@ public class Parser implements Closeable {
         return context;
     }
 
+    /**
+     * Visits the class entries of one archive. The archive itself is only ever
+     * read by the thread running the parsing job, since the archive adapters
+     * do not support concurrent reads, but the content of each entry is handed
+     * over to helper threads of the executor service which build the model.
+     * Every class visit uses its own visitor, the shared model is safe for
+     * concurrent updates.
+     */
+    private class EntryVisitor implements Runnable {
+        private final URI uri;
+        private final ArchiveIndex.Recorder recorder;
+        private final BlockingQueue<ClassEntry> pending =
+                new LinkedBlockingQueue<ClassEntry>(MAX_PENDING_ENTRIES);
+        private volatile boolean done = false;
+        private int running = 0;   // guarded by this
+
+        private EntryVisitor(URI uri, ArchiveIndex.Recorder recorder) {
+            this.uri = uri;
+            this.recorder = recorder;
+        }
+
+        private void start(ExecutorService es) {
+            for (int i = 1; i < DEFAULT_THREADS; i++) {
+                try {
+                    es.execute(this);
+                } catch (RejectedExecutionException e) {
+                    // executor is shutting down, the reading thread does the job alone
+                    return;
+                }
+            }
+        }
+
+        private void offer(ArchiveAdapter.Entry entry, InputStream is) throws IOException {
+            ClassEntry classEntry;
+            try {
+                classEntry = new ClassEntry(entry, readFully(is, entry.size));
+            } catch (IOException e) {
+                if (recorder!=null) {
+                    recorder.failed();
+                }
+                throw e;
+            }
+            if (DEFAULT_THREADS<=1 || !pending.offer(classEntry)) {
+                visit(classEntry);
+            }
+        }
+
+        /**
+         * Called by the reading thread once all entries have been read, visits
+         * what is left and waits for the helpers still visiting classes.
+         */
+        private void finish() throws InterruptedException {
+            done = true;
+            ClassEntry classEntry;
+            while ((classEntry = pending.poll()) != null) {
+                visit(classEntry);
+            }
+            synchronized(this) {
+                while (running>0) {
+                    wait();
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            synchronized(this) {
+                running++;
+            }
+            try {
+                while (true) {
+                    boolean last = done;
+                    ClassEntry classEntry = (last?pending.poll():pending.poll(10, TimeUnit.MILLISECONDS));
+                    if (classEntry!=null) {
+                        visit(classEntry);
+                    } else if (last) {
+                        return;
+                    }
+                }
+            } catch (InterruptedException e) {
+                // the reading thread will visit the remaining entries
+            } finally {
+                synchronized(this) {
+                    running--;
+                    notifyAll();
+                }
+            }
+        }
+
+        private void visit(ClassEntry classEntry) {
+            final Logger logger = context.logger;
+            if (logger.isLoggable(Level.FINER)) {
+                logger.log(Level.FINER, "Parsing class " + classEntry.name);
+            }
+            if (context.annotationFilter!=null && !context.annotationFilter.mayMatch(classEntry.content)) {
+                context.skippedClasses.incrementAndGet();
+                return;
+            }
+            try {
+                ClassReader cr = new ClassReader(classEntry.content);
+                ClassVisitor cv = context.getClassVisitor(uri, classEntry.name, true);
+                if (recorder==null) {
+                    cr.accept(cv, ClassReader.SKIP_DEBUG);
+                } else {
+                    // the recorded events never include method bodies
+                    cr.accept(recorder.wrap(classEntry.name, cv), ClassReader.SKIP_DEBUG | ClassReader.SKIP_CODE);
+                }
+            } catch (Throwable e) {
+                if (recorder!=null) {
+                    recorder.failed();
+                }
+                logger.log(Level.SEVERE, "Exception while visiting " + classEntry.name
+                        + " of size " + classEntry.size, e);
+            }
+        }
+    }
+
+    private static class ClassEntry {
+        private final String name;
+        private final long size;
+        private final byte[] content;
+
+        private ClassEntry(ArchiveAdapter.Entry entry, byte[] content) {
+            this.name = entry.name;
+            this.size = entry.size;
+            this.content = content;
+        }
+    }
+
+    private static byte[] readFully(InputStream is, long size) throws IOException {
+        if (is instanceof MappedJarArchive.EntryInputStream) {
+            return ((MappedJarArchive.EntryInputStream) is).getContent();
+        }
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(size>0 && size<Integer.MAX_VALUE ? (int) size : 4096);
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = is.read(buffer)) != -1) {
+            baos.write(buffer, 0, read);
+        }
+        return baos.toByteArray();
+    }
+
     private ExecutorService createExecutorService() {
-        // TODO: may have to dumb this down since there appears to be issues in ZipFile processing when there is contention on the same file or directory
-        // FIXME: anything other than 1 is not stable since the class-model framework is not thread safe (visitors are shared)
-//        Runtime runtime = Runtime.getRuntime();
-//        int nbOfProcessors = runtime.availableProcessors();
-        int nbOfProcessors = 1;
+        // archives are read by a single thread each, see EntryVisitor
+        int nbOfProcessors = Math.max(1, DEFAULT_THREADS);
         
         return Executors.newFixedThreadPool(nbOfProcessors, new ThreadFactory() {
             @Override
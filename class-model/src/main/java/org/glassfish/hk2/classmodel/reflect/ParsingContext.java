@@ -40,6 +40,8 @@
 
 package org.glassfish.hk2.classmodel.reflect;
 
+import org.glassfish.hk2.classmodel.reflect.impl.AnnotationFilter;
+import org.glassfish.hk2.classmodel.reflect.impl.ArchiveIndex;
 import org.glassfish.hk2.classmodel.reflect.impl.ModelClassVisitor;
 import org.glassfish.hk2.classmodel.reflect.impl.TypeBuilder;
 import org.glassfish.hk2.classmodel.reflect.impl.TypesCtr;
@@ -49,11 +51,14 @@ import org.glassfish.hk2.classmodel.reflect.util.ParsingConfig;
 import org.glassfish.hk2.classmodel.reflect.util.ResourceLocator;
 import org.glassfish.hk2.external.org.objectweb.asm.ClassVisitor;
 
+import java.io.File;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
 import java.net.URI;
 import java.util.logging.Logger;
 
@@ -73,6 +78,8 @@ public class ParsingContext {
         ArchiveSelector archiveSelector=null;
         ParsingConfig config=null;
         ResourceLocator locator=null;
+        File indexDirectory=null;
+        Collection<String> annotationFilter=null;
 
         /**
          * Returns the configured or default logger for the class-model library.
@@ -154,6 +161,36 @@ public class ParsingContext {
             return this;
         }
 
+        /**
+         * Sets the directory where the model of each parsed jar file is saved
+         * after a successful parsing. Jar files that have not changed since
+         * they were last saved are not parsed again, their model is loaded from
+         * that directory instead.
+         *
+         * @param directory the index directory, created on first use
+         * @return itself
+         */
+        public Builder indexDirectory(File directory) {
+            this.indexDirectory = directory;
+            return this;
+        }
+
+        /**
+         * Declares the only annotations the caller is interested in. Classes
+         * that do not reference any of these annotations in their constant pool
+         * cannot carry them, neither on the type nor on its members, and are
+         * not modelled at all. They may still show up as unvisited references
+         * of the modelled types.
+         *
+         * @param annotationNames the fully qualified class names of the
+         * annotations of interest
+         * @return itself
+         */
+        public Builder annotationFilter(Collection<String> annotationNames) {
+            this.annotationFilter = annotationNames;
+            return this;
+        }
+
         /**
          * Build the final ParsingContext with the provided configuration.
          *
@@ -172,6 +209,10 @@ public class ParsingContext {
     final Logger logger;
     final ParsingConfig config;
     final ResourceLocator locator;
+    final ArchiveIndex index;
+    final AnnotationFilter annotationFilter;
+    final AtomicLong skippedClasses = new AtomicLong();
+    private final AtomicLong modelledClasses = new AtomicLong();
 
     private ParsingContext(Builder builder) {
 //        Runtime runtime = Runtime.getRuntime();
@@ -179,6 +220,8 @@ public class ParsingContext {
         this.archiveSelector = builder.archiveSelector;
         this.logger = builder.logger;
         this.locator = builder.locator;
+        this.index = builder.indexDirectory!=null?new ArchiveIndex(builder.indexDirectory):null;
+        this.annotationFilter = builder.annotationFilter!=null?new AnnotationFilter(builder.annotationFilter):null;
         this.config = builder.config!=null?builder.config:new ParsingConfig() {
             final Set<String> emptyList = Collections.emptySet();
             @Override
@@ -199,13 +242,25 @@ public class ParsingContext {
     }
 
 
-    Map<URI, TypeBuilder> builders = new HashMap<URI, TypeBuilder>();
+    final ConcurrentMap<URI, TypeBuilder> builders = new ConcurrentHashMap<URI, TypeBuilder>();
+    private TypeBuilder unknownURIBuilder;
 
-    public synchronized TypeBuilder getTypeBuilder(URI definingURI) {
+    public TypeBuilder getTypeBuilder(URI definingURI) {
+        if (definingURI==null) {
+            synchronized(this) {
+                if (unknownURIBuilder==null) {
+                    unknownURIBuilder = new TypesImpl(types, null);
+                }
+                return unknownURIBuilder;
+            }
+        }
         TypeBuilder builder = builders.get(definingURI);
         if (builder==null) {
             builder = new TypesImpl(types, definingURI);
-            builders.put(definingURI, builder);
+            TypeBuilder old = builders.putIfAbsent(definingURI, builder);
+            if (old!=null) {
+                builder = old;
+            }
         }
         return builder;
     }
@@ -227,13 +282,44 @@ public class ParsingContext {
     }
 
     public ClassVisitor getClassVisitor(URI uri, String entryName) {
+        modelledClasses.incrementAndGet();
         return new ModelClassVisitor(this, uri, entryName, false);
     }
 
     public ClassVisitor getClassVisitor(URI uri, String entryName, boolean isApplicationClass) {
+        modelledClasses.incrementAndGet();
         return new ModelClassVisitor(this, uri, entryName, isApplicationClass);
     }
 
+    /**
+     * Returns the annotation filter set with
+     * {@link Builder#annotationFilter(java.util.Collection)}
+     *
+     * @return the filter or null if all classes are modelled
+     */
+    public AnnotationFilter getAnnotationFilter() {
+        return annotationFilter;
+    }
+
+    /**
+     * Returns the number of classes that were visited to build the model
+     *
+     * @return the number of modelled classes
+     */
+    public long getModelledClassCount() {
+        return modelledClasses.get();
+    }
+
+    /**
+     * Returns the number of classes that were not modelled because the
+     * annotation filter showed they could not carry any annotation of interest
+     *
+     * @return the number of skipped classes
+     */
+    public long getSkippedClassCount() {
+        return skippedClasses.get();
+    }
+
     public ParsingConfig getConfig() {
         return config;
     }
@@ -0,0 +1,176 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.glassfish.hk2.classmodel.reflect.impl;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Pre-filters class files before they are visited. A class can only carry one
+ * of the annotations of interest, on the type or on any of its members, if the
+ * annotation descriptor is in its constant pool. Scanning the constant pool
+ * is much cheaper than a full visit, so classes that cannot match are not
+ * modelled at all.
+ *
+ * @author jwells
+ */
+public class AnnotationFilter {
+
+    private static final int CONSTANT_Utf8 = 1;
+    private static final int CONSTANT_Integer = 3;
+    private static final int CONSTANT_Float = 4;
+    private static final int CONSTANT_Long = 5;
+    private static final int CONSTANT_Double = 6;
+    private static final int CONSTANT_Class = 7;
+    private static final int CONSTANT_String = 8;
+    private static final int CONSTANT_Fieldref = 9;
+    private static final int CONSTANT_Methodref = 10;
+    private static final int CONSTANT_InterfaceMethodref = 11;
+    private static final int CONSTANT_NameAndType = 12;
+    private static final int CONSTANT_MethodHandle = 15;
+    private static final int CONSTANT_MethodType = 16;
+    private static final int CONSTANT_Dynamic = 17;
+    private static final int CONSTANT_InvokeDynamic = 18;
+    private static final int CONSTANT_Module = 19;
+    private static final int CONSTANT_Package = 20;
+
+    private final Set<String> annotationNames;
+    private final Set<String> descriptors = new HashSet<String>();
+    private final boolean[] lengths;
+
+    /**
+     * Creates a filter for the passed annotations
+     *
+     * @param annotationNames the fully qualified class names of the annotations
+     * of interest
+     */
+    public AnnotationFilter(Collection<String> annotationNames) {
+        this.annotationNames = Collections.unmodifiableSet(new TreeSet<String>(annotationNames));
+
+        int maxLength = 0;
+        for (String name : this.annotationNames) {
+            String descriptor = "L" + name.replace('.', '/') + ";";
+            descriptors.add(descriptor);
+            maxLength = Math.max(maxLength, descriptor.length());
+        }
+        lengths = new boolean[maxLength + 1];
+        for (String descriptor : descriptors) {
+            lengths[descriptor.length()] = true;
+        }
+    }
+
+    /**
+     * Returns the annotations of interest, sorted by name
+     *
+     * @return the annotation class names
+     */
+    public Set<String> getAnnotationNames() {
+        return annotationNames;
+    }
+
+    private static int readUnsignedShort(byte[] b, int index) {
+        return ((b[index] & 0xFF) << 8) | (b[index + 1] & 0xFF);
+    }
+
+    /**
+     * Scans the constant pool of the class file for the descriptor of any of
+     * the annotations of interest.
+     *
+     * @param classFile the content of the class file
+     * @return false if the class cannot carry any of the annotations of
+     * interest, true if it can or if the class file could not be scanned
+     */
+    public boolean mayMatch(byte[] classFile) {
+        try {
+            int count = readUnsignedShort(classFile, 8);
+            int index = 10;
+            for (int item = 1; item < count; item++) {
+                int tag = classFile[index];
+                switch (tag) {
+                    case CONSTANT_Utf8:
+                        int length = readUnsignedShort(classFile, index + 1);
+                        if (length < lengths.length && lengths[length] &&
+                                descriptors.contains(new String(classFile, index + 3, length, "UTF-8"))) {
+                            return true;
+                        }
+                        index += 3 + length;
+                        break;
+                    case CONSTANT_Long:
+                    case CONSTANT_Double:
+                        index += 9;
+                        item++;
+                        break;
+                    case CONSTANT_Integer:
+                    case CONSTANT_Float:
+                    case CONSTANT_Fieldref:
+                    case CONSTANT_Methodref:
+                    case CONSTANT_InterfaceMethodref:
+                    case CONSTANT_NameAndType:
+                    case CONSTANT_Dynamic:
+                    case CONSTANT_InvokeDynamic:
+                        index += 5;
+                        break;
+                    case CONSTANT_MethodHandle:
+                        index += 4;
+                        break;
+                    case CONSTANT_Class:
+                    case CONSTANT_String:
+                    case CONSTANT_MethodType:
+                    case CONSTANT_Module:
+                    case CONSTANT_Package:
+                        index += 3;
+                        break;
+                    default:
+                        // unknown constant, let the full visit decide
+                        return true;
+                }
+            }
+            return false;
+        } catch (ArrayIndexOutOfBoundsException e) {
+            return true;
+        } catch (UnsupportedEncodingException e) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,743 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.glassfish.hk2.classmodel.reflect.impl;
+
+import org.glassfish.hk2.classmodel.reflect.ParsingContext;
+import org.glassfish.hk2.external.org.objectweb.asm.AnnotationVisitor;
+import org.glassfish.hk2.external.org.objectweb.asm.ClassVisitor;
+import org.glassfish.hk2.external.org.objectweb.asm.FieldVisitor;
+import org.glassfish.hk2.external.org.objectweb.asm.MethodVisitor;
+import org.glassfish.hk2.external.org.objectweb.asm.Opcodes;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * On disk index of the parsed archives. For each jar file, the class visiting
+ * events the model is built from are recorded during the parsing and saved in
+ * a compact binary form once the archive was parsed successfully. On the next
+ * run, an archive with the same path, size and modification time is not read
+ * again, its recorded events are replayed into the model visitors instead,
+ * which builds exactly the same model.
+ *
+ * Only the events the class-model uses are recorded : class declarations,
+ * annotations and their simple values, fields, methods and annotation defaults.
+ * Classes skipped by the {@link AnnotationFilter} are not recorded, so an index
+ * is only used with the same filter it was written with.
+ *
+ * @author jwells
+ */
+public class ArchiveIndex {
+
+    private static final Logger logger = Logger.getLogger(ArchiveIndex.class.getName());
+
+    private static final int MAGIC = 0x484b3243;
+    private static final int VERSION = 2;
+
+    // event tags
+    private static final Integer END = 0;
+    private static final Integer ANNOTATION = 1;
+    private static final Integer FIELD = 2;
+    private static final Integer METHOD = 3;
+    private static final Integer ANNOTATION_DEFAULT = 4;
+    private static final Integer VALUE = 5;
+    private static final Integer ARRAY = 6;
+
+    // token types
+    private static final int T_NULL = 0;
+    private static final int T_INT = 1;
+    private static final int T_STRING = 2;
+    private static final int T_LONG = 3;
+    private static final int T_FLOAT = 4;
+    private static final int T_DOUBLE = 5;
+    private static final int T_BOOLEAN = 6;
+    private static final int T_BYTE = 7;
+    private static final int T_CHAR = 8;
+    private static final int T_SHORT = 9;
+    private static final int T_TYPE = 10;
+    private static final int T_STRINGS = 11;
+    private static final int T_BYTES = 12;
+    private static final int T_BOOLEANS = 13;
+    private static final int T_CHARS = 14;
+    private static final int T_SHORTS = 15;
+    private static final int T_INTS = 16;
+    private static final int T_LONGS = 17;
+    private static final int T_FLOATS = 18;
+    private static final int T_DOUBLES = 19;
+
+    private final File directory;
+
+    /**
+     * Creates an index stored in the passed directory, one file per archive
+     *
+     * @param directory the index directory, created if necessary
+     */
+    public ArchiveIndex(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Returns the jar file backing the archive URI, or null if that archive
+     * cannot be indexed (directories, nested or remote archives)
+     */
+    private static File getArchiveFile(URI uri) {
+        if (uri==null || !"file".equals(uri.getScheme())) return null;
+        try {
+            File file = new File(uri);
+            return file.isFile() ? file : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private File getIndexFile(URI uri) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            byte[] digest = md.digest(uri.toString().getBytes("UTF-8"));
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return new File(directory, sb.append(".idx").toString());
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Replays the index of the archive into the context, if the archive has
+     * not changed since the index was written.
+     *
+     * @param uri the archive URI
+     * @param ctx the parsing context to build the model in
+     * @return true if the model was built from the index, false if the archive
+     * must be parsed
+     */
+    public boolean replay(URI uri, ParsingContext ctx) {
+        File archive = getArchiveFile(uri);
+        if (archive==null) return false;
+        File indexFile = getIndexFile(uri);
+        if (!indexFile.isFile()) return false;
+
+        List<List<Object>> classes;
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+            try {
+                if (in.readInt()!=MAGIC || in.readInt()!=VERSION) return false;
+                if (!uri.toString().equals(in.readUTF())) return false;
+                if (in.readLong()!=archive.length() || in.readLong()!=archive.lastModified()) return false;
+                if (!getFilterNames(ctx.getAnnotationFilter()).equals(readFilterNames(in))) return false;
+
+                List<String> strings = new ArrayList<String>();
+                int nbClasses = in.readInt();
+                classes = new ArrayList<List<Object>>(nbClasses);
+                for (int i=0;i<nbClasses;i++) {
+                    int nbTokens = in.readInt();
+                    List<Object> tokens = new ArrayList<Object>(nbTokens);
+                    for (int j=0;j<nbTokens;j++) {
+                        tokens.add(readToken(in, strings));
+                    }
+                    classes.add(tokens);
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            logger.log(Level.FINE, "Cannot read index " + indexFile + " of " + uri, e);
+            return false;
+        }
+
+        for (List<Object> tokens : classes) {
+            try {
+                replayClass(new Tokens(tokens), ctx, uri);
+            } catch (Throwable e) {
+                logger.log(Level.SEVERE, "Exception while replaying " + tokens.get(0) + " from index of " + uri, e);
+            }
+        }
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("Loaded " + classes.size() + " classes of " + uri + " from index " + indexFile);
+        }
+        return true;
+    }
+
+    /**
+     * Starts recording the parsing of an archive.
+     *
+     * @param uri the archive URI
+     * @param ctx the parsing context the archive is parsed in
+     * @return a recorder, or null if this archive cannot be indexed
+     */
+    public Recorder record(URI uri, ParsingContext ctx) {
+        File archive = getArchiveFile(uri);
+        if (archive==null) return null;
+        return new Recorder(uri, archive, getFilterNames(ctx.getAnnotationFilter()));
+    }
+
+    private static List<String> getFilterNames(AnnotationFilter filter) {
+        if (filter==null) return Collections.emptyList();
+        return new ArrayList<String>(filter.getAnnotationNames());
+    }
+
+    private static List<String> readFilterNames(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<String> names = new ArrayList<String>(count);
+        for (int i=0;i<count;i++) {
+            names.add(in.readUTF());
+        }
+        return names;
+    }
+
+    /**
+     * Records the class visits of one archive, the recorder can be used
+     * by several threads at the same time.
+     */
+    public class Recorder {
+        private final URI uri;
+        private final File archive;
+        private final long size;
+        private final long lastModified;
+        private final List<String> filterNames;
+        private final List<List<Object>> classes = new ArrayList<List<Object>>();
+        private volatile boolean failed = false;
+
+        private Recorder(URI uri, File archive, List<String> filterNames) {
+            this.uri = uri;
+            this.filterNames = filterNames;
+            this.archive = archive;
+            this.size = archive.length();
+            this.lastModified = archive.lastModified();
+        }
+
+        /**
+         * Returns a class visitor recording the visit of the entry before
+         * forwarding it to the passed delegate
+         *
+         * @param entryName the archive entry being visited
+         * @param delegate the visitor building the model
+         * @return the recording visitor
+         */
+        public ClassVisitor wrap(String entryName, ClassVisitor delegate) {
+            return new RecordingClassVisitor(this, entryName, delegate);
+        }
+
+        /**
+         * Marks this recording as incomplete, it will not be saved
+         */
+        public void failed() {
+            failed = true;
+        }
+
+        private synchronized void add(List<Object> tokens) {
+            classes.add(tokens);
+        }
+
+        /**
+         * Saves the recording if all the entries were recorded and the archive
+         * has not changed during the parsing.
+         */
+        public synchronized void commit() {
+            if (failed || archive.length()!=size || archive.lastModified()!=lastModified) return;
+
+            File indexFile = getIndexFile(uri);
+            File tmp = new File(directory, indexFile.getName() + ".tmp");
+            try {
+                if (!directory.isDirectory() && !directory.mkdirs()) {
+                    logger.fine("Cannot create class-model index directory " + directory);
+                    return;
+                }
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+                try {
+                    out.writeInt(MAGIC);
+                    out.writeInt(VERSION);
+                    out.writeUTF(uri.toString());
+                    out.writeLong(size);
+                    out.writeLong(lastModified);
+                    out.writeInt(filterNames.size());
+                    for (String name : filterNames) {
+                        out.writeUTF(name);
+                    }
+
+                    Map<String, Integer> strings = new HashMap<String, Integer>();
+                    out.writeInt(classes.size());
+                    for (List<Object> tokens : classes) {
+                        out.writeInt(tokens.size());
+                        for (Object token : tokens) {
+                            writeToken(out, strings, token);
+                        }
+                    }
+                } finally {
+                    out.close();
+                }
+                if (indexFile.exists()) {
+                    indexFile.delete();
+                }
+                if (!tmp.renameTo(indexFile)) {
+                    tmp.delete();
+                }
+            } catch (IOException e) {
+                logger.log(Level.FINE, "Cannot write index " + indexFile + " of " + uri, e);
+                tmp.delete();
+            }
+        }
+    }
+
+    private static void writeString(DataOutputStream out, Map<String, Integer> strings, String s) throws IOException {
+        Integer index = strings.get(s);
+        if (index!=null) {
+            out.writeInt(index);
+            return;
+        }
+        out.writeInt(strings.size());
+        out.writeUTF(s);
+        strings.put(s, strings.size());
+    }
+
+    private static String readString(DataInputStream in, List<String> strings) throws IOException {
+        int index = in.readInt();
+        if (index<strings.size()) {
+            return strings.get(index);
+        }
+        String s = in.readUTF();
+        strings.add(s);
+        return s;
+    }
+
+    private static void writeToken(DataOutputStream out, Map<String, Integer> strings, Object token) throws IOException {
+        if (token==null) {
+            out.writeByte(T_NULL);
+        } else if (token instanceof Integer) {
+            out.writeByte(T_INT);
+            out.writeInt((Integer) token);
+        } else if (token instanceof String) {
+            out.writeByte(T_STRING);
+            writeString(out, strings, (String) token);
+        } else if (token instanceof Long) {
+            out.writeByte(T_LONG);
+            out.writeLong((Long) token);
+        } else if (token instanceof Float) {
+            out.writeByte(T_FLOAT);
+            out.writeFloat((Float) token);
+        } else if (token instanceof Double) {
+            out.writeByte(T_DOUBLE);
+            out.writeDouble((Double) token);
+        } else if (token instanceof Boolean) {
+            out.writeByte(T_BOOLEAN);
+            out.writeBoolean((Boolean) token);
+        } else if (token instanceof Byte) {
+            out.writeByte(T_BYTE);
+            out.writeByte((Byte) token);
+        } else if (token instanceof Character) {
+            out.writeByte(T_CHAR);
+            out.writeChar((Character) token);
+        } else if (token instanceof Short) {
+            out.writeByte(T_SHORT);
+            out.writeShort((Short) token);
+        } else if (token instanceof org.glassfish.hk2.external.org.objectweb.asm.Type) {
+            out.writeByte(T_TYPE);
+            writeString(out, strings, ((org.glassfish.hk2.external.org.objectweb.asm.Type) token).getDescriptor());
+        } else if (token instanceof String[]) {
+            String[] values = (String[]) token;
+            out.writeByte(T_STRINGS);
+            out.writeInt(values.length);
+            for (String value : values) {
+                writeString(out, strings, value);
+            }
+        } else if (token instanceof byte[]) {
+            byte[] values = (byte[]) token;
+            out.writeByte(T_BYTES);
+            out.writeInt(values.length);
+            out.write(values);
+        } else if (token instanceof boolean[]) {
+            boolean[] values = (boolean[]) token;
+            out.writeByte(T_BOOLEANS);
+            out.writeInt(values.length);
+            for (boolean value : values) out.writeBoolean(value);
+        } else if (token instanceof char[]) {
+            char[] values = (char[]) token;
+            out.writeByte(T_CHARS);
+            out.writeInt(values.length);
+            for (char value : values) out.writeChar(value);
+        } else if (token instanceof short[]) {
+            short[] values = (short[]) token;
+            out.writeByte(T_SHORTS);
+            out.writeInt(values.length);
+            for (short value : values) out.writeShort(value);
+        } else if (token instanceof int[]) {
+            int[] values = (int[]) token;
+            out.writeByte(T_INTS);
+            out.writeInt(values.length);
+            for (int value : values) out.writeInt(value);
+        } else if (token instanceof long[]) {
+            long[] values = (long[]) token;
+            out.writeByte(T_LONGS);
+            out.writeInt(values.length);
+            for (long value : values) out.writeLong(value);
+        } else if (token instanceof float[]) {
+            float[] values = (float[]) token;
+            out.writeByte(T_FLOATS);
+            out.writeInt(values.length);
+            for (float value : values) out.writeFloat(value);
+        } else if (token instanceof double[]) {
+            double[] values = (double[]) token;
+            out.writeByte(T_DOUBLES);
+            out.writeInt(values.length);
+            for (double value : values) out.writeDouble(value);
+        } else {
+            throw new IOException("Cannot index value " + token + " of type " + token.getClass().getName());
+        }
+    }
+
+    private static Object readToken(DataInputStream in, List<String> strings) throws IOException {
+        int type = in.readByte();
+        switch (type) {
+            case T_NULL: return null;
+            case T_INT: return in.readInt();
+            case T_STRING: return readString(in, strings);
+            case T_LONG: return in.readLong();
+            case T_FLOAT: return in.readFloat();
+            case T_DOUBLE: return in.readDouble();
+            case T_BOOLEAN: return in.readBoolean();
+            case T_BYTE: return in.readByte();
+            case T_CHAR: return in.readChar();
+            case T_SHORT: return in.readShort();
+            case T_TYPE: return org.glassfish.hk2.external.org.objectweb.asm.Type.getType(readString(in, strings));
+            default:
+        }
+        int length = in.readInt();
+        switch (type) {
+            case T_STRINGS: {
+                String[] values = new String[length];
+                for (int i=0;i<length;i++) values[i] = readString(in, strings);
+                return values;
+            }
+            case T_BYTES: {
+                byte[] values = new byte[length];
+                in.readFully(values);
+                return values;
+            }
+            case T_BOOLEANS: {
+                boolean[] values = new boolean[length];
+                for (int i=0;i<length;i++) values[i] = in.readBoolean();
+                return values;
+            }
+            case T_CHARS: {
+                char[] values = new char[length];
+                for (int i=0;i<length;i++) values[i] = in.readChar();
+                return values;
+            }
+            case T_SHORTS: {
+                short[] values = new short[length];
+                for (int i=0;i<length;i++) values[i] = in.readShort();
+                return values;
+            }
+            case T_INTS: {
+                int[] values = new int[length];
+                for (int i=0;i<length;i++) values[i] = in.readInt();
+                return values;
+            }
+            case T_LONGS: {
+                long[] values = new long[length];
+                for (int i=0;i<length;i++) values[i] = in.readLong();
+                return values;
+            }
+            case T_FLOATS: {
+                float[] values = new float[length];
+                for (int i=0;i<length;i++) values[i] = in.readFloat();
+                return values;
+            }
+            case T_DOUBLES: {
+                double[] values = new double[length];
+                for (int i=0;i<length;i++) values[i] = in.readDouble();
+                return values;
+            }
+            default:
+                throw new IOException("Corrupted index, unknown token type " + type);
+        }
+    }
+
+    private static class Tokens {
+        private final List<Object> tokens;
+        private int position = 0;
+
+        private Tokens(List<Object> tokens) {
+            this.tokens = tokens;
+        }
+
+        private Object next() {
+            return tokens.get(position++);
+        }
+
+        private String nextString() {
+            return (String) next();
+        }
+
+        private int nextInt() {
+            return (Integer) next();
+        }
+    }
+
+    private static void replayClass(Tokens tokens, ParsingContext ctx, URI uri) {
+        String entryName = tokens.nextString();
+        ClassVisitor cv = ctx.getClassVisitor(uri, entryName, true);
+        cv.visit(tokens.nextInt(), tokens.nextInt(), tokens.nextString(), tokens.nextString(),
+                tokens.nextString(), (String[]) tokens.next());
+        while (true) {
+            Object tag = tokens.next();
+            if (END.equals(tag)) {
+                cv.visitEnd();
+                return;
+            } else if (ANNOTATION.equals(tag)) {
+                String desc = tokens.nextString();
+                replayAnnotation(tokens, cv.visitAnnotation(desc, (Boolean) tokens.next()));
+            } else if (FIELD.equals(tag)) {
+                FieldVisitor fv = cv.visitField(tokens.nextInt(), tokens.nextString(), tokens.nextString(),
+                        tokens.nextString(), tokens.next());
+                while (!END.equals(tag = tokens.next())) {
+                    String desc = tokens.nextString();
+                    boolean visible = (Boolean) tokens.next();
+                    replayAnnotation(tokens, fv==null ? null : fv.visitAnnotation(desc, visible));
+                }
+                if (fv!=null) {
+                    fv.visitEnd();
+                }
+            } else if (METHOD.equals(tag)) {
+                MethodVisitor mv = cv.visitMethod(tokens.nextInt(), tokens.nextString(), tokens.nextString(),
+                        tokens.nextString(), (String[]) tokens.next());
+                while (!END.equals(tag = tokens.next())) {
+                    if (ANNOTATION_DEFAULT.equals(tag)) {
+                        replayAnnotation(tokens, mv==null ? null : mv.visitAnnotationDefault());
+                    } else {
+                        String desc = tokens.nextString();
+                        boolean visible = (Boolean) tokens.next();
+                        replayAnnotation(tokens, mv==null ? null : mv.visitAnnotation(desc, visible));
+                    }
+                }
+                if (mv!=null) {
+                    mv.visitEnd();
+                }
+            } else {
+                throw new IllegalStateException("Corrupted index, unexpected tag " + tag);
+            }
+        }
+    }
+
+    private static void replayAnnotation(Tokens tokens, AnnotationVisitor av) {
+        while (true) {
+            Object tag = tokens.next();
+            if (END.equals(tag)) {
+                if (av!=null) {
+                    av.visitEnd();
+                }
+                return;
+            }
+            String name = tokens.nextString();
+            if (VALUE.equals(tag)) {
+                Object value = tokens.next();
+                if (av!=null) {
+                    av.visit(name, value);
+                }
+            } else if (av!=null) {
+                AnnotationVisitor array = av.visitArray(name);
+                if (array!=null) {
+                    array.visitEnd();
+                }
+            }
+        }
+    }
+
+    private static class RecordingClassVisitor extends ClassVisitor {
+        private final Recorder recorder;
+        private final List<Object> tokens = new ArrayList<Object>();
+
+        private RecordingClassVisitor(Recorder recorder, String entryName, ClassVisitor delegate) {
+            super(Opcodes.ASM6, delegate);
+            this.recorder = recorder;
+            tokens.add(entryName);
+        }
+
+        @Override
+        public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+            tokens.add(version);
+            tokens.add(access);
+            tokens.add(name);
+            tokens.add(signature);
+            tokens.add(superName);
+            tokens.add(interfaces==null ? new String[0] : interfaces);
+            super.visit(version, access, name, signature, superName, interfaces);
+        }
+
+        @Override
+        public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
+            tokens.add(ANNOTATION);
+            tokens.add(desc);
+            tokens.add(visible);
+            return new RecordingAnnotationVisitor(tokens, super.visitAnnotation(desc, visible));
+        }
+
+        @Override
+        public FieldVisitor visitField(int access, String name, String desc, String signature, Object value) {
+            tokens.add(FIELD);
+            tokens.add(access);
+            tokens.add(name);
+            tokens.add(desc);
+            tokens.add(signature);
+            tokens.add(value);
+            return new RecordingFieldVisitor(tokens, super.visitField(access, name, desc, signature, value));
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+            tokens.add(METHOD);
+            tokens.add(access);
+            tokens.add(name);
+            tokens.add(desc);
+            tokens.add(signature);
+            tokens.add(exceptions);
+            return new RecordingMethodVisitor(tokens, super.visitMethod(access, name, desc, signature, exceptions));
+        }
+
+        @Override
+        public void visitEnd() {
+            tokens.add(END);
+            super.visitEnd();
+            recorder.add(tokens);
+        }
+    }
+
+    private static class RecordingFieldVisitor extends FieldVisitor {
+        private final List<Object> tokens;
+
+        private RecordingFieldVisitor(List<Object> tokens, FieldVisitor delegate) {
+            super(Opcodes.ASM6, delegate);
+            this.tokens = tokens;
+        }
+
+        @Override
+        public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
+            tokens.add(ANNOTATION);
+            tokens.add(desc);
+            tokens.add(visible);
+            return new RecordingAnnotationVisitor(tokens, super.visitAnnotation(desc, visible));
+        }
+
+        @Override
+        public void visitEnd() {
+            tokens.add(END);
+            super.visitEnd();
+        }
+    }
+
+    private static class RecordingMethodVisitor extends MethodVisitor {
+        private final List<Object> tokens;
+
+        private RecordingMethodVisitor(List<Object> tokens, MethodVisitor delegate) {
+            super(Opcodes.ASM6, delegate);
+            this.tokens = tokens;
+        }
+
+        @Override
+        public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
+            tokens.add(ANNOTATION);
+            tokens.add(desc);
+            tokens.add(visible);
+            return new RecordingAnnotationVisitor(tokens, super.visitAnnotation(desc, visible));
+        }
+
+        @Override
+        public AnnotationVisitor visitAnnotationDefault() {
+            tokens.add(ANNOTATION_DEFAULT);
+            return new RecordingAnnotationVisitor(tokens, super.visitAnnotationDefault());
+        }
+
+        @Override
+        public void visitEnd() {
+            tokens.add(END);
+            super.visitEnd();
+        }
+    }
+
+    private static class RecordingAnnotationVisitor extends AnnotationVisitor {
+        private final List<Object> tokens;
+
+        private RecordingAnnotationVisitor(List<Object> tokens, AnnotationVisitor delegate) {
+            super(Opcodes.ASM6, delegate);
+            this.tokens = tokens;
+        }
+
+        @Override
+        public void visit(String name, Object value) {
+            tokens.add(VALUE);
+            tokens.add(name);
+            tokens.add(value);
+            super.visit(name, value);
+        }
+
+        @Override
+        public AnnotationVisitor visitArray(String name) {
+            tokens.add(ARRAY);
+            tokens.add(name);
+            return super.visitArray(name);
+        }
+
+        @Override
+        public void visitEnd() {
+            tokens.add(END);
+            super.visitEnd();
+        }
+    }
+}
@@ -55,13 +55,8 @@ public class TypesCtr implements Types {
     
     @Override
     public Type getBy(String name) {
-        for (Map<String, TypeProxy<Type>> map : storage.values()) {
-            TypeProxy proxy = map.get(name);
-            if (proxy!=null) {
-                return proxy.get();
-            }
-        }
-        return null;
+        TypeProxy<Type> proxy = lookup(name);
+        return (proxy!=null?proxy.get():null);
     }
 
     @Override
@@ -74,28 +69,44 @@ public class TypesCtr implements Types {
         }
     }
 
-    public TypeProxy<Type> getHolder(String name) {
-        if (name.equals("java.lang.Object")) return null;
-        // we look first in our storage pools.
+    private TypeProxy<Type> lookup(String name) {
         for (Map<String, TypeProxy<Type>> map : storage.values()) {
             TypeProxy<Type> proxy = map.get(name);
             if (proxy!=null) {
                 return proxy;
             }
         }
-        // ok let's look in our unknown storage pool.
-        if (unknownTypesStorage.containsKey(name)) {
-            return unknownTypesStorage.get(name);
+        return null;
+    }
+
+    public TypeProxy<Type> getHolder(String name) {
+        if (name.equals("java.lang.Object")) return null;
+        // we look first in our storage pools, then in our unknown storage pool,
+        // none of which requires a lock once the proxy exists.
+        TypeProxy<Type> typeProxy = lookup(name);
+        if (typeProxy!=null) {
+            return typeProxy;
+        }
+        typeProxy = unknownTypesStorage.get(name);
+        if (typeProxy!=null) {
+            return typeProxy;
         }
         // ok we don't have and since we don't know its type
-        // let's put it in the unknown storage pool.
-        TypeProxy<Type> typeProxy = new TypeProxy<Type>(null, name);
-        TypeProxy<Type> old = unknownTypesStorage.putIfAbsent(name, typeProxy);
-        if (old==null) {
-            nonVisited.push(typeProxy);
+        // let's put it in the unknown storage pool. Creation is serialized
+        // with the move from the unknown pool to a typed pool so that two
+        // visiting threads can never end up with two proxies for one type.
+        synchronized (unknownTypesStorage) {
+            typeProxy = lookup(name);
+            if (typeProxy==null) {
+                typeProxy = unknownTypesStorage.get(name);
+            }
+            if (typeProxy==null) {
+                typeProxy = new TypeProxy<Type>(null, name);
+                unknownTypesStorage.put(name, typeProxy);
+                nonVisited.push(typeProxy);
+            }
             return typeProxy;
         }
-        return old;
     }
 
     public <T extends Type> TypeProxy<Type> getHolder(String name, Class<T> type) {
@@ -110,34 +121,22 @@ public class TypesCtr implements Types {
             }
         }
         TypeProxy<Type> typeProxy = typeStorage.get(name);
-        if (typeProxy ==null) {
-            // in our unknown type pool ? 
-            TypeProxy<Type> tmp = unknownTypesStorage.get(name);
-            // in our unknown type pool ?
-            if (tmp!=null) {
-                synchronized (unknownTypesStorage) {
-                    typeProxy = unknownTypesStorage.remove(name);
-                    if (typeProxy == null) { 
-                        typeProxy = tmp; 
-                     }
-                }
-                if (typeProxy!=null) {
-                    TypeProxy<Type> old = typeStorage.putIfAbsent(name, typeProxy);
-                    if (old!=null) {
-                        typeProxy = old;
-                    }
-                }
-            } else {
-                typeProxy = new TypeProxy<Type>(null, name);
-                TypeProxy<Type> old = typeStorage.putIfAbsent(name, typeProxy);
-                if (old==null) {
+        if (typeProxy!=null) {
+            return typeProxy;
+        }
+        synchronized (unknownTypesStorage) {
+            typeProxy = typeStorage.get(name);
+            if (typeProxy==null) {
+                // in our unknown type pool ?
+                typeProxy = unknownTypesStorage.remove(name);
+                if (typeProxy==null) {
+                    typeProxy = new TypeProxy<Type>(null, name);
                     nonVisited.push(typeProxy);
-                } else {
-                    typeProxy=old;
                 }
+                typeStorage.put(name, typeProxy);
             }
+            return typeProxy;
         }
-        return typeProxy;
     }
 
     public interface ProxyTask {
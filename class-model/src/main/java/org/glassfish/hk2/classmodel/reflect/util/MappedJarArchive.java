@@ -0,0 +1,362 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.glassfish.hk2.classmodel.reflect.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Jar based archive abstraction that maps the jar file in memory and reads
+ * the zip central directory itself instead of going through {@link JarFile}.
+ * STORED entries are copied straight from the mapped file into the array
+ * handed to the class visitors, DEFLATED entries are inflated into an array
+ * of the exact entry size with a pooled {@link Inflater}. Nested jars are
+ * read from the mapped file the same way, without streams.
+ *
+ * ZIP64 and encrypted archives are not supported, the constructor throws
+ * an IOException for those so the caller can use {@link JarArchive} instead.
+ *
+ * @author jwells
+ */
+public class MappedJarArchive extends AbstractAdapter {
+
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_HEADER = 0x06054b50;
+    private static final int END_HEADER_SIZE = 22;
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+
+    private static final int MAX_POOLED_INFLATERS = 16;
+    private static final Queue<Inflater> inflaters = new ConcurrentLinkedQueue<Inflater>();
+    private static final AtomicInteger pooledInflaters = new AtomicInteger();
+
+    private final URI uri;
+    private final ByteBuffer buffer;
+    private final RandomAccessFile file;
+    private final List<ZipEntry> entries;
+    private byte[] compressed = new byte[8192];
+
+    private static class ZipEntry {
+        private final String name;
+        private final int method;
+        private final int compressedSize;
+        private final int size;
+        private final int localHeaderOffset;
+
+        private ZipEntry(String name, int method, int compressedSize, int size, int localHeaderOffset) {
+            this.name = name;
+            this.method = method;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+    }
+
+    /**
+     * Maps the jar file in memory
+     *
+     * @param uri the jar file URI
+     * @throws IOException if the file cannot be mapped or uses an unsupported
+     * zip format
+     */
+    public MappedJarArchive(URI uri) throws IOException {
+        this.uri = uri;
+        file = new RandomAccessFile(new File(uri), "r");
+        try {
+            FileChannel channel = file.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Archive " + uri + " is too big to be mapped");
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+            entries = readCentralDirectory(buffer, uri);
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        } catch (RuntimeException e) {
+            file.close();
+            throw new IOException("Cannot read central directory of " + uri, e);
+        }
+    }
+
+    private MappedJarArchive(URI uri, ByteBuffer buffer) throws IOException {
+        this.uri = uri;
+        this.file = null;
+        this.buffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            entries = readCentralDirectory(this.buffer, uri);
+        } catch (RuntimeException e) {
+            throw new IOException("Cannot read central directory of " + uri, e);
+        }
+    }
+
+    private static List<ZipEntry> readCentralDirectory(ByteBuffer buffer, URI uri) throws IOException {
+        int end = -1;
+        int lowest = Math.max(0, buffer.limit() - END_HEADER_SIZE - 0xFFFF);
+        for (int i = buffer.limit() - END_HEADER_SIZE; i >= lowest; i--) {
+            if (buffer.getInt(i) == END_HEADER) {
+                end = i;
+                break;
+            }
+        }
+        if (end < 0) {
+            throw new IOException("No zip central directory in " + uri);
+        }
+
+        int count = buffer.getShort(end + 10) & 0xFFFF;
+        long offset = buffer.getInt(end + 16) & 0xFFFFFFFFL;
+        if (count == 0xFFFF || offset == 0xFFFFFFFFL) {
+            throw new IOException("ZIP64 archive " + uri + " is not supported");
+        }
+
+        List<ZipEntry> retVal = new ArrayList<ZipEntry>(count);
+        int index = (int) offset;
+        byte[] name = new byte[256];
+        for (int i = 0; i < count; i++) {
+            if (buffer.getInt(index) != CENTRAL_HEADER) {
+                throw new IOException("Corrupted zip central directory in " + uri);
+            }
+            int flags = buffer.getShort(index + 8) & 0xFFFF;
+            int method = buffer.getShort(index + 10) & 0xFFFF;
+            long compressedSize = buffer.getInt(index + 20) & 0xFFFFFFFFL;
+            long size = buffer.getInt(index + 24) & 0xFFFFFFFFL;
+            int nameLength = buffer.getShort(index + 28) & 0xFFFF;
+            int extraLength = buffer.getShort(index + 30) & 0xFFFF;
+            int commentLength = buffer.getShort(index + 32) & 0xFFFF;
+            long localHeaderOffset = buffer.getInt(index + 42) & 0xFFFFFFFFL;
+
+            if ((flags & 1) != 0) {
+                throw new IOException("Encrypted archive " + uri + " is not supported");
+            }
+            if (compressedSize == 0xFFFFFFFFL || size == 0xFFFFFFFFL || localHeaderOffset == 0xFFFFFFFFL) {
+                throw new IOException("ZIP64 archive " + uri + " is not supported");
+            }
+
+            if (nameLength > name.length) {
+                name = new byte[nameLength];
+            }
+            for (int j = 0; j < nameLength; j++) {
+                name[j] = buffer.get(index + 46 + j);
+            }
+            retVal.add(new ZipEntry(new String(name, 0, nameLength, "UTF-8"), method,
+                    (int) compressedSize, (int) size, (int) localHeaderOffset));
+
+            index += 46 + nameLength + extraLength + commentLength;
+        }
+        return retVal;
+    }
+
+    @Override
+    public URI getURI() {
+        return uri;
+    }
+
+    @Override
+    public Manifest getManifest() throws IOException {
+        for (ZipEntry entry : entries) {
+            if (JarFile.MANIFEST_NAME.equalsIgnoreCase(entry.name)) {
+                return new Manifest(new ByteArrayInputStream(read(entry)));
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void onSelectedEntries(Selector selector, EntryTask task, Logger logger) throws IOException {
+        for (ZipEntry ze : entries) {
+            if (ze.name.endsWith("/")) continue;
+
+            if (ze.name.endsWith(".jar")) {
+                try {
+                    URI subURI;
+                    try {
+                        subURI = new URI("jar:" + uri + "!/" + ze.name);
+                    } catch (URISyntaxException e) {
+                        subURI = new URI(ze.name);
+                    }
+                    MappedJarArchive subArchive = new MappedJarArchive(subURI, ze.method == STORED ?
+                            slice(ze) : ByteBuffer.wrap(read(ze)));
+                    subArchive.onSelectedEntries(selector, task, logger);
+                } catch (Exception e) {
+                    logger.log(Level.SEVERE, "Exception while processing " + ze.name + " inside " + uri, e);
+                }
+            }
+
+            Entry entry = new Entry(ze.name, ze.size);
+            if (!selector.isSelected(entry)) continue;
+
+            try {
+                EntryInputStream is = new EntryInputStream(read(ze));
+                try {
+                    task.on(entry, is);
+                } finally {
+                    is.close();
+                }
+            } catch (Exception e) {
+                logger.log(Level.SEVERE, "Exception while processing " + ze.name
+                        + " inside " + uri + " of size " + ze.size, e);
+            }
+        }
+    }
+
+    private int getDataOffset(ZipEntry entry) throws IOException {
+        int index = entry.localHeaderOffset;
+        if (buffer.getInt(index) != LOCAL_HEADER) {
+            throw new IOException("Corrupted zip entry " + entry.name + " in " + uri);
+        }
+        int nameLength = buffer.getShort(index + 26) & 0xFFFF;
+        int extraLength = buffer.getShort(index + 28) & 0xFFFF;
+        return index + 30 + nameLength + extraLength;
+    }
+
+    private ByteBuffer slice(ZipEntry entry) throws IOException {
+        ByteBuffer duplicate = buffer.duplicate();
+        int offset = getDataOffset(entry);
+        duplicate.limit(offset + entry.size);
+        duplicate.position(offset);
+        return duplicate.slice();
+    }
+
+    private byte[] read(ZipEntry entry) throws IOException {
+        byte[] content = new byte[entry.size];
+        ByteBuffer data = buffer.duplicate();
+        data.position(getDataOffset(entry));
+
+        if (entry.method == STORED) {
+            data.get(content);
+            return content;
+        }
+        if (entry.method != DEFLATED) {
+            throw new IOException("Unsupported compression method " + entry.method + " for " + entry.name);
+        }
+
+        if (compressed.length < entry.compressedSize) {
+            compressed = new byte[entry.compressedSize];
+        }
+        data.get(compressed, 0, entry.compressedSize);
+
+        Inflater inflater = acquireInflater();
+        try {
+            inflater.setInput(compressed, 0, entry.compressedSize);
+            int read = 0;
+            while (read < content.length) {
+                int inflated = inflater.inflate(content, read, content.length - read);
+                if (inflated == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                read += inflated;
+            }
+            if (read != content.length) {
+                throw new IOException("Incorrect size while inflating " + entry.name + " of size " +
+                        entry.size + " got " + read);
+            }
+            return content;
+        } catch (DataFormatException e) {
+            throw new IOException("Cannot inflate " + entry.name + " in " + uri, e);
+        } finally {
+            releaseInflater(inflater);
+        }
+    }
+
+    private static Inflater acquireInflater() {
+        Inflater inflater = inflaters.poll();
+        if (inflater == null) {
+            return new Inflater(true);
+        }
+        pooledInflaters.decrementAndGet();
+        return inflater;
+    }
+
+    private static void releaseInflater(Inflater inflater) {
+        if (pooledInflaters.incrementAndGet() > MAX_POOLED_INFLATERS) {
+            pooledInflaters.decrementAndGet();
+            inflater.end();
+            return;
+        }
+        inflater.reset();
+        inflaters.offer(inflater);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (file != null) {
+            file.close();
+        }
+    }
+
+    /**
+     * The content of an archive entry, already read in an array of the
+     * exact entry size which can be handed to the class reader without
+     * further copying.
+     */
+    public static class EntryInputStream extends ByteArrayInputStream {
+        private EntryInputStream(byte[] content) {
+            super(content);
+        }
+
+        /**
+         * Returns the whole entry content, regardless of what was read
+         * from this stream
+         *
+         * @return the entry content, not copied
+         */
+        public byte[] getContent() {
+            return buf;
+        }
+    }
+}
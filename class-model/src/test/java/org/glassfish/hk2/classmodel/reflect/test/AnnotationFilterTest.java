@@ -0,0 +1,171 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.glassfish.hk2.classmodel.reflect.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import org.glassfish.hk2.classmodel.reflect.AnnotationType;
+import org.glassfish.hk2.classmodel.reflect.ClassModel;
+import org.glassfish.hk2.classmodel.reflect.Parser;
+import org.glassfish.hk2.classmodel.reflect.ParsingContext;
+import org.glassfish.hk2.classmodel.reflect.Types;
+import org.glassfish.hk2.external.org.objectweb.asm.ClassWriter;
+import org.glassfish.hk2.external.org.objectweb.asm.MethodVisitor;
+import org.glassfish.hk2.external.org.objectweb.asm.Opcodes;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests that classes that cannot carry the annotations of
+ * interest are not modelled
+ * 
+ * @author jwells
+ */
+public class AnnotationFilterTest {
+    private final static String TEST_NAME = "AnnotationFilterTest";
+    private final static String MARKER = "filter/Marker";
+    private final static String ANNOTATED_CLASS = "filter/AnnotatedClass";
+    private final static String ANNOTATED_METHOD = "filter/AnnotatedMethod";
+    private final static int NUM_PLAIN = 10;
+    
+    private static File corpus;
+    
+    private static void add(JarOutputStream jos, String name, ClassWriter cw) throws IOException {
+        cw.visitEnd();
+        jos.putNextEntry(new JarEntry(name + ".class"));
+        jos.write(cw.toByteArray());
+        jos.closeEntry();
+    }
+    
+    private static ClassWriter start(String name, int access, String... interfaces) {
+        ClassWriter cw = new ClassWriter(0);
+        cw.visit(Opcodes.V1_6, access, name, null, "java/lang/Object", interfaces);
+        return cw;
+    }
+    
+    @BeforeClass
+    public static void beforeClass() throws IOException {
+        corpus = File.createTempFile(TEST_NAME, ".jar");
+        
+        JarOutputStream jos = new JarOutputStream(new FileOutputStream(corpus));
+        try {
+            add(jos, MARKER, start(MARKER, Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT | Opcodes.ACC_INTERFACE |
+                    Opcodes.ACC_ANNOTATION, "java/lang/annotation/Annotation"));
+            
+            ClassWriter cw = start(ANNOTATED_CLASS, Opcodes.ACC_PUBLIC);
+            cw.visitAnnotation("L" + MARKER + ";", true).visitEnd();
+            add(jos, ANNOTATED_CLASS, cw);
+            
+            cw = start(ANNOTATED_METHOD, Opcodes.ACC_PUBLIC);
+            MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT, "annotated", "()V", null, null);
+            mv.visitAnnotation("L" + MARKER + ";", true).visitEnd();
+            mv.visitEnd();
+            add(jos, ANNOTATED_METHOD, cw);
+            
+            for (int lcv = 0; lcv < NUM_PLAIN; lcv++) {
+                String name = "filter/Plain" + lcv;
+                add(jos, name, start(name, Opcodes.ACC_PUBLIC));
+            }
+        }
+        finally {
+            jos.close();
+        }
+    }
+    
+    @AfterClass
+    public static void afterClass() {
+        if (corpus != null) {
+            corpus.delete();
+        }
+    }
+    
+    /**
+     * Only the classes referencing the annotation in their constant
+     * pool are modelled, the others are counted as skipped
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testOnlyAnnotatedClassesAreModelled() throws Exception {
+        ParsingContext pc = new ParsingContext.Builder().
+                annotationFilter(Collections.singleton(MARKER.replace('/', '.'))).build();
+        Parser parser = new Parser(pc);
+        
+        parser.parse(corpus, null);
+        Exception[] exceptions = parser.awaitTermination(100, TimeUnit.SECONDS);
+        Assert.assertEquals(0, exceptions.length);
+        
+        Assert.assertEquals(2, pc.getModelledClassCount());
+        Assert.assertEquals(NUM_PLAIN + 1, pc.getSkippedClassCount());
+        
+        Types types = pc.getTypes();
+        Assert.assertNotNull(types.getBy(ClassModel.class, ANNOTATED_CLASS.replace('/', '.')));
+        Assert.assertNotNull(types.getBy(ClassModel.class, ANNOTATED_METHOD.replace('/', '.')));
+        Assert.assertNotNull(types.getBy(AnnotationType.class, MARKER.replace('/', '.')));
+        Assert.assertNull(types.getBy("filter.Plain0"));
+    }
+    
+    /**
+     * Without a filter every class is modelled
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testNoFilterModelsEverything() throws Exception {
+        ParsingContext pc = new ParsingContext.Builder().build();
+        Parser parser = new Parser(pc);
+        
+        parser.parse(corpus, null);
+        Exception[] exceptions = parser.awaitTermination(100, TimeUnit.SECONDS);
+        Assert.assertEquals(0, exceptions.length);
+        
+        Assert.assertEquals(NUM_PLAIN + 3, pc.getModelledClassCount());
+        Assert.assertEquals(0, pc.getSkippedClassCount());
+        Assert.assertNotNull(pc.getTypes().getBy("filter.Plain0"));
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.glassfish.hk2.classmodel.reflect.test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import org.glassfish.hk2.classmodel.reflect.AnnotationModel;
+import org.glassfish.hk2.classmodel.reflect.ClassModel;
+import org.glassfish.hk2.classmodel.reflect.MethodModel;
+import org.glassfish.hk2.classmodel.reflect.Parser;
+import org.glassfish.hk2.classmodel.reflect.ParsingContext;
+import org.glassfish.hk2.classmodel.reflect.Type;
+import org.glassfish.hk2.classmodel.reflect.Types;
+import org.glassfish.hk2.classmodel.reflect.impl.ArchiveIndex;
+import org.glassfish.hk2.classmodel.reflect.util.ParsingConfig;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests that the model loaded from the archive index is the same
+ * as the parsed one
+ * 
+ * @author jwells
+ */
+public class ArchiveIndexTest {
+    private final static String TEST_NAME = "ArchiveIndexTest";
+    
+    private static File jar;
+    private static File indexDirectory;
+    
+    private static void addEntries(JarOutputStream jos, File dir, String prefix) throws IOException {
+        File[] files = dir.listFiles();
+        if (files == null) return;
+        
+        for (File file : files) {
+            if (file.isDirectory()) {
+                addEntries(jos, file, prefix + file.getName() + "/");
+                continue;
+            }
+            if (!file.getName().endsWith(".class")) continue;
+            
+            jos.putNextEntry(new JarEntry(prefix + file.getName()));
+            InputStream is = new FileInputStream(file);
+            try {
+                byte[] buffer = new byte[4096];
+                int read;
+                while ((read = is.read(buffer)) != -1) {
+                    jos.write(buffer, 0, read);
+                }
+            }
+            finally {
+                is.close();
+            }
+            jos.closeEntry();
+        }
+    }
+    
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+    
+    @BeforeClass
+    public static void beforeClass() throws IOException {
+        File testClasses = new File(new File(System.getProperty("user.dir")), "target" + File.separator + "test-classes");
+        Assert.assertTrue(testClasses.isDirectory());
+        
+        jar = File.createTempFile(TEST_NAME, ".jar");
+        JarOutputStream jos = new JarOutputStream(new FileOutputStream(jar));
+        try {
+            addEntries(jos, testClasses, "");
+        }
+        finally {
+            jos.close();
+        }
+        
+        indexDirectory = File.createTempFile(TEST_NAME, "");
+        indexDirectory.delete();
+    }
+    
+    @AfterClass
+    public static void afterClass() {
+        if (jar != null) {
+            jar.delete();
+        }
+        if (indexDirectory != null) {
+            delete(indexDirectory);
+        }
+    }
+    
+    private static Types parse(File index) throws Exception {
+        ParsingContext.Builder builder = new ParsingContext.Builder().config(new ParsingConfig() {
+            @Override
+            public Set<String> getAnnotationsOfInterest() {
+                return Collections.emptySet();
+            }
+
+            @Override
+            public Set<String> getTypesOfInterest() {
+                return Collections.emptySet();
+            }
+
+            @Override
+            public boolean modelUnAnnotatedMembers() {
+                return true;
+            }
+        });
+        if (index != null) {
+            builder.indexDirectory(index);
+        }
+        ParsingContext pc = builder.build();
+        Parser parser = new Parser(pc);
+        
+        parser.parse(jar, null);
+        Exception[] exceptions = parser.awaitTermination(100, TimeUnit.SECONDS);
+        Assert.assertEquals(0, exceptions.length);
+        
+        return pc.getTypes();
+    }
+    
+    private static Set<String> describe(Collection<AnnotationModel> annotations) {
+        Set<String> retVal = new TreeSet<String>();
+        for (AnnotationModel am : annotations) {
+            retVal.add(am.getType().getName() + am.getValues());
+        }
+        return retVal;
+    }
+    
+    private static void assertSameModel(Types expected, Types actual) {
+        Assert.assertEquals(expected.getAllTypes().size(), actual.getAllTypes().size());
+        
+        for (Type type : expected.getAllTypes()) {
+            Type other = actual.getBy(type.getName());
+            Assert.assertNotNull(type.getName(), other);
+            Assert.assertEquals(type.getClass(), other.getClass());
+            Assert.assertEquals(describe(type.getAnnotations()), describe(other.getAnnotations()));
+            
+            List<String> methods = new ArrayList<String>();
+            for (MethodModel mm : type.getMethods()) {
+                methods.add(mm.getSignature() + describe(mm.getAnnotations()));
+            }
+            List<String> otherMethods = new ArrayList<String>();
+            for (MethodModel mm : other.getMethods()) {
+                otherMethods.add(mm.getSignature() + describe(mm.getAnnotations()));
+            }
+            Assert.assertEquals(methods, otherMethods);
+            
+            if (type instanceof ClassModel) {
+                Assert.assertEquals(((ClassModel) type).getFields().size(), ((ClassModel) other).getFields().size());
+            }
+        }
+    }
+    
+    /**
+     * The first parsing writes the index, the second one loads the model
+     * from it, both must match a parsing without index
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testIndexedModelMatchesParsedModel() throws Exception {
+        Types parsed = parse(null);
+        
+        Types recorded = parse(indexDirectory);
+        assertSameModel(parsed, recorded);
+        
+        File[] indexes = indexDirectory.listFiles();
+        Assert.assertNotNull(indexes);
+        Assert.assertEquals(1, indexes.length);
+        Assert.assertTrue(new ArchiveIndex(indexDirectory).replay(jar.toURI(), new ParsingContext.Builder().build()));
+        
+        Types replayed = parse(indexDirectory);
+        assertSameModel(parsed, replayed);
+    }
+    
+    /**
+     * A modified archive must not be loaded from its index
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testModifiedArchiveIsParsedAgain() throws Exception {
+        parse(indexDirectory);
+        
+        ArchiveIndex index = new ArchiveIndex(indexDirectory);
+        Assert.assertTrue(index.replay(jar.toURI(), new ParsingContext.Builder().build()));
+        
+        Assert.assertTrue(jar.setLastModified(jar.lastModified() - 10000L));
+        Assert.assertFalse(index.replay(jar.toURI(), new ParsingContext.Builder().build()));
+        
+        parse(indexDirectory);
+        Assert.assertTrue(index.replay(jar.toURI(), new ParsingContext.Builder().build()));
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.glassfish.hk2.classmodel.reflect.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+
+import org.glassfish.hk2.classmodel.reflect.ArchiveAdapter;
+import org.glassfish.hk2.classmodel.reflect.Parser;
+import org.glassfish.hk2.classmodel.reflect.ParsingContext;
+import org.glassfish.hk2.classmodel.reflect.util.MappedJarArchive;
+import org.glassfish.hk2.external.org.objectweb.asm.ClassWriter;
+import org.glassfish.hk2.external.org.objectweb.asm.Opcodes;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests the memory mapped jar archive with stored, deflated
+ * and nested entries
+ * 
+ * @author jwells
+ */
+public class MappedJarArchiveTest {
+    private final static String TEST_NAME = "MappedJarArchiveTest";
+    private final static String DEFLATED_CLASS = "mapped/Deflated";
+    private final static String STORED_CLASS = "mapped/Stored";
+    private final static String NESTED_CLASS = "mapped/nested/Nested";
+    private final static String NESTED_JAR = "lib/nested.jar";
+    private final static String VERSION = "1.2.3";
+    
+    private static File jar;
+    private static final Map<String, byte[]> expected = new HashMap<String, byte[]>();
+    
+    private static byte[] generate(String name) {
+        ClassWriter cw = new ClassWriter(0);
+        cw.visit(Opcodes.V1_6, Opcodes.ACC_PUBLIC, name, null, "java/lang/Object", null);
+        cw.visitEnd();
+        byte[] content = cw.toByteArray();
+        expected.put(name + ".class", content);
+        return content;
+    }
+    
+    private static void add(JarOutputStream jos, String name, byte[] content, boolean stored) throws IOException {
+        JarEntry entry = new JarEntry(name);
+        if (stored) {
+            CRC32 crc = new CRC32();
+            crc.update(content);
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(content.length);
+            entry.setCompressedSize(content.length);
+            entry.setCrc(crc.getValue());
+        }
+        jos.putNextEntry(entry);
+        jos.write(content);
+        jos.closeEntry();
+    }
+    
+    @BeforeClass
+    public static void beforeClass() throws IOException {
+        ByteArrayOutputStream nested = new ByteArrayOutputStream();
+        JarOutputStream jos = new JarOutputStream(nested);
+        try {
+            add(jos, NESTED_CLASS + ".class", generate(NESTED_CLASS), false);
+        }
+        finally {
+            jos.close();
+        }
+        
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().put(Attributes.Name.IMPLEMENTATION_VERSION, VERSION);
+        
+        jar = File.createTempFile(TEST_NAME, ".jar");
+        OutputStream os = new FileOutputStream(jar);
+        jos = new JarOutputStream(os, manifest);
+        try {
+            add(jos, "mapped/", new byte[0], false);
+            add(jos, DEFLATED_CLASS + ".class", generate(DEFLATED_CLASS), false);
+            add(jos, STORED_CLASS + ".class", generate(STORED_CLASS), true);
+            add(jos, NESTED_JAR, nested.toByteArray(), true);
+        }
+        finally {
+            jos.close();
+        }
+    }
+    
+    @AfterClass
+    public static void afterClass() {
+        if (jar != null) {
+            jar.delete();
+        }
+    }
+    
+    private static byte[] readAll(InputStream is) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = is.read(buffer)) != -1) {
+            baos.write(buffer, 0, read);
+        }
+        return baos.toByteArray();
+    }
+    
+    /**
+     * Stored, deflated and nested entries must have the same
+     * content as the one written
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testEntryContents() throws Exception {
+        MappedJarArchive archive = new MappedJarArchive(jar.toURI());
+        try {
+            Assert.assertEquals(VERSION, archive.getManifest().getMainAttributes().getValue(Attributes.Name.IMPLEMENTATION_VERSION));
+            
+            final Map<String, byte[]> found = new HashMap<String, byte[]>();
+            archive.onAllEntries(new ArchiveAdapter.EntryTask() {
+                @Override
+                public void on(ArchiveAdapter.Entry e, InputStream is) throws IOException {
+                    byte[] content = readAll(is);
+                    Assert.assertEquals(e.size, content.length);
+                    found.put(e.name, content);
+                }
+            }, Logger.getAnonymousLogger());
+            
+            for (Map.Entry<String, byte[]> entry : expected.entrySet()) {
+                Assert.assertArrayEquals(entry.getKey(), entry.getValue(), found.get(entry.getKey()));
+            }
+            Assert.assertTrue(found.containsKey(NESTED_JAR));
+            Assert.assertFalse(found.containsKey("mapped/"));
+        }
+        finally {
+            archive.close();
+        }
+    }
+    
+    /**
+     * The parser must model the classes of the archive and of its
+     * nested jar
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testParseMappedArchive() throws Exception {
+        ParsingContext pc = new ParsingContext.Builder().build();
+        Parser parser = new Parser(pc);
+        
+        final MappedJarArchive archive = new MappedJarArchive(jar.toURI());
+        parser.parse(archive, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    archive.close();
+                }
+                catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        Exception[] exceptions = parser.awaitTermination(100, TimeUnit.SECONDS);
+        Assert.assertEquals(0, exceptions.length);
+        
+        Assert.assertNotNull(pc.getTypes().getBy(DEFLATED_CLASS.replace('/', '.')));
+        Assert.assertNotNull(pc.getTypes().getBy(STORED_CLASS.replace('/', '.')));
+        Assert.assertNotNull(pc.getTypes().getBy(NESTED_CLASS.replace('/', '.')));
+    }
+}
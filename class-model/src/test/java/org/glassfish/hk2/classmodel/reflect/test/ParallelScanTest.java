@@ -0,0 +1,182 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.glassfish.hk2.classmodel.reflect.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import org.glassfish.hk2.classmodel.reflect.ClassModel;
+import org.glassfish.hk2.classmodel.reflect.InterfaceModel;
+import org.glassfish.hk2.classmodel.reflect.Parser;
+import org.glassfish.hk2.classmodel.reflect.ParsingContext;
+import org.glassfish.hk2.classmodel.reflect.Types;
+import org.glassfish.hk2.external.org.objectweb.asm.ClassWriter;
+import org.glassfish.hk2.external.org.objectweb.asm.Opcodes;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Scans a synthetic jar of many small classes with one and with several
+ * threads, the resulting models must be the same and the elapsed times
+ * are reported.  By default the jar is kept small so that the test is
+ * quick, run with -Dhk2.parser.benchmark.classes=50000 (or any multiple
+ * of 100) to use it as a benchmark
+ * 
+ * @author jwells
+ */
+public class ParallelScanTest {
+    private final static String TEST_NAME = "ParallelScanTest";
+    private final static int DEFAULT_NUM_CLASSES = 500;
+    private final static int NUM_CLASSES = Integer.getInteger("hk2.parser.benchmark.classes", DEFAULT_NUM_CLASSES);
+    private final static int NUM_INTERFACES = 100;
+    private final static int CLASSES_PER_PACKAGE = 1000;
+    private final static String BASE = "bench/Base";
+    
+    private static File corpus;
+    
+    private static byte[] generate(String name, int access, String superName, String... interfaces) {
+        ClassWriter cw = new ClassWriter(0);
+        cw.visit(Opcodes.V1_6, access, name, null, superName, interfaces);
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+    
+    private static void add(JarOutputStream jos, String name, byte[] content) throws IOException {
+        jos.putNextEntry(new JarEntry(name + ".class"));
+        jos.write(content);
+        jos.closeEntry();
+    }
+    
+    private static String interfaceName(int index) {
+        return "bench/I" + index;
+    }
+    
+    @BeforeClass
+    public static void beforeClass() throws IOException {
+        corpus = File.createTempFile(TEST_NAME, ".jar");
+        
+        JarOutputStream jos = new JarOutputStream(new FileOutputStream(corpus));
+        try {
+            add(jos, BASE, generate(BASE, Opcodes.ACC_PUBLIC, "java/lang/Object"));
+            for (int lcv = 0; lcv < NUM_INTERFACES; lcv++) {
+                add(jos, interfaceName(lcv), generate(interfaceName(lcv),
+                        Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT | Opcodes.ACC_INTERFACE, "java/lang/Object"));
+            }
+            for (int lcv = 0; lcv < NUM_CLASSES; lcv++) {
+                String name = "bench/p" + (lcv / CLASSES_PER_PACKAGE) + "/C" + lcv;
+                add(jos, name, generate(name, Opcodes.ACC_PUBLIC, BASE, interfaceName(lcv % NUM_INTERFACES)));
+            }
+        }
+        finally {
+            jos.close();
+        }
+    }
+    
+    @AfterClass
+    public static void afterClass() {
+        if (corpus != null) {
+            corpus.delete();
+        }
+    }
+    
+    private static Types scan(int threads) throws Exception {
+        ExecutorService es = Executors.newFixedThreadPool(threads);
+        try {
+            ParsingContext pc = new ParsingContext.Builder().executorService(es).build();
+            Parser parser = new Parser(pc);
+            
+            long start = System.currentTimeMillis();
+            parser.parse(corpus, null);
+            Exception[] exceptions = parser.awaitTermination(100, TimeUnit.SECONDS);
+            long elapsed = System.currentTimeMillis() - start;
+            
+            Assert.assertEquals(0, exceptions.length);
+            
+            System.out.println(TEST_NAME + ": scanning " + NUM_CLASSES + " classes with " + threads +
+                    " thread(s) took " + elapsed + " milliseconds");
+            
+            return pc.getTypes();
+        }
+        finally {
+            es.shutdown();
+        }
+    }
+    
+    private static void checkModel(Types types) {
+        Assert.assertEquals(NUM_CLASSES + NUM_INTERFACES + 1, types.getAllTypes().size());
+        
+        ClassModel base = types.getBy(ClassModel.class, BASE.replace('/', '.'));
+        Assert.assertNotNull(base);
+        Assert.assertEquals(NUM_CLASSES, base.subTypes().size());
+        
+        for (int lcv = 0; lcv < NUM_INTERFACES; lcv++) {
+            InterfaceModel im = types.getBy(InterfaceModel.class, interfaceName(lcv).replace('/', '.'));
+            Assert.assertNotNull(im);
+            Assert.assertEquals(NUM_CLASSES / NUM_INTERFACES, im.implementations().size());
+        }
+        
+        ClassModel last = types.getBy(ClassModel.class, "bench.p" + ((NUM_CLASSES - 1) / CLASSES_PER_PACKAGE) +
+                ".C" + (NUM_CLASSES - 1));
+        Assert.assertNotNull(last);
+        Assert.assertSame(base, last.getParent());
+        Assert.assertEquals(1, last.getInterfaces().size());
+    }
+    
+    /**
+     * Scanning with one or several threads must build the same model
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testParallelScanMatchesSequential() throws Exception {
+        int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+        
+        checkModel(scan(1));
+        checkModel(scan(threads));
+    }
+}
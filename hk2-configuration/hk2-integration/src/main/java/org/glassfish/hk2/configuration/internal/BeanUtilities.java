@@ -40,10 +40,14 @@
 package org.glassfish.hk2.configuration.internal;
 
 import java.lang.annotation.Annotation;
+import java.lang.ref.SoftReference;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.Collections;
 import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.glassfish.hk2.configuration.api.Configured;
 import org.glassfish.hk2.configuration.api.Dynamicity;
@@ -58,6 +62,14 @@ public class BeanUtilities {
     private final static String GET = "get";
     private final static String IS = "is";
     
+    /**
+     * The getters already found for each bean class, by attribute name.  A Method
+     * refers to its class, so the getters are only softly held: the weakly held
+     * bean class, and its class loader, can be collected once the memory is needed
+     */
+    private final static Map<Class<?>, SoftReference<ConcurrentHashMap<String, Method>>> GETTERS =
+            Collections.synchronizedMap(new WeakHashMap<Class<?>, SoftReference<ConcurrentHashMap<String, Method>>>());
+    
     private static String firstUpper(String s) {
         if (s == null || s.length() <= 0) {
             return s;
@@ -89,43 +101,59 @@ public class BeanUtilities {
             return beanLikeMap.get(attribute);
         }
         
-        attribute = firstUpper(attribute);
+        Method m = getGetter(bean, attribute);
         
-        String methodName = GET + attribute;
+        try {
+            return m.invoke(bean, new Object[0]);
+        }
+        catch (InvocationTargetException e) {
+            Throwable th = e.getTargetException();
+            throw new IllegalStateException(th);
+        }
+        catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+        catch (IllegalArgumentException e) {
+            throw new IllegalStateException(e);
+        }
         
+    }
+    
+    private static Method getGetter(Object bean, String attribute) {
         Class<?> beanClass = bean.getClass();
         
-        Method m = null;
+        SoftReference<ConcurrentHashMap<String, Method>> ref = GETTERS.get(beanClass);
+        ConcurrentHashMap<String, Method> getters = (ref == null) ? null : ref.get();
+        if (getters == null) {
+            getters = new ConcurrentHashMap<String, Method>();
+            GETTERS.put(beanClass, new SoftReference<ConcurrentHashMap<String, Method>>(getters));
+        }
+        
+        Method m = getters.get(attribute);
+        if (m != null) return m;
+        
+        String upperAttribute = firstUpper(attribute);
+        
+        String methodName = GET + upperAttribute;
+        
         try {
             m = beanClass.getMethod(methodName, new Class[0]);
         }
         catch (NoSuchMethodException me) {
-            methodName = IS + attribute;
+            methodName = IS + upperAttribute;
             
             try {
                 m = beanClass.getMethod(methodName, new Class[0]);
             }
             catch (NoSuchMethodException me2) {
-                throw new IllegalArgumentException("The bean " + bean + " has no getter for attribute " + attribute);
+                throw new IllegalArgumentException("The bean " + bean + " has no getter for attribute " + upperAttribute);
             }
         }
         
         m.setAccessible(true);
         
-        try {
-            return m.invoke(bean, new Object[0]);
-        }
-        catch (InvocationTargetException e) {
-            Throwable th = e.getTargetException();
-            throw new IllegalStateException(th);
-        }
-        catch (IllegalAccessException e) {
-            throw new IllegalStateException(e);
-        }
-        catch (IllegalArgumentException e) {
-            throw new IllegalStateException(e);
-        }
-        
+        getters.put(attribute, m);
+        return m;
     }
     
     private final static String EMPTY = "";
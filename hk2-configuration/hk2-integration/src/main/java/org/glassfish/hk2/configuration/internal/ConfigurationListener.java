@@ -123,6 +123,16 @@ public class ConfigurationListener implements BeanDatabaseUpdateListener {
         return systemDescriptor;
     }
     
+    private ModificationInformation getModificationInformation(String typeName) {
+        ModificationInformation retVal = typeInformation.get(typeName);
+        if (retVal != null) return retVal;
+        
+        retVal = new ModificationInformation();
+        ModificationInformation existing = typeInformation.putIfAbsent(typeName, retVal);
+        
+        return (existing == null) ? retVal : existing;
+    }
+    
     private boolean invokePreMethod(Object target,
             List<PropertyChangeEvent> changes,
             String typeName) {
@@ -221,6 +231,11 @@ public class ConfigurationListener implements BeanDatabaseUpdateListener {
             return;
         }
         
+        // The type may have been removed from typeInformation, registering it
+        // again here means the pre and post methods and the update plan are all
+        // found, and kept, through the same cache
+        ModificationInformation modInfo = getModificationInformation(typeName);
+        
         boolean moveForward = invokePreMethod(target, changes, typeName);
         if (!moveForward) {
             // User told us to NOT move forward
@@ -243,78 +258,56 @@ public class ConfigurationListener implements BeanDatabaseUpdateListener {
             }
         }
         
-        HashMap<Method, Object[]> dynamicMethods = new HashMap<Method, Object[]>();
-        HashSet<Method> notDynamicMethods = new HashSet<Method>();
+        UpdatePlan plan = modInfo.getUpdatePlan(parent);
         
-        for (Injectee injectee : parent.getInjectees()) {
-            AnnotatedElement ae = injectee.getParent();
-            if (ae == null) continue;
+        for (FieldUpdate fieldUpdate : plan.fields) {
+            PropertyChangeEvent pce = changedProperties.get(fieldUpdate.propName);
+            if (pce == null) continue;
             
-            if (ae instanceof Field) {
-                String propName = BeanUtilities.getParameterNameFromField((Field) ae, true);
-                if (propName == null) continue;
-                
-                PropertyChangeEvent pce = changedProperties.get(propName);
-                if (pce != null) {
-                    try {
-                        ReflectionHelper.setField((Field) ae, target, pce.getNewValue());
-                    }
-                    catch (Throwable th) {
-                        // TODO:  How to handle exceptions
-                    }
-                }
-                
-                continue;
+            try {
+                ReflectionHelper.setField(fieldUpdate.field, target, pce.getNewValue());
             }
+            catch (Throwable th) {
+                // TODO:  How to handle exceptions
+            }
+        }
+        
+        for (MethodUpdate methodUpdate : plan.methods) {
+            Object params[] = new Object[methodUpdate.propNames.length];
+            Injectee injectees[] = (methodUpdate.hasServiceParameters) ?
+                    getMethodInjectees(parent, methodUpdate.method) : null;
             
-            if (ae instanceof Method) {
-                Method method = (Method) ae;
-                
-                if (notDynamicMethods.contains(method)) continue;
-                
-                if (!BeanUtilities.hasDynamicParameter(method)) {
-                    notDynamicMethods.add(method);
-                    continue;
-                }
-                
-                Object params[] = dynamicMethods.get(method);
-                if (params == null) {
-                    params = new Object[method.getParameterTypes().length];
-                    dynamicMethods.put(method, params);
-                }
-                
-                String propName = BeanUtilities.getParameterNameFromMethod(method, injectee.getPosition());
+            for (int lcv = 0; lcv < params.length; lcv++) {
+                String propName = methodUpdate.propNames[lcv];
                 if (propName == null) {
+                    Injectee injectee = (injectees == null) ? null : injectees[lcv];
+                    if (injectee == null) continue;
+                    
                     ActiveDescriptor<?> paramDescriptor = locator.getInjecteeDescriptor(injectee);
                     if (paramDescriptor == null) {
-                        params[injectee.getPosition()] = null;
+                        params[lcv] = null;
                     }
                     else {
-                        params[injectee.getPosition()] = locator.getServiceHandle(paramDescriptor).getService();
+                        params[lcv] = locator.getServiceHandle(paramDescriptor).getService();
                     }
                 }
                 else {
                     PropertyChangeEvent pce = changedProperties.get(propName);
                     if (pce != null) {
-                        params[injectee.getPosition()] = pce.getNewValue();
+                        params[lcv] = pce.getNewValue();
                     }
                     else {
-                        params[injectee.getPosition()] = BeanUtilities.getBeanPropertyValue(propName, modifiedInfo);
+                        params[lcv] = BeanUtilities.getBeanPropertyValue(propName, modifiedInfo);
                     }
                 }
-                
             }
             
-        }
-        
-        for(Map.Entry<Method, Object[]> entries : dynamicMethods.entrySet()) {
             try {
-                ReflectionHelper.invoke(target, entries.getKey(), entries.getValue(), true);
+                ReflectionHelper.invoke(target, methodUpdate.method, params, true);
             }
             catch (Throwable e) {
                 // How to handle errors?
             }
-            
         }
         
         invokePostMethod(target, changes, typeName);
@@ -322,6 +315,25 @@ public class ConfigurationListener implements BeanDatabaseUpdateListener {
         return;
     }
 
+    /**
+     * The injectees of the given descriptor for the parameters of the given
+     * method, by parameter position
+     */
+    private static Injectee[] getMethodInjectees(ActiveDescriptor<?> descriptor, Method method) {
+        Injectee retVal[] = new Injectee[method.getParameterTypes().length];
+        
+        for (Injectee injectee : descriptor.getInjectees()) {
+            if (!method.equals(injectee.getParent())) continue;
+            
+            int position = injectee.getPosition();
+            if (position >= 0 && position < retVal.length) {
+                retVal[position] = injectee;
+            }
+        }
+        
+        return retVal;
+    }
+
     private void initialize(BeanDatabase database) {
         Set<Type> allTypes = database.getAllTypes();
         
@@ -480,8 +492,93 @@ public class ConfigurationListener implements BeanDatabaseUpdateListener {
             
     }
     
+    /**
+     * A dynamic field of a service and the bean property it is set from
+     */
+    private static class FieldUpdate {
+        private final Field field;
+        private final String propName;
+        
+        private FieldUpdate(Field field, String propName) {
+            this.field = field;
+            this.propName = propName;
+        }
+    }
+    
+    /**
+     * A method of a service with at least one dynamic parameter.  Parameters
+     * with no property name are services, looked up with the injectee of the
+     * descriptor being modified
+     */
+    private static class MethodUpdate {
+        private final Method method;
+        private final String propNames[];
+        private boolean hasServiceParameters;
+        
+        private MethodUpdate(Method method) {
+            this.method = method;
+            
+            propNames = new String[method.getParameterTypes().length];
+        }
+    }
+    
+    /**
+     * What must be updated in an instance of a service when its configuration bean
+     * is modified.  It is worked out once from the injectees of the service and then
+     * used for every instance and every modification, so it only holds what is the
+     * same for every descriptor of the implementation class
+     */
+    private static class UpdatePlan {
+        private final List<FieldUpdate> fields = new LinkedList<FieldUpdate>();
+        private final List<MethodUpdate> methods = new LinkedList<MethodUpdate>();
+        
+        private UpdatePlan(ActiveDescriptor<?> descriptor) {
+            HashMap<Method, MethodUpdate> dynamicMethods = new HashMap<Method, MethodUpdate>();
+            HashSet<Method> notDynamicMethods = new HashSet<Method>();
+            
+            for (Injectee injectee : descriptor.getInjectees()) {
+                AnnotatedElement ae = injectee.getParent();
+                if (ae == null) continue;
+                
+                if (ae instanceof Field) {
+                    String propName = BeanUtilities.getParameterNameFromField((Field) ae, true);
+                    if (propName == null) continue;
+                    
+                    fields.add(new FieldUpdate((Field) ae, propName));
+                    continue;
+                }
+                
+                if (ae instanceof Method) {
+                    Method method = (Method) ae;
+                    
+                    if (notDynamicMethods.contains(method)) continue;
+                    
+                    if (!BeanUtilities.hasDynamicParameter(method)) {
+                        notDynamicMethods.add(method);
+                        continue;
+                    }
+                    
+                    MethodUpdate methodUpdate = dynamicMethods.get(method);
+                    if (methodUpdate == null) {
+                        methodUpdate = new MethodUpdate(method);
+                        dynamicMethods.put(method, methodUpdate);
+                        methods.add(methodUpdate);
+                    }
+                    
+                    int position = injectee.getPosition();
+                    methodUpdate.propNames[position] = BeanUtilities.getParameterNameFromMethod(method, position);
+                    if (methodUpdate.propNames[position] == null) {
+                        methodUpdate.hasServiceParameters = true;
+                    }
+                }
+            }
+        }
+    }
+    
     private static class ModificationInformation {
         private final ClassReflectionHelper helper = new ClassReflectionHelperImpl();
+        private final HashMap<Class<?>, UpdatePlan> updatePlans =
+                new HashMap<Class<?>, UpdatePlan>();
         private final HashMap<Class<?>, Method> preMethods =
                 new HashMap<Class<?>, Method>();
         private final HashMap<Class<?>, Method> postMethods =
@@ -509,6 +606,18 @@ public class ConfigurationListener implements BeanDatabaseUpdateListener {
             return postModificationMethod;
         }
         
+        private UpdatePlan getUpdatePlan(ActiveDescriptor<?> descriptor) {
+            Class<?> implClass = descriptor.getImplementationClass();
+            
+            UpdatePlan retVal = updatePlans.get(implClass);
+            if (retVal == null) {
+                retVal = new UpdatePlan(descriptor);
+                updatePlans.put(implClass, retVal);
+            }
+            
+            return retVal;
+        }
+        
         private Method getSpecialMethod(Class<?> rawClass, Class<? extends Annotation> anno) {
             Set<MethodWrapper> wrappers = helper.getAllMethods(rawClass);
             for (MethodWrapper wrapper : wrappers) {
@@ -527,6 +636,7 @@ public class ConfigurationListener implements BeanDatabaseUpdateListener {
             
             preMethods.clear();
             postMethods.clear();
+            updatePlans.clear();
         }
         
     }
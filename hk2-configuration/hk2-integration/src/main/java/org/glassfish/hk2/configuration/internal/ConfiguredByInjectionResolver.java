@@ -44,6 +44,7 @@ import java.lang.reflect.AnnotatedElement;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.util.HashMap;
 import java.util.concurrent.ConcurrentHashMap;
 
 import javax.inject.Inject;
@@ -71,6 +72,13 @@ public class ConfiguredByInjectionResolver implements
     
     private final ConcurrentHashMap<ActiveDescriptor<?>, BeanInfo> beanMap = new ConcurrentHashMap<ActiveDescriptor<?>, BeanInfo>(); 
     
+    /**
+     * The bean property names of each injection point, by parameter position, so that
+     * creating many instances of the same service only reads the annotations once.
+     * Guarded by this
+     */
+    private final HashMap<AnnotatedElement, String[]> parameterNames = new HashMap<AnnotatedElement, String[]>();
+    
     private static String getParameterNameFromConstructor(Constructor<?> cnst, int position) {
         Annotation paramAnnotations[] = cnst.getParameterAnnotations()[position];
         
@@ -122,20 +130,35 @@ public class ConfiguredByInjectionResolver implements
         AnnotatedElement ae = injectee.getParent();
         if (ae == null) return systemResolver.resolve(injectee, root);
         
-        String parameterName = null;
-        if (ae instanceof Field) {
-            parameterName = BeanUtilities.getParameterNameFromField((Field) ae, false);
-        }
-        else if (ae instanceof Constructor) {
-            parameterName = getParameterNameFromConstructor((Constructor<?>) ae, injectee.getPosition());
-        }
-        else if (ae instanceof Method){
-            parameterName = getParameterNameFromMethod((Method) ae, injectee.getPosition());
-        }
-        else {
-            return systemResolver.resolve(injectee, root);
+        String names[] = parameterNames.get(ae);
+        if (names == null) {
+            if (ae instanceof Field) {
+                names = new String[] { BeanUtilities.getParameterNameFromField((Field) ae, false) };
+            }
+            else if (ae instanceof Constructor) {
+                Constructor<?> cnst = (Constructor<?>) ae;
+                
+                names = new String[cnst.getParameterTypes().length];
+                for (int lcv = 0; lcv < names.length; lcv++) {
+                    names[lcv] = getParameterNameFromConstructor(cnst, lcv);
+                }
+            }
+            else if (ae instanceof Method){
+                Method method = (Method) ae;
+                
+                names = new String[method.getParameterTypes().length];
+                for (int lcv = 0; lcv < names.length; lcv++) {
+                    names[lcv] = getParameterNameFromMethod(method, lcv);
+                }
+            }
+            else {
+                return systemResolver.resolve(injectee, root);
+            }
+            
+            parameterNames.put(ae, names);
         }
         
+        String parameterName = (ae instanceof Field) ? names[0] : names[injectee.getPosition()];
         if (parameterName == null) return systemResolver.resolve(injectee, root);
         
         ActiveDescriptor<?> workingOn = context.getWorkingOn();
@@ -173,5 +196,12 @@ public class ConfiguredByInjectionResolver implements
     
     /* package */ synchronized void removeBean(ActiveDescriptor<?> descriptor) {
         beanMap.remove(descriptor);
+        
+        if (!descriptor.isReified()) return;
+        
+        for (Injectee injectee : descriptor.getInjectees()) {
+            AnnotatedElement ae = injectee.getParent();
+            if (ae != null) parameterNames.remove(ae);
+        }
     }
 }
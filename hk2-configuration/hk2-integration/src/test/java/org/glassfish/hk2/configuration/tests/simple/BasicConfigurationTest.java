@@ -234,6 +234,78 @@ public class BasicConfigurationTest extends HK2Runner {
         }
     }
     
+    /**
+     * Tests that a service is updated every time its bean is modified,
+     * each modification reusing what was worked out for the first one
+     */
+    @Test
+    public void testRepeatedDynamicConfiguration() {
+        addBean(TEST_TYPE_TWO);
+        
+        try {
+            DynamicConfiguredService cs = testLocator.getService(DynamicConfiguredService.class);
+            Assert.assertNotNull(cs);
+            
+            for (int lcv = 0; lcv < 10; lcv++) {
+                String field = FIELD1 + "_" + lcv;
+                String method = METHOD1 + "_" + lcv;
+                
+                updateBean(TEST_TYPE_TWO, createBean(CONSTRUCTOR,
+                    field,
+                    FIELD2,
+                    method,
+                    METHOD2));
+                
+                Assert.assertEquals(method, cs.getMethodOutput1());
+                Assert.assertEquals(field, cs.getFieldOutput1());
+            }
+        }
+        finally {
+            removeBean(TEST_TYPE_TWO);
+        }
+    }
+    
+    /**
+     * Tests that a service whose bean was removed and then added
+     * again is configured from the new bean
+     */
+    @Test
+    public void testReAddedBeanIsConfigured() {
+        addBean(TEST_TYPE_ONE);
+        
+        try {
+            ConfiguredService cs = testLocator.getService(ConfiguredService.class);
+            Assert.assertNotNull(cs);
+            Assert.assertEquals(FIELD1, cs.getFieldOutput1());
+        }
+        finally {
+            removeBean(TEST_TYPE_ONE);
+        }
+        
+        WriteableBeanDatabase wbd = hub.getWriteableDatabaseCopy();
+        WriteableType wt = wbd.findOrAddWriteableType(TEST_TYPE_ONE);
+        wt.addInstance(DEFAULT, createBean(CONSTRUCTOR,
+                FIELD1_1,
+                FIELD2,
+                METHOD1_1,
+                METHOD2));
+        wbd.commit();
+        
+        try {
+            ConfiguredService cs = testLocator.getService(ConfiguredService.class);
+            Assert.assertNotNull(cs);
+            
+            Assert.assertEquals(CONSTRUCTOR, cs.getConstructorOutput());
+            Assert.assertEquals(METHOD1_1, cs.getMethodOutput1());
+            Assert.assertEquals(METHOD2, cs.getMethodOutput2());
+            Assert.assertEquals(FIELD1_1, cs.getFieldOutput1());
+            Assert.assertEquals(FIELD2, cs.getFieldOutput2());
+        }
+        finally {
+            removeBean(TEST_TYPE_ONE);
+        }
+    }
+    
     /**
      * Tests a service that dynamically updates with a method
      * marked with {@link PreDynamicChange}
@@ -0,0 +1,79 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.glassfish.hk2.configuration.hub.api;
+
+import java.util.Set;
+
+import org.jvnet.hk2.annotations.Contract;
+
+/**
+ * Publishes the changes made to the instances of a type in the
+ * {@link Hub} to asynchronous subscribers.  Changes are delivered
+ * on threads owned by the publisher and never block the commit that
+ * produced them.  A subscriber receives changes only as fast as it
+ * requests them with {@link ChangeSubscription#request(long)}, and
+ * while it is not keeping up successive modifications of the same
+ * instance are conflated into a single {@link Change}
+ * <p>
+ * Only the instance change categories (ADD_INSTANCE, REMOVE_INSTANCE
+ * and MODIFY_INSTANCE) are published, adding or removing a type is
+ * seen as the addition or removal of each of its instances
+ * 
+ * @author jwells
+ *
+ */
+@Contract
+public interface ChangePublisher {
+    /**
+     * Subscribes to the changes of the instances of the given type.
+     * {@link ChangeSubscriber#onSubscribe(ChangeSubscription)} is called
+     * before this method returns, and no changes are delivered until
+     * the subscriber requests them
+     * 
+     * @param typeName The non-null name of the type to receive changes for
+     * @param instanceKeys The keys of the instances to receive changes for,
+     * or null to receive the changes of all instances of the type.  The
+     * filtering is done when the change is committed, so the changes of
+     * other instances are never queued for this subscriber
+     * @param subscriber The non-null subscriber to deliver the changes to
+     */
+    public void subscribe(String typeName, Set<String> instanceKeys, ChangeSubscriber subscriber);
+
+}
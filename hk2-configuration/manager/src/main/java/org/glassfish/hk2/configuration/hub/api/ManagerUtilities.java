@@ -40,6 +40,7 @@
 package org.glassfish.hk2.configuration.hub.api;
 
 import org.glassfish.hk2.api.ServiceLocator;
+import org.glassfish.hk2.configuration.hub.internal.ChangePublisherImpl;
 import org.glassfish.hk2.configuration.hub.internal.HubImpl;
 import org.glassfish.hk2.utilities.ServiceLocatorUtilities;
 
@@ -50,7 +51,8 @@ import org.glassfish.hk2.utilities.ServiceLocatorUtilities;
 public class ManagerUtilities {
     
     /**
-     * This method will add the Hub service to the given service locator.
+     * This method will add the Hub service and the {@link ChangePublisher}
+     * service to the given service locator.
      * If there is already a Hub service available this method will do
      * nothing
      * 
@@ -62,7 +64,7 @@ public class ManagerUtilities {
             return;
         }
         
-        ServiceLocatorUtilities.addClasses(locator, HubImpl.class);
+        ServiceLocatorUtilities.addClasses(locator, HubImpl.class, ChangePublisherImpl.class);
     }
 
 }
@@ -0,0 +1,411 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.glassfish.hk2.configuration.hub.internal;
+
+import java.beans.PropertyChangeEvent;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import javax.annotation.PreDestroy;
+
+import org.glassfish.hk2.configuration.hub.api.BeanDatabase;
+import org.glassfish.hk2.configuration.hub.api.BeanDatabaseUpdateListener;
+import org.glassfish.hk2.configuration.hub.api.Change;
+import org.glassfish.hk2.configuration.hub.api.Change.ChangeCategory;
+import org.glassfish.hk2.configuration.hub.api.ChangePublisher;
+import org.glassfish.hk2.configuration.hub.api.ChangeSubscriber;
+import org.glassfish.hk2.configuration.hub.api.ChangeSubscription;
+import org.glassfish.hk2.utilities.reflection.Logger;
+import org.jvnet.hk2.annotations.ContractsProvided;
+import org.jvnet.hk2.annotations.Service;
+
+/**
+ * Publishes the committed changes of the {@link org.glassfish.hk2.configuration.hub.api.Hub}.
+ * Each subscription has its own queue, which is drained by at most one thread
+ * of the publisher at a time, so the commit that produced a change only ever
+ * pays for the filtering and queueing of the change
+ * 
+ * @author jwells
+ *
+ */
+@Service @ContractsProvided({ChangePublisher.class, BeanDatabaseUpdateListener.class})
+public class ChangePublisherImpl implements ChangePublisher, BeanDatabaseUpdateListener {
+    private final ConcurrentHashMap<String, CopyOnWriteArrayList<SubscriptionImpl>> subscriptions =
+            new ConcurrentHashMap<String, CopyOnWriteArrayList<SubscriptionImpl>>();
+    
+    private final ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory() {
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread retVal = new Thread(r, "HubChangePublisher");
+            retVal.setDaemon(true);
+            return retVal;
+        }
+        
+    });
+
+    /* (non-Javadoc)
+     * @see org.glassfish.hk2.configuration.hub.api.ChangePublisher#subscribe(java.lang.String, java.util.Set, org.glassfish.hk2.configuration.hub.api.ChangeSubscriber)
+     */
+    @Override
+    public void subscribe(String typeName, Set<String> instanceKeys,
+            ChangeSubscriber subscriber) {
+        if (typeName == null || subscriber == null) throw new IllegalArgumentException();
+        
+        SubscriptionImpl subscription = new SubscriptionImpl(typeName, instanceKeys, subscriber);
+        
+        CopyOnWriteArrayList<SubscriptionImpl> forType = subscriptions.get(typeName);
+        if (forType == null) {
+            forType = new CopyOnWriteArrayList<SubscriptionImpl>();
+            CopyOnWriteArrayList<SubscriptionImpl> existing = subscriptions.putIfAbsent(typeName, forType);
+            if (existing != null) forType = existing;
+        }
+        forType.add(subscription);
+        
+        try {
+            subscriber.onSubscribe(subscription);
+        }
+        finally {
+            subscription.subscribed();
+        }
+    }
+    
+    private void remove(SubscriptionImpl subscription) {
+        CopyOnWriteArrayList<SubscriptionImpl> forType = subscriptions.get(subscription.typeName);
+        if (forType == null) return;
+        
+        forType.remove(subscription);
+    }
+    
+    /**
+     * Combines a change with the change of the same instance that is
+     * still waiting to be delivered
+     * 
+     * @return The combined change, or null if the two changes must
+     * be delivered separately
+     */
+    private static Change conflate(Change pending, Change next) {
+        if (!ChangeCategory.MODIFY_INSTANCE.equals(next.getChangeCategory())) return null;
+        
+        if (ChangeCategory.ADD_INSTANCE.equals(pending.getChangeCategory())) {
+            return new ChangeImpl(ChangeCategory.ADD_INSTANCE,
+                    next.getChangeType(),
+                    next.getInstanceKey(),
+                    next.getInstanceValue(),
+                    null,
+                    null);
+        }
+        
+        if (ChangeCategory.MODIFY_INSTANCE.equals(pending.getChangeCategory())) {
+            List<PropertyChangeEvent> properties = new ArrayList<PropertyChangeEvent>(pending.getModifiedProperties());
+            properties.addAll(next.getModifiedProperties());
+            
+            return new ChangeImpl(ChangeCategory.MODIFY_INSTANCE,
+                    next.getChangeType(),
+                    next.getInstanceKey(),
+                    next.getInstanceValue(),
+                    pending.getOriginalInstanceValue(),
+                    properties);
+        }
+        
+        return null;
+    }
+
+    /* (non-Javadoc)
+     * @see org.glassfish.hk2.configuration.hub.api.BeanDatabaseUpdateListener#prepareDatabaseChange(org.glassfish.hk2.configuration.hub.api.BeanDatabase, org.glassfish.hk2.configuration.hub.api.BeanDatabase, java.lang.Object, java.util.List)
+     */
+    @Override
+    public void prepareDatabaseChange(BeanDatabase currentDatabase,
+            BeanDatabase proposedDatabase, Object commitMessage,
+            List<Change> changes) {
+        // Nothing to do until the change is committed
+    }
+
+    /* (non-Javadoc)
+     * @see org.glassfish.hk2.configuration.hub.api.BeanDatabaseUpdateListener#commitDatabaseChange(org.glassfish.hk2.configuration.hub.api.BeanDatabase, org.glassfish.hk2.configuration.hub.api.BeanDatabase, java.lang.Object, java.util.List)
+     */
+    @Override
+    public void commitDatabaseChange(BeanDatabase oldDatabase,
+            BeanDatabase currentDatabase, Object commitMessage,
+            List<Change> changes) {
+        if (subscriptions.isEmpty()) return;
+        
+        for (Change change : changes) {
+            switch (change.getChangeCategory()) {
+            case ADD_INSTANCE:
+            case REMOVE_INSTANCE:
+            case MODIFY_INSTANCE:
+                break;
+            default:
+                continue;
+            }
+            
+            CopyOnWriteArrayList<SubscriptionImpl> forType = subscriptions.get(change.getChangeType().getName());
+            if (forType == null) continue;
+            
+            for (SubscriptionImpl subscription : forType) {
+                subscription.offer(change);
+            }
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.glassfish.hk2.configuration.hub.api.BeanDatabaseUpdateListener#rollbackDatabaseChange(org.glassfish.hk2.configuration.hub.api.BeanDatabase, org.glassfish.hk2.configuration.hub.api.BeanDatabase, java.lang.Object, java.util.List)
+     */
+    @Override
+    public void rollbackDatabaseChange(BeanDatabase currentDatabase,
+            BeanDatabase proposedDatabase, Object commitMessage,
+            List<Change> changes) {
+        // Nothing was published
+    }
+    
+    /**
+     * Completes all subscriptions
+     */
+    @PreDestroy
+    private void preDestroy() {
+        for (CopyOnWriteArrayList<SubscriptionImpl> forType : subscriptions.values()) {
+            for (SubscriptionImpl subscription : forType) {
+                subscription.terminate(null);
+            }
+        }
+        subscriptions.clear();
+        
+        executor.shutdown();
+    }
+    
+    private static class Pending {
+        private Change change;
+        
+        private Pending(Change change) {
+            this.change = change;
+        }
+    }
+    
+    private class SubscriptionImpl implements ChangeSubscription, Runnable {
+        private final String typeName;
+        private final Set<String> instanceKeys;
+        private final ChangeSubscriber subscriber;
+        
+        private final LinkedList<Pending> queue = new LinkedList<Pending>();
+        
+        /** The last pending change of each instance, which later changes may be conflated into */
+        private final HashMap<String, Pending> lastPending = new HashMap<String, Pending>();
+        
+        private long demand;
+        
+        /** True while a thread is delivering to the subscriber, initially onSubscribe */
+        private boolean draining = true;
+        
+        private boolean cancelled;
+        private boolean terminating;
+        private Throwable error;
+        
+        private SubscriptionImpl(String typeName, Set<String> instanceKeys, ChangeSubscriber subscriber) {
+            this.typeName = typeName;
+            this.instanceKeys = (instanceKeys == null) ? null : new HashSet<String>(instanceKeys);
+            this.subscriber = subscriber;
+        }
+        
+        private void offer(Change change) {
+            String key = change.getInstanceKey();
+            if (instanceKeys != null && !instanceKeys.contains(key)) return;
+            
+            synchronized (this) {
+                if (cancelled || terminating) return;
+                
+                Pending last = lastPending.get(key);
+                Change conflated = (last == null) ? null : conflate(last.change, change);
+                if (conflated != null) {
+                    last.change = conflated;
+                    return;
+                }
+                
+                Pending pending = new Pending(change);
+                queue.add(pending);
+                lastPending.put(key, pending);
+            }
+            
+            schedule();
+        }
+        
+        private void subscribed() {
+            synchronized (this) {
+                draining = false;
+            }
+            
+            schedule();
+        }
+        
+        private void terminate(Throwable th) {
+            synchronized (this) {
+                if (cancelled || terminating) return;
+                
+                terminating = true;
+                error = th;
+            }
+            
+            schedule();
+        }
+        
+        private void schedule() {
+            synchronized (this) {
+                if (draining || cancelled) return;
+                if (!terminating && (demand == 0 || queue.isEmpty())) return;
+                
+                draining = true;
+            }
+            
+            executor.execute(this);
+        }
+
+        /* (non-Javadoc)
+         * @see java.lang.Runnable#run()
+         */
+        @Override
+        public void run() {
+            for (;;) {
+                Change next;
+                synchronized (this) {
+                    if (cancelled) {
+                        draining = false;
+                        return;
+                    }
+                    
+                    if (terminating) {
+                        cancelled = true;
+                        queue.clear();
+                        lastPending.clear();
+                        break;
+                    }
+                    
+                    if (demand == 0 || queue.isEmpty()) {
+                        draining = false;
+                        return;
+                    }
+                    
+                    Pending pending = queue.removeFirst();
+                    next = pending.change;
+                    if (lastPending.get(next.getInstanceKey()) == pending) {
+                        lastPending.remove(next.getInstanceKey());
+                    }
+                    
+                    if (demand != Long.MAX_VALUE) demand--;
+                }
+                
+                try {
+                    subscriber.onNext(next);
+                }
+                catch (Throwable th) {
+                    Logger.getLogger().debug(getClass().getName(), "run", th);
+                    
+                    synchronized (this) {
+                        draining = false;
+                    }
+                    cancel();
+                    return;
+                }
+            }
+            
+            // Terminal signal, nothing else is ever delivered
+            remove(this);
+            try {
+                if (error != null) {
+                    subscriber.onError(error);
+                }
+                else {
+                    subscriber.onComplete();
+                }
+            }
+            catch (Throwable th) {
+                Logger.getLogger().debug(getClass().getName(), "run", th);
+            }
+        }
+
+        /* (non-Javadoc)
+         * @see org.glassfish.hk2.configuration.hub.api.ChangeSubscription#request(long)
+         */
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                terminate(new IllegalArgumentException("The number of changes requested must be positive but was " + n));
+                return;
+            }
+            
+            synchronized (this) {
+                demand += n;
+                if (demand < 0) demand = Long.MAX_VALUE;
+            }
+            
+            schedule();
+        }
+
+        /* (non-Javadoc)
+         * @see org.glassfish.hk2.configuration.hub.api.ChangeSubscription#cancel()
+         */
+        @Override
+        public void cancel() {
+            synchronized (this) {
+                if (cancelled) return;
+                
+                cancelled = true;
+                queue.clear();
+                lastPending.clear();
+            }
+            
+            remove(this);
+        }
+        
+        @Override
+        public String toString() {
+            return "SubscriptionImpl(" + typeName + "," + instanceKeys + "," + System.identityHashCode(this) + ")";
+        }
+    }
+
+}
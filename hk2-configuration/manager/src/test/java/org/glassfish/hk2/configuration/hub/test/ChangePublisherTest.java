@@ -0,0 +1,227 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.glassfish.hk2.configuration.hub.test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.glassfish.hk2.configuration.hub.api.Change;
+import org.glassfish.hk2.configuration.hub.api.ChangePublisher;
+import org.glassfish.hk2.configuration.hub.api.ChangeSubscriber;
+import org.glassfish.hk2.configuration.hub.api.ChangeSubscription;
+import org.glassfish.hk2.configuration.hub.api.Hub;
+import org.glassfish.hk2.configuration.hub.api.ManagerUtilities;
+import org.glassfish.hk2.configuration.hub.api.WriteableBeanDatabase;
+import org.glassfish.hk2.configuration.hub.api.WriteableType;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.jvnet.hk2.testing.junit.HK2Runner;
+
+/**
+ * Tests for the asynchronous {@link ChangePublisher}
+ * 
+ * @author jwells
+ *
+ */
+public class ChangePublisherTest extends HK2Runner {
+    private final static String CONFLATED_TYPE = "ConflatedType";
+    private final static String FILTERED_TYPE = "FilteredType";
+    
+    private final static String NAME_PROPERTY = "name";
+    private final static String OTHER_PROPERTY = "other";
+    
+    private final static String ALICE = "Alice";
+    private final static String BOB = "Bob";
+    
+    private final static long TIMEOUT = 20;
+    private final static int NUM_MODIFICATIONS = 10;
+    
+    private Hub hub;
+    private ChangePublisher publisher;
+    
+    @Before
+    public void before() {
+        super.before();
+        
+        // This is necessary to make running in an IDE easier
+        ManagerUtilities.enableConfigurationHub(testLocator);
+        
+        hub = testLocator.getService(Hub.class);
+        publisher = testLocator.getService(ChangePublisher.class);
+    }
+    
+    private static Map<String, Object> createBean(String name, int other) {
+        Map<String, Object> retVal = new HashMap<String, Object>();
+        retVal.put(NAME_PROPERTY, name);
+        retVal.put(OTHER_PROPERTY, other);
+        return retVal;
+    }
+    
+    private void addInstance(String typeName, String name) {
+        WriteableBeanDatabase wbd = hub.getWriteableDatabaseCopy();
+        WriteableType wt = wbd.findOrAddWriteableType(typeName);
+        wt.addInstance(name, createBean(name, 0));
+        wbd.commit();
+    }
+    
+    private void removeType(String typeName) {
+        WriteableBeanDatabase wbd = hub.getWriteableDatabaseCopy();
+        wbd.removeType(typeName);
+        wbd.commit();
+    }
+    
+    /**
+     * Changes made while the subscriber has no demand are
+     * conflated, and nothing is delivered until there is demand
+     * 
+     * @throws InterruptedException 
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testChangesAreConflatedUntilRequested() throws InterruptedException {
+        QueueingSubscriber subscriber = new QueueingSubscriber();
+        publisher.subscribe(CONFLATED_TYPE, null, subscriber);
+        
+        try {
+            addInstance(CONFLATED_TYPE, ALICE);
+            
+            for (int lcv = 1; lcv <= NUM_MODIFICATIONS; lcv++) {
+                WriteableBeanDatabase wbd = hub.getWriteableDatabaseCopy();
+                WriteableType wt = wbd.getWriteableType(CONFLATED_TYPE);
+                wt.modifyInstance(ALICE, createBean(ALICE, lcv));
+                wbd.commit();
+            }
+            
+            Assert.assertNull(subscriber.changes.poll(100, TimeUnit.MILLISECONDS));
+            
+            subscriber.subscription.request(Long.MAX_VALUE);
+            
+            Change change = subscriber.changes.poll(TIMEOUT, TimeUnit.SECONDS);
+            Assert.assertNotNull(change);
+            Assert.assertEquals(Change.ChangeCategory.ADD_INSTANCE, change.getChangeCategory());
+            Assert.assertEquals(ALICE, change.getInstanceKey());
+            
+            Map<String, Object> bean = (Map<String, Object>) change.getInstanceValue().getBean();
+            Assert.assertEquals(NUM_MODIFICATIONS, bean.get(OTHER_PROPERTY));
+            
+            Assert.assertNull(subscriber.changes.poll(100, TimeUnit.MILLISECONDS));
+            
+            // Now the subscriber is keeping up
+            WriteableBeanDatabase wbd = hub.getWriteableDatabaseCopy();
+            WriteableType wt = wbd.getWriteableType(CONFLATED_TYPE);
+            wt.removeInstance(ALICE);
+            wbd.commit();
+            
+            change = subscriber.changes.poll(TIMEOUT, TimeUnit.SECONDS);
+            Assert.assertNotNull(change);
+            Assert.assertEquals(Change.ChangeCategory.REMOVE_INSTANCE, change.getChangeCategory());
+        }
+        finally {
+            subscriber.subscription.cancel();
+            removeType(CONFLATED_TYPE);
+        }
+    }
+    
+    /**
+     * Only the changes of the subscribed instances are delivered,
+     * one per request
+     * 
+     * @throws InterruptedException 
+     */
+    @Test
+    public void testInstanceKeyFilter() throws InterruptedException {
+        QueueingSubscriber subscriber = new QueueingSubscriber();
+        publisher.subscribe(FILTERED_TYPE, Collections.singleton(BOB), subscriber);
+        
+        try {
+            subscriber.subscription.request(1);
+            
+            addInstance(FILTERED_TYPE, ALICE);
+            addInstance(FILTERED_TYPE, BOB);
+            
+            Change change = subscriber.changes.poll(TIMEOUT, TimeUnit.SECONDS);
+            Assert.assertNotNull(change);
+            Assert.assertEquals(BOB, change.getInstanceKey());
+            
+            removeType(FILTERED_TYPE);
+            
+            // No demand left
+            Assert.assertNull(subscriber.changes.poll(100, TimeUnit.MILLISECONDS));
+            
+            subscriber.subscription.request(1);
+            
+            change = subscriber.changes.poll(TIMEOUT, TimeUnit.SECONDS);
+            Assert.assertNotNull(change);
+            Assert.assertEquals(BOB, change.getInstanceKey());
+            Assert.assertEquals(Change.ChangeCategory.REMOVE_INSTANCE, change.getChangeCategory());
+        }
+        finally {
+            subscriber.subscription.cancel();
+        }
+    }
+    
+    private static class QueueingSubscriber implements ChangeSubscriber {
+        private final LinkedBlockingQueue<Change> changes = new LinkedBlockingQueue<Change>();
+        private volatile ChangeSubscription subscription;
+
+        @Override
+        public void onSubscribe(ChangeSubscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(Change change) {
+            changes.add(change);
+        }
+
+        @Override
+        public void onError(Throwable th) {
+        }
+
+        @Override
+        public void onComplete() {
+        }
+        
+    }
+}
@@ -0,0 +1,488 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.jvnet.hk2.config;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Immutable list of the children of a {@link Dom}.
+ * <p>
+ * The children are kept in chunks of bounded size, so inserting, replacing
+ * or removing one child only copies the chunk it is in and the (much shorter)
+ * array of chunks, rather than the whole list.  Children are also indexed by
+ * element name.  The index is built the first time it is needed and shared by
+ * every reader of that list; a list made from an indexed list by one of the
+ * mutators gets its index by updating the old one, only the entries of the
+ * names involved and the counts of the chunks that changed are recomputed
+ */
+final class ChildList extends AbstractList<Dom.Child> {
+    private final static int CHUNK_SIZE = 64;
+    private final static Dom.Child[] NO_CHILDREN = new Dom.Child[0];
+    
+    final static ChildList EMPTY = new ChildList(new Dom.Child[0][], new int[0], 0);
+    
+    /** Never contains an empty chunk */
+    private final Dom.Child[][] chunks;
+    
+    /** The index in the list of the first child of each chunk */
+    private final int[] starts;
+    private final int size;
+    
+    private volatile Index nameIndex;
+    
+    private ChildList(Dom.Child[][] chunks, int[] starts, int size) {
+        this.chunks = chunks;
+        this.starts = starts;
+        this.size = size;
+    }
+    
+    private static ChildList create(Dom.Child[][] chunks) {
+        int[] starts = new int[chunks.length];
+        int size = 0;
+        for (int lcv = 0; lcv < chunks.length; lcv++) {
+            starts[lcv] = size;
+            size += chunks[lcv].length;
+        }
+        
+        return new ChildList(chunks, starts, size);
+    }
+    
+    /**
+     * Returns an immutable copy of the given children
+     * 
+     * @param children the children, in order
+     * @return the list of children
+     */
+    static ChildList of(List<Dom.Child> children) {
+        if (children instanceof ChildList) return (ChildList) children;
+        if (children.isEmpty()) return EMPTY;
+        
+        Dom.Child[] all = children.toArray(new Dom.Child[children.size()]);
+        Dom.Child[][] chunks = new Dom.Child[(all.length + CHUNK_SIZE - 1) / CHUNK_SIZE][];
+        for (int lcv = 0; lcv < chunks.length; lcv++) {
+            int from = lcv * CHUNK_SIZE;
+            int length = Math.min(CHUNK_SIZE, all.length - from);
+            
+            chunks[lcv] = new Dom.Child[length];
+            System.arraycopy(all, from, chunks[lcv], 0, length);
+        }
+        
+        return create(chunks);
+    }
+    
+    /**
+     * Finds the chunk containing the child at the given index
+     */
+    private int chunkOf(int index) {
+        int low = 0;
+        int high = starts.length - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (starts[mid] <= index) {
+                low = mid;
+            }
+            else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+    
+    private void checkIndex(int index, int limit) {
+        if (index < 0 || index >= limit) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+
+    @Override
+    public Dom.Child get(int index) {
+        checkIndex(index, size);
+        int chunk = chunkOf(index);
+        return chunks[chunk][index - starts[chunk]];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+    
+    @Override
+    public Iterator<Dom.Child> iterator() {
+        return new Iterator<Dom.Child>() {
+            private int chunk = 0;
+            private int offset = 0;
+
+            @Override
+            public boolean hasNext() {
+                return chunk < chunks.length;
+            }
+
+            @Override
+            public Dom.Child next() {
+                if (chunk >= chunks.length) throw new NoSuchElementException();
+                
+                Dom.Child retVal = chunks[chunk][offset++];
+                if (offset >= chunks[chunk].length) {
+                    chunk++;
+                    offset = 0;
+                }
+                return retVal;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+            
+        };
+    }
+    
+    /**
+     * Returns a new list with the given child inserted at the given index
+     * 
+     * @param index where to insert the child, between 0 and size() inclusive
+     * @param child the child to insert
+     * @return the new list
+     */
+    ChildList insert(int index, Dom.Child child) {
+        checkIndex(index, size + 1);
+        if (chunks.length == 0) {
+            return create(new Dom.Child[][] { new Dom.Child[] { child } });
+        }
+        Index current = nameIndex;
+        int addedRank = rankOf(current, child.name, index);
+        
+        int chunk = (index == size) ? chunks.length - 1 : chunkOf(index);
+        Dom.Child[] old = chunks[chunk];
+        int offset = index - starts[chunk];
+        
+        Dom.Child[] grown = new Dom.Child[old.length + 1];
+        System.arraycopy(old, 0, grown, 0, offset);
+        grown[offset] = child;
+        System.arraycopy(old, offset, grown, offset + 1, old.length - offset);
+        
+        if (grown.length <= 2 * CHUNK_SIZE) {
+            Dom.Child[][] newChunks = chunks.clone();
+            newChunks[chunk] = grown;
+            return derive(current, create(newChunks), chunk, 1, 1, null, 0, child, addedRank);
+        }
+        
+        // split the chunk in two
+        int half = grown.length / 2;
+        Dom.Child[] first = new Dom.Child[half];
+        Dom.Child[] second = new Dom.Child[grown.length - half];
+        System.arraycopy(grown, 0, first, 0, half);
+        System.arraycopy(grown, half, second, 0, second.length);
+        
+        Dom.Child[][] newChunks = new Dom.Child[chunks.length + 1][];
+        System.arraycopy(chunks, 0, newChunks, 0, chunk);
+        newChunks[chunk] = first;
+        newChunks[chunk + 1] = second;
+        System.arraycopy(chunks, chunk + 1, newChunks, chunk + 2, chunks.length - chunk - 1);
+        return derive(current, create(newChunks), chunk, 1, 2, null, 0, child, addedRank);
+    }
+    
+    /**
+     * Returns a new list with the child at the given index replaced
+     * 
+     * @param index the index of the child to replace
+     * @param child the new child
+     * @return the new list
+     */
+    ChildList replace(int index, Dom.Child child) {
+        checkIndex(index, size);
+        int chunk = chunkOf(index);
+        Dom.Child old = chunks[chunk][index - starts[chunk]];
+        Index current = nameIndex;
+        
+        Dom.Child[] replaced = chunks[chunk].clone();
+        replaced[index - starts[chunk]] = child;
+        
+        Dom.Child[][] newChunks = chunks.clone();
+        newChunks[chunk] = replaced;
+        return derive(current, new ChildList(newChunks, starts, size), chunk, 1, 1,
+                old, rankOf(current, old.name, index), child, rankOf(current, child.name, index));
+    }
+    
+    /**
+     * Returns a new list without the child at the given index
+     * 
+     * @param index the index of the child to remove
+     * @return the new list
+     */
+    ChildList delete(int index) {
+        checkIndex(index, size);
+        if (size == 1) return EMPTY;
+        
+        int chunk = chunkOf(index);
+        Dom.Child[] old = chunks[chunk];
+        int offset = index - starts[chunk];
+        Dom.Child removed = old[offset];
+        Index current = nameIndex;
+        int removedRank = rankOf(current, removed.name, index);
+        
+        if (old.length == 1) {
+            Dom.Child[][] newChunks = new Dom.Child[chunks.length - 1][];
+            System.arraycopy(chunks, 0, newChunks, 0, chunk);
+            System.arraycopy(chunks, chunk + 1, newChunks, chunk, chunks.length - chunk - 1);
+            return derive(current, create(newChunks), chunk, 1, 0, removed, removedRank, null, 0);
+        }
+        
+        Dom.Child[] shrunk = new Dom.Child[old.length - 1];
+        System.arraycopy(old, 0, shrunk, 0, offset);
+        System.arraycopy(old, offset + 1, shrunk, offset, shrunk.length - offset);
+        
+        Dom.Child[][] newChunks = chunks.clone();
+        newChunks[chunk] = shrunk;
+        return derive(current, create(newChunks), chunk, 1, 1, removed, removedRank, null, 0);
+    }
+    
+    /**
+     * Returns the index of the node child holding the given dom
+     * 
+     * @param dom the dom to look for
+     * @return the index of the child, or -1 if it is not a child
+     */
+    int indexOfNode(Dom dom) {
+        for (int c = 0; c < chunks.length; c++) {
+            Dom.Child[] children = chunks[c];
+            for (int lcv = 0; lcv < children.length; lcv++) {
+                Dom.Child child = children[lcv];
+                if ((child instanceof Dom.NodeChild) && ((Dom.NodeChild) child).dom == dom) {
+                    return starts[c] + lcv;
+                }
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * The number of children with each name in the given chunk
+     */
+    private static Map<String, Integer> countNames(Dom.Child[] chunk) {
+        Map<String, Integer> retVal = new HashMap<String, Integer>();
+        for (Dom.Child child : chunk) {
+            Integer count = retVal.get(child.name);
+            retVal.put(child.name, (count == null) ? 1 : count + 1);
+        }
+        return retVal;
+    }
+
+    private Index getIndex() {
+        Index retVal = nameIndex;
+        if (retVal != null) return retVal;
+        
+        Map<String, List<Dom.Child>> building = new HashMap<String, List<Dom.Child>>();
+        for (Dom.Child[] chunk : chunks) {
+            for (Dom.Child child : chunk) {
+                List<Dom.Child> named = building.get(child.name);
+                if (named == null) {
+                    named = new ArrayList<Dom.Child>(1);
+                    building.put(child.name, named);
+                }
+                named.add(child);
+            }
+        }
+
+        Map<String, Dom.Child[]> byName = new HashMap<String, Dom.Child[]>();
+        for (Map.Entry<String, List<Dom.Child>> entry : building.entrySet()) {
+            byName.put(entry.getKey(), entry.getValue().toArray(new Dom.Child[entry.getValue().size()]));
+        }
+
+        Map<String, Integer>[] counts = Index.newCounts(chunks.length);
+        for (int lcv = 0; lcv < chunks.length; lcv++) {
+            counts[lcv] = countNames(chunks[lcv]);
+        }
+
+        retVal = new Index(byName, counts);
+        nameIndex = retVal;
+        return retVal;
+    }
+
+    /**
+     * Returns how many children with the given name come before the given
+     * index, using the per chunk counts of the given index of this list
+     *
+     * @param current the index of this list, may be null
+     * @param name the element name
+     * @param index between 0 and size() inclusive
+     * @return the number of children named name before index, or 0 if
+     * current is null
+     */
+    private int rankOf(Index current, String name, int index) {
+        if (current == null) return 0;
+        
+        int chunk = (index == size) ? chunks.length : chunkOf(index);
+        int retVal = 0;
+        for (int lcv = 0; lcv < chunk; lcv++) {
+            Integer count = current.counts[lcv].get(name);
+            if (count != null) retVal += count;
+        }
+
+        if (chunk < chunks.length) {
+            Dom.Child[] children = chunks[chunk];
+            for (int lcv = 0; lcv < index - starts[chunk]; lcv++) {
+                if (name.equals(children[lcv].name)) retVal++;
+            }
+        }
+
+        return retVal;
+    }
+
+    /**
+     * Gives the list made from this one by a mutator the index of this list,
+     * updated for the children removed and added.  Nothing is done if this
+     * list was not indexed, the new list will then build its index when
+     * it is first needed
+     *
+     * @param current the index of this list, may be null
+     * @param result the new list
+     * @param firstChunk the first chunk that differs between the two lists
+     * @param oldChunks how many chunks of this list starting at firstChunk were replaced
+     * @param newChunks how many chunks of result starting at firstChunk replace them
+     * @param removed the child removed, or null
+     * @param removedRank the position of removed amongst the children with its name
+     * @param added the child added, or null
+     * @param addedRank the position of added amongst the children with its name,
+     * once removed has been removed
+     * @return result
+     */
+    private ChildList derive(Index current, ChildList result, int firstChunk, int oldChunks, int newChunks,
+            Dom.Child removed, int removedRank, Dom.Child added, int addedRank) {
+        if (current == null) return result;
+        
+        Map<String, Dom.Child[]> byName = new HashMap<String, Dom.Child[]>(current.byName);
+        if (removed != null) {
+            Dom.Child[] old = byName.get(removed.name);
+            if (old.length == 1) {
+                byName.remove(removed.name);
+            }
+            else {
+                Dom.Child[] shrunk = new Dom.Child[old.length - 1];
+                System.arraycopy(old, 0, shrunk, 0, removedRank);
+                System.arraycopy(old, removedRank + 1, shrunk, removedRank, shrunk.length - removedRank);
+                byName.put(removed.name, shrunk);
+            }
+        }
+        if (added != null) {
+            Dom.Child[] old = byName.get(added.name);
+            if (old == null) old = NO_CHILDREN;
+            
+            Dom.Child[] grown = new Dom.Child[old.length + 1];
+            System.arraycopy(old, 0, grown, 0, addedRank);
+            grown[addedRank] = added;
+            System.arraycopy(old, addedRank, grown, addedRank + 1, old.length - addedRank);
+            byName.put(added.name, grown);
+        }
+
+        Map<String, Integer>[] counts = Index.newCounts(result.chunks.length);
+        System.arraycopy(current.counts, 0, counts, 0, firstChunk);
+        for (int lcv = firstChunk; lcv < firstChunk + newChunks; lcv++) {
+            counts[lcv] = countNames(result.chunks[lcv]);
+        }
+        System.arraycopy(current.counts, firstChunk + oldChunks, counts, firstChunk + newChunks,
+                current.counts.length - firstChunk - oldChunks);
+        
+        result.nameIndex = new Index(byName, counts);
+        return result;
+    }
+
+    /**
+     * Returns the children with the given element name, in order
+     * 
+     * @param name the element name
+     * @return the children with that name, never null
+     */
+    Dom.Child[] named(String name) {
+        if (size == 0) return NO_CHILDREN;
+        
+        Dom.Child[] retVal = getIndex().byName.get(name);
+        return (retVal == null) ? NO_CHILDREN : retVal;
+    }
+    
+    /**
+     * Returns the first child with the given element name
+     * 
+     * @param name the element name
+     * @return the first child with that name, or null if there is none
+     */
+    Dom.Child first(String name) {
+        Dom.Child[] named = named(name);
+        return (named.length == 0) ? null : named[0];
+    }
+    
+    /**
+     * Returns the names of all the children
+     * 
+     * @return the names of the children, unmodifiable
+     */
+    Set<String> names() {
+        if (size == 0) return Collections.emptySet();
+        
+        return Collections.unmodifiableSet(getIndex().byName.keySet());
+    }
+
+    /**
+     * The children of a list by name, and how many children with each name
+     * each chunk holds.  Never modified once built
+     */
+    private static final class Index {
+        private final Map<String, Dom.Child[]> byName;
+        private final Map<String, Integer>[] counts;
+        
+        private Index(Map<String, Dom.Child[]> byName, Map<String, Integer>[] counts) {
+            this.byName = byName;
+            this.counts = counts;
+        }
+
+        @SuppressWarnings("unchecked")
+        private static Map<String, Integer>[] newCounts(int length) {
+            return new Map[length];
+        }
+    }
+}
@@ -47,10 +47,11 @@ import java.lang.reflect.Proxy;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.AbstractQueuedSynchronizer;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.LockSupport;
 
 import javax.management.ObjectName;
 
@@ -64,10 +65,10 @@ import org.glassfish.hk2.api.ServiceLocator;
  * @author Jerome Dochez
  */
 public class ConfigBean extends Dom implements ConfigView {
-    private static final int WAIT_ITERATIONS = Integer.getInteger("org.glassfish.hk2.config.locktimeout.iterations", 100);
+    private static final AtomicLong LOCK_ORDER = new AtomicLong();
 
     private WriteableView writeableView;
-    private volatile boolean writeLock = false;
+    private final long lockOrder = LOCK_ORDER.getAndIncrement();
     private final Map<Class , ConfigBeanInterceptor> optionalFeatures =
             new HashMap<Class, ConfigBeanInterceptor>();
     
@@ -162,7 +163,7 @@ public class ConfigBean extends Dom implements ConfigView {
     }
 
     protected void setter(ConfigModel.Property target, Object value) throws Exception  {
-        if (!writeLock) {
+        if (!sync.isLocked()) {
             throw new PropertyVetoException("Instance of " + getImplementation() + " named '" + getKey() +
                     "' is not locked for writing when changing attribute " + target.xmlName()
                     + ", you must use transaction semantics to access it.", null);
@@ -309,8 +310,18 @@ public class ConfigBean extends Dom implements ConfigView {
         return (ConfigBean) super.parent();
     }
 
+    /**
+     * Returns the position of this bean in the global order in which
+     * beans must be locked when more than one bean is locked at once
+     *
+     * @return a number unique to this bean instance
+     */
+    long getLockOrder() {
+        return lockOrder;
+    }
+
     void setWriteableView(WriteableView writeableView) {
-        if (writeLock) {
+        if (sync.isLocked()) {
             this.writeableView = writeableView;
         } else {
             throw new IllegalStateException("Config bean is not locked");
@@ -322,54 +333,66 @@ public class ConfigBean extends Dom implements ConfigView {
     }
 
     /**
-     * simplistic non reentrant lock implementation, needs rework
+     * Non reentrant exclusive lock.  Waiting threads are queued rather than
+     * polling, and the lock may be released by a thread other than the one
+     * that acquired it, since the writeable view may be committed or rolled
+     * back from anywhere
      */
+    private static final class Sync extends AbstractQueuedSynchronizer {
+        private static final long serialVersionUID = -2924316862826367640L;
+
+        @Override
+        protected boolean tryAcquire(int ignore) {
+            return compareAndSetState(0, 1);
+        }
+
+        @Override
+        protected boolean tryRelease(int ignore) {
+            setState(0);
+            return true;
+        }
+
+        @Override
+        protected boolean isHeldExclusively() {
+            return getState() == 1;
+        }
+
+        private boolean isLocked() {
+            return getState() == 1;
+        }
+
+        private Condition newCondition() {
+            return new ConditionObject();
+        }
+    }
+
+    private final Sync sync = new Sync();
+
     final private Lock lock = new Lock() {
         
         public void lock() {
-            throw new UnsupportedOperationException();
+            sync.acquire(1);
         }
 
         public void lockInterruptibly() throws InterruptedException {
-            throw new UnsupportedOperationException();
+            sync.acquireInterruptibly(1);
         }
 
-        public synchronized boolean tryLock() {
-            if (!writeLock) {
-                writeLock=true;
-                return true;
-            }
-            return false;
+        public boolean tryLock() {
+            return sync.tryAcquire(1);
         }
 
         public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
-            long nanosTimeout = TimeUnit.NANOSECONDS.convert(time, unit);
-            long increment = nanosTimeout / WAIT_ITERATIONS;
-            long lastTime = System.nanoTime();
-            for (; ;) {
-                if (tryLock()) {
-                    return true;
-                }
-                if (nanosTimeout < 0) {
-                    return false;
-                }
-                LockSupport.parkNanos(increment);
-                long now = System.nanoTime();
-                nanosTimeout -= now - lastTime;
-                lastTime = now;
-                if (Thread.interrupted())
-                    break;
-            }
-            throw new InterruptedException();
+            return sync.tryAcquireNanos(1, unit.toNanos(time));
         }
 
-        public synchronized void unlock() {
-            writeLock = false;
+        public void unlock() {
             writeableView = null;
+            sync.release(1);
         }
 
         public Condition newCondition() {
-            throw new UnsupportedOperationException();
+            return sync.newCondition();
         }
     };
 }
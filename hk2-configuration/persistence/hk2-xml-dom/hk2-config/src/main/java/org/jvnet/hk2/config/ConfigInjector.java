@@ -82,6 +82,56 @@ public abstract class ConfigInjector<T> {
         }
     }
 
+    public final long asLong(String v) {
+        try {
+            return Long.parseLong(v);
+        } catch (NumberFormatException e) {
+            throw new ConfigurationException(v+" is not a number");
+        }
+    }
+
+    public final short asShort(String v) {
+        try {
+            return Short.parseShort(v);
+        } catch (NumberFormatException e) {
+            throw new ConfigurationException(v+" is not a number");
+        }
+    }
+
+    public final byte asByte(String v) {
+        try {
+            return Byte.parseByte(v);
+        } catch (NumberFormatException e) {
+            throw new ConfigurationException(v+" is not a number");
+        }
+    }
+
+    public final float asFloat(String v) {
+        try {
+            return Float.parseFloat(v);
+        } catch (NumberFormatException e) {
+            throw new ConfigurationException(v+" is not a number");
+        } catch (NullPointerException e) {
+            throw new ConfigurationException(v+" is not a number");
+        }
+    }
+
+    public final double asDouble(String v) {
+        try {
+            return Double.parseDouble(v);
+        } catch (NumberFormatException e) {
+            throw new ConfigurationException(v+" is not a number");
+        } catch (NullPointerException e) {
+            throw new ConfigurationException(v+" is not a number");
+        }
+    }
+
+    public final char asChar(String v) {
+        if(v==null || v.length()!=1)
+            throw new ConfigurationException(v+" is not a character");
+        return v.charAt(0);
+    }
+
     private static final Map<String,Boolean> BOOLEAN_VALUES = new HashMap<String,Boolean>();
 
     static {
@@ -40,6 +40,8 @@
 
 package org.jvnet.hk2.config;
 
+import org.glassfish.hk2.api.DynamicConfiguration;
+import org.glassfish.hk2.api.DynamicConfigurationService;
 import org.glassfish.hk2.api.ServiceLocator;
 import org.jvnet.hk2.config.Dom.Child;
 
@@ -51,8 +53,14 @@ import javax.xml.stream.XMLStreamReader;
 import javax.xml.stream.events.XMLEvent;
 import javax.xml.transform.stream.StreamSource;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.HashSet;
@@ -78,10 +86,54 @@ public class ConfigParser {
      * This is where we put parsed inhabitants into.
      */
     protected final ServiceLocator habitat;
+    
+    /**
+     * If true the {@link Dom}s of a document are all added to the
+     * {@link ServiceLocator} in one configuration once the document
+     * has been parsed, rather than one at a time
+     */
+    private final boolean batchRegistration;
+    
+    /**
+     * The {@link Dom}s parsed by this thread that have yet to be registered,
+     * in the order they were parsed
+     */
+    private final ThreadLocal<List<Dom>> pendingRegistrations = new ThreadLocal<List<Dom>>();
 
 
     public ConfigParser(ServiceLocator habitat) {
+        this(habitat, false);
+    }
+    
+    /**
+     * Creates a parser that can register all the {@link Dom}s of a document
+     * with a single {@link DynamicConfiguration}, which is much faster for large
+     * documents.  In that mode no {@link Dom} is registered, and
+     * {@link Dom#initializationCompleted()} is not called, until the whole
+     * document has been parsed
+     * <p>
+     * Parsing itself stays on the calling thread in both modes, there is no
+     * mode that builds independent subtrees of a document in parallel:
+     * <ul>
+     * <li>an {@link XMLStreamReader} is a single cursor over the document, a subtree
+     * can only be given to another thread by buffering or re-reading its text, which
+     * costs as much as the parsing that would be moved</li>
+     * <li>{@link #handleElement(XMLStreamReader, DomDocument, Dom)} is an extension
+     * point that subclasses expect to be called on the parsing thread, with the reader
+     * positioned in the whole document</li>
+     * <li>the {@link ConfigModel}s of a {@link DomDocument} are built lazily into
+     * unsynchronized maps while the document is parsed</li>
+     * </ul>
+     * Once the per {@link Dom} commits are gone the parse is bound by reading the XML,
+     * so batch registration is the mode to use for large documents
+     * 
+     * @param habitat the locator to add the parsed {@link Dom}s to
+     * @param batchRegistration true if all the {@link Dom}s of a document should
+     * be registered at once
+     */
+    public ConfigParser(ServiceLocator habitat, boolean batchRegistration) {
         this.habitat = habitat;
+        this.batchRegistration = batchRegistration;
     }
 
 
@@ -96,13 +148,64 @@ public class ConfigParser {
     }
 
     public void parse(XMLStreamReader in, DomDocument document, Dom parent) throws XMLStreamException {
+        if (!batchRegistration) {
+            try {
+                in.nextTag();
+                document.root = handleElement(in, document, parent);
+            }
+            finally {
+                in.close();
+            }
+            
+            return;
+        }
+        
+        List<Dom> previous = pendingRegistrations.get();
+        List<Dom> batch = new ArrayList<Dom>();
+        pendingRegistrations.set(batch);
         try {
             in.nextTag();
             document.root = handleElement(in, document, parent);
         }
         finally {
+            if (previous == null) {
+                pendingRegistrations.remove();
+            }
+            else {
+                pendingRegistrations.set(previous);
+            }
+            
             in.close();
         }
+        
+        registerAll(batch);
+    }
+    
+    /**
+     * Registers the given {@link Dom}s with one configuration and then
+     * tells each of them, in order, that its initialization is completed
+     * 
+     * @param doms the parsed {@link Dom}s, children before their parents
+     */
+    private void registerAll(List<Dom> doms) {
+        if (doms.isEmpty()) return;
+        
+        DynamicConfigurationService dcs = habitat.getService(DynamicConfigurationService.class);
+        DynamicConfiguration dc = dcs.createDynamicConfiguration();
+        
+        for (Dom dom : doms) {
+            dom.register(dc);
+        }
+        
+        dc.commit();
+        
+        for (Dom dom : doms) {
+            dom.registered();
+        }
+        
+        for (Dom dom : doms) {
+            dom.initializationCompleted();
+        }
     }
 
     /**
@@ -143,6 +246,78 @@ public class ConfigParser {
         }
     }
 
+    /**
+     * Parses the given source as a config file like {@link #parse(URL, DomDocument)},
+     * but reads the {@link Dom} tree from the given snapshot file instead if that
+     * snapshot was written from the same source and with the same {@link ConfigModel}s.
+     * Otherwise the source is parsed and the snapshot is (re)written for the next time.
+     * All {@link Dom}s read from a snapshot are registered with a single configuration.
+     *
+     * @param source the configuration file
+     * @param document the document to add the {@link Dom}s to
+     * @param snapshot the file the binary snapshot of source is kept in, as written
+     * by {@link DomSnapshot}
+     * @return the document
+     */
+    public DomDocument parseWithSnapshot(URL source, DomDocument document, File snapshot) {
+        byte[] digest;
+        try {
+            digest = DomSnapshot.digest(source);
+        }
+        catch (IOException e) {
+            throw new ConfigurationException("Failed to open "+source,e);
+        }
+        
+        if (snapshot.isFile()) {
+            List<Dom> doms = null;
+            try {
+                InputStream inputStream = new BufferedInputStream(new FileInputStream(snapshot));
+                try {
+                    doms = DomSnapshot.read(inputStream, digest, document, null);
+                }
+                finally {
+                    inputStream.close();
+                }
+            }
+            catch (IOException e) {
+                Logger.getAnonymousLogger().log(Level.FINE, "Ignoring unreadable snapshot " + snapshot, e);
+            }
+            
+            if (doms != null) {
+                registerAll(doms);
+                return document;
+            }
+        }
+        
+        parse(source, document);
+        
+        File temp = new File(snapshot.getPath() + ".tmp");
+        try {
+            OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(temp));
+            try {
+                DomSnapshot.write(document, digest, outputStream);
+            }
+            finally {
+                outputStream.close();
+            }
+            
+            // Renaming over the old snapshot is atomic where the platform allows it, so
+            // readers never see it missing.  Elsewhere the old one must be removed first
+            if (!temp.renameTo(snapshot)) {
+                snapshot.delete();
+                if (!temp.renameTo(snapshot)) {
+                    throw new IOException("Could not rename " + temp + " to " + snapshot);
+                }
+            }
+        }
+        catch (IOException e) {
+            temp.delete();
+            Logger.getAnonymousLogger().log(Level.WARNING, "Failed to write snapshot " + snapshot, e);
+        }
+        
+        return document;
+    }
+
     /**
      * Parses a whole XML tree and builds a {@link Dom} tree.
      *
@@ -250,6 +425,12 @@ public class ConfigParser {
         if(!children.isEmpty())
             dom.setChildren(children);
         
+        List<Dom> batch = pendingRegistrations.get();
+        if (batch != null) {
+            batch.add(dom);
+            return dom;
+        }
+        
         dom.register();
 
         dom.initializationCompleted();
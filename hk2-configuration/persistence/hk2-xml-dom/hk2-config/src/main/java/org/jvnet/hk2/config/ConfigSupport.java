@@ -158,10 +158,36 @@ public class ConfigSupport implements ConfigurationUtilities {
 
         ConfigBeanProxy[] proxies = new ConfigBeanProxy[objects.length];
 
-        // create writeable views.
+        // create writeable views, locking the beans in their global lock
+        // order so that two transactions on the same beans cannot deadlock
+        Integer[] lockOrder = new Integer[objects.length];
+        final long[] orderKeys = new long[objects.length];
         for (int i=0;i<objects.length;i++) {
-            proxies[i] = getWriteableView(objects[i]);
-            views[i] = (WriteableView) Proxy.getInvocationHandler(proxies[i]);
+            lockOrder[i] = i;
+            orderKeys[i] = ((ConfigBean) getImpl(revealProxy(objects[i]))).getLockOrder();
+        }
+        Arrays.sort(lockOrder, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                long k1 = orderKeys[o1];
+                long k2 = orderKeys[o2];
+                return (k1 < k2) ? -1 : ((k1 == k2) ? 0 : 1);
+            }
+        });
+
+        try {
+            for (Integer i : lockOrder) {
+                proxies[i] = getWriteableView(objects[i]);
+                views[i] = (WriteableView) Proxy.getInvocationHandler(proxies[i]);
+            }
+        } catch (TransactionFailure e) {
+            // do not leave the beans already locked behind
+            for (WriteableView view : views) {
+                if (view != null) {
+                    view.getMasterView().getLock().unlock();
+                }
+            }
+            throw e;
         }
 
         // Of course I am not locking the live objects but the writable views.
@@ -207,14 +207,28 @@ public class Dom extends AbstractActiveDescriptor implements InvocationHandler,
     public void initializationCompleted() {
     }
 
+    /* package */ void register() {
+        DynamicConfigurationService dcs = getServiceLocator().getService(DynamicConfigurationService.class);
+        DynamicConfiguration dc = dcs.createDynamicConfiguration();
+        
+        register(dc);
+
+        dc.commit();
+        
+        registered();
+    }
+    
+    /**
+     * Adds the descriptors of this Dom to the given configuration.  Once the
+     * configuration is committed {@link #registered()} must be called
+     * 
+     * @param dc the configuration to add the descriptors to
+     */
     /* package */ @SuppressWarnings({ "unchecked" })
-    void register() {
+    void register(DynamicConfiguration dc) {
         ServiceLocator locator = getServiceLocator();
         
         ActiveDescriptor<?> myselfReified = locator.reifyDescriptor(this);
-        
-        DynamicConfigurationService dcs = locator.getService(DynamicConfigurationService.class);
-        DynamicConfiguration dc = dcs.createDynamicConfiguration();
 
         //        habitat.add(this);
         HK2Loader loader = this.model.classLoaderHolder;
@@ -240,9 +254,13 @@ public class Dom extends AbstractActiveDescriptor implements InvocationHandler,
             ActiveDescriptor<Dom> alias = new AliasDescriptor<Dom>(locator, domDescriptor, model.targetTypeName, key);
             dc.addActiveDescriptor(alias, false);
         }
-
-        dc.commit();
-        
+    }
+    
+    /**
+     * Called once the configuration given to {@link #register(DynamicConfiguration)}
+     * has been committed
+     */
+    /* package */ void registered() {
         serviceHandle = getHabitat().getServiceHandle(domDescriptor);
     }
 
@@ -302,8 +320,9 @@ public class Dom extends AbstractActiveDescriptor implements InvocationHandler,
      *
      * <p>
      * The list is read-only and copy-on-write to support concurrent access.
+     * It also indexes the children by element name.
      */
-    private volatile List<Child> children = Collections.emptyList();
+    private volatile ChildList children = ChildList.EMPTY;
     private final Location location;
 
     /**
@@ -450,11 +469,7 @@ public class Dom extends AbstractActiveDescriptor implements InvocationHandler,
      * @Return list of elements names associated with this config instance
      */
     public Set<String> getElementNames() {
-        Set<String> names = new HashSet<String>();
-        for (Child child : children) {
-            names.add(child.name);
-        }
-        return names;
+        return new HashSet<String>(children.names());
     }    
 
     /**
@@ -531,15 +546,10 @@ public class Dom extends AbstractActiveDescriptor implements InvocationHandler,
      * @return child element
      */
     public Dom element(String name) {
+        Child child = children.first(name);
+        if (child == null) return null;
         
-        List<Child> children = this.children; // fix the snapshot that we'll work with
-
-        for (Child child : children) {
-            if (child.name.equals(name)) {
-                return ((NodeChild) child).dom;
-            }
-        }
-        return null;
+        return ((NodeChild) child).dom;
     }
 
     /**
@@ -583,27 +593,18 @@ public class Dom extends AbstractActiveDescriptor implements InvocationHandler,
         if(name.equals("*"))    name=newNode.model.tagName;
         NodeChild newChild = new NodeChild(name, newNode);
 
-        if (children.size()==0) {
-            children = new ArrayList<Child>();
-        }
         if(reference==null) {
-            children.add(0, newChild);
+            children = children.insert(0, newChild);
             newNode.domDescriptor = addWithAlias(getHabitat(), newNode, newNode.getProxyType(), newNode.getKey());
             return;
         }
 
-        ListIterator<Child> itr = children.listIterator();
-        while(itr.hasNext()) {
-            Child child = itr.next();
-            if (child instanceof NodeChild) {
-                NodeChild nc = (NodeChild) child;
-                if(nc.dom==reference) {
-                    itr.add(newChild);
-                    newNode.domDescriptor = addWithAlias(getHabitat(), newNode, newNode.getProxyType(), newNode.getKey());
-                    
-                    return;
-                }
-            }
+        int index = children.indexOfNode(reference);
+        if (index >= 0) {
+            children = children.insert(index + 1, newChild);
+            newNode.domDescriptor = addWithAlias(getHabitat(), newNode, newNode.getProxyType(), newNode.getKey());
+            
+            return;
         }
         throw new IllegalArgumentException(reference+" is not a valid child of "+this+". Children="+children);
     }
@@ -614,19 +615,13 @@ public class Dom extends AbstractActiveDescriptor implements InvocationHandler,
      * @see #insertAfter(Dom, String, Dom)
      */
     public synchronized void replaceChild(Dom reference, String name, Dom newNode) {
-        ListIterator<Child> itr = children.listIterator();
-        while(itr.hasNext()) {
-            Child child = itr.next();   
-            if (child instanceof NodeChild) {
-                NodeChild nc = (NodeChild) child;
-                if(nc.dom==reference) {
-                    reference.release();
-                    newNode.domDescriptor = addWithAlias(getHabitat(), newNode,newNode.getProxyType(), newNode.getKey());
-                    
-                    itr.set(new NodeChild(name,newNode));
-                    return;
-                }
-            }
+        int index = children.indexOfNode(reference);
+        if (index >= 0) {
+            reference.release();
+            newNode.domDescriptor = addWithAlias(getHabitat(), newNode,newNode.getProxyType(), newNode.getKey());
+            
+            children = children.replace(index, new NodeChild(name,newNode));
+            return;
         }
         throw new IllegalArgumentException(reference+" is not a valid child of "+this+". Children="+children);
     }
@@ -636,36 +631,30 @@ public class Dom extends AbstractActiveDescriptor implements InvocationHandler,
      *
      */
     public synchronized void removeChild(final Dom reference) {
-        ListIterator<Child> itr = children.listIterator();
-        while(itr.hasNext()) {
-            Child child = itr.next();
-            if (child instanceof NodeChild) {
-                NodeChild nc = (NodeChild) child;
-                if(nc.dom==reference) {
-                    itr.remove();
-                    reference.release();
-                    return;
-                }
-            }
+        int index = children.indexOfNode(reference);
+        if (index >= 0) {
+            children = children.delete(index);
+            reference.release();
+            return;
         }
         throw new IllegalArgumentException(reference+" is not a valid child of "+this+". Children="+children);
 
     }
 
     public synchronized boolean addLeafElement(String xmlName, String value) {
-        if (children.size()==0) {
-            children = new ArrayList<Child>();
-        }
-        return children.add(new LeafChild(xmlName, value));
-        
+        children = children.insert(children.size(), new LeafChild(xmlName, value));
+        return true;
     }
 
     public synchronized boolean removeLeafElement(String xmlName, String element) {
-        List<Child> children = this.children; // fix the snapshot that we'll work with
+        ChildList children = this.children; // fix the snapshot that we'll work with
 
-        for (Child child : children) {
+        int len = children.size();
+        for( int i=0; i<len; i++ ) {
+            Child child = children.get(i);
             if(child.name.equals(xmlName) && ((LeafChild) child).value.equals(element)) {
-                return children.remove(child);
+                this.children = children.delete(i);
+                return true;
             }
         }
         return false;
@@ -673,13 +662,14 @@ public class Dom extends AbstractActiveDescriptor implements InvocationHandler,
     }
 
     public synchronized boolean changeLeafElement(String xmlName, String oldValue, String newValue) {
-        List<Child> children = this.children; // fix the snapshot that we'll work with
+        ChildList children = this.children; // fix the snapshot that we'll work with
 
         int len = children.size();
         for( int i=0; i<len; i++ ) {
             Child child = children.get(i);
             if(child.name.equals(xmlName) && ((LeafChild) child).value.equals(oldValue)) {
-                return (children.set(i, new LeafChild(xmlName, newValue))!=null);
+                this.children = children.replace(i, new LeafChild(xmlName, newValue));
+                return true;
             }
         }
         return false;
@@ -689,17 +679,11 @@ public class Dom extends AbstractActiveDescriptor implements InvocationHandler,
      * Picks up one leaf-element value without variable expansion.
      */
     public String rawLeafElement(String name) {
-        List<Child> children = this.children; // fix the snapshot that we'll work with
-
-        int len = children.size();
-        for( int i=0; i<len; i++ ) {
-            Child child = children.get(i);
-            if(child.name.equals(name)) {
-                // error check on model guarantees that this works.
-                return ((LeafChild)child).value;
-            }
-        }
-        return null;
+        Child child = children.first(name);
+        if (child == null) return null;
+        
+        // error check on model guarantees that this works.
+        return ((LeafChild)child).value;
     }
 
     /**
@@ -766,7 +750,7 @@ public class Dom extends AbstractActiveDescriptor implements InvocationHandler,
             leaves[i] = new LeafChild(name,values[i]);
 
         stitchList(newChildren,name,Arrays.asList(leaves));
-        children = newChildren;
+        children = ChildList.of(newChildren);
 
         // see attribute(String,String) for the issue with this
         getInjector().injectElement(this,name,get());
@@ -778,14 +762,12 @@ public class Dom extends AbstractActiveDescriptor implements InvocationHandler,
      *      Can be empty but never null.
      */
     public List<String> leafElements(String name) {
-        List<Child> children = this.children; // fix the snapshot that we'll work with
+        Child[] named = children.named(name);
 
-        final List<String> r = new ArrayList<String>();
-        for (Child child : children) {
-            if (child.name.equals(name)) {
-                // error check on model guarantees that this cast works.
-                r.add(t(((LeafChild) child).value));
-            }
+        final List<String> r = new ArrayList<String>(named.length);
+        for (Child child : named) {
+            // error check on model guarantees that this cast works.
+            r.add(t(((LeafChild) child).value));
         }
         return r;
     }
@@ -798,14 +780,12 @@ public class Dom extends AbstractActiveDescriptor implements InvocationHandler,
      *      can be empty, but never null (even if such element name is not defined in the model.)
      */
     public List<String> rawLeafElements(String name) {
-        List<Child> children = this.children; // fix the snapshot that we'll work with
+        Child[] named = children.named(name);
 
-        final List<String> r = new ArrayList<String>();
-        for (Child child : children) {
-            if (child.name.equals(name)) {
-                // error check on model guarantees that this cast works.
-                r.add(((LeafChild) child).value);
-            }
+        final List<String> r = new ArrayList<String>(named.length);
+        for (Child child : named) {
+            // error check on model guarantees that this cast works.
+            r.add(((LeafChild) child).value);
         }
         return r;
     }
@@ -814,17 +794,11 @@ public class Dom extends AbstractActiveDescriptor implements InvocationHandler,
      * Picks up one node-element value.
      */
     public Dom nodeElement(String name) {
-        List<Child> children = this.children; // fix the snapshot that we'll work with
-
-        int len = children.size();
-        for( int i=0; i<len; i++ ) {
-            Child child = children.get(i);
-            if(child.name.equals(name)) {
-                // error check on model guarantees that this works.
-                return ((NodeChild)child).dom;
-            }
-        }
-        return null;
+        Child child = children.first(name);
+        if (child == null) return null;
+        
+        // error check on model guarantees that this works.
+        return ((NodeChild)child).dom;
     }
 
     /**
@@ -840,7 +814,7 @@ public class Dom extends AbstractActiveDescriptor implements InvocationHandler,
             leaves[i] = new NodeChild(name,values[i]);
 
         List<Child> removed = stitchList(newChildren,name,Arrays.asList(leaves));
-        children = newChildren;
+        children = ChildList.of(newChildren);
 
         for (Child c : removed) {
             ((NodeChild) c).dom.release();
@@ -854,16 +828,12 @@ public class Dom extends AbstractActiveDescriptor implements InvocationHandler,
      * Picks up all node-elements that have the given element name.
      */
     public List<Dom> nodeElements(String elementName) {
-        List<Child> children = this.children; // fix the snapshot that we'll work with
+        Child[] named = children.named(elementName);
 
-        final List<Dom> r = new ArrayList<Dom>();
-        int len = children.size();
-        for( int i=0; i<len; i++ ) {
-            Child child = children.get(i);
-            if(child.name.equals(elementName)) {
-                // error check on model guarantees that this works.
-                r.add(((NodeChild)child).dom);
-            }
+        final List<Dom> r = new ArrayList<Dom>(named.length);
+        for (Child child : named) {
+            // error check on model guarantees that this works.
+            r.add(((NodeChild)child).dom);
         }
         return r;
     }
@@ -877,9 +847,7 @@ public class Dom extends AbstractActiveDescriptor implements InvocationHandler,
     public  List<Dom> domNodeByTypeElements(Class baseType) {
         List<Dom> r = new ArrayList<Dom>();
 
-        int len = children.size();
-        for( int i=0; i<len; i++ ) {
-            Child child = children.get(i);
+        for (Child child : children) {
             if (child instanceof NodeChild) {
                 NodeChild nc = (NodeChild) child;
                 if(model.elements.containsKey(nc.name))
@@ -904,9 +872,7 @@ public class Dom extends AbstractActiveDescriptor implements InvocationHandler,
     }
 
     public <T> T nodeByTypeElement(Class<T> baseType) {
-        int len = children.size();
-        for( int i=0; i<len; i++ ) {
-            Child child = children.get(i);
+        for (Child child : children) {
             if (child instanceof NodeChild) {
                 NodeChild nc = (NodeChild) child;
                 if(model.elements.containsKey(nc.name))
@@ -1234,7 +1200,14 @@ public class Dom extends AbstractActiveDescriptor implements InvocationHandler,
      * Used by the parser to set a list of children.
      */
     /*package*/ void setChildren(List<Child> children) {
-       this.children = children;
+       this.children = ChildList.of(children);
+    }
+
+    /**
+     * Used by {@link DomSnapshot} to read the current list of children.
+     */
+    /*package*/ List<Child> getChildren() {
+        return children;
     }
 
     /**
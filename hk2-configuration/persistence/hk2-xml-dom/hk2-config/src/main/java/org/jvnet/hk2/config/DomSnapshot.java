@@ -0,0 +1,408 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.jvnet.hk2.config;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.xml.stream.Location;
+import javax.xml.stream.util.StreamReaderDelegate;
+
+import org.jvnet.hk2.config.Dom.Child;
+
+/**
+ * Writes and reads a compact binary image of a parsed {@link Dom} tree.
+ *
+ * <p>
+ * The image records, for every node, its {@link ConfigModel}, its raw attribute
+ * values, its children (leaves and nodes) and the location it was parsed from.
+ * It is keyed by a digest of the source document and by a fingerprint of every
+ * {@link ConfigModel} used in the tree, so an image is only used if neither the
+ * document nor the shape of the configuration classes has changed since it was
+ * written.  Values are stored before {@link Translator} processing, exactly as
+ * the parser would have stored them
+ * 
+ * @author jwells
+ */
+public class DomSnapshot {
+    private final static int MAGIC = 0x484b3244; // HK2D
+    private final static int VERSION = 1;
+    
+    private final static String DIGEST_ALGORITHM = "SHA-1";
+    
+    private final static byte LEAF = 0;
+    private final static byte NODE = 1;
+    
+    /**
+     * Computes the digest of the given source, which is used as the
+     * key of a snapshot
+     * 
+     * @param source The document the snapshot is taken from
+     * @return The digest of the contents of source
+     * @throws IOException if the source could not be read
+     */
+    public static byte[] digest(URL source) throws IOException {
+        MessageDigest md = getMessageDigest();
+        
+        InputStream is = source.openStream();
+        try {
+            byte buffer[] = new byte[8192];
+            int read;
+            while ((read = is.read(buffer)) >= 0) {
+                md.update(buffer, 0, read);
+            }
+        }
+        finally {
+            is.close();
+        }
+        
+        return md.digest();
+    }
+    
+    /**
+     * Writes the tree of the given document to the output stream
+     * 
+     * @param document The parsed document to write
+     * @param sourceDigest The digest of the source the document was parsed from
+     * @param os The stream to write to.  It is not closed by this method
+     * @throws IOException if the stream could not be written
+     */
+    public static void write(DomDocument<?> document, byte[] sourceDigest, OutputStream os) throws IOException {
+        SnapshotWriter writer = new SnapshotWriter();
+        
+        ByteArrayOutputStream treeBytes = new ByteArrayOutputStream();
+        DataOutputStream tree = new DataOutputStream(treeBytes);
+        
+        Dom root = document.getRoot();
+        tree.writeBoolean(root != null);
+        if (root != null) {
+            writer.writeNode(root, tree);
+        }
+        tree.flush();
+        
+        DataOutputStream out = new DataOutputStream(os);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        
+        out.writeInt(sourceDigest.length);
+        out.write(sourceDigest);
+        
+        out.writeInt(writer.models.size());
+        for (ConfigModel model : writer.models.keySet()) {
+            writeString(model.targetTypeName, out);
+            out.writeLong(fingerprint(model));
+        }
+        
+        out.writeInt(writer.strings.size());
+        for (String string : writer.strings.keySet()) {
+            writeString(string, out);
+        }
+        
+        treeBytes.writeTo(out);
+        out.flush();
+    }
+    
+    /**
+     * Reads a tree written by {@link #write(DomDocument, byte[], OutputStream)} into
+     * the given document.  The {@link Dom}s are created with
+     * {@link DomDocument#make} but are neither registered nor initialized,
+     * that is left to the caller
+     * 
+     * @param is The stream to read from.  It is not closed by this method
+     * @param sourceDigest The digest of the current source document
+     * @param document The document to read the tree into
+     * @param parent The parent of the root of the tree, may be null
+     * @return The {@link Dom}s that were read, children before their parents,
+     * or null if the snapshot is not for this source or was written with
+     * different {@link ConfigModel}s, in which case the document is not modified
+     * @throws IOException if the stream could not be read or is not a snapshot
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public static List<Dom> read(InputStream is, byte[] sourceDigest, DomDocument document, Dom parent) throws IOException {
+        DataInputStream in = new DataInputStream(is);
+        
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a configuration snapshot");
+        }
+        if (in.readInt() != VERSION) return null;
+        
+        byte digest[] = new byte[in.readInt()];
+        in.readFully(digest);
+        if (!Arrays.equals(digest, sourceDigest)) return null;
+        
+        ConfigModel models[] = new ConfigModel[in.readInt()];
+        for (int lcv = 0; lcv < models.length; lcv++) {
+            String targetTypeName = readString(in);
+            long fingerprint = in.readLong();
+            
+            try {
+                models[lcv] = document.buildModel(targetTypeName);
+            }
+            catch (ConfigurationException ce) {
+                return null;
+            }
+            
+            if (fingerprint(models[lcv]) != fingerprint) return null;
+        }
+        
+        String strings[] = new String[in.readInt()];
+        for (int lcv = 0; lcv < strings.length; lcv++) {
+            strings[lcv] = readString(in);
+        }
+        
+        SnapshotReader reader = new SnapshotReader(document, models, strings);
+        if (in.readBoolean()) {
+            document.root = reader.readNode(in, parent);
+        }
+        else {
+            document.root = null;
+        }
+        
+        return reader.doms;
+    }
+    
+    private static MessageDigest getMessageDigest() {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    /**
+     * A model is identified by the metadata of its injector, which
+     * describes all of its attributes and elements
+     */
+    private static long fingerprint(ConfigModel model) {
+        Map<String, List<String>> metadata = new TreeMap<String, List<String>>(model.getMetadata());
+        
+        MessageDigest md = getMessageDigest();
+        try {
+            md.update(model.targetTypeName.getBytes("UTF-8"));
+            md.update(metadata.toString().getBytes("UTF-8"));
+        }
+        catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        
+        byte hash[] = md.digest();
+        
+        long retVal = 0;
+        for (int lcv = 0; lcv < 8; lcv++) {
+            retVal = (retVal << 8) | (hash[lcv] & 0xff);
+        }
+        
+        return retVal;
+    }
+    
+    private static void writeString(String string, DataOutputStream out) throws IOException {
+        byte bytes[] = string.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+    
+    private static String readString(DataInputStream in) throws IOException {
+        byte bytes[] = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+    
+    private static class SnapshotWriter {
+        private final Map<ConfigModel, Integer> models = new LinkedHashMap<ConfigModel, Integer>();
+        private final Map<String, Integer> strings = new LinkedHashMap<String, Integer>();
+        
+        private int model(ConfigModel model) {
+            Integer retVal = models.get(model);
+            if (retVal == null) {
+                retVal = models.size();
+                models.put(model, retVal);
+            }
+            return retVal;
+        }
+        
+        private int string(String string) {
+            if (string == null) return -1;
+            
+            Integer retVal = strings.get(string);
+            if (retVal == null) {
+                retVal = strings.size();
+                strings.put(string, retVal);
+            }
+            return retVal;
+        }
+        
+        private void writeNode(Dom dom, DataOutputStream out) throws IOException {
+            out.writeInt(model(dom.model));
+            
+            Location location = dom.getLocation();
+            if (location != null) {
+                out.writeInt(location.getLineNumber());
+                out.writeInt(location.getColumnNumber());
+                out.writeInt(string(location.getSystemId()));
+            }
+            else {
+                out.writeInt(-1);
+                out.writeInt(-1);
+                out.writeInt(-1);
+            }
+            
+            List<String> names = new ArrayList<String>(dom.getAttributeNames());
+            out.writeInt(names.size());
+            for (String name : names) {
+                out.writeInt(string(name));
+                out.writeInt(string(dom.rawAttribute(name)));
+            }
+            
+            List<Child> children = dom.getChildren();
+            out.writeInt(children.size());
+            for (Child child : children) {
+                out.writeInt(string(child.name));
+                
+                if (child instanceof Dom.LeafChild) {
+                    out.writeByte(LEAF);
+                    out.writeInt(string(((Dom.LeafChild) child).value));
+                }
+                else {
+                    out.writeByte(NODE);
+                    writeNode(((Dom.NodeChild) child).dom, out);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Stands in for the {@link javax.xml.stream.XMLStreamReader} positioned on
+     * a start element, which is all {@link DomDocument#make} and
+     * {@link Dom#fillAttributes} look at
+     */
+    private static class SnapshotReader extends StreamReaderDelegate {
+        private final DomDocument<Dom> document;
+        private final ConfigModel models[];
+        private final String strings[];
+        private final List<Dom> doms = new ArrayList<Dom>();
+        
+        private Location location;
+        private String attributeNames[];
+        private String attributeValues[];
+        
+        private SnapshotReader(DomDocument<Dom> document, ConfigModel models[], String strings[]) {
+            this.document = document;
+            this.models = models;
+            this.strings = strings;
+        }
+        
+        private String string(int index) {
+            return (index < 0) ? null : strings[index];
+        }
+        
+        private Dom readNode(DataInputStream in, Dom parent) throws IOException {
+            ConfigModel model = models[in.readInt()];
+            
+            int line = in.readInt();
+            int column = in.readInt();
+            location = new LocationImpl(line, column, string(in.readInt()));
+            
+            int numAttributes = in.readInt();
+            attributeNames = new String[numAttributes];
+            attributeValues = new String[numAttributes];
+            for (int lcv = 0; lcv < numAttributes; lcv++) {
+                attributeNames[lcv] = string(in.readInt());
+                attributeValues[lcv] = string(in.readInt());
+            }
+            
+            Dom dom = document.make(document.habitat, this, parent, model);
+            dom.fillAttributes(this);
+            
+            int numChildren = in.readInt();
+            if (numChildren > 0) {
+                List<Child> children = new ArrayList<Child>(numChildren);
+                for (int lcv = 0; lcv < numChildren; lcv++) {
+                    String name = string(in.readInt());
+                    
+                    if (in.readByte() == LEAF) {
+                        children.add(new Dom.LeafChild(name, string(in.readInt())));
+                    }
+                    else {
+                        children.add(new Dom.NodeChild(name, readNode(in, dom)));
+                    }
+                }
+                
+                dom.setChildren(children);
+            }
+            
+            doms.add(dom);
+            return dom;
+        }
+
+        @Override
+        public Location getLocation() {
+            return location;
+        }
+
+        @Override
+        public int getAttributeCount() {
+            return attributeNames.length;
+        }
+
+        @Override
+        public String getAttributeLocalName(int index) {
+            return attributeNames[index];
+        }
+
+        @Override
+        public String getAttributeValue(int index) {
+            return attributeValues[index];
+        }
+    }
+}
@@ -42,10 +42,15 @@ package org.jvnet.hk2.config;
 
 import java.lang.reflect.*;
 import java.lang.annotation.Annotation;
+import java.lang.ref.SoftReference;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -60,6 +65,46 @@ import org.glassfish.hk2.api.MultiException;
  */
 @SuppressWarnings("unchecked")
 public class InjectionManager {
+
+    /**
+     * Annotated fields and methods per declaring class, so that repeated
+     * injection of the same type neither walks every declared member nor
+     * looks any of them up again.  A Field or Method refers to its class,
+     * so the members are only softly held: the weakly held class, and its
+     * class loader, can be collected once the memory is needed
+     */
+    private static final Map<Class<?>, SoftReference<InjectionPoints>> INJECTION_POINTS =
+            Collections.synchronizedMap(new WeakHashMap<Class<?>, SoftReference<InjectionPoints>>());
+
+    private static final class InjectionPoints {
+        private final Field[] fields;
+        private final Method[] methods;
+
+        private InjectionPoints(Class<?> clazz) {
+            List<Field> f = new ArrayList<Field>();
+            for (Field field : clazz.getDeclaredFields()) {
+                if (field.getDeclaredAnnotations().length > 0) f.add(field);
+            }
+
+            List<Method> m = new ArrayList<Method>();
+            for (Method method : clazz.getDeclaredMethods()) {
+                if (method.getDeclaredAnnotations().length > 0) m.add(method);
+            }
+
+            fields = f.toArray(new Field[f.size()]);
+            methods = m.toArray(new Method[m.size()]);
+        }
+    }
+
+    private static InjectionPoints getInjectionPoints(Class<?> clazz) {
+        SoftReference<InjectionPoints> ref = INJECTION_POINTS.get(clazz);
+        InjectionPoints retVal = (ref == null) ? null : ref.get();
+        if (retVal != null) return retVal;
+
+        retVal = new InjectionPoints(clazz);
+        INJECTION_POINTS.put(clazz, new SoftReference<InjectionPoints>(retVal));
+        return retVal;
+    }
   
    /**
      * Initializes the component by performing injection.
@@ -153,8 +198,10 @@ public class InjectionManager {
         try {
             Class currentClass = type;
             while (currentClass!=null && Object.class != currentClass) {
+                InjectionPoints points = getInjectionPoints(currentClass);
+
                 // get the list of the instances variable
-                for (Field field : currentClass.getDeclaredFields()) {
+                for (Field field : points.fields) {
 
                     Annotation nonOptionalAnnotation=null;
                     boolean injected = false;
@@ -194,7 +241,7 @@ public class InjectionManager {
                 }
 
 
-                for (Method method : currentClass.getDeclaredMethods()) {
+                for (Method method : points.methods) {
                     for (InjectionResolver target : targets) {
                         Annotation inject = method.getAnnotation(target.type);
                         if (inject == null)     continue;
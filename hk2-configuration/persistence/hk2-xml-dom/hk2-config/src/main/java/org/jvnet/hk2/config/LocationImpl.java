@@ -56,6 +56,12 @@ class LocationImpl implements Location {
         this.systemId = loc.getSystemId();
     }
 
+    LocationImpl(int lineNumber, int columnNumber, String systemId) {
+        this.lineNumber = lineNumber;
+        this.columnNumber = columnNumber;
+        this.systemId = systemId;
+    }
+
     public int getLineNumber() {
         return lineNumber;
     }
@@ -1,7 +1,7 @@
 /*
  * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
  *
- * Copyright (c) 2007-2015 Oracle and/or its affiliates. All rights reserved.
+ * Copyright (c) 2007-2016 Oracle and/or its affiliates. All rights reserved.
  *
  * The contents of this file are subject to the terms of either the GNU
  * General Public License Version 2 only ("GPL") or the Common Development
@@ -37,7 +37,6 @@
  * only if the new code is made subject to such option by the copyright
  * holder.
  */
-
 package org.jvnet.hk2.config;
 
 import java.util.*;
@@ -47,12 +46,12 @@ import java.util.logging.Level;
 import java.beans.PropertyChangeEvent;
 import java.lang.reflect.Proxy;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.jvnet.hk2.annotations.Optional;
 import org.jvnet.hk2.annotations.Service;
 import javax.inject.Inject;
 import javax.inject.Named;
-import javax.inject.Provider;
 
 import org.glassfish.hk2.api.PostConstruct;
 import org.glassfish.hk2.api.PreDestroy;
@@ -60,267 +59,356 @@ import org.glassfish.hk2.api.PreDestroy;
 /**
  * Transactions is a singleton service that receives transaction notifications and dispatch these
  * notifications asynchronously to listeners.
+ * <p>
+ * Each listener has its own ordered queue of pending notifications, which is drained
+ * by at most one thread of the executor at a time.  The queues are bounded, a committing
+ * thread blocks when the queue of a listener is full.  When several transactions are
+ * waiting in the queue of a listener they are delivered to it with a single callback.
+ * The executor can be replaced by registering an {@link ExecutorService} named
+ * "transactions-executor", otherwise a pool bounded by the
+ * org.glassfish.hk2.config.transactions.maxThreads system property is used.
+ * Each {@link ConfigListener} is called on a thread of its own, taken from a separate
+ * pool bounded by the org.glassfish.hk2.config.transactions.maxListenerThreads system
+ * property, so that a queue waiting for its config listeners never holds up the executor
+ * threads those listeners would need.  Config listener callbacks beyond that bound wait
+ * for a thread of the pool
  *
  * @author Jerome Dochez
  */
 
 @Service
 public final class Transactions implements PostConstruct, PreDestroy {
+    /* package */ static final int MAX_PENDING_JOBS = Integer.getInteger(
+            "org.glassfish.hk2.config.transactions.maxPendingJobs", 50);
+    /* package */ static final int MAX_THREADS = Integer.getInteger(
+            "org.glassfish.hk2.config.transactions.maxThreads",
+            Math.max(4, 2 * Runtime.getRuntime().availableProcessors()));
+    /* package */ static final int MAX_LISTENER_THREADS = Integer.getInteger(
+            "org.glassfish.hk2.config.transactions.maxListenerThreads", MAX_THREADS);
+    
+    /**
+     * Set on the threads delivering notifications.  A transaction committed from
+     * one of those threads cannot wait for its own notification to be delivered
+     */
+    private static final ThreadLocal<Boolean> DISPATCHING = new ThreadLocal<Boolean>();
 
     // each transaction listener has a notification pump.
-    private final List<Provider<ListenerNotifier<TransactionListener, ?, Void>>> listeners =
-            new ArrayList<Provider<ListenerNotifier<TransactionListener, ?, Void>>>();
+    private final List<ListenerNotifier> listeners = new ArrayList<ListenerNotifier>();
 
     private final Map<Class, Set<ConfigListener>> typeListeners = new HashMap<Class, Set<ConfigListener>>();
 
     @Inject @Named("transactions-executor") @Optional
     private ExecutorService executor;
+    
+    /** Runs the config listener callbacks, the queue draining threads wait for them */
+    private ExecutorService listenerExecutor;
 
     // all configuration listeners are notified though one notifier.
-    private final Provider<ConfigListenerNotifier> configListenerNotifier = new Provider<ConfigListenerNotifier>() {
-
-            private final ConfigListenerNotifier configListenerNotifier = new ConfigListenerNotifier();
-            private final CountDownLatch initialized = new CountDownLatch(1);
-
-            public ConfigListenerNotifier get() {
-                synchronized(initialized) {
-                    if (initialized.getCount()>0) {
-                        configListenerNotifier.start();
-                        initialized.countDown();
-                    }
-
-                return configListenerNotifier;
-            }
-        }
-    };
+    private final ConfigListenerNotifier configListenerNotifier = new ConfigListenerNotifier();
+    
+    private final AtomicInteger pendingJobs = new AtomicInteger();
+    private final AtomicInteger peakPendingJobs = new AtomicInteger();
 
     public void postConstruct() {
         if (executor==null) {
-            executor = Executors.newCachedThreadPool();
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS,
+                    60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                        private final AtomicInteger count = new AtomicInteger();
+
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, "hk2-config-transactions-" + count.incrementAndGet());
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+            pool.allowCoreThreadTimeOut(true);
+            executor = pool;
         }
+        
+        // Bounding this pool cannot deadlock the draining thread waiting for it: a callback
+        // never waits on Transactions, since commits made from it neither block on a full
+        // queue nor wait for their notifications, and waitForDrain throws
+        ThreadPoolExecutor listenerPool = new ThreadPoolExecutor(MAX_LISTENER_THREADS, MAX_LISTENER_THREADS,
+                60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "hk2-config-listeners-" + count.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        listenerPool.allowCoreThreadTimeOut(true);
+        listenerExecutor = listenerPool;
     }
 
     public void preDestroy() {
-       for (Provider<ListenerNotifier<TransactionListener,  ?, Void>> listener : listeners) {
-           listener.get().stop();
+       synchronized(listeners) {
+           for (ListenerNotifier listener : listeners) {
+               listener.stop();
+           }
        }
-       configListenerNotifier.get().stop();
+       configListenerNotifier.stop();
        executor.shutdown();
+       listenerExecutor.shutdown();
+    }
+    
+    /**
+     * Returns the number of notifications that have been published
+     * but not yet delivered, summed over all the listeners
+     * 
+     * @return the number of pending notifications
+     */
+    public int getPendingJobCount() {
+        return pendingJobs.get();
+    }
+    
+    /**
+     * Returns the highest value {@link #getPendingJobCount()} has
+     * reached since this service was created
+     * 
+     * @return the peak number of pending notifications
+     */
+    public int getPeakPendingJobCount() {
+        return peakPendingJobs.get();
     }
 
     /**
-     * Abstract notification pump, it adds jobs to the queue and process them in the order
-     * jobs were added.
+     * Abstract notification pump, it adds jobs to an ordered queue and process them in the order
+     * jobs were added.  Only one thread of the executor drains the queue at any time, and
+     * it only exists while there are jobs to deliver.
      *
-     * Jobs are just a wrapper for events of type <U> and a notification mechanism for
+     * Jobs are just a wrapper for events and a notification mechanism for
      * completion notification
      *
      * @param <T> type of listener interface
-     * @param <U> type of events the listener methods are expecting
-     * @param <V> return type of the listener interface methods.
      */
-    private abstract class Notifier<T, U, V> {
+    private abstract class Notifier<T> implements Runnable {
         
-        private final BlockingQueue<FutureTask> pendingJobs = new ArrayBlockingQueue<FutureTask>(50);
-        private CountDownLatch latch = new CountDownLatch(1);
+        private final LinkedList<Job<T, ?, ?>> queue = new LinkedList<Job<T, ?, ?>>();
+        private boolean draining = false;
+        private boolean stopped = false;
 
         /**
-         * Creates the task that will notify the listeners of a particular job.
-         * @param job contains the specifics of the notification like the events that need to be notified.
-         * @return a task that can be run and return an optional value.
+         * Notifies the listeners of a batch of jobs.  The batch is never empty and
+         * the jobs are in the order they were added
+         * 
+         * @param jobs the jobs to deliver
          */
-        protected abstract FutureTask<V> prepare(final Job<T, U, V> job);
+        protected abstract void deliver(List<Job<T, ?, ?>> jobs);
+        
+        /**
+         * Returns true if the given job can be delivered in the same callback as the
+         * jobs preceding it.  By default each job is delivered on its own
+         * 
+         * @param job the next job in the queue
+         * @return true if the job can be added to the current batch
+         */
+        protected boolean canBatch(Job<T, ?, ?> job) {
+            return false;
+        }
 
         /**
          * Adds a job to the notification pump. This job will be processed as soon as all other pending
-         * jobs have completed.
+         * jobs have completed.  The caller blocks while the queue is full unless it is itself
+         * delivering notifications
          *
          * @param job new notification job.
-         * @return a future on the return value.
          */
-        public Future<V> add(final Job<T, U, V> job) {
+        public void add(final Job<T, ?, ?> job) {
+            boolean schedule;
+            synchronized (this) {
+                if (stopped) {
+                    throw new RuntimeException("TransactionListener is inactive, yet jobs are published to it");
+                }
+                
+                if (DISPATCHING.get() == null) {
+                    try {
+                        while (queue.size() >= MAX_PENDING_JOBS && !stopped) {
+                            wait();
+                        }
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+                
+                queue.add(job);
                 
-            // NOTE that this is put() which blocks, *not* add() which will not block and will
-            // throw an IllegalStateException if the queue is full.
-            if (latch.getCount()==0) {
-                throw new RuntimeException("TransactionListener is inactive, yet jobs are published to it");
+                schedule = !draining;
+                draining = true;
             }
-            try {
-                pendingJobs.put(prepare(job));
-            } catch (InterruptedException e ) {
-                throw new RuntimeException(e);
+            
+            int pending = pendingJobs.incrementAndGet();
+            int peak;
+            while (pending > (peak = peakPendingJobs.get())) {
+                if (peakPendingJobs.compareAndSet(peak, pending)) break;
+            }
+            
+            if (schedule) {
+                executor.execute(this);
             }
-            return null;
         }
         
-        protected void start() {
-
-            executor.submit(new Runnable() {
-
-                public void run() {
-                    while (latch.getCount()>0) {
-                        try {
-                            final FutureTask job = pendingJobs.take();
-                            // when listeners start a transaction themselves, several jobs try to get published
-                            // simultaneously so we cannot block the pump while delivering the messages. 
-                            executor.submit(new Runnable() {
-                                public void run() {
-                                    job.run();
-                                }
-                            });
+        public void run() {
+            DISPATCHING.set(Boolean.TRUE);
+            try {
+                for (;;) {
+                    List<Job<T, ?, ?>> batch = new ArrayList<Job<T, ?, ?>>();
+                    synchronized (this) {
+                        if (queue.isEmpty()) {
+                            draining = false;
+                            return;
                         }
-
-                        catch (InterruptedException e) {
-                            // do anything here?
+                        
+                        batch.add(queue.removeFirst());
+                        if (canBatch(batch.get(0))) {
+                            while (!queue.isEmpty() && canBatch(queue.getFirst())) {
+                                batch.add(queue.removeFirst());
+                            }
+                        }
+                        
+                        notifyAll();
+                    }
+                    pendingJobs.addAndGet(-batch.size());
+                    
+                    try {
+                        deliver(batch);
+                    } catch (Throwable th) {
+                        Logger.getAnonymousLogger().log(Level.SEVERE, "Listener notification failed", th);
+                    } finally {
+                        for (Job<T, ?, ?> job : batch) {
+                            job.releaseLatch();
                         }
                     }
                 }
-                
-            });
+            } finally {
+                DISPATCHING.remove();
+            }
         }
 
-        void stop() {
-            latch.countDown();
-            // last event to force the close
-            pendingJobs.add(prepare(new Job<T, U, V>(null, null) {
-                public V process(T target) {
-                    return null;
-                }
-            }));
+        synchronized void stop() {
+            stopped = true;
+            notifyAll();
         }
     }
 
     /**
-     * Default listener notification pump. One thread per listener, jobs processed in
-     * the order it was received.
-     *
-     * @param <T> type of listener interface
-     * @param <U> type of events the listener methods are expecting
-     * @param <V> return type of the listener interface methods.
+     * Default listener notification pump. Jobs are delivered in the order they were received,
+     * consecutive transactions are delivered in one call to the listener
      */
-    private class ListenerNotifier<T,U,V> extends Notifier<T,U,V> {
+    private class ListenerNotifier extends Notifier<TransactionListener> {
         
-        final T listener;
+        final TransactionListener listener;
 
-        public ListenerNotifier(T listener) {
+        public ListenerNotifier(TransactionListener listener) {
             this.listener = listener;
         }
 
-        protected FutureTask<V> prepare(final Job<T, U, V> job) {
-            return new FutureTask<V>(new Callable<V>() {
-                    public V call() throws Exception {
-                        try {
-                            if ( job.mEvents.size() != 0 ) {
-                                return job.process(listener);
-                           }
-                        } finally {
-                            job.releaseLatch();
-                        }
-                        return null;
-                    }
-                });
-        }   
+        @Override
+        protected boolean canBatch(Job<TransactionListener, ?, ?> job) {
+            return (job instanceof TransactionListenerJob);
+        }
+
+        @Override
+        protected void deliver(List<Job<TransactionListener, ?, ?>> jobs) {
+            if (jobs.size() == 1) {
+                Job<TransactionListener, ?, ?> job = jobs.get(0);
+                if ( job.mEvents.size() != 0 ) {
+                    job.process(listener);
+                }
+                return;
+            }
+            
+            List<PropertyChangeEvent> events = new ArrayList<PropertyChangeEvent>();
+            for (Job<TransactionListener, ?, ?> job : jobs) {
+                events.addAll(((TransactionListenerJob) job).mEvents);
+            }
+            if (events.size() != 0) {
+                new TransactionListenerJob(events, null).process(listener);
+            }
+        }
         
     }
 
     /**
-     * Configuration listener notification pump. All Listeners are notified within their own thread, only on thread
-     * takes care of the job pump.
-     * 
+     * Configuration listener notification pump. All Listeners are notified within their own thread, only
+     * one thread takes care of the job pump.  When consecutive jobs are delivered together each listener
+     * gets, in one call, the events of all the transactions it is interested in
      */
-    private class ConfigListenerNotifier extends Notifier<ConfigListener,PropertyChangeEvent,UnprocessedChangeEvents> {
+    private class ConfigListenerNotifier extends Notifier<ConfigListener> {
 
-        protected FutureTask<UnprocessedChangeEvents>
-            prepare(final Job<ConfigListener, PropertyChangeEvent, UnprocessedChangeEvents> job) {
-
-        // first, calculate the recipients.
-        final Set<ConfigListener> configListeners = new HashSet<ConfigListener>();
-            if (job.mEvents != null) {
-                for (PropertyChangeEvent event : job.mEvents) {
-                    final Dom dom = (Dom) ((ConfigView) Proxy.getInvocationHandler(event.getSource())).getMasterView();
-                    configListeners.addAll(dom.getListeners());
-
-                    // we also notify the parent.
-                    if (dom.parent()!=null) {
-                        configListeners.addAll(dom.parent().getListeners());
-                    }
-
-                    // and now, notify all listeners for the changed types.
-                    Set<ConfigListener> listeners = typeListeners.get(dom.getProxyType());
-                    if (listeners!=null) {
-                        configListeners.addAll(listeners);
-                    }
+        @Override
+        protected boolean canBatch(Job<ConfigListener, ?, ?> job) {
+            return true;
+        }
 
-                    // we need to check if elements are removed to ensure
-                    // the typed listeners are notified.
-                    if (event.getNewValue()==null) {
-                        Object oldValue = event.getOldValue();
-                        if (oldValue instanceof ConfigBeanProxy) {
-                            Dom domOldValue = Dom.unwrap((ConfigBeanProxy) oldValue);
-                            Set<ConfigListener> typedListeners = typeListeners.get(domOldValue.<ConfigBeanProxy>getProxyType());
-                            if (typedListeners!=null) {
-                                configListeners.addAll(typedListeners);
-                            }
-                        }
+        @Override
+        protected void deliver(List<Job<ConfigListener, ?, ?>> jobs) {
+            // the events each recipient is interested in, in transaction order
+            final Map<ConfigListener, List<PropertyChangeEvent>> recipients =
+                    new LinkedHashMap<ConfigListener, List<PropertyChangeEvent>>();
+            for (Job<ConfigListener, ?, ?> job : jobs) {
+                ConfigListenerJob configJob = (ConfigListenerJob) job;
+                for (ConfigListener listener : configJob.recipients) {
+                    List<PropertyChangeEvent> events = recipients.get(listener);
+                    if (events == null) {
+                        events = new ArrayList<PropertyChangeEvent>();
+                        recipients.put(listener, events);
                     }
+                    events.addAll(configJob.mEvents);
                 }
             }
 
-            return new FutureTask<UnprocessedChangeEvents>(new Callable<UnprocessedChangeEvents>() {
-            public UnprocessedChangeEvents call() throws Exception {
-
-                try {
-                    // temporary structure to store our future notifications with pointer to the
-                    // originator config listener
-                    Map<Future<UnprocessedChangeEvents>, ConfigListener> futures = new HashMap<Future<UnprocessedChangeEvents>, ConfigListener>();
+            // temporary structure to store our future notifications with pointer to the
+            // originator config listener
+            Map<Future<UnprocessedChangeEvents>, ConfigListener> futures = new HashMap<Future<UnprocessedChangeEvents>, ConfigListener>();
 
-                    for (final ConfigListener listener : configListeners) {
-                        // each listener is notified in it's own thread.
-                        futures.put(executor.submit(new Callable<UnprocessedChangeEvents>() {
-                            public UnprocessedChangeEvents call() throws Exception {
-                                UnprocessedChangeEvents e = job.process(listener);
-                                return e;
+            for (Map.Entry<ConfigListener, List<PropertyChangeEvent>> entry : recipients.entrySet()) {
+                final ConfigListener listener = entry.getKey();
+                final PropertyChangeEvent[] eventsArray = entry.getValue().toArray(
+                        new PropertyChangeEvent[entry.getValue().size()]);
 
-                            }
-                        }), listener);
-                    }
-                    List<UnprocessedChangeEvents> unprocessed = new ArrayList<UnprocessedChangeEvents>(futures.size());
-                    for (Future<UnprocessedChangeEvents> future : futures.keySet()) {
+                // each listener is notified in it's own thread, never one of the draining threads
+                futures.put(listenerExecutor.submit(new Callable<UnprocessedChangeEvents>() {
+                    public UnprocessedChangeEvents call() throws Exception {
+                        DISPATCHING.set(Boolean.TRUE);
                         try {
-                            UnprocessedChangeEvents result = future.get(200, TimeUnit.SECONDS);
-                            if (result!=null && result.getUnprocessed()!=null && result.getUnprocessed().size()>0) {
-                                for (UnprocessedChangeEvent event : result.getUnprocessed()) {
-                                    Logger.getAnonymousLogger().log(Level.WARNING, "Unprocessed event : " + event);
-                                }
-                                unprocessed.add(result);
-                            }
-                        } catch (InterruptedException e) {
-                            Logger.getAnonymousLogger().log(Level.SEVERE, "Config Listener notification got interrupted", e);
-                        } catch (ExecutionException e) {
-                            Logger.getAnonymousLogger().log(Level.SEVERE, "Config Listener notification got interrupted", e);
-                        } catch (TimeoutException e) {
-                            ConfigListener cl = futures.get(future);
-                            Logger.getAnonymousLogger().log(Level.SEVERE, "Config Listener " + cl.getClass() + " notification took too long", e);
+                            return listener.changed(eventsArray);
+                        } finally {
+                            DISPATCHING.remove();
                         }
                     }
-
-                    // all notification have been successful, I just need to notify the unprocessed events.
-                    // note these events are always synchronous so far.
-                    if (!unprocessed.isEmpty()) {
-                        Job unprocessedJob = new UnprocessedEventsJob(unprocessed, null);
-                        for (Provider<ListenerNotifier<TransactionListener, ?, Void>> listener : Transactions.this.listeners) {
-                            listener.get().add(unprocessedJob);
+                }), listener);
+            }
+            List<UnprocessedChangeEvents> unprocessed = new ArrayList<UnprocessedChangeEvents>(futures.size());
+            for (Future<UnprocessedChangeEvents> future : futures.keySet()) {
+                try {
+                    UnprocessedChangeEvents result = future.get(200, TimeUnit.SECONDS);
+                    if (result!=null && result.getUnprocessed()!=null && result.getUnprocessed().size()>0) {
+                        for (UnprocessedChangeEvent event : result.getUnprocessed()) {
+                            Logger.getAnonymousLogger().log(Level.WARNING, "Unprocessed event : " + event);
                         }
+                        unprocessed.add(result);
                     }
-                } finally {
-                    job.releaseLatch();
+                } catch (InterruptedException e) {
+                    Logger.getAnonymousLogger().log(Level.SEVERE, "Config Listener notification got interrupted", e);
+                } catch (ExecutionException e) {
+                    Logger.getAnonymousLogger().log(Level.SEVERE, "Config Listener notification got interrupted", e);
+                } catch (TimeoutException e) {
+                    ConfigListener cl = futures.get(future);
+                    Logger.getAnonymousLogger().log(Level.SEVERE, "Config Listener " + cl.getClass() + " notification took too long", e);
                 }
+            }
 
-                // in theory I should aggregate my unprocessed events but nobody cares.
-                return null;
+            // all notification have been successful, I just need to notify the unprocessed events.
+            // note these events are always synchronous so far.
+            if (!unprocessed.isEmpty()) {
+                UnprocessedEventsJob unprocessedJob = new UnprocessedEventsJob(unprocessed, null);
+                for (ListenerNotifier listener : currentNotifiers()) {
+                    listener.add(unprocessedJob);
+                }
             }
-        });
-    }
+        }
 
     }
 
@@ -390,15 +478,44 @@ public final class Transactions implements PostConstruct, PreDestroy {
 
     private class ConfigListenerJob extends Job<ConfigListener, PropertyChangeEvent, UnprocessedChangeEvents> {
 
-        final PropertyChangeEvent[] eventsArray;
+        final Set<ConfigListener> recipients = new LinkedHashSet<ConfigListener>();
 
         public ConfigListenerJob(List<PropertyChangeEvent> events, CountDownLatch latch) {
             super(events, latch);
-            eventsArray = mEvents.toArray(new PropertyChangeEvent[mEvents.size()]);            
+            
+            // the recipients are the listeners at the time of the commit
+            for (PropertyChangeEvent event : mEvents) {
+                final Dom dom = (Dom) ((ConfigView) Proxy.getInvocationHandler(event.getSource())).getMasterView();
+                recipients.addAll(dom.getListeners());
+
+                // we also notify the parent.
+                if (dom.parent()!=null) {
+                    recipients.addAll(dom.parent().getListeners());
+                }
+
+                // and now, notify all listeners for the changed types.
+                Set<ConfigListener> listeners = typeListeners.get(dom.getProxyType());
+                if (listeners!=null) {
+                    recipients.addAll(listeners);
+                }
+
+                // we need to check if elements are removed to ensure
+                // the typed listeners are notified.
+                if (event.getNewValue()==null) {
+                    Object oldValue = event.getOldValue();
+                    if (oldValue instanceof ConfigBeanProxy) {
+                        Dom domOldValue = Dom.unwrap((ConfigBeanProxy) oldValue);
+                        Set<ConfigListener> typedListeners = typeListeners.get(domOldValue.<ConfigBeanProxy>getProxyType());
+                        if (typedListeners!=null) {
+                            recipients.addAll(typedListeners);
+                        }
+                    }
+                }
+            }
         }
 
         public UnprocessedChangeEvents process(ConfigListener target) {
-            return target.changed(eventsArray);
+            return target.changed(mEvents.toArray(new PropertyChangeEvent[mEvents.size()]));
         }
     }
 
@@ -439,21 +556,7 @@ public final class Transactions implements PostConstruct, PreDestroy {
      */
     public void addTransactionsListener(final TransactionListener listener) {
         synchronized(listeners) {
-            listeners.add(new Provider<ListenerNotifier<TransactionListener, ?, Void>>() {
-
-                final ListenerNotifier<TransactionListener, PropertyChangeEvent, Void> tsListener = new ListenerNotifier<TransactionListener, PropertyChangeEvent, Void>(listener);
-                final CountDownLatch initialized = new CountDownLatch(1);
-
-                public ListenerNotifier<TransactionListener, PropertyChangeEvent, Void> get() {
-                    synchronized(initialized) {
-                        if (initialized.getCount()>0) {
-                            tsListener.start();
-                            initialized.countDown();
-                        }
-                    }
-                    return tsListener;
-                }
-            });
+            listeners.add(new ListenerNotifier(listener));
         }
     }
 
@@ -464,11 +567,10 @@ public final class Transactions implements PostConstruct, PreDestroy {
      */
     public boolean removeTransactionsListener(TransactionListener listener) {
         synchronized(listeners) {
-            for (Provider<ListenerNotifier<TransactionListener, ?, Void>> holder : listeners) {
-                ListenerNotifier info = holder.get();
+            for (ListenerNotifier info : listeners) {
                 if (info.listener==listener) {
                     info.stop();
-                    return listeners.remove(holder);
+                    return listeners.remove(info);
                 }
             }
         }
@@ -478,13 +580,18 @@ public final class Transactions implements PostConstruct, PreDestroy {
     public List<TransactionListener> currentListeners() {
         synchronized(listeners) {            
             List<TransactionListener> l = new ArrayList<TransactionListener>();
-            for (Provider<ListenerNotifier<TransactionListener, ?, Void>> holder : listeners) {
-                ListenerNotifier<TransactionListener, ?, Void> info = holder.get();
+            for (ListenerNotifier info : listeners) {
                 l.add(info.listener);
             }
             return l;
         }
     }
+    
+    private List<ListenerNotifier> currentNotifiers() {
+        synchronized(listeners) {
+            return new ArrayList<ListenerNotifier>(listeners);
+        }
+    }
 
 
     /**
@@ -497,37 +604,40 @@ public final class Transactions implements PostConstruct, PreDestroy {
     }
         
     /**
-     * Notification of a new transaction completion
+     * Notification of a new transaction completion.  A transaction committed from a
+     * listener callback never waits, neither for room in the queues nor for its
+     * notifications: those are ordered after the callback that is committing it, so
+     * waiting for them could only deadlock
      *
      * @param events accumulated list of changes
      * @param waitTillCleared  synchronous semantics; wait until all change events are sent
      */
-    @SuppressWarnings("cast")
     void addTransaction(
         final List<PropertyChangeEvent> events,
-        final boolean waitTillCleared ) {
-        
-        final List<ListenerNotifier<TransactionListener, ?, Void>> listInfos = new ArrayList<ListenerNotifier<TransactionListener, ?, Void>>();
-        for (Provider<ListenerNotifier<TransactionListener, ?, Void>> holder : listeners) {
-            ListenerNotifier<TransactionListener, ?, Void> info = holder.get();
-            listInfos.add(info);
+        boolean waitTillCleared ) {
+        if (DISPATCHING.get() != null) {
+            waitTillCleared = false;
         }
         
+        final List<ListenerNotifier> listInfos = currentNotifiers();
+        
         // create a CountDownLatch to implement waiting for events to actually be sent
-        final Job<TransactionListener, ?, Void> job = new TransactionListenerJob( events,
+        final TransactionListenerJob job = new TransactionListenerJob( events,
                                 waitTillCleared ? new CountDownLatch(listInfos.size()) : null);
         
-        final ConfigListenerJob configJob = new ConfigListenerJob(events,
+        final ConfigListenerJob configJob;
+        synchronized (this) {
+            configJob = new ConfigListenerJob(events,
                 waitTillCleared? new CountDownLatch(1):null);
+        }
         
-        // NOTE that this is put() which blocks, *not* add() which will not block and will
-        // throw an IllegalStateException if the queue is full.
+        // NOTE that add() blocks while the queue of a listener is full
         try {
             for (ListenerNotifier listener : listInfos) {
                 listener.add(job);
             }
 
-            configListenerNotifier.get().add(configJob);
+            configListenerNotifier.add(configJob);
 
             job.waitForLatch();
             configJob.waitForLatch();
@@ -536,16 +646,21 @@ public final class Transactions implements PostConstruct, PreDestroy {
         }
     }
 
+    /**
+     * Blocks until all the notifications published before this call have been delivered
+     * 
+     * @throws IllegalStateException if called from a {@link TransactionListener} or
+     * {@link ConfigListener} callback, since the callback itself is one of the
+     * notifications that would have to be delivered
+     */
     public void waitForDrain() {
+        if (DISPATCHING.get() != null) {
+            throw new IllegalStateException("waitForDrain may not be called while delivering a notification");
+        }
+        
         // insert a dummy Job and block until is has been processed.  This guarantees
         // that all prior jobs have finished
         addTransaction( new ArrayList<PropertyChangeEvent>(), true );
         // at this point all prior transactions are guaranteed to have cleared
     }    
 }
-
-
-
-
-
-
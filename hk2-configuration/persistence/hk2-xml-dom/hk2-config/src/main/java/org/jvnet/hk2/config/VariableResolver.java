@@ -1,7 +1,7 @@
 /*
  * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
  *
- * Copyright (c) 2007-2015 Oracle and/or its affiliates. All rights reserved.
+ * Copyright (c) 2007-2016 Oracle and/or its affiliates. All rights reserved.
  *
  * The contents of this file are subject to the terms of either the GNU
  * General Public License Version 2 only ("GPL") or the Common Development
@@ -40,6 +40,10 @@
 
 package org.jvnet.hk2.config;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
 /**
  * {@link Translator} that does variable resolution in the Ant style.
  *
@@ -56,17 +60,42 @@ package org.jvnet.hk2.config;
  * @author Kohsuke Kawaguchi
  */
 public abstract class VariableResolver implements Translator {
+    private final static int MAX_TEMPLATES = Integer.getInteger(
+            "org.glassfish.hk2.config.translator.maxTemplates", 1024);
+    
+    /**
+     * Parsed form of every string with a '$' in it that has been translated,
+     * so the string is only scanned once
+     */
+    private final ConcurrentHashMap<String, Template> templates = new ConcurrentHashMap<String, Template>();
+    
     public String translate(String str) throws TranslationException {
         if(str.indexOf('$')==-1)
             return str; // fast path for the common case
-
+        
+        Template template = templates.get(str);
+        if (template == null) {
+            template = parse(str);
+            
+            if (templates.size() >= MAX_TEMPLATES) {
+                templates.clear();
+            }
+            templates.put(str, template);
+        }
+        
+        return template.expand(this);
+    }
+    
+    private static Template parse(String str) throws TranslationException {
+        List<Object> segments = new ArrayList<Object>();
+        
         int idx = 0;
         StringBuilder buf = new StringBuilder();
         while(true) {
             int s = str.indexOf('$',idx);
             if(s==-1) {
                 buf.append(str,idx,str.length());
-                return buf.toString();
+                break;
             }
 
             // copy until this '$'
@@ -84,17 +113,11 @@ public abstract class VariableResolver implements Translator {
                 int e = str.indexOf('}',s+2);
                 if(e ==-1)
                     throw new TranslationException("Missing '}' at the end of \""+str+"\"");
-                String varName = str.substring(s+2, e);
-                String value;
-                try {
-                    value = getVariableValue(varName);
-                } catch (TranslationException x) {
-                    throw new TranslationException("Failed to expand variable ${"+varName+'}',x);
+                if (buf.length() > 0) {
+                    segments.add(buf.toString());
+                    buf.setLength(0);
                 }
-                if (value == null)
-                    throw new TranslationException(String.format("Undefined variable ${%s} in \"%s\"",
-                        varName, str));
-                buf.append(value);
+                segments.add(new Variable(str.substring(s+2, e)));
                 idx = e+1;
                 break;
             case '$': // $ escape
@@ -107,8 +130,14 @@ public abstract class VariableResolver implements Translator {
                 break;
             }
         }
+        
+        if (buf.length() > 0) {
+            segments.add(buf.toString());
+        }
+        
+        return new Template(str, segments.toArray());
     }
-
+    
     /**
      * Returns the value of the variable.
      *
@@ -122,4 +151,49 @@ public abstract class VariableResolver implements Translator {
      *      additional errors. 
      */
     protected abstract String getVariableValue(String varName) throws TranslationException;
+    
+    private static class Variable {
+        private final String name;
+        
+        private Variable(String name) {
+            this.name = name;
+        }
+    }
+    
+    /**
+     * A string split into literal segments (String) and variable
+     * references (Variable)
+     */
+    private static class Template {
+        private final String str;
+        private final Object[] segments;
+        
+        private Template(String str, Object[] segments) {
+            this.str = str;
+            this.segments = segments;
+        }
+        
+        private String expand(VariableResolver resolver) throws TranslationException {
+            StringBuilder buf = new StringBuilder();
+            for (Object segment : segments) {
+                if (segment instanceof String) {
+                    buf.append((String) segment);
+                    continue;
+                }
+                
+                String varName = ((Variable) segment).name;
+                String value;
+                try {
+                    value = resolver.getVariableValue(varName);
+                } catch (TranslationException x) {
+                    throw new TranslationException("Failed to expand variable ${"+varName+'}',x);
+                }
+                if (value == null)
+                    throw new TranslationException(String.format("Undefined variable ${%s} in \"%s\"",
+                        varName, str));
+                buf.append(value);
+            }
+            return buf.toString();
+        }
+    }
 }
@@ -0,0 +1,213 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.jvnet.hk2.config;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the chunked, indexed list of children used by {@link Dom}
+ */
+public class ChildListTest {
+    private final static String A = "a";
+    private final static String B = "b";
+    private final static String C = "c";
+    private final static String NAMES[] = { A, B, C };
+    private final static int LARGE = 1000;
+    
+    private static void assertMatches(List<Dom.Child> expected, ChildList actual) {
+        Assert.assertEquals(expected.size(), actual.size());
+        
+        int lcv = 0;
+        for (Dom.Child child : actual) {
+            Assert.assertSame(expected.get(lcv), child);
+            Assert.assertSame(expected.get(lcv), actual.get(lcv));
+            lcv++;
+        }
+        
+        List<Dom.Child> expectedA = new ArrayList<Dom.Child>();
+        for (Dom.Child child : expected) {
+            if (A.equals(child.name)) expectedA.add(child);
+        }
+        
+        Dom.Child[] named = actual.named(A);
+        Assert.assertEquals(expectedA.size(), named.length);
+        for (lcv = 0; lcv < named.length; lcv++) {
+            Assert.assertSame(expectedA.get(lcv), named[lcv]);
+        }
+        
+        if (expectedA.isEmpty()) {
+            Assert.assertNull(actual.first(A));
+        }
+        else {
+            Assert.assertSame(expectedA.get(0), actual.first(A));
+        }
+    }
+    
+    /**
+     * Inserts, replaces and removes children in a list large enough to
+     * have many chunks, checking it against an ArrayList
+     */
+    @Test
+    public void testMutationsMatchArrayList() {
+        List<Dom.Child> expected = new ArrayList<Dom.Child>();
+        ChildList actual = ChildList.EMPTY;
+        
+        for (int lcv = 0; lcv < LARGE; lcv++) {
+            Dom.Child child = new Dom.LeafChild(((lcv % 3) == 0) ? A : B, Integer.toString(lcv));
+            
+            // Insert at varying places, including the start and the end
+            int index = (lcv * 7) % (expected.size() + 1);
+            expected.add(index, child);
+            actual = actual.insert(index, child);
+        }
+        assertMatches(expected, actual);
+        
+        ChildList beforeReplace = actual;
+        Dom.Child replacement = new Dom.LeafChild(A, "replacement");
+        expected.set(LARGE / 2, replacement);
+        actual = actual.replace(LARGE / 2, replacement);
+        assertMatches(expected, actual);
+        Assert.assertNotSame(replacement, beforeReplace.get(LARGE / 2));
+        
+        while (!expected.isEmpty()) {
+            int index = expected.size() / 3;
+            
+            expected.remove(index);
+            actual = actual.delete(index);
+            
+            if ((expected.size() % 97) == 0) {
+                assertMatches(expected, actual);
+            }
+        }
+        assertMatches(expected, actual);
+        Assert.assertSame(ChildList.EMPTY, actual);
+    }
+    
+    private static void assertIndexMatches(List<Dom.Child> expected, ChildList actual) {
+        Set<String> expectedNames = new HashSet<String>();
+        for (Dom.Child child : expected) {
+            expectedNames.add(child.name);
+        }
+        Assert.assertEquals(expectedNames, actual.names());
+        
+        for (String name : NAMES) {
+            List<Dom.Child> expectedNamed = new ArrayList<Dom.Child>();
+            for (Dom.Child child : expected) {
+                if (name.equals(child.name)) expectedNamed.add(child);
+            }
+            
+            Dom.Child[] named = actual.named(name);
+            Assert.assertEquals(name, expectedNamed.size(), named.length);
+            for (int lcv = 0; lcv < named.length; lcv++) {
+                Assert.assertSame(expectedNamed.get(lcv), named[lcv]);
+            }
+        }
+    }
+    
+    /**
+     * Every list is indexed before it is changed, so each insert, replace
+     * and remove updates the index of the list it came from rather than
+     * building a new one.  The index must match the children after each
+     */
+    @Test
+    public void testIndexFollowsMutations() {
+        Random random = new Random(11L);
+        List<Dom.Child> expected = new ArrayList<Dom.Child>();
+        ChildList actual = ChildList.EMPTY;
+        
+        for (int lcv = 0; lcv < 4 * LARGE; lcv++) {
+            String name = NAMES[random.nextInt(NAMES.length)];
+            Dom.Child child = new Dom.LeafChild(name, Integer.toString(lcv));
+            
+            // grow to several chunks, then shrink back down to empty
+            int op = random.nextInt(10);
+            boolean growing = lcv < 2 * LARGE;
+            
+            if (expected.isEmpty() || (growing && op < 6) || (!growing && op < 2)) {
+                int index = random.nextInt(expected.size() + 1);
+                expected.add(index, child);
+                actual = actual.insert(index, child);
+            }
+            else if (op < 8) {
+                int index = random.nextInt(expected.size());
+                expected.remove(index);
+                actual = actual.delete(index);
+            }
+            else {
+                int index = random.nextInt(expected.size());
+                expected.set(index, child);
+                actual = actual.replace(index, child);
+            }
+            
+            assertIndexMatches(expected, actual);
+        }
+        
+        while (!expected.isEmpty()) {
+            expected.remove(0);
+            actual = actual.delete(0);
+            assertIndexMatches(expected, actual);
+        }
+    }
+    
+    /**
+     * Tests building a list from an existing list
+     */
+    @Test
+    public void testOf() {
+        List<Dom.Child> expected = new ArrayList<Dom.Child>();
+        for (int lcv = 0; lcv < LARGE; lcv++) {
+            expected.add(new Dom.LeafChild(((lcv % 2) == 0) ? A : B, Integer.toString(lcv)));
+        }
+        
+        ChildList actual = ChildList.of(expected);
+        assertMatches(expected, actual);
+        
+        Assert.assertEquals(2, actual.names().size());
+        Assert.assertEquals(0, actual.named("c").length);
+        Assert.assertSame(ChildList.EMPTY, ChildList.of(new ArrayList<Dom.Child>()));
+    }
+}
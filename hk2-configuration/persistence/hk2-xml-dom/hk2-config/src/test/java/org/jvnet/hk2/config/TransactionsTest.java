@@ -0,0 +1,393 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.jvnet.hk2.config;
+
+import java.beans.PropertyChangeEvent;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.glassfish.hk2.api.DynamicConfiguration;
+import org.glassfish.hk2.api.DynamicConfigurationService;
+import org.glassfish.hk2.api.ServiceLocator;
+import org.glassfish.hk2.api.ServiceLocatorFactory;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.jvnet.hk2.config.test.ConfigModule;
+import org.jvnet.hk2.config.test.EjbContainerAvailability;
+import org.jvnet.hk2.config.test.SimpleConnector;
+import org.jvnet.hk2.config.test.SimpleDocument;
+
+/**
+ * Tests the ordering, batching and back-pressure of the notification
+ * queues of {@link Transactions}
+ * 
+ * @author jwells
+ */
+public class TransactionsTest {
+    private final static String TEST_NAME = "TransactionsTest";
+    private final static String PROPERTY = "sfsb-store-pool-name";
+    private final static int NUM_BATCHED = 20;
+    private final static long WAIT_SECONDS = 20;
+    
+    private ServiceLocator habitat;
+    private Transactions transactions;
+    private EjbContainerAvailability ejb;
+
+    @Before
+    public void before() throws Exception {
+        habitat = ServiceLocatorFactory.getInstance().create(TEST_NAME);
+        DynamicConfigurationService dcs = habitat.getService(DynamicConfigurationService.class);
+        DynamicConfiguration config = dcs.createDynamicConfiguration();
+        new ConfigModule(habitat).configure(config);
+        
+        config.commit();
+        
+        ConfigParser parser = new ConfigParser(habitat);
+        URL url = TransactionsTest.class.getResource("/domain.xml");
+        
+        DomDocument<?> doc = parser.parse(url, new SimpleDocument(habitat));
+        Assert.assertNotNull(doc);
+        
+        transactions = habitat.getService(Transactions.class);
+        ejb = habitat.getService(SimpleConnector.class).getEjbContainerAvailability();
+    }
+
+    @After
+    public void after() {
+        ServiceLocatorFactory.getInstance().destroy(habitat);
+        habitat = null;
+    }
+    
+    private List<PropertyChangeEvent> events(int value) {
+        return Collections.singletonList(new PropertyChangeEvent(ejb, PROPERTY, null, Integer.toString(value)));
+    }
+    
+    private static void await(CountDownLatch latch) throws InterruptedException {
+        Assert.assertTrue(latch.await(WAIT_SECONDS, TimeUnit.SECONDS));
+    }
+    
+    /**
+     * Transactions queued while a listener is busy are delivered in
+     * commit order, in a single callback
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testOrderAcrossBatchedCommits() throws Exception {
+        BlockingListener listener = new BlockingListener();
+        transactions.addTransactionsListener(listener);
+        
+        transactions.addTransaction(events(0), false);
+        await(listener.entered);
+        
+        for (int lcv = 1; lcv < NUM_BATCHED; lcv++) {
+            transactions.addTransaction(events(lcv), false);
+        }
+        
+        listener.release.countDown();
+        transactions.waitForDrain();
+        
+        List<String> expected = new ArrayList<String>();
+        for (int lcv = 0; lcv < NUM_BATCHED; lcv++) {
+            expected.add(Integer.toString(lcv));
+        }
+        Assert.assertEquals(expected, listener.getValues());
+        
+        // the first one on its own, all the others queued behind it together
+        Assert.assertEquals(2, listener.callbacks.get());
+    }
+    
+    /**
+     * A committer blocks once the queue of a listener is full, and
+     * both metrics follow the queue
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testBackPressureAtQueueBound() throws Exception {
+        BlockingListener listener = new BlockingListener();
+        transactions.addTransactionsListener(listener);
+        
+        Assert.assertEquals(0, transactions.getPendingJobCount());
+        
+        transactions.addTransaction(events(0), false);
+        await(listener.entered);
+        
+        // the job being delivered has left the queue, this fills it
+        for (int lcv = 1; lcv <= Transactions.MAX_PENDING_JOBS; lcv++) {
+            transactions.addTransaction(events(lcv), false);
+        }
+        
+        final CountDownLatch added = new CountDownLatch(1);
+        Thread committer = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                transactions.addTransaction(events(Transactions.MAX_PENDING_JOBS + 1), false);
+                added.countDown();
+            }
+            
+        });
+        committer.start();
+        
+        Assert.assertFalse(added.await(500, TimeUnit.MILLISECONDS));
+        
+        // only the jobs of the blocked listener remain, the config listener queue drains by itself
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(WAIT_SECONDS);
+        while (transactions.getPendingJobCount() != Transactions.MAX_PENDING_JOBS &&
+                System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(Transactions.MAX_PENDING_JOBS, transactions.getPendingJobCount());
+        Assert.assertTrue(transactions.getPeakPendingJobCount() >= Transactions.MAX_PENDING_JOBS);
+        
+        listener.release.countDown();
+        await(added);
+        committer.join();
+        
+        transactions.waitForDrain();
+        
+        Assert.assertEquals(0, transactions.getPendingJobCount());
+        Assert.assertTrue(transactions.getPeakPendingJobCount() >= Transactions.MAX_PENDING_JOBS);
+        Assert.assertEquals(Transactions.MAX_PENDING_JOBS + 2, listener.getValues().size());
+    }
+    
+    /**
+     * Many concurrent commits with slow config listeners must all be
+     * delivered, without the draining threads starving the listener callbacks
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testConfigListenersDoNotStarve() throws Exception {
+        final AtomicInteger delivered = new AtomicInteger();
+        for (int lcv = 0; lcv < 4; lcv++) {
+            transactions.addListenerForType(EjbContainerAvailability.class, new ConfigListener() {
+
+                @Override
+                public UnprocessedChangeEvents changed(PropertyChangeEvent[] events) {
+                    try {
+                        Thread.sleep(5);
+                    }
+                    catch (InterruptedException e) {
+                        throw new AssertionError(e);
+                    }
+                    delivered.addAndGet(events.length);
+                    return null;
+                }
+                
+            });
+        }
+        
+        int numCommitters = 2 * Transactions.MAX_THREADS;
+        final CountDownLatch done = new CountDownLatch(numCommitters);
+        for (int lcv = 0; lcv < numCommitters; lcv++) {
+            final int value = lcv;
+            new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    transactions.addTransaction(events(value));
+                    done.countDown();
+                }
+                
+            }).start();
+        }
+        
+        await(done);
+        Assert.assertEquals(4 * numCommitters, delivered.get());
+    }
+    
+    /**
+     * waitForDrain cannot be satisfied from within a callback, so it
+     * must fail rather than return without waiting
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testWaitForDrainFromListenerThrows() throws Exception {
+        final CountDownLatch called = new CountDownLatch(1);
+        final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+        transactions.addTransactionsListener(new TransactionListener() {
+
+            @Override
+            public void transactionCommited(List<PropertyChangeEvent> changes) {
+                try {
+                    transactions.waitForDrain();
+                }
+                catch (Throwable th) {
+                    failures.add(th);
+                }
+                called.countDown();
+            }
+
+            @Override
+            public void unprocessedTransactedEvents(List<UnprocessedChangeEvents> changes) {
+            }
+            
+        });
+        
+        transactions.addTransaction(events(0));
+        await(called);
+        
+        Assert.assertEquals(1, failures.size());
+        Assert.assertTrue(failures.get(0) instanceof IllegalStateException);
+    }
+    
+    /**
+     * The same holds for a config listener callback, which runs on a
+     * thread of the listener pool rather than a draining thread
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testWaitForDrainFromConfigListenerThrows() throws Exception {
+        final CountDownLatch called = new CountDownLatch(1);
+        final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+        transactions.addListenerForType(EjbContainerAvailability.class, new ConfigListener() {
+
+            @Override
+            public UnprocessedChangeEvents changed(PropertyChangeEvent[] events) {
+                try {
+                    transactions.waitForDrain();
+                }
+                catch (Throwable th) {
+                    failures.add(th);
+                }
+                called.countDown();
+                return null;
+            }
+            
+        });
+        
+        transactions.addTransaction(events(0));
+        await(called);
+        
+        Assert.assertEquals(1, failures.size());
+        Assert.assertTrue(failures.get(0) instanceof IllegalStateException);
+    }
+    
+    /**
+     * More config listeners than the listener pool has threads are all
+     * called, but never more of them at once than the pool allows
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testConfigListenerThreadsAreBounded() throws Exception {
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger peak = new AtomicInteger();
+        final AtomicInteger delivered = new AtomicInteger();
+        
+        int numListeners = 3 * Transactions.MAX_LISTENER_THREADS;
+        for (int lcv = 0; lcv < numListeners; lcv++) {
+            transactions.addListenerForType(EjbContainerAvailability.class, new ConfigListener() {
+
+                @Override
+                public UnprocessedChangeEvents changed(PropertyChangeEvent[] events) {
+                    int now = running.incrementAndGet();
+                    int max;
+                    while (now > (max = peak.get())) {
+                        if (peak.compareAndSet(max, now)) break;
+                    }
+                    
+                    try {
+                        Thread.sleep(20);
+                    }
+                    catch (InterruptedException e) {
+                        throw new AssertionError(e);
+                    }
+                    finally {
+                        running.decrementAndGet();
+                    }
+                    
+                    delivered.incrementAndGet();
+                    return null;
+                }
+                
+            });
+        }
+        
+        transactions.addTransaction(events(0));
+        
+        Assert.assertEquals(numListeners, delivered.get());
+        Assert.assertTrue("" + peak.get(), peak.get() <= Transactions.MAX_LISTENER_THREADS);
+    }
+    
+    private static class BlockingListener implements TransactionListener {
+        private final CountDownLatch entered = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+        private final AtomicInteger callbacks = new AtomicInteger();
+        private final List<String> values = new ArrayList<String>();
+
+        @Override
+        public void transactionCommited(List<PropertyChangeEvent> changes) {
+            synchronized (this) {
+                for (PropertyChangeEvent change : changes) {
+                    values.add((String) change.getNewValue());
+                }
+            }
+            callbacks.incrementAndGet();
+            
+            entered.countDown();
+            try {
+                release.await();
+            }
+            catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+        }
+
+        @Override
+        public void unprocessedTransactedEvents(List<UnprocessedChangeEvents> changes) {
+        }
+        
+        private synchronized List<String> getValues() {
+            return new ArrayList<String>(values);
+        }
+    }
+}
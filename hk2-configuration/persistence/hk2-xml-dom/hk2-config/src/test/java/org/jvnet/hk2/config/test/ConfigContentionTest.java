@@ -0,0 +1,191 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.jvnet.hk2.config.test;
+
+import java.beans.PropertyVetoException;
+import java.net.URL;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.glassfish.hk2.api.DynamicConfiguration;
+import org.glassfish.hk2.api.DynamicConfigurationService;
+import org.glassfish.hk2.api.ServiceLocator;
+import org.glassfish.hk2.api.ServiceLocatorFactory;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.jvnet.hk2.config.ConfigBeanProxy;
+import org.jvnet.hk2.config.ConfigCode;
+import org.jvnet.hk2.config.ConfigParser;
+import org.jvnet.hk2.config.ConfigSupport;
+import org.jvnet.hk2.config.DomDocument;
+import org.jvnet.hk2.config.TransactionFailure;
+
+/**
+ * Runs many concurrent transactions over the same config beans,
+ * enlisting them in different orders.  The elapsed time is only reported
+ * when -Dhk2.config.benchmark.contention.iterations is set to the number
+ * of transactions each thread commits, e.g. 2000
+ * 
+ * @author jwells
+ */
+public class ConfigContentionTest {
+    private final static String TEST_NAME = "ConfigContention";
+    private final static int NUM_THREADS = 16;
+    private final static int DEFAULT_NUM_ITERATIONS = 200;
+    private final static int BENCHMARK_ITERATIONS = Integer.getInteger("hk2.config.benchmark.contention.iterations", 0);
+    private final static int NUM_ITERATIONS = (BENCHMARK_ITERATIONS > 0) ? BENCHMARK_ITERATIONS : DEFAULT_NUM_ITERATIONS;
+    
+    private final static long WAIT_SECONDS = 120;
+    
+    private ServiceLocator habitat;
+
+    @Before
+    public void before() throws Exception {
+        habitat = ServiceLocatorFactory.getInstance().create(TEST_NAME);
+        DynamicConfigurationService dcs = habitat.getService(DynamicConfigurationService.class);
+        DynamicConfiguration config = dcs.createDynamicConfiguration();
+        new ConfigModule(habitat).configure(config);
+        
+        config.commit();
+        
+        ConfigParser parser = new ConfigParser(habitat);
+        URL url = ConfigContentionTest.class.getResource("/domain.xml");
+        
+        DomDocument doc = parser.parse(url, new SimpleDocument(habitat));
+        Assert.assertNotNull(doc);
+    }
+
+    @After
+    public void after() {
+        ServiceLocatorFactory.getInstance().destroy(habitat);
+        habitat = null;
+    }
+    
+    /**
+     * Half of the threads enlist the ejb bean first and half enlist
+     * the web bean first.  None of the transactions may fail, and since
+     * each one sets both beans the two must end up with the value of
+     * the last iteration
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testMultiBeanApplyUnderContention() throws Exception {
+        SimpleConnector sc = habitat.getService(SimpleConnector.class);
+        final EjbContainerAvailability ejb = sc.getEjbContainerAvailability();
+        final WebContainerAvailability web = sc.getWebContainerAvailability();
+        
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(NUM_THREADS);
+        final AtomicInteger failures = new AtomicInteger();
+        final AtomicInteger committed = new AtomicInteger();
+        
+        for (int lcv = 0; lcv < NUM_THREADS; lcv++) {
+            final boolean ejbFirst = ((lcv % 2) == 0);
+            
+            Thread t = new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        
+                        for (int i = 0; i < NUM_ITERATIONS; i++) {
+                            final String value = Integer.toString(i);
+                            ConfigBeanProxy first = (ejbFirst) ? ejb : web;
+                            ConfigBeanProxy second = (ejbFirst) ? web : ejb;
+                            
+                            try {
+                                ConfigSupport.apply(new ConfigCode() {
+
+                                    @Override
+                                    public Object run(ConfigBeanProxy... params)
+                                            throws PropertyVetoException, TransactionFailure {
+                                        EjbContainerAvailability e = (EjbContainerAvailability) params[ejbFirst ? 0 : 1];
+                                        WebContainerAvailability w = (WebContainerAvailability) params[ejbFirst ? 1 : 0];
+                                        
+                                        e.setSfsbStorePoolName(value);
+                                        w.setHttpSessionStorePoolName(value);
+                                        return null;
+                                    }
+                                    
+                                }, first, second);
+                                
+                                committed.incrementAndGet();
+                            }
+                            catch (TransactionFailure tf) {
+                                failures.incrementAndGet();
+                            }
+                        }
+                    }
+                    catch (InterruptedException ie) {
+                        failures.incrementAndGet();
+                    }
+                    finally {
+                        done.countDown();
+                    }
+                }
+                
+            });
+            t.setDaemon(true);
+            t.start();
+        }
+        
+        long startTime = System.currentTimeMillis();
+        start.countDown();
+        Assert.assertTrue("Transactions did not complete", done.await(WAIT_SECONDS, TimeUnit.SECONDS));
+        long elapsed = System.currentTimeMillis() - startTime;
+        
+        if (BENCHMARK_ITERATIONS > 0) {
+            System.out.println("ConfigContentionTest: " + (NUM_THREADS * NUM_ITERATIONS) +
+                    " transactions over " + NUM_THREADS + " threads took " + elapsed + " milliseconds");
+        }
+        
+        Assert.assertEquals(0, failures.get());
+        Assert.assertEquals(NUM_THREADS * NUM_ITERATIONS, committed.get());
+        
+        String last = Integer.toString(NUM_ITERATIONS - 1);
+        Assert.assertEquals(last, ejb.getSfsbStorePoolName());
+        Assert.assertEquals(last, web.getHttpSessionStorePoolName());
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.jvnet.hk2.config.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.jvnet.hk2.config.ConfigInjector;
+import org.jvnet.hk2.config.ConfigurationException;
+import org.jvnet.hk2.config.Dom;
+
+/**
+ * Tests for the primitive conversions used by generated injectors
+ * 
+ * @author jwells
+ */
+public class ConfigInjectorTest {
+    private final static float DELTA = 0.0001f;
+    
+    private final static ConfigInjector<Object> INJECTOR = new ConfigInjector<Object>() {
+
+        @Override
+        public void inject(Dom dom, Object target) {
+            throw new AssertionError("not called");
+        }
+
+        @Override
+        public void injectElement(Dom dom, String elementName, Object target) {
+            throw new AssertionError("not called");
+        }
+
+        @Override
+        public void injectAttribute(Dom dom, String attributeName, Object target) {
+            throw new AssertionError("not called");
+        }
+        
+    };
+    
+    private static void assertNotConverted(String method, String value) {
+        try {
+            if ("asLong".equals(method)) INJECTOR.asLong(value);
+            else if ("asShort".equals(method)) INJECTOR.asShort(value);
+            else if ("asByte".equals(method)) INJECTOR.asByte(value);
+            else if ("asFloat".equals(method)) INJECTOR.asFloat(value);
+            else if ("asDouble".equals(method)) INJECTOR.asDouble(value);
+            else if ("asChar".equals(method)) INJECTOR.asChar(value);
+            else throw new AssertionError("Unknown method " + method);
+            
+            Assert.fail(method + " should have rejected " + value);
+        }
+        catch (ConfigurationException ce) {
+            // expected
+        }
+    }
+    
+    /**
+     * Tests asLong
+     */
+    @Test
+    public void testAsLong() {
+        Assert.assertEquals(0L, INJECTOR.asLong("0"));
+        Assert.assertEquals(-42L, INJECTOR.asLong("-42"));
+        Assert.assertEquals(Long.MAX_VALUE, INJECTOR.asLong(Long.toString(Long.MAX_VALUE)));
+        Assert.assertEquals(Long.MIN_VALUE, INJECTOR.asLong(Long.toString(Long.MIN_VALUE)));
+        
+        assertNotConverted("asLong", "9223372036854775808");
+        assertNotConverted("asLong", "1.5");
+        assertNotConverted("asLong", "");
+        assertNotConverted("asLong", null);
+    }
+    
+    /**
+     * Tests asShort
+     */
+    @Test
+    public void testAsShort() {
+        Assert.assertEquals((short) 7, INJECTOR.asShort("7"));
+        Assert.assertEquals(Short.MAX_VALUE, INJECTOR.asShort("32767"));
+        Assert.assertEquals(Short.MIN_VALUE, INJECTOR.asShort("-32768"));
+        
+        assertNotConverted("asShort", "32768");
+        assertNotConverted("asShort", "seven");
+        assertNotConverted("asShort", null);
+    }
+    
+    /**
+     * Tests asByte
+     */
+    @Test
+    public void testAsByte() {
+        Assert.assertEquals((byte) 7, INJECTOR.asByte("7"));
+        Assert.assertEquals(Byte.MAX_VALUE, INJECTOR.asByte("127"));
+        Assert.assertEquals(Byte.MIN_VALUE, INJECTOR.asByte("-128"));
+        
+        assertNotConverted("asByte", "128");
+        assertNotConverted("asByte", "0x10");
+        assertNotConverted("asByte", null);
+    }
+    
+    /**
+     * Tests asFloat
+     */
+    @Test
+    public void testAsFloat() {
+        Assert.assertEquals(1.5f, INJECTOR.asFloat("1.5"), DELTA);
+        Assert.assertEquals(-3f, INJECTOR.asFloat("-3"), DELTA);
+        Assert.assertEquals(1.0e10f, INJECTOR.asFloat("1e10"), DELTA);
+        
+        assertNotConverted("asFloat", "one");
+        assertNotConverted("asFloat", "");
+        assertNotConverted("asFloat", null);
+    }
+    
+    /**
+     * Tests asDouble
+     */
+    @Test
+    public void testAsDouble() {
+        Assert.assertEquals(2.25, INJECTOR.asDouble("2.25"), DELTA);
+        Assert.assertEquals(-0.5, INJECTOR.asDouble("-.5"), DELTA);
+        Assert.assertEquals(Double.MAX_VALUE, INJECTOR.asDouble(Double.toString(Double.MAX_VALUE)), DELTA);
+        
+        assertNotConverted("asDouble", "1,5");
+        assertNotConverted("asDouble", "");
+        assertNotConverted("asDouble", null);
+    }
+    
+    /**
+     * Tests asChar
+     */
+    @Test
+    public void testAsChar() {
+        Assert.assertEquals('x', INJECTOR.asChar("x"));
+        Assert.assertEquals(' ', INJECTOR.asChar(" "));
+        Assert.assertEquals('\u00e9', INJECTOR.asChar("\u00e9"));
+        
+        assertNotConverted("asChar", "");
+        assertNotConverted("asChar", "xy");
+        assertNotConverted("asChar", null);
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.jvnet.hk2.config.test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import org.glassfish.hk2.api.DynamicConfiguration;
+import org.glassfish.hk2.api.DynamicConfigurationService;
+import org.glassfish.hk2.api.ServiceLocator;
+import org.glassfish.hk2.api.ServiceLocatorFactory;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.jvnet.hk2.config.ConfigParser;
+import org.jvnet.hk2.config.DomDocument;
+
+/**
+ * Parses a large synthetic document with and without batch registration
+ * 
+ * @author jwells
+ */
+public class ConfigParserBatchTest {
+    private final static String TEST_NAME = "ConfigParserBatchTest";
+    private final static int NUM_CONFIGS = 5000;
+    private final static String CONFIG_PREFIX = "config-";
+    
+    private static File document;
+    
+    @BeforeClass
+    public static void beforeClass() throws IOException {
+        document = File.createTempFile(TEST_NAME, ".xml");
+        
+        PrintWriter writer = new PrintWriter(new FileWriter(document));
+        try {
+            writer.println("<simple-connector>");
+            writer.println("  <ejb-container-availability/>");
+            writer.println("  <web-container-availability/>");
+            writer.println("  <generic-container>");
+            for (int lcv = 0; lcv < NUM_CONFIGS; lcv++) {
+                writer.println("    <generic-config name=\"" + CONFIG_PREFIX + lcv + "\">");
+                writer.println("      <generic-config name=\"child-of-" + CONFIG_PREFIX + lcv + "\"/>");
+                writer.println("    </generic-config>");
+            }
+            writer.println("  </generic-container>");
+            writer.println("</simple-connector>");
+        }
+        finally {
+            writer.close();
+        }
+    }
+    
+    @AfterClass
+    public static void afterClass() {
+        if (document != null) {
+            document.delete();
+        }
+    }
+    
+    private static ServiceLocator createLocator(String name) {
+        ServiceLocator habitat = ServiceLocatorFactory.getInstance().create(name);
+        DynamicConfigurationService dcs = habitat.getService(DynamicConfigurationService.class);
+        DynamicConfiguration config = dcs.createDynamicConfiguration();
+        new ConfigModule(habitat).configure(config);
+        
+        config.commit();
+        return habitat;
+    }
+    
+    private static long parse(ServiceLocator habitat, boolean batch) throws Exception {
+        ConfigParser parser = new ConfigParser(habitat, batch);
+        
+        long start = System.currentTimeMillis();
+        DomDocument doc = parser.parse(document.toURI().toURL(), new SimpleDocument(habitat));
+        long elapsed = System.currentTimeMillis() - start;
+        
+        Assert.assertNotNull(doc.getRoot());
+        return elapsed;
+    }
+    
+    /**
+     * Both modes must register the same services, the elapsed
+     * times are reported
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testBatchRegistrationMatchesSequential() throws Exception {
+        ServiceLocator sequential = createLocator(TEST_NAME + "Sequential");
+        ServiceLocator batched = createLocator(TEST_NAME + "Batched");
+        try {
+            long sequentialTime = parse(sequential, false);
+            long batchedTime = parse(batched, true);
+            
+            System.out.println("ConfigParserBatchTest: parsing " + document.length() + " bytes took " +
+                    sequentialTime + " milliseconds registering one at a time and " +
+                    batchedTime + " milliseconds with batch registration");
+            
+            Assert.assertEquals(sequential.getAllServiceHandles(GenericConfig.class).size(),
+                    batched.getAllServiceHandles(GenericConfig.class).size());
+            Assert.assertEquals(2 * NUM_CONFIGS, batched.getAllServiceHandles(GenericConfig.class).size());
+            
+            GenericConfig last = batched.getService(GenericConfig.class, CONFIG_PREFIX + (NUM_CONFIGS - 1));
+            Assert.assertNotNull(last);
+            Assert.assertEquals("child-of-" + CONFIG_PREFIX + (NUM_CONFIGS - 1), last.getGenericConfig().getName());
+            
+            Assert.assertNotNull(batched.getService(SimpleConnector.class));
+        }
+        finally {
+            ServiceLocatorFactory.getInstance().destroy(sequential);
+            ServiceLocatorFactory.getInstance().destroy(batched);
+        }
+    }
+}
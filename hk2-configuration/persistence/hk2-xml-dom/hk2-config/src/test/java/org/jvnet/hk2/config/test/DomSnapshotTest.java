@@ -0,0 +1,203 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.jvnet.hk2.config.test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import org.glassfish.hk2.api.DynamicConfiguration;
+import org.glassfish.hk2.api.DynamicConfigurationService;
+import org.glassfish.hk2.api.ServiceLocator;
+import org.glassfish.hk2.api.ServiceLocatorFactory;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.jvnet.hk2.config.ConfigParser;
+import org.jvnet.hk2.config.Dom;
+import org.jvnet.hk2.config.DomDocument;
+
+/**
+ * Tests reading a parsed document back from its binary snapshot
+ * 
+ * @author jwells
+ */
+public class DomSnapshotTest {
+    private final static String TEST_NAME = "DomSnapshotTest";
+    private final static int NUM_CONFIGS = 2000;
+    private final static String CONFIG_PREFIX = "config-";
+    
+    private File document;
+    private File snapshot;
+    
+    @Before
+    public void before() throws IOException {
+        document = File.createTempFile(TEST_NAME, ".xml");
+        snapshot = File.createTempFile(TEST_NAME, ".snapshot");
+        snapshot.delete();
+        
+        writeDocument(CONFIG_PREFIX);
+    }
+    
+    @After
+    public void after() {
+        document.delete();
+        snapshot.delete();
+    }
+    
+    private void writeDocument(String prefix) throws IOException {
+        PrintWriter writer = new PrintWriter(new FileWriter(document));
+        try {
+            writer.println("<simple-connector>");
+            writer.println("  <ejb-container-availability/>");
+            writer.println("  <web-container-availability/>");
+            writer.println("  <generic-container>");
+            for (int lcv = 0; lcv < NUM_CONFIGS; lcv++) {
+                writer.println("    <generic-config name=\"" + prefix + lcv + "\">");
+                writer.println("      <generic-config name=\"child-of-" + prefix + lcv + "\"/>");
+                writer.println("    </generic-config>");
+            }
+            writer.println("  </generic-container>");
+            writer.println("</simple-connector>");
+        }
+        finally {
+            writer.close();
+        }
+    }
+    
+    private static ServiceLocator createLocator(String name) {
+        ServiceLocator habitat = ServiceLocatorFactory.getInstance().create(name);
+        DynamicConfigurationService dcs = habitat.getService(DynamicConfigurationService.class);
+        DynamicConfiguration config = dcs.createDynamicConfiguration();
+        new ConfigModule(habitat).configure(config);
+        
+        config.commit();
+        return habitat;
+    }
+    
+    private long parse(ServiceLocator habitat) throws Exception {
+        ConfigParser parser = new ConfigParser(habitat);
+        
+        long start = System.currentTimeMillis();
+        DomDocument doc = parser.parseWithSnapshot(document.toURI().toURL(), new SimpleDocument(habitat), snapshot);
+        long elapsed = System.currentTimeMillis() - start;
+        
+        Assert.assertNotNull(doc.getRoot());
+        return elapsed;
+    }
+    
+    /**
+     * The second parse is read from the snapshot written by the
+     * first and must produce the same configuration
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testSnapshotMatchesParsedDocument() throws Exception {
+        ServiceLocator parsed = createLocator(TEST_NAME + "Parsed");
+        ServiceLocator restored = createLocator(TEST_NAME + "Restored");
+        try {
+            long parsedTime = parse(parsed);
+            Assert.assertTrue(snapshot.isFile());
+            
+            long restoredTime = parse(restored);
+            
+            System.out.println("DomSnapshotTest: parsing " + document.length() + " bytes took " +
+                    parsedTime + " milliseconds, reading the " + snapshot.length() +
+                    " byte snapshot took " + restoredTime + " milliseconds");
+            
+            Assert.assertEquals(2 * NUM_CONFIGS, restored.getAllServiceHandles(GenericConfig.class).size());
+            
+            String lastName = CONFIG_PREFIX + (NUM_CONFIGS - 1);
+            GenericConfig original = parsed.getService(GenericConfig.class, lastName);
+            GenericConfig last = restored.getService(GenericConfig.class, lastName);
+            Assert.assertNotNull(last);
+            Assert.assertEquals("child-of-" + lastName, last.getGenericConfig().getName());
+            
+            Dom originalDom = Dom.unwrap(original);
+            Dom lastDom = Dom.unwrap(last);
+            Assert.assertEquals(originalDom.getLocation().getLineNumber(), lastDom.getLocation().getLineNumber());
+            Assert.assertEquals(originalDom.getLocation().getSystemId(), lastDom.getLocation().getSystemId());
+            
+            Assert.assertNotNull(restored.getService(SimpleConnector.class));
+        }
+        finally {
+            ServiceLocatorFactory.getInstance().destroy(parsed);
+            ServiceLocatorFactory.getInstance().destroy(restored);
+        }
+    }
+    
+    /**
+     * A snapshot of an older version of the document must not be used,
+     * and is replaced by a snapshot of the current one
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testStaleSnapshotIsIgnored() throws Exception {
+        ServiceLocator first = createLocator(TEST_NAME + "First");
+        ServiceLocator second = createLocator(TEST_NAME + "Second");
+        ServiceLocator third = createLocator(TEST_NAME + "Third");
+        try {
+            parse(first);
+            Assert.assertTrue(snapshot.isFile());
+            
+            writeDocument("changed-");
+            parse(second);
+            
+            Assert.assertNull(second.getService(GenericConfig.class, CONFIG_PREFIX + 0));
+            Assert.assertNotNull(second.getService(GenericConfig.class, "changed-" + 0));
+            
+            Assert.assertTrue(snapshot.isFile());
+            Assert.assertFalse(new File(snapshot.getPath() + ".tmp").exists());
+            
+            // Read from the replaced snapshot
+            parse(third);
+            Assert.assertNotNull(third.getService(GenericConfig.class, "changed-" + 0));
+        }
+        finally {
+            ServiceLocatorFactory.getInstance().destroy(first);
+            ServiceLocatorFactory.getInstance().destroy(second);
+            ServiceLocatorFactory.getInstance().destroy(third);
+        }
+    }
+}
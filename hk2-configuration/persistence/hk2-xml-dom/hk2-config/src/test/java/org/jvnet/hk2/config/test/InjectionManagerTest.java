@@ -0,0 +1,241 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.jvnet.hk2.config.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.AnnotatedElement;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Type;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.glassfish.hk2.api.MultiException;
+import org.junit.Assert;
+import org.junit.Test;
+import org.jvnet.hk2.config.InjectionManager;
+import org.jvnet.hk2.config.InjectionResolver;
+
+/**
+ * Tests for reflective injection done by {@link InjectionManager}
+ * 
+ * @author jwells
+ */
+public class InjectionManagerTest {
+    private final static String PREFIX = "value-of-";
+    
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target({ElementType.FIELD, ElementType.METHOD})
+    public static @interface Injected {
+    }
+    
+    private static class ValueResolver extends InjectionResolver<Injected> {
+        private ValueResolver() {
+            super(Injected.class);
+        }
+
+        @Override
+        public <V> V getValue(Object component, AnnotatedElement annotated,
+                Type genericType, Class<V> type) throws MultiException {
+            String name;
+            if (annotated instanceof Field) {
+                name = ((Field) annotated).getName();
+            }
+            else {
+                name = ((Method) annotated).getName();
+            }
+            
+            return type.cast(PREFIX + name);
+        }
+    }
+    
+    public static class BaseComponent {
+        @Injected
+        private String baseField;
+        
+        @Deprecated
+        private String otherAnnotation;
+        
+        private String notAnnotated;
+        
+        private String fromMethod;
+        
+        @Injected
+        public void setFromMethod(String fromMethod) {
+            this.fromMethod = fromMethod;
+        }
+        
+        public void setFromMethod(Integer ignored) {
+            throw new AssertionError("Not annotated, must not be called");
+        }
+    }
+    
+    public static class Component extends BaseComponent {
+        @Injected
+        private String subField;
+    }
+    
+    public static class Unloadable {
+        @Injected
+        private String field;
+        
+        @Injected
+        public void setFromMethod(String fromMethod) {
+        }
+    }
+    
+    /**
+     * Defines {@link Unloadable} itself rather than asking its parent
+     */
+    private static class ChildFirstLoader extends ClassLoader {
+        private ChildFirstLoader() {
+            super(InjectionManagerTest.class.getClassLoader());
+        }
+        
+        @Override
+        protected synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (!Unloadable.class.getName().equals(name)) return super.loadClass(name, resolve);
+            
+            Class<?> retVal = findLoadedClass(name);
+            if (retVal != null) return retVal;
+            
+            try {
+                InputStream is = getParent().getResourceAsStream(name.replace('.', '/') + ".class");
+                try {
+                    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                    byte[] buffer = new byte[1024];
+                    int read;
+                    while ((read = is.read(buffer)) >= 0) {
+                        baos.write(buffer, 0, read);
+                    }
+                    
+                    byte[] bytes = baos.toByteArray();
+                    return defineClass(name, bytes, 0, bytes.length);
+                }
+                finally {
+                    is.close();
+                }
+            }
+            catch (IOException e) {
+                throw new ClassNotFoundException(name, e);
+            }
+        }
+    }
+    
+    private static void checkInjected(Component component) {
+        Assert.assertEquals(PREFIX + "subField", component.subField);
+        Assert.assertEquals(PREFIX + "baseField", ((BaseComponent) component).baseField);
+        Assert.assertEquals(PREFIX + "setFromMethod", ((BaseComponent) component).fromMethod);
+        Assert.assertNull(((BaseComponent) component).otherAnnotation);
+        Assert.assertNull(((BaseComponent) component).notAnnotated);
+    }
+    
+    /**
+     * Injects several instances of the same class, all but the first of
+     * which use the remembered injection points of the class and its
+     * superclass
+     */
+    @Test
+    public void testRepeatedInjection() {
+        InjectionManager manager = new InjectionManager();
+        ValueResolver resolver = new ValueResolver();
+        
+        for (int lcv = 0; lcv < 3; lcv++) {
+            Component component = new Component();
+            manager.inject(component, resolver);
+            checkInjected(component);
+        }
+    }
+    
+    private static WeakReference<ClassLoader> injectIntoUnloadable(InjectionManager manager) throws Exception {
+        ClassLoader loader = new ChildFirstLoader();
+        Class<?> clazz = loader.loadClass(Unloadable.class.getName());
+        Assert.assertNotSame(Unloadable.class, clazz);
+        
+        Object component = clazz.newInstance();
+        manager.inject(component, new ValueResolver());
+        
+        Field field = clazz.getDeclaredField("field");
+        field.setAccessible(true);
+        Assert.assertEquals(PREFIX + "field", field.get(component));
+        
+        return new WeakReference<ClassLoader>(loader);
+    }
+    
+    /**
+     * Remembering the injection points of a class must not keep its class
+     * loader from being collected once memory runs short.  The members are
+     * softly held, so the heap is filled until they are cleared, which the
+     * JVM does before it would throw an OutOfMemoryError
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testInjectionPointsDoNotPinClassLoader() throws Exception {
+        WeakReference<ClassLoader> loader = injectIntoUnloadable(new InjectionManager());
+        
+        List<byte[]> hog = new LinkedList<byte[]>();
+        try {
+            while (loader.get() != null) {
+                hog.add(new byte[1024 * 1024]);
+            }
+        }
+        catch (OutOfMemoryError oome) {
+            // expected, all soft references have been cleared by now
+        }
+        finally {
+            hog.clear();
+        }
+        
+        for (int lcv = 0; lcv < 100 && loader.get() != null; lcv++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        
+        Assert.assertNull(loader.get());
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.jvnet.hk2.config.test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.jvnet.hk2.config.TranslationException;
+import org.jvnet.hk2.config.VariableResolver;
+
+/**
+ * Tests for the parsed template cache of {@link VariableResolver}.  The
+ * benchmark only runs when -Dhk2.config.benchmark.translations is set to
+ * the number of translations to time, e.g. 1000000
+ * 
+ * @author jwells
+ */
+public class VariableResolverTest {
+    private final static int BENCHMARK_TRANSLATIONS = Integer.getInteger("hk2.config.benchmark.translations", 0);
+    
+    private static class MapResolver extends VariableResolver {
+        private final Map<String, String> values = new HashMap<String, String>();
+        private int lookups;
+        
+        private void put(String key, String value) {
+            values.put(key, value);
+        }
+
+        @Override
+        protected String getVariableValue(String varName) throws TranslationException {
+            lookups++;
+            return values.get(varName);
+        }
+    }
+    
+    /**
+     * Tests literal text, escapes and variables
+     */
+    @Test
+    public void testExpansion() {
+        MapResolver resolver = new MapResolver();
+        resolver.put("abc", "value-of-abc");
+        resolver.put("x.y", "Y");
+        
+        Assert.assertEquals("plain", resolver.translate("plain"));
+        Assert.assertEquals("value-of-abc", resolver.translate("${abc}"));
+        Assert.assertEquals("a value-of-abc b Y c", resolver.translate("a ${abc} b ${x.y} c"));
+        Assert.assertEquals("${abc}", resolver.translate("$${abc}"));
+        Assert.assertEquals("$abc", resolver.translate("$abc"));
+        Assert.assertEquals("end$", resolver.translate("end$"));
+        
+        // Twice to go through the parsed template
+        Assert.assertEquals("a value-of-abc b Y c", resolver.translate("a ${abc} b ${x.y} c"));
+    }
+    
+    /**
+     * Tests the errors are the same as before
+     */
+    @Test
+    public void testErrors() {
+        MapResolver resolver = new MapResolver();
+        
+        try {
+            resolver.translate("${abc");
+            Assert.fail("Missing brace should fail");
+        }
+        catch (TranslationException te) {
+            Assert.assertTrue(te.getMessage().contains("Missing '}'"));
+        }
+        
+        for (int lcv = 0; lcv < 2; lcv++) {
+            try {
+                resolver.translate("${undefined}");
+                Assert.fail("Undefined variable should fail");
+            }
+            catch (TranslationException te) {
+                Assert.assertTrue(te.getMessage().contains("Undefined variable ${undefined}"));
+            }
+        }
+    }
+    
+    /**
+     * Only the parsed form of the string is cached, every translation
+     * asks for the current value of each variable
+     */
+    @Test
+    public void testVariableChangesAreSeen() {
+        MapResolver resolver = new MapResolver();
+        resolver.put("abc", "1");
+        Assert.assertEquals("x1y", resolver.translate("x${abc}y"));
+        Assert.assertEquals(1, resolver.lookups);
+        
+        resolver.put("abc", "2");
+        Assert.assertEquals("x2y", resolver.translate("x${abc}y"));
+        Assert.assertEquals(2, resolver.lookups);
+    }
+    
+    /**
+     * Reports the cost of reading values with and without variables
+     */
+    @Test
+    public void benchmarkTranslation() {
+        if (BENCHMARK_TRANSLATIONS <= 0) return;
+        
+        MapResolver resolver = new MapResolver();
+        resolver.put("port", "8080");
+        
+        String[] inputs = { "8080", "${port}", "http://localhost:${port}/context" };
+        for (String input : inputs) {
+            long elapsed = time(resolver, input);
+            
+            System.out.println("VariableResolverTest: " + BENCHMARK_TRANSLATIONS + " translations of \"" + input +
+                    "\" took " + elapsed + " milliseconds");
+        }
+    }
+    
+    private static long time(VariableResolver resolver, String input) {
+        long start = System.currentTimeMillis();
+        for (int lcv = 0; lcv < BENCHMARK_TRANSLATIONS; lcv++) {
+            Assert.assertNotNull(resolver.translate(input));
+        }
+        return System.currentTimeMillis() - start;
+    }
+}
@@ -40,13 +40,16 @@
 package org.glassfish.hk2.configuration.hub.xml.dom.integration.internal;
 
 import java.beans.PropertyChangeEvent;
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.annotation.PostConstruct;
 import javax.inject.Inject;
@@ -70,6 +73,8 @@ import org.jvnet.hk2.config.ConfigBean;
 import org.jvnet.hk2.config.ConfigBeanProxy;
 import org.jvnet.hk2.config.ConfigModel;
 import org.jvnet.hk2.config.Dom;
+import org.jvnet.hk2.config.TransactionListener;
+import org.jvnet.hk2.config.Transactions;
 import org.jvnet.hk2.config.UnprocessedChangeEvents;
 
 /**
@@ -102,6 +107,16 @@ public class ConfigListener implements DynamicConfigurationListener {
     
     private final LinkedList<String> knownChangedProperties = new LinkedList<String>();
     
+    /**
+     * The key of every bean in the hub, by its {@link Dom}.  This is used when
+     * applying the changes of a transaction and must not be guarded by the
+     * descriptors lock, which is held while committing to the hub
+     */
+    private final ConcurrentHashMap<Dom, HubKey> keysByDom = new ConcurrentHashMap<Dom, HubKey>();
+    
+    private final TransactionBatcher batcher = new TransactionBatcher();
+    private boolean batcherRegistered = false;
+    
     private static String getTagName(ConfigModel childModel, Dom parent, String defaultTagName) {
         if (parent == null) return defaultTagName;
         
@@ -178,11 +193,12 @@ public class ConfigListener implements DynamicConfigurationListener {
         }
         
         HubKey retVal = new HubKey(handle,
+                topDom,
                 typeBuffer.toString(),
                 instanceBuffer.toString(),
                 null,
                 locator.getAllServices(XmlDomTranslationService.class));
-        topDom.addListener(retVal);
+        keysByDom.put(topDom, retVal);
         return retVal;
     }
     
@@ -213,6 +229,8 @@ public class ConfigListener implements DynamicConfigurationListener {
     }
     
     private void removeInstance(HubKey key) {
+        keysByDom.remove(key.dom);
+        
         for (int lcv = 0; lcv < MAX_TRIES; lcv++) {
             WriteableBeanDatabase wbd = hub.getWriteableDatabaseCopy();
             
@@ -237,6 +255,7 @@ public class ConfigListener implements DynamicConfigurationListener {
     @PostConstruct
     public void configurationChanged() {
         try {
+          registerBatcher();
           internalConfigurationChanged();
         }
         catch (Throwable th) {
@@ -244,6 +263,50 @@ public class ConfigListener implements DynamicConfigurationListener {
         }
     }
     
+    private synchronized void registerBatcher() {
+        if (batcherRegistered) return;
+        
+        Transactions transactions = locator.getService(Transactions.class);
+        if (transactions == null) return;
+        
+        transactions.addTransactionsListener(batcher);
+        batcherRegistered = true;
+    }
+    
+    private boolean isKnownChange(List<PropertyChangeEvent> events) {
+        synchronized (knownChangedProperties) {
+            for (String knownProperty : knownChangedProperties) {
+                for (PropertyChangeEvent event : events) {
+                    if (event.getPropertyName() != null && event.getPropertyName().equals(knownProperty)) {
+                        Logger.getLogger().debug("WRITEBACK: ConfigListener ignoring property changes due to detected replay of " +
+                                knownProperty + " within " + getPrettyEventList(events));
+                        return true;
+                    }
+                }
+            }
+        }
+        
+        return false;
+    }
+    
+    private static String getPrettyEventList(List<PropertyChangeEvent> events) {
+        StringBuffer sb = new StringBuffer("[");
+        
+        boolean first=true;
+        for (PropertyChangeEvent event : events) {
+            if (first) {
+                first = false;
+                sb.append(event.getPropertyName());
+            }
+            else {
+                sb.append("," + event.getPropertyName());
+            }
+        }
+        
+        sb.append("]");
+        return sb.toString();
+    }
+    
     /* package */ void addKnownChange(String property) {
         synchronized (knownChangedProperties) {
             knownChangedProperties.add(property);
@@ -302,8 +365,9 @@ public class ConfigListener implements DynamicConfigurationListener {
         }
     }
     
-    private class HubKey implements org.jvnet.hk2.config.ConfigListener {
+    private class HubKey {
         private final ServiceHandle<?> iHandle;
+        private final Dom dom;
         private final String iType;
         private final String iInstance;
         private final Object iMetadata;
@@ -314,8 +378,9 @@ public class ConfigListener implements DynamicConfigurationListener {
         private Object translatedService;
         private Object translatedMetadata;
         
-        private HubKey(ServiceHandle<?> handle, String type, String instance, Object metadata, List<XmlDomTranslationService> translators) {
+        private HubKey(ServiceHandle<?> handle, Dom dom, String type, String instance, Object metadata, List<XmlDomTranslationService> translators) {
             this.iHandle = handle;
+            this.dom = dom;
             this.iType = type;
             this.iInstance = instance;
             this.iMetadata = metadata;
@@ -391,70 +456,118 @@ public class ConfigListener implements DynamicConfigurationListener {
             return translatedMetadata;
         }
         
-        private String getPrettyEventList(PropertyChangeEvent[] events) {
-            StringBuffer sb = new StringBuffer("[");
-            
-            boolean first=true;
-            for (PropertyChangeEvent event : events) {
-                if (first) {
-                    first = false;
-                    sb.append(event.getPropertyName());
-                }
-                else {
-                    sb.append("," + event.getPropertyName());
-                }
-            }
+        /**
+         * Must be called before {@link #modify} since the bean may
+         * translate differently now that it has changed
+         */
+        private synchronized void retranslate() {
+            translate();
+        }
+        
+        /**
+         * Adds the modification of this bean to the given database copy
+         * 
+         * @return false if the type of this bean is not in the database
+         */
+        private synchronized boolean modify(WriteableBeanDatabase wbd, List<PropertyChangeEvent> events) {
+            WriteableType wt = wbd.getWriteableType(translatedType);
+            if (wt == null) return false;
             
-            sb.append("]");
-            return sb.toString();
+            wt.modifyInstance(translatedInstance, translatedService,
+                    events.toArray(new PropertyChangeEvent[events.size()]));
+            return true;
         }
+        @Override
+        public String toString() {
+            return "HubKey(" + iType + "," + iInstance + "," + System.identityHashCode(this) + ")";
+        }   
+    }
+    
+    /**
+     * Applies all the changes of an hk2-config transaction, or of several consecutive
+     * transactions, to the hub with a single commit.  Changes to a bean are also
+     * applied to its parent, as they were when each bean had its own {@link org.jvnet.hk2.config.ConfigListener}
+     * 
+     * @author jwells
+     */
+    private class TransactionBatcher implements TransactionListener {
         
+        private void addChange(Map<HubKey, List<PropertyChangeEvent>> changes, HubKey key, PropertyChangeEvent event) {
+            if (key == null) return;
+            
+            List<PropertyChangeEvent> events = changes.get(key);
+            if (events == null) {
+                events = new ArrayList<PropertyChangeEvent>();
+                changes.put(key, events);
+            }
+            events.add(event);
+        }
+
         /* (non-Javadoc)
-         * @see org.jvnet.hk2.config.ConfigListener#changed(java.beans.PropertyChangeEvent[])
+         * @see org.jvnet.hk2.config.TransactionListener#transactionCommited(java.util.List)
          */
         @Override
-        public synchronized UnprocessedChangeEvents changed(PropertyChangeEvent[] events) {
-            synchronized (knownChangedProperties) {
-                Logger.getLogger().debug("WRITEBACK: ConfigListener processing events: " +
-                  getPrettyEventList(events) + " with known properties " + knownChangedProperties);
-                for (String knownProperty : knownChangedProperties) {
-                    for (PropertyChangeEvent event : events) {
-                        if (event.getPropertyName() != null && event.getPropertyName().equals(knownProperty)) {
-                            Logger.getLogger().debug("WRITEBACK: ConfigListener ignoring property changes due to detected replay of " +
-                                    knownProperty + " within " + getPrettyEventList(events));
-                                return null;
-                        }
-                    }
+        public void transactionCommited(List<PropertyChangeEvent> events) {
+            Map<HubKey, List<PropertyChangeEvent>> changes = new LinkedHashMap<HubKey, List<PropertyChangeEvent>>();
+            for (PropertyChangeEvent event : events) {
+                if (!(event.getSource() instanceof ConfigBeanProxy)) continue;
+                
+                Dom dom = Dom.unwrap((ConfigBeanProxy) event.getSource());
+                if (dom == null) continue;
+                
+                addChange(changes, keysByDom.get(dom), event);
+                if (dom.parent() != null) {
+                    addChange(changes, keysByDom.get(dom.parent()), event);
                 }
             }
-            Logger.getLogger().debug("WRITEBACK: Processing changes: " + getPrettyEventList(events));
             
-            // Must force re-translation
-            translate();
+            // Write-back echoes are dropped bean by bean, so they do not
+            // hide the other changes of the same transaction
+            Iterator<Map.Entry<HubKey, List<PropertyChangeEvent>>> iterator = changes.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<HubKey, List<PropertyChangeEvent>> entry = iterator.next();
+                
+                if (isKnownChange(entry.getValue())) {
+                    iterator.remove();
+                }
+                else {
+                    entry.getKey().retranslate();
+                }
+            }
+            
+            if (changes.isEmpty()) return;
+            
+            Logger.getLogger().debug("WRITEBACK: Processing changes to " + changes.size() + " beans in one commit");
             
             for (int lcv = 0; lcv < MAX_TRIES; lcv++) {
                 WriteableBeanDatabase wbd = hub.getWriteableDatabaseCopy();
                 
-                WriteableType wt = wbd.getWriteableType(translatedType);
-                if (wt == null) return null;
+                boolean modified = false;
+                for (Map.Entry<HubKey, List<PropertyChangeEvent>> entry : changes.entrySet()) {
+                    if (entry.getKey().modify(wbd, entry.getValue())) {
+                        modified = true;
+                    }
+                }
                 
-                wt.modifyInstance(translatedInstance, translatedService, events);
+                if (!modified) return;
                 
                 try {
-                  wbd.commit(new XmlDomIntegrationCommitMessage() {});
-                  break;
+                    wbd.commit(new XmlDomIntegrationCommitMessage() {});
+                    break;
                 }
                 catch (IllegalStateException ise) {
                     // keep going
                 }
             }
-            
-            return null;
         }
-          
+
+        /* (non-Javadoc)
+         * @see org.jvnet.hk2.config.TransactionListener#unprocessedTransactedEvents(java.util.List)
+         */
         @Override
-        public String toString() {
-            return "HubKey(" + iType + "," + iInstance + "," + System.identityHashCode(this) + ")";
-        }   
+        public void unprocessedTransactedEvents(List<UnprocessedChangeEvents> changes) {
+            // Nothing to do
+        }
+        
     }
 }
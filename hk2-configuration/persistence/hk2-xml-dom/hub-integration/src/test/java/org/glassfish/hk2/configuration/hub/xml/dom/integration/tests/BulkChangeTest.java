@@ -0,0 +1,178 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.glassfish.hk2.configuration.hub.xml.dom.integration.tests;
+
+import java.beans.PropertyVetoException;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.List;
+
+import org.glassfish.hk2.api.ServiceLocator;
+import org.glassfish.hk2.configuration.hub.api.BeanDatabase;
+import org.glassfish.hk2.configuration.hub.api.BeanDatabaseUpdateListener;
+import org.glassfish.hk2.configuration.hub.api.Change;
+import org.glassfish.hk2.configuration.hub.api.Hub;
+import org.glassfish.hk2.configuration.hub.xml.dom.integration.tests.common.ConfigHubIntegrationUtilities;
+import org.glassfish.hk2.utilities.ServiceLocatorUtilities;
+import org.junit.Assert;
+import org.junit.Test;
+import org.jvnet.hk2.config.ConfigBeanProxy;
+import org.jvnet.hk2.config.ConfigCode;
+import org.jvnet.hk2.config.ConfigParser;
+import org.jvnet.hk2.config.ConfigSupport;
+import org.jvnet.hk2.config.TransactionFailure;
+
+/**
+ * Tests that the changes of one hk2-config transaction reach
+ * the hub in one commit
+ * 
+ * @author jwells
+ */
+public class BulkChangeTest {
+    private final static String RBEAN_TAG = "/q-bean/r-bean";
+    private final static String RBEAN_INSTANCE_PREFIX = "q-bean.";
+    private final static String NAME_PREFIX = "r-";
+    private final static String OLD_VALUE = "old";
+    private final static String NEW_VALUE = "new";
+    private final static int NUM_BEANS = 1000;
+    
+    private static File writeDocument() throws IOException {
+        File document = File.createTempFile("BulkChangeTest", ".xml");
+        
+        PrintWriter writer = new PrintWriter(new FileWriter(document));
+        try {
+            writer.println("<q-bean>");
+            for (int lcv = 0; lcv < NUM_BEANS; lcv++) {
+                writer.println("  <r-bean name=\"" + NAME_PREFIX + lcv + "\" value=\"" + OLD_VALUE + "\"/>");
+            }
+            writer.println("</q-bean>");
+        }
+        finally {
+            writer.close();
+        }
+        
+        return document;
+    }
+    
+    /**
+     * Changes an attribute of every bean in one transaction and
+     * ensures the hub sees a single commit with all the modifications
+     * 
+     * @throws Exception
+     */
+    @Test // @org.junit.Ignore
+    public void testBulkChangeIsOneHubCommit() throws Exception {
+        ServiceLocator testLocator = ConfigHubIntegrationUtilities.createPopulateAndConfigInit();
+        
+        File document = writeDocument();
+        try {
+            ConfigParser parser = new ConfigParser(testLocator, true);
+            parser.parse(document.toURI().toURL());
+        }
+        finally {
+            document.delete();
+        }
+        
+        QBean qbean = testLocator.getService(QBean.class);
+        Assert.assertNotNull(qbean);
+        
+        List<RBean> rbeans = qbean.getRBeans();
+        Assert.assertEquals(NUM_BEANS, rbeans.size());
+        
+        CommitCounter counter = new CommitCounter();
+        ServiceLocatorUtilities.addOneConstant(testLocator, counter);
+        
+        long start = System.currentTimeMillis();
+        ConfigSupport.apply(new ConfigCode() {
+
+            @Override
+            public Object run(ConfigBeanProxy... params)
+                    throws PropertyVetoException, TransactionFailure {
+                for (ConfigBeanProxy param : params) {
+                    ((RBean) param).setValue(NEW_VALUE);
+                }
+                return null;
+            }
+            
+        }, rbeans.toArray(new RBean[rbeans.size()]));
+        long elapsed = System.currentTimeMillis() - start;
+        
+        System.out.println("BulkChangeTest: changing " + NUM_BEANS + " beans took " + elapsed +
+                " milliseconds with " + counter.commits + " hub commit(s)");
+        
+        Assert.assertEquals(1, counter.commits);
+        Assert.assertTrue(counter.changes >= NUM_BEANS);
+        
+        Hub hub = testLocator.getService(Hub.class);
+        BeanDatabase beanDatabase = hub.getCurrentDatabase();
+        
+        RBean last = (RBean) beanDatabase.getInstance(RBEAN_TAG,
+                RBEAN_INSTANCE_PREFIX + NAME_PREFIX + (NUM_BEANS - 1)).getBean();
+        Assert.assertEquals(NEW_VALUE, last.getValue());
+    }
+    
+    private static class CommitCounter implements BeanDatabaseUpdateListener {
+        private int commits;
+        private int changes;
+
+        @Override
+        public void prepareDatabaseChange(BeanDatabase currentDatabase,
+                BeanDatabase proposedDatabase, Object commitMessage,
+                List<Change> changes) {
+        }
+
+        @Override
+        public synchronized void commitDatabaseChange(BeanDatabase oldDatabase,
+                BeanDatabase currentDatabase, Object commitMessage,
+                List<Change> changes) {
+            commits++;
+            this.changes += changes.size();
+        }
+
+        @Override
+        public void rollbackDatabaseChange(BeanDatabase currentDatabase,
+                BeanDatabase proposedDatabase, Object commitMessage,
+                List<Change> changes) {
+        }
+        
+    }
+}
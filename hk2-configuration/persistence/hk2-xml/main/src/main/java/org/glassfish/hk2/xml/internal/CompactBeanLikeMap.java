@@ -0,0 +1,406 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.glassfish.hk2.xml.internal;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A bean-like map whose well-known keys (the properties described by
+ * the {@link Model} of a proxy class) are stored in a fixed slot array
+ * rather than in hash entries.  The layout (key to slot) is computed once
+ * per proxy class and shared by every bean of that class, so a bean only
+ * pays for one reference per property.  Keys not in the layout are kept in
+ * an overflow map that is only allocated when needed
+ * 
+ * @author jwells
+ *
+ */
+public class CompactBeanLikeMap extends AbstractMap<String, Object> implements Serializable {
+    private static final long serialVersionUID = -3426523185302117520L;
+    
+    private final Layout layout;
+    private final Object slots[];
+    
+    /** Bit n is set when slot n holds a value, for the first 64 slots */
+    private long present;
+    
+    /** The same for the slots past the first 64, only allocated once one of them is set */
+    private long morePresent[];
+    private HashMap<String, Object> overflow;
+    
+    private transient Set<Map.Entry<String, Object>> entrySet;
+    
+    /**
+     * Creates an empty map with the given layout
+     * 
+     * @param layout The non-null layout shared by all beans of a proxy class
+     */
+    public CompactBeanLikeMap(Layout layout) {
+        this.layout = layout;
+        slots = new Object[layout.keys.length];
+    }
+    
+    /**
+     * Copies all of the values of the other map into this one.  When
+     * both maps share a layout this is a straight array copy
+     * 
+     * @param other The non-null map to copy from
+     * @param skip Keys that should not be copied, may be null
+     */
+    public void copyFrom(CompactBeanLikeMap other, Collection<String> skip) {
+        if (other.layout != layout) {
+            for (Map.Entry<String, Object> entry : other.entrySet()) {
+                if (skip != null && skip.contains(entry.getKey())) continue;
+                
+                put(entry.getKey(), entry.getValue());
+            }
+            
+            return;
+        }
+        
+        System.arraycopy(other.slots, 0, slots, 0, slots.length);
+        present = other.present;
+        morePresent = (other.morePresent == null) ? null : other.morePresent.clone();
+        overflow = (other.overflow == null) ? null : new HashMap<String, Object>(other.overflow);
+        
+        if (skip == null) return;
+        for (String skipMe : skip) {
+            remove(skipMe);
+        }
+    }
+    
+    /**
+     * Returns the layout of this map
+     * 
+     * @return The layout of this map
+     */
+    public Layout getLayout() {
+        return layout;
+    }
+    
+    private long getPresentWord(int word) {
+        if (word == 0) return present;
+        return (morePresent == null) ? 0L : morePresent[word - 1];
+    }
+    
+    private boolean isPresent(int slot) {
+        return (getPresentWord(slot >> 6) & (1L << slot)) != 0L;
+    }
+    
+    private void setPresent(int slot) {
+        if (slot < 64) {
+            present |= (1L << slot);
+            return;
+        }
+        
+        if (morePresent == null) morePresent = new long[(slots.length - 1) >> 6];
+        morePresent[(slot >> 6) - 1] |= (1L << slot);
+    }
+    
+    private void clearPresent(int slot) {
+        if (slot < 64) {
+            present &= ~(1L << slot);
+            return;
+        }
+        
+        if (morePresent == null) return;
+        morePresent[(slot >> 6) - 1] &= ~(1L << slot);
+    }
+    
+    /**
+     * Returns the first slot at or after from that holds a value
+     * 
+     * @param from The first slot to look at
+     * @return The slot found, or -1 if there is none
+     */
+    private int nextPresent(int from) {
+        int firstWord = from >> 6;
+        int lastWord = (slots.length - 1) >> 6;
+        for (int word = firstWord; word <= lastWord; word++) {
+            long bits = getPresentWord(word);
+            if (word == firstWord) bits &= (-1L << from);
+            
+            if (bits != 0L) return (word << 6) + Long.numberOfTrailingZeros(bits);
+        }
+        
+        return -1;
+    }
+    
+    @Override
+    public int size() {
+        int retVal = Long.bitCount(present);
+        if (morePresent != null) {
+            for (long bits : morePresent) {
+                retVal += Long.bitCount(bits);
+            }
+        }
+        if (overflow != null) retVal += overflow.size();
+        return retVal;
+    }
+    
+    @Override
+    public boolean containsKey(Object key) {
+        int index = layout.indexOf(key);
+        if (index >= 0) return isPresent(index);
+        
+        return (overflow != null) && overflow.containsKey(key);
+    }
+    
+    @Override
+    public Object get(Object key) {
+        int index = layout.indexOf(key);
+        if (index >= 0) return slots[index];
+        
+        return (overflow == null) ? null : overflow.get(key);
+    }
+    
+    @Override
+    public Object put(String key, Object value) {
+        if (key == null) throw new IllegalArgumentException("key may not be null");
+        
+        int index = layout.indexOf(key);
+        if (index >= 0) {
+            Object retVal = slots[index];
+            slots[index] = value;
+            setPresent(index);
+            return retVal;
+        }
+        
+        if (overflow == null) overflow = new HashMap<String, Object>();
+        return overflow.put(key, value);
+    }
+    
+    @Override
+    public Object remove(Object key) {
+        int index = layout.indexOf(key);
+        if (index >= 0) {
+            Object retVal = slots[index];
+            slots[index] = null;
+            clearPresent(index);
+            return retVal;
+        }
+        
+        return (overflow == null) ? null : overflow.remove(key);
+    }
+    
+    @Override
+    public void clear() {
+        for (int lcv = 0; lcv < slots.length; lcv++) {
+            slots[lcv] = null;
+        }
+        present = 0L;
+        morePresent = null;
+        overflow = null;
+    }
+    
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        if (entrySet == null) entrySet = new EntrySet();
+        return entrySet;
+    }
+    
+    private final class EntrySet extends AbstractSet<Map.Entry<String, Object>> {
+        @Override
+        public Iterator<Map.Entry<String, Object>> iterator() {
+            return new EntryIterator();
+        }
+
+        @Override
+        public int size() {
+            return CompactBeanLikeMap.this.size();
+        }
+        
+    }
+    
+    private final class EntryIterator implements Iterator<Map.Entry<String, Object>> {
+        private int nextSlot = nextPresent(0);
+        private int lastSlot = -1;
+        private Iterator<Map.Entry<String, Object>> overflowIterator;
+        private boolean lastFromOverflow = false;
+
+        @Override
+        public boolean hasNext() {
+            if (nextSlot >= 0) return true;
+            if (overflow == null) return false;
+            if (overflowIterator == null) overflowIterator = overflow.entrySet().iterator();
+            
+            return overflowIterator.hasNext();
+        }
+
+        @Override
+        public Map.Entry<String, Object> next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            
+            if (nextSlot >= 0) {
+                lastSlot = nextSlot;
+                lastFromOverflow = false;
+                nextSlot = nextPresent(nextSlot + 1);
+                
+                return new SlotEntry(lastSlot);
+            }
+            
+            lastFromOverflow = true;
+            return overflowIterator.next();
+        }
+
+        @Override
+        public void remove() {
+            if (lastFromOverflow) {
+                overflowIterator.remove();
+                return;
+            }
+            
+            if (lastSlot < 0) throw new IllegalStateException();
+            
+            slots[lastSlot] = null;
+            clearPresent(lastSlot);
+            lastSlot = -1;
+        }
+        
+    }
+    
+    private final class SlotEntry implements Map.Entry<String, Object> {
+        private final int slot;
+        
+        private SlotEntry(int slot) {
+            this.slot = slot;
+        }
+
+        @Override
+        public String getKey() {
+            return layout.keys[slot];
+        }
+
+        @Override
+        public Object getValue() {
+            return slots[slot];
+        }
+
+        @Override
+        public Object setValue(Object value) {
+            Object retVal = slots[slot];
+            slots[slot] = value;
+            return retVal;
+        }
+        
+        @Override
+        public int hashCode() {
+            Object value = slots[slot];
+            return getKey().hashCode() ^ ((value == null) ? 0 : value.hashCode());
+        }
+        
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry)) return false;
+            Map.Entry<?, ?> other = (Map.Entry<?, ?>) o;
+            
+            Object value = slots[slot];
+            return getKey().equals(other.getKey()) &&
+                    ((value == null) ? other.getValue() == null : value.equals(other.getValue()));
+        }
+        
+        @Override
+        public String toString() {
+            return getKey() + "=" + slots[slot];
+        }
+    }
+    
+    /**
+     * The shared key to slot assignment for all beans of one proxy class.
+     * Keys are interned so that the constant strings used by the generated
+     * proxies match the stored keys on identity during lookup
+     * 
+     * @author jwells
+     *
+     */
+    public static final class Layout implements Serializable {
+        private static final long serialVersionUID = 6431870398451963034L;
+        
+        private final String keys[];
+        private final HashMap<String, Integer> indices;
+        
+        /**
+         * Creates a layout for the given set of keys
+         * 
+         * @param allKeys The keys that get a fixed slot, in slot order
+         */
+        public Layout(Collection<String> allKeys) {
+            keys = new String[allKeys.size()];
+            indices = new HashMap<String, Integer>(allKeys.size() * 2);
+            
+            int lcv = 0;
+            for (String key : allKeys) {
+                String interned = key.intern();
+                
+                keys[lcv] = interned;
+                indices.put(interned, lcv);
+                lcv++;
+            }
+        }
+        
+        private int indexOf(Object key) {
+            Integer retVal = indices.get(key);
+            if (retVal == null) return -1;
+            return retVal.intValue();
+        }
+        
+        /**
+         * Returns the number of fixed slots in this layout
+         * 
+         * @return The number of fixed slots in this layout
+         */
+        public int getNumberOfSlots() {
+            return keys.length;
+        }
+        
+        @Override
+        public String toString() {
+            return "CompactBeanLikeMap.Layout(" + indices.keySet() + "," + System.identityHashCode(this) + ")";
+        }
+    }
+}
@@ -40,6 +40,11 @@
 
 package org.glassfish.hk2.xml.internal;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock.ReadLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock.WriteLock;
@@ -47,6 +52,7 @@ import java.util.concurrent.locks.ReentrantReadWriteLock.WriteLock;
 import org.glassfish.hk2.api.DynamicConfigurationService;
 import org.glassfish.hk2.api.ServiceLocator;
 import org.glassfish.hk2.configuration.hub.api.Hub;
+import org.glassfish.hk2.xml.jaxb.internal.BaseHK2JAXBBean;
 
 /**
  * @author jwells
@@ -63,6 +69,13 @@ public class DynamicChangeInfo {
     private final DynamicConfigurationService dynamicService;
     private final ServiceLocator locator;
     
+    /**
+     * Copies made from this tree whose children have not yet been copied.
+     * Weakly held so that abandoned copies do not stay reachable
+     */
+    private final Set<BaseHK2JAXBBean> lazyCopies =
+            Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<BaseHK2JAXBBean, Boolean>()));
+    
     /* package */ DynamicChangeInfo(JAUtilities jaUtilities,
             Hub hub,
             XmlServiceImpl idGenerator,
@@ -107,6 +120,51 @@ public class DynamicChangeInfo {
         }
     }
     
+    /**
+     * Registers a lazy copy made from a bean of this tree.  The
+     * read lock of this tree must be held
+     * 
+     * @param copy The copy whose children are not yet copied
+     */
+    public void addLazyCopy(BaseHK2JAXBBean copy) {
+        lazyCopies.add(copy);
+    }
+    
+    /**
+     * Called when a lazy copy has copied its children
+     * 
+     * @param copy The copy that is no longer lazy
+     */
+    public void removeLazyCopy(BaseHK2JAXBBean copy) {
+        lazyCopies.remove(copy);
+    }
+    
+    /**
+     * Must be called before this tree is modified.  Takes the snapshot
+     * of every outstanding lazy copy of this tree so that the copies keep
+     * the state of the tree as it was when they were made.  Writers call
+     * it once before taking the write lock, so that most of the work is
+     * done while readers can still proceed, and once more with the write
+     * lock held for the copies made in between.  Only the read lock of this
+     * tree is taken, never a lock of the tree of a copy
+     */
+    public void snapshotLazyCopies() {
+        while (true) {
+            List<BaseHK2JAXBBean> current;
+            synchronized (lazyCopies) {
+                if (lazyCopies.isEmpty()) return;
+                
+                current = new ArrayList<BaseHK2JAXBBean>(lazyCopies);
+                lazyCopies.clear();
+            }
+            
+            // Snapshotting copies registers their children, so loop until done
+            for (BaseHK2JAXBBean copy : current) {
+                copy._snapshotLazyCopy();
+            }
+        }
+    }
+    
     public JAUtilities getJAUtilities() {
         return jaUtilities;
     }
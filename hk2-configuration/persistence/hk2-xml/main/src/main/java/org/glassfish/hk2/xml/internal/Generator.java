@@ -42,6 +42,7 @@ package org.glassfish.hk2.xml.internal;
 import java.beans.Introspector;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -568,6 +569,37 @@ public class Generator {
         return targetCtClass;
     }
     
+    /**
+     * Returns the interfaces of all direct, list and array children of
+     * the given interface.  Used by build time generation to find all of
+     * the proxies reachable from a root
+     * 
+     * @param convertMe The interface to analyze
+     * @return The non-null list of child interfaces, with no duplicates
+     */
+    public static List<AltClass> getChildInterfaces(AltClass convertMe) {
+        NameInformation xmlNameMap = getXmlNameMap(convertMe);
+        LinkedHashMap<String, AltClass> retVal = new LinkedHashMap<String, AltClass>();
+        
+        for (AltMethod wrapper : convertMe.getMethods()) {
+            MethodInformation mi = getMethodInformation(wrapper, xmlNameMap);
+            if (!MethodType.GETTER.equals(mi.getMethodType()) &&
+                    !MethodType.SETTER.equals(mi.getMethodType())) {
+                continue;
+            }
+            
+            AltClass childType = mi.getBaseChildType();
+            if (childType == null || !childType.isInterface() ||
+                    childType.getName().startsWith(NO_CHILD_PACKAGE)) {
+                continue;
+            }
+            
+            retVal.put(childType.getName(), childType);
+        }
+        
+        return new ArrayList<AltClass>(retVal.values());
+    }
+    
     /* package */ static ChildType getChildType(boolean isList, boolean isArray) {
         if (isList) return ChildType.LIST;
         if (isArray) return ChildType.ARRAY;
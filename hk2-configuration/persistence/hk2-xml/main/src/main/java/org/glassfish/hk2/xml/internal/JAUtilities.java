@@ -48,11 +48,6 @@ import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicLong;
 
-import javassist.ClassPool;
-import javassist.CtClass;
-import javassist.NotFoundException;
-
-import org.glassfish.hk2.api.MultiException;
 import org.glassfish.hk2.utilities.cache.Computable;
 import org.glassfish.hk2.utilities.cache.HybridCacheEntry;
 import org.glassfish.hk2.utilities.cache.LRUHybridCache;
@@ -60,8 +55,6 @@ import org.glassfish.hk2.utilities.general.GeneralUtilities;
 import org.glassfish.hk2.utilities.reflection.ClassReflectionHelper;
 import org.glassfish.hk2.utilities.reflection.Logger;
 import org.glassfish.hk2.utilities.reflection.ReflectionHelper;
-import org.glassfish.hk2.xml.internal.alt.clazz.ClassAltClassImpl;
-import org.glassfish.hk2.xml.jaxb.internal.BaseHK2JAXBBean;
 
 /**
  * @author jwells
@@ -98,8 +91,9 @@ public class JAUtilities {
     public final static String JAXB_DEFAULT_DEFAULT = "\u0000";
     
     private final ClassReflectionHelper classReflectionHelper;
-    private final ClassPool defaultClassPool = ClassPool.getDefault(); // TODO:  We probably need to be more sophisticated about this
-    private final CtClass superClazz;
+    
+    /** Only created if a proxy was not pre-generated, see {@link ProxyClassGenerator} */
+    private ProxyClassGenerator proxyClassGenerator;
     
     private final Computer computer;
     private final LRUHybridCache<Class<?>, Model> interface2ModelCache;
@@ -108,12 +102,6 @@ public class JAUtilities {
     
     /* package */ JAUtilities(ClassReflectionHelper classReflectionHelper) {
         this.classReflectionHelper = classReflectionHelper;
-        try {
-            superClazz = defaultClassPool.get(BaseHK2JAXBBean.class.getName());
-        }
-        catch (NotFoundException e) {
-            throw new MultiException(e);
-        }
         
         computer = new Computer(this);
         interface2ModelCache = new LRUHybridCache<Class<?>, Model>(Integer.MAX_VALUE - 1, computer);
@@ -219,12 +207,12 @@ public class JAUtilities {
         return retVal;
     }
     
-    private CtClass getBaseClass() {
-        return superClazz;
-    }
-    
-    private ClassPool getClassPool() {
-        return defaultClassPool;
+    private synchronized ProxyClassGenerator getProxyClassGenerator() {
+        if (proxyClassGenerator == null) {
+            proxyClassGenerator = new ProxyClassGenerator();
+        }
+        
+        return proxyClassGenerator;
     }
     
     public int getNumGenerated() {
@@ -262,13 +250,7 @@ public class JAUtilities {
                 
                 // Generate the proxy
                 try {
-                  CtClass generated = Generator.generate(new ClassAltClassImpl(key, classReflectionHelper),
-                        jaUtilities.getBaseClass(),
-                        jaUtilities.getClassPool());
-                  
-                  proxyClass = generated.toClass(key.getClassLoader(), key.getProtectionDomain());
-                  
-                  
+                  proxyClass = jaUtilities.getProxyClassGenerator().generate(key, classReflectionHelper);
                 }
                 catch (RuntimeException re) {
                     throw re;
@@ -40,6 +40,7 @@
 package org.glassfish.hk2.xml.internal;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -95,6 +96,7 @@ public class Model implements Serializable {
     private Set<String> keyedChildren = null;
     private transient JAUtilities jaUtilities = null;
     private ClassLoader myLoader;
+    private transient CompactBeanLikeMap.Layout beanLikeMapLayout = null;
     
     public Model() {
     }
@@ -265,6 +267,26 @@ public class Model implements Serializable {
         }
     }
     
+    /**
+     * Returns the slot layout shared by the bean-like maps of all
+     * beans of this proxy class.  Non-child properties come first,
+     * followed by the children
+     * 
+     * @return The non-null layout for beans of this model
+     */
+    public CompactBeanLikeMap.Layout getBeanLikeMapLayout() {
+        synchronized (lock) {
+            if (beanLikeMapLayout != null) return beanLikeMapLayout;
+            
+            ArrayList<String> allKeys = new ArrayList<String>(nonChildProperty.size() + childrenByName.size());
+            allKeys.addAll(nonChildProperty.keySet());
+            allKeys.addAll(childrenByName.keySet());
+            
+            beanLikeMapLayout = new CompactBeanLikeMap.Layout(allKeys);
+            return beanLikeMapLayout;
+        }
+    }
+    
     public Collection<ParentedModel> getAllChildren() {
         synchronized (lock) {
             return Collections.unmodifiableCollection(childrenByName.values());
@@ -0,0 +1,91 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.glassfish.hk2.xml.internal;
+
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.NotFoundException;
+
+import org.glassfish.hk2.api.MultiException;
+import org.glassfish.hk2.utilities.reflection.ClassReflectionHelper;
+import org.glassfish.hk2.xml.internal.alt.clazz.ClassAltClassImpl;
+import org.glassfish.hk2.xml.jaxb.internal.BaseHK2JAXBBean;
+
+/**
+ * Holds all of the javassist state needed to generate proxies at
+ * runtime.  This is the only runtime class that refers to javassist,
+ * and it is only created the first time a proxy is found to be
+ * missing, so when every proxy was pre-generated at build time
+ * javassist is never loaded and no ClassPool is pinned
+ * 
+ * @author jwells
+ *
+ */
+class ProxyClassGenerator {
+    private final ClassPool defaultClassPool = ClassPool.getDefault(); // TODO:  We probably need to be more sophisticated about this
+    private final CtClass superClazz;
+    
+    /* package */ ProxyClassGenerator() {
+        try {
+            superClazz = defaultClassPool.get(BaseHK2JAXBBean.class.getName());
+        }
+        catch (NotFoundException e) {
+            throw new MultiException(e);
+        }
+    }
+    
+    /**
+     * Generates the proxy for the given interface into the
+     * classloader of the interface
+     * 
+     * @param iFace The interface to generate a proxy for
+     * @param classReflectionHelper The reflection helper to use
+     * @return The generated proxy class
+     * @throws Throwable On any generation failure
+     */
+    /* package */ Class<?> generate(Class<?> iFace, ClassReflectionHelper classReflectionHelper) throws Throwable {
+        CtClass generated = Generator.generate(new ClassAltClassImpl(iFace, classReflectionHelper),
+                superClazz,
+                defaultClassPool);
+        
+        return generated.toClass(iFace.getClassLoader(), iFace.getProtectionDomain());
+    }
+
+}
@@ -0,0 +1,285 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.glassfish.hk2.xml.internal;
+
+import java.io.InputStream;
+import java.lang.reflect.Array;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+import javax.xml.bind.Unmarshaller.Listener;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.glassfish.hk2.utilities.reflection.ClassReflectionHelper;
+import org.glassfish.hk2.xml.jaxb.internal.BaseHK2JAXBBean;
+import org.glassfish.hk2.xml.spi.PreGenerationRequirement;
+import org.glassfish.hk2.xml.spi.XmlServiceParser;
+
+/**
+ * A parser that reads the document with a single forward pass of
+ * an {@link XMLStreamReader}.  Unlike the {@link DomXmlParser} no
+ * intermediate document tree is built, so the only thing retained
+ * after parsing is the tree of hk2 beans itself
+ * 
+ * @author jwells
+ *
+ */
+@Singleton
+public class StaxXmlParser implements XmlServiceParser {
+    @Inject
+    private Provider<XmlServiceImpl> xmlService;
+    
+    private final XMLInputFactory inputFactory;
+    
+    private StaxXmlParser() {
+        inputFactory = XMLInputFactory.newInstance();
+        inputFactory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+        inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+    }
+
+    /* (non-Javadoc)
+     * @see org.glassfish.hk2.xml.spi.XmlServiceParser#parseRoot(java.lang.Class, java.net.URI, javax.xml.bind.Unmarshaller.Listener)
+     */
+    @SuppressWarnings("unchecked")
+    @Override
+    public <T> T parseRoot(Class<T> clazz, URI location, Listener listener)
+            throws Exception {
+        ClassReflectionHelper classReflectionHelper = xmlService.get().getClassReflectionHelper();
+        
+        BaseHK2JAXBBean hk2Root = Utilities.createBean(clazz);
+        hk2Root._setClassReflectionHelper(classReflectionHelper);
+        
+        InputStream urlStream = location.toURL().openStream();
+        try {
+            XMLStreamReader reader = inputFactory.createXMLStreamReader(urlStream);
+            try {
+                while (reader.hasNext()) {
+                    if (reader.next() == XMLStreamConstants.START_ELEMENT) break;
+                }
+                
+                if (!reader.isStartElement()) {
+                    throw new XMLStreamException("The document at " + location + " has no root element");
+                }
+                
+                handleElement(hk2Root, null, reader, classReflectionHelper, listener);
+            }
+            finally {
+                reader.close();
+            }
+        }
+        finally {
+            urlStream.close();
+        }
+        
+        return (T) hk2Root;
+    }
+    
+    /**
+     * Called with the reader positioned on the START_ELEMENT of the target.
+     * Returns with the reader positioned on the matching END_ELEMENT
+     */
+    private void handleElement(BaseHK2JAXBBean target, BaseHK2JAXBBean parent,
+            XMLStreamReader reader, ClassReflectionHelper classReflectionHelper, Listener listener) throws XMLStreamException {
+        listener.beforeUnmarshal(target, parent);
+        
+        Map<String, List<BaseHK2JAXBBean>> listChildren = new HashMap<String, List<BaseHK2JAXBBean>>();
+        Map<String, List<BaseHK2JAXBBean>> arrayChildren = new HashMap<String, List<BaseHK2JAXBBean>>();
+        
+        Model model = target._getModel();
+        
+        int attributeCount = reader.getAttributeCount();
+        for (int lcv = 0; lcv < attributeCount; lcv++) {
+            String attributeName = reader.getAttributeLocalName(lcv);
+            
+            if (model.getNonChildProperties().keySet().contains(attributeName)) {
+                Class<?> childType = model.getNonChildType(attributeName);
+                String sValue = reader.getAttributeValue(lcv);
+                
+                Object convertedValue = Utilities.getDefaultValue(sValue, childType);
+                target._setProperty(attributeName, convertedValue);
+            }
+        }
+        
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.END_ELEMENT) break;
+            if (event != XMLStreamConstants.START_ELEMENT) continue;
+            
+            String tagName = reader.getLocalName();
+            
+            if (model.getNonChildProperties().keySet().contains(tagName)) {
+                Class<?> childType = model.getNonChildType(tagName);
+                
+                String valueString = readFirstText(reader);
+                
+                Object convertedValue = Utilities.getDefaultValue(valueString, childType);
+                target._setProperty(tagName, convertedValue);
+            }
+            else if (model.getKeyedChildren().contains(tagName) ||
+                     model.getUnKeyedChildren().contains(tagName)) {
+                ParentedModel informedChild = model.getChild(tagName);
+                Model grandChild = informedChild.getChildModel();
+                
+                BaseHK2JAXBBean hk2Root = Utilities.createBean(grandChild.getProxyAsClass());
+                hk2Root._setClassReflectionHelper(classReflectionHelper);
+                
+                handleElement(hk2Root, target, reader, classReflectionHelper, listener);
+                
+                if (informedChild.getChildType().equals(ChildType.DIRECT)) {
+                    target._setProperty(tagName, hk2Root);
+                }
+                else if (informedChild.getChildType().equals(ChildType.LIST)) {
+                    List<BaseHK2JAXBBean> cList = listChildren.get(tagName);
+                    if (cList == null) {
+                        cList = new ArrayList<BaseHK2JAXBBean>();
+                        listChildren.put(tagName, cList);
+                    }
+                    cList.add(hk2Root);
+                }
+                else if (informedChild.getChildType().equals(ChildType.ARRAY)) {
+                    List<BaseHK2JAXBBean> cList = arrayChildren.get(tagName);
+                    if (cList == null) {
+                        cList = new LinkedList<BaseHK2JAXBBean>();
+                        arrayChildren.put(tagName, cList);
+                    }
+                    cList.add(hk2Root);
+                }
+            }
+            else {
+                // Probably just ignore it
+                skipElement(reader);
+            }
+        }
+        
+        for (Map.Entry<String, List<BaseHK2JAXBBean>> entry : listChildren.entrySet()) {
+            // Kind of cheating with the erasure, but hey, it works!
+            target._setProperty(entry.getKey(), entry.getValue());
+        }
+        
+        for (Map.Entry<String, List<BaseHK2JAXBBean>> entry : arrayChildren.entrySet()) {
+            String childTag = entry.getKey();
+            ParentedModel pn = model.getChild(childTag);
+            Class<?> childType = pn.getChildModel().getOriginalInterfaceAsClass();
+            
+            List<BaseHK2JAXBBean> individuals = entry.getValue();
+            
+            Object actualArray = Array.newInstance(childType, individuals.size());
+            
+            int index = 0;
+            for (BaseHK2JAXBBean individual : individuals) {
+                Array.set(actualArray, index++, individual);
+            }
+            
+            target._setProperty(childTag, actualArray);
+            
+        }
+        
+        listener.afterUnmarshal(target, parent);
+    }
+    
+    /**
+     * Reads the first text node directly under the current element (the
+     * same value the {@link DomXmlParser} would pick) and leaves the reader
+     * on the matching END_ELEMENT
+     */
+    private static String readFirstText(XMLStreamReader reader) throws XMLStreamException {
+        String retVal = null;
+        int depth = 1;
+        
+        while (depth > 0) {
+            int event = reader.next();
+            switch (event) {
+            case XMLStreamConstants.START_ELEMENT:
+                depth++;
+                break;
+            case XMLStreamConstants.END_ELEMENT:
+                depth--;
+                break;
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.CDATA:
+            case XMLStreamConstants.SPACE:
+                if (depth == 1 && retVal == null) {
+                    retVal = reader.getText().trim();
+                }
+                break;
+            default:
+                break;
+            }
+        }
+        
+        return retVal;
+    }
+    
+    /**
+     * Skips the current element and all of its children, leaving
+     * the reader on the matching END_ELEMENT
+     */
+    private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            }
+            else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.glassfish.hk2.xml.spi.XmlServiceParser#getPreGenerationRequirement()
+     */
+    @Override
+    public PreGenerationRequirement getPreGenerationRequirement() {
+        return PreGenerationRequirement.LAZY_PREGENERATION;
+    }
+}
@@ -45,6 +45,7 @@ import java.lang.reflect.Constructor;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -144,6 +145,88 @@ public class Utilities {
         }
     }
     
+    /**
+     * Creates a copy of the given bean that shares nothing with it but
+     * whose children are only copied when first needed (or when the
+     * source tree is about to change).  The read lock of the source
+     * tree must be held
+     * 
+     * @param copyMe The non-null bean to copy
+     * @param copyParent The parent of the copy, or null if the copy is a root
+     * @param copyController The change control of the tree of copies
+     * @param sourceController The change control of the tree of copyMe
+     * @return The lazy copy
+     */
+    public static BaseHK2JAXBBean createLazyCopy(BaseHK2JAXBBean copyMe,
+            BaseHK2JAXBBean copyParent,
+            DynamicChangeInfo copyController,
+            DynamicChangeInfo sourceController) {
+        BaseHK2JAXBBean retVal = createBean(copyMe.getClass());
+        retVal._shallowCopyFrom(copyMe);
+        retVal._setParent(copyParent);
+        retVal._setLazyCopySource(copyMe);
+        retVal._setDynamicChangeInfo(copyController);
+        
+        sourceController.addLazyCopy(retVal);
+        
+        return retVal;
+    }
+    
+    /**
+     * Copies one level of children of source, the children themselves
+     * being lazy copies whose parent is copy.  The read lock of the
+     * source tree must be held.  No lock of the copy tree is taken, the
+     * returned children are attached to the copy later by the copy itself
+     * 
+     * @param copy The lazy copy whose children are being copied
+     * @param source The bean the copy was made from
+     * @param copyController The change control of the tree of copies
+     * @param sourceController The change control of the tree of source
+     * @return The copied children keyed by child property
+     */
+    public static Map<String, Object> snapshotChildrenLazily(BaseHK2JAXBBean copy,
+            BaseHK2JAXBBean source,
+            DynamicChangeInfo copyController,
+            DynamicChangeInfo sourceController) {
+        Map<String, Object> sourceMap = source._getBeanLikeMap();
+        Map<String, Object> retVal = new HashMap<String, Object>();
+        
+        for (String childProp : source._getModel().getChildrenProperties().keySet()) {
+            Object child = sourceMap.get(childProp);
+            if (child == null) continue;
+            
+            if (child instanceof List) {
+                List<?> childList = (List<?>) child;
+                
+                ArrayList<Object> toSetChildList = new ArrayList<Object>(childList.size());
+                for (Object subChild : childList) {
+                    toSetChildList.add(createLazyCopy((BaseHK2JAXBBean) subChild, copy,
+                            copyController, sourceController));
+                }
+                
+                retVal.put(childProp, Collections.unmodifiableList(toSetChildList));
+            }
+            else if (child.getClass().isArray()) {
+                int length = Array.getLength(child);
+                
+                Object toSetChildArray = Array.newInstance(child.getClass().getComponentType(), length);
+                for (int lcv = 0; lcv < length; lcv++) {
+                    Array.set(toSetChildArray, lcv, createLazyCopy((BaseHK2JAXBBean) Array.get(child, lcv), copy,
+                            copyController, sourceController));
+                }
+                
+                retVal.put(childProp, toSetChildArray);
+            }
+            else {
+                // A direct child
+                retVal.put(childProp, createLazyCopy((BaseHK2JAXBBean) child, copy,
+                        copyController, sourceController));
+            }
+        }
+        
+        return retVal;
+    }
+    
     private static String getKeySegment(BaseHK2JAXBBean bean) {
         String baseKeySegment = bean._getKeyValue();
         if (baseKeySegment == null) {
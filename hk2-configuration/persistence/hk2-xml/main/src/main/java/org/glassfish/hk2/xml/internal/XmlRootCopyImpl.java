@@ -40,6 +40,8 @@
 
 package org.glassfish.hk2.xml.internal;
 
+import java.util.Map;
+
 import org.glassfish.hk2.api.MultiException;
 import org.glassfish.hk2.configuration.hub.api.Hub;
 import org.glassfish.hk2.configuration.hub.api.PrepareFailedException;
@@ -98,6 +100,9 @@ public class XmlRootCopyImpl<T> implements XmlRootCopy<T> {
      */
     @Override
     public void merge() {
+        // taken before the lock of the parent, the copy tree lock is never taken while holding it
+        Map<String, Object> copyProperties = ((BaseHK2JAXBBean) copy)._getNonChildProperties();
+        
         parent.getChangeInfo().getWriteLock().lock();
         try {
             if (!isMergeable()) {
@@ -109,10 +114,9 @@ public class XmlRootCopyImpl<T> implements XmlRootCopy<T> {
                 writeableDatabase = hub.getWriteableDatabaseCopy();
             }
         
-            BaseHK2JAXBBean copyBean = (BaseHK2JAXBBean) copy;
             BaseHK2JAXBBean original = (BaseHK2JAXBBean) parent.getRoot();
             
-            original._merge(copyBean, writeableDatabase);
+            original._merge(copyProperties, writeableDatabase);
             
             boolean success = false;
             try {
@@ -41,9 +41,6 @@
 package org.glassfish.hk2.xml.internal;
 
 import java.net.URI;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Set;
 
 import org.glassfish.hk2.api.DynamicConfiguration;
 import org.glassfish.hk2.configuration.hub.api.Hub;
@@ -160,16 +157,8 @@ public class XmlRootHandleImpl<T> implements XmlRootHandle<T> {
                 return new XmlRootCopyImpl<T>(useHub, this, changeControl.getChangeNumber(), null);
             }
         
-            BaseHK2JAXBBean copy;
-            try {
-                copy = doCopy(bean, copyController);
-            }
-            catch (RuntimeException re) {
-                throw re;
-            }
-            catch (Throwable th) {
-                throw new RuntimeException(th);
-            }
+            // Only the root is copied now, children are copied when first used
+            BaseHK2JAXBBean copy = Utilities.createLazyCopy(bean, null, copyController, changeControl);
         
             return new XmlRootCopyImpl<T>(useHub, this, changeControl.getChangeNumber(), (T) copy);
         }
@@ -178,45 +167,6 @@ public class XmlRootHandleImpl<T> implements XmlRootHandle<T> {
         }
     }
     
-    private static BaseHK2JAXBBean doCopy(BaseHK2JAXBBean copyMe, DynamicChangeInfo copyController) throws Throwable {
-        if (copyMe == null) return null;
-        
-        BaseHK2JAXBBean retVal = Utilities.createBean(copyMe.getClass());
-        retVal._shallowCopyFrom(copyMe);
-        
-        Set<String> childrenProps = copyMe._getChildrenXmlTags();
-        for (String childProp : childrenProps) {
-            Object child = copyMe._getProperty(childProp);
-            if (child == null) continue;
-            
-            if (child instanceof List) {
-                List<?> childList = (List<?>) child;
-                
-                ArrayList<Object> toSetChildList = new ArrayList<Object>(childList.size());
-                
-                for (Object subChild : childList) {
-                    BaseHK2JAXBBean copiedChild = doCopy((BaseHK2JAXBBean) subChild, copyController);
-                    copiedChild._setParent(retVal);
-                    
-                    toSetChildList.add(copiedChild);
-                }
-                
-                // Sets the list property into the parent
-                retVal._setProperty(childProp, toSetChildList);
-            }
-            else {
-                // A direct child
-                BaseHK2JAXBBean copiedChild = doCopy((BaseHK2JAXBBean) child, copyController);
-                copiedChild._setParent(retVal);
-                
-                retVal._setProperty(childProp, copiedChild);
-            }
-        }
-        
-        retVal._setDynamicChangeInfo(copyController);
-        return retVal;
-    }
-    
     /* package */ long getRevision() {
         return changeControl.getChangeNumber();
     }
@@ -61,7 +61,6 @@ import org.glassfish.hk2.configuration.hub.api.Hub;
 import org.glassfish.hk2.configuration.hub.api.WriteableBeanDatabase;
 import org.glassfish.hk2.configuration.hub.api.WriteableType;
 import org.glassfish.hk2.utilities.general.GeneralUtilities;
-import org.glassfish.hk2.utilities.reflection.BeanReflectionHelper;
 import org.glassfish.hk2.utilities.reflection.ClassReflectionHelper;
 import org.glassfish.hk2.utilities.reflection.Logger;
 import org.glassfish.hk2.utilities.reflection.ReflectionHelper;
@@ -69,7 +68,10 @@ import org.glassfish.hk2.xml.api.XmlHk2BeanType;
 import org.glassfish.hk2.xml.api.XmlHk2ConfigurationBean;
 import org.glassfish.hk2.xml.api.XmlHubCommitMessage;
 import org.glassfish.hk2.xml.api.annotations.Customizer;
+import org.glassfish.hk2.xml.internal.ChildType;
+import org.glassfish.hk2.xml.internal.CompactBeanLikeMap;
 import org.glassfish.hk2.xml.internal.DynamicChangeInfo;
+import org.glassfish.hk2.xml.internal.Model;
 import org.glassfish.hk2.xml.internal.ParentedModel;
 import org.glassfish.hk2.xml.internal.Utilities;
 
@@ -90,12 +92,16 @@ public abstract class BaseHK2JAXBBean implements XmlHk2ConfigurationBean, Serial
     });
     
     private final static String EMPTY = "";
+    private final static CompactBeanLikeMap.Layout EMPTY_LAYOUT =
+            new CompactBeanLikeMap.Layout(Collections.<String>emptyList());
     public final static char XML_PATH_SEPARATOR = '/';
     
     /**
-     * All fields, including child lists and direct children
+     * All fields, including child lists and direct children.  The
+     * properties known to the model are kept in slots laid out
+     * once per proxy class
      */
-    private final HashMap<String, Object> beanLikeMap = new HashMap<String, Object>();
+    private final CompactBeanLikeMap beanLikeMap;
     
     /**
      * All children whose type has an identifier.  First key is the xml parameter name, second
@@ -150,10 +156,27 @@ public abstract class BaseHK2JAXBBean implements XmlHk2ConfigurationBean, Serial
      */
     private transient ActiveDescriptor<?> selfDescriptor;
     
+    /**
+     * If this bean is a copy whose children have not yet been copied
+     * this is the bean it was copied from.  The children are copied
+     * the first time they are needed or when the source tree is
+     * about to be modified
+     */
+    private transient volatile BaseHK2JAXBBean lazyCopySource;
+    
+    /**
+     * The children copied from lazyCopySource that have not yet been
+     * attached to this bean.  Taking the snapshot needs only the lock of
+     * the source tree, attaching it needs only the lock of this tree
+     */
+    private transient volatile Map<String, Object> lazyChildren;
+    
     /**
      * For JAXB and Serialization
      */
     public BaseHK2JAXBBean() {
+        Model model = _getModel();
+        beanLikeMap = new CompactBeanLikeMap((model == null) ? EMPTY_LAYOUT : model.getBeanLikeMapLayout());
     }
     
     public void _setProperty(String propName, Object propValue) {
@@ -190,8 +213,13 @@ public abstract class BaseHK2JAXBBean implements XmlHk2ConfigurationBean, Serial
             }
         }
         else {
+            if (isLazyCopy()) _materializeLazyCopy();
+            changeControl.snapshotLazyCopies();
+            
             changeControl.getWriteLock().lock();
             try {
+                changeControl.snapshotLazyCopies();
+                
                 if (changeInHub) {
                     changeInHub(propName, propValue);
                 }
@@ -326,6 +354,8 @@ public abstract class BaseHK2JAXBBean implements XmlHk2ConfigurationBean, Serial
             return _getProperty(propName, _getModel().getNonChildType(propName));
         }
         
+        if (isLazyCopy()) _materializeLazyCopy();
+        
         ParentedModel parent = _getModel().getChild(propName);
         return _getProperty(propName, null, parent);
     }
@@ -471,6 +501,8 @@ public abstract class BaseHK2JAXBBean implements XmlHk2ConfigurationBean, Serial
     }
     
     public Object _lookupChild(String propName, String keyValue) {
+        if (isLazyCopy()) _materializeLazyCopy();
+        
         if (changeControl == null) {
             return internalLookup(propName, keyValue);
         }
@@ -489,8 +521,15 @@ public abstract class BaseHK2JAXBBean implements XmlHk2ConfigurationBean, Serial
             return Utilities.internalAdd(this, childProperty, rawChild, childKey, index, null, null, null);
         }
         
+        // the added bean may come from a lazy copy, its subtree is walked under the write lock
+        if (isLazyCopy()) _materializeLazyCopy();
+        materializeTree(rawChild);
+        changeControl.snapshotLazyCopies();
+        
         changeControl.getWriteLock().lock();
         try {
+            changeControl.snapshotLazyCopies();
+            
             Hub hub = changeControl.getHub();
             WriteableBeanDatabase wbd = (hub == null) ? null : hub.getWriteableDatabaseCopy();
             DynamicConfiguration config = (changeControl.getDynamicConfigurationService() == null) ? null :
@@ -640,8 +679,15 @@ public abstract class BaseHK2JAXBBean implements XmlHk2ConfigurationBean, Serial
             return Utilities.internalRemove(this, childProperty, childKey, index, null, null, null);
         }
         
+        // the removed subtree is walked under the write lock
+        if (isLazyCopy()) _materializeLazyCopy();
+        materializeTree(findChild(childProperty, childKey, index));
+        changeControl.snapshotLazyCopies();
+        
         changeControl.getWriteLock().lock();
         try {
+            changeControl.snapshotLazyCopies();
+            
             Hub hub = changeControl.getHub();
             WriteableBeanDatabase wbd = (hub == null) ? null : hub.getWriteableDatabaseCopy();
             DynamicConfiguration config = (changeControl.getDynamicConfigurationService() == null) ? null :
@@ -674,6 +720,8 @@ public abstract class BaseHK2JAXBBean implements XmlHk2ConfigurationBean, Serial
     }
 
     public boolean _hasProperty(String propName) {
+        if (isLazyCopy()) _materializeLazyCopy();
+        
         if (changeControl == null) {
             if (active) {
                 synchronized (this) {
@@ -698,6 +746,8 @@ public abstract class BaseHK2JAXBBean implements XmlHk2ConfigurationBean, Serial
      */
     @Override
     public Map<String, Object> _getBeanLikeMap() {
+        if (isLazyCopy()) _materializeLazyCopy();
+        
         if (changeControl == null) {
             if (active) {
                 synchronized (this) {
@@ -842,38 +892,198 @@ public abstract class BaseHK2JAXBBean implements XmlHk2ConfigurationBean, Serial
         keyValue = copyMe.keyValue;
         xmlPath = copyMe.xmlPath;
         
-        Map<String, Object> copyBeanLikeMap = copyMe._getBeanLikeMap();
+        beanLikeMap.copyFrom(copyMe.beanLikeMap, copyMe._getModel().getChildrenProperties().keySet());
+    }
+    
+    public void _setLazyCopySource(BaseHK2JAXBBean source) {
+        lazyCopySource = source;
+    }
+    
+    private boolean isLazyCopy() {
+        // lazyChildren is set before lazyCopySource is cleared, so reading in this order never misses both
+        return lazyCopySource != null || lazyChildren != null;
+    }
+    
+    /**
+     * Takes the snapshot of the children of the source of this lazy copy,
+     * the children themselves being lazy copies.  Only the read lock of the
+     * source tree is taken, so this may be called by writers of the source tree
+     * as well as by readers of the copy.
+     * <p>
+     * The lock order is: the lock of a copy tree, then the lock of the source
+     * tree, then the monitor of the copy bean.  No lock of a copy tree is ever
+     * taken while holding the lock of a source tree
+     */
+    public void _snapshotLazyCopy() {
+        BaseHK2JAXBBean source = lazyCopySource;
+        if (source == null) return;
+        
+        DynamicChangeInfo sourceControl = source._getChangeControl();
+        sourceControl.getReadLock().lock();
+        try {
+            synchronized (this) {
+                if (lazyCopySource == null) return;
+                
+                lazyChildren = Utilities.snapshotChildrenLazily(this, source, changeControl, sourceControl);
+                lazyCopySource = null;
+            }
+        }
+        finally {
+            sourceControl.getReadLock().unlock();
+        }
+        
+        sourceControl.removeLazyCopy(this);
+    }
+    
+    /**
+     * If this bean is a lazy copy this copies one level of children
+     * from the source bean (the children themselves being lazy copies).
+     * The snapshot is taken under the read lock of the source tree alone,
+     * and then attached under the write lock of this tree alone.  Must not
+     * be called with only the read lock of this tree held
+     */
+    public void _materializeLazyCopy() {
+        if (!isLazyCopy()) return;
+        
+        _snapshotLazyCopy();
         
-        for (Map.Entry<String, Object> entrySet : copyBeanLikeMap.entrySet()) {
-            String xmlTag = entrySet.getKey();
+        changeControl.getWriteLock().lock();
+        try {
+            Map<String, Object> children = lazyChildren;
+            if (children == null) return;
             
-            if (copyMe.keyedChildrenCache.containsKey(xmlTag) || copyMe._getModel().getUnKeyedChildren().contains(xmlTag)) continue;
+            for (Map.Entry<String, Object> child : children.entrySet()) {
+                beanLikeMap.put(child.getKey(), child.getValue());
+            }
             
-            beanLikeMap.put(entrySet.getKey(), entrySet.getValue());
+            lazyChildren = null;
+        }
+        finally {
+            changeControl.getWriteLock().unlock();
         }
     }
     
+    /**
+     * Materializes every lazy copy in the subtree of the given bean.  The add
+     * and remove paths call this before taking the write lock, as they walk
+     * whole subtrees while holding it
+     * 
+     * @param rawBean The root of the subtree, may be null or not a bean
+     */
+    private static void materializeTree(Object rawBean) {
+        if (!(rawBean instanceof BaseHK2JAXBBean)) return;
+        BaseHK2JAXBBean bean = (BaseHK2JAXBBean) rawBean;
+        
+        for (String childProp : bean._getModel().getChildrenProperties().keySet()) {
+            Object child = bean._getProperty(childProp);
+            if (child == null) continue;
+            
+            if (child instanceof List) {
+                for (Object subChild : (List<?>) child) {
+                    materializeTree(subChild);
+                }
+            }
+            else if (child.getClass().isArray()) {
+                int length = Array.getLength(child);
+                for (int lcv = 0; lcv < length; lcv++) {
+                    materializeTree(Array.get(child, lcv));
+                }
+            }
+            else {
+                materializeTree(child);
+            }
+        }
+    }
+    
+    /**
+     * Finds the child that a remove with the same arguments would remove
+     */
+    private Object findChild(String childProperty, String childKey, int index) {
+        if (childProperty == null) return null;
+        
+        ParentedModel childNode = _getModel().getChild(childProperty);
+        if (childNode == null) return null;
+        
+        if (ChildType.DIRECT.equals(childNode.getChildType())) {
+            return _getProperty(childProperty);
+        }
+        
+        if (childKey != null) {
+            return _lookupChild(childProperty, childKey);
+        }
+        if (index < 0) return null;
+        
+        Object children = _getProperty(childProperty);
+        if (children instanceof List) {
+            List<?> childList = (List<?>) children;
+            return (index < childList.size()) ? childList.get(index) : null;
+        }
+        if (children != null && children.getClass().isArray()) {
+            return (index < Array.getLength(children)) ? Array.get(children, index) : null;
+        }
+        
+        return null;
+    }
+    
     private PropertyChangeEvent changes[] = null;
     
     /**
-     * Called with writeLock held
+     * Returns a copy of the non-child properties of this bean, taken
+     * under the read lock of its tree.  Used by merge, which must not
+     * take the lock of the copy tree while holding the lock of the
+     * tree being merged into
+     * 
+     * @return The non-child properties of this bean
+     */
+    public Map<String, Object> _getNonChildProperties() {
+        Map<String, Object> retVal;
+        if (changeControl != null) changeControl.getReadLock().lock();
+        try {
+            retVal = new HashMap<String, Object>(beanLikeMap);
+        }
+        finally {
+            if (changeControl != null) changeControl.getReadLock().unlock();
+        }
+        
+        retVal.keySet().removeAll(_getModel().getChildrenProperties().keySet());
+        return retVal;
+    }
+    
+    /**
+     * Called with writeLock held.  Only the non-child properties
+     * are compared, so the children of the other bean (which may be a
+     * lazy copy) are never copied or walked
      * 
-     * @param other
+     * @param otherNonChildren The {@link #_getNonChildProperties()} of the other bean
      * @param writeableDatabase
      */
-    public void _merge(BaseHK2JAXBBean other, WriteableBeanDatabase writeableDatabase) {
+    public void _merge(Map<String, Object> otherNonChildren, WriteableBeanDatabase writeableDatabase) {
         if (changes != null) throw new IllegalStateException("Bean " + this + " has a merge on-going");
         
-        Map<String, Object> otherMap = other._getBeanLikeMap();
+        Set<String> childProperties = _getModel().getChildrenProperties().keySet();
         
-        WriteableType wt = writeableDatabase.getWriteableType(xmlPath);
+        HashSet<String> allKeys = new HashSet<String>(otherNonChildren.keySet());
+        allKeys.addAll(beanLikeMap.keySet());
+        allKeys.removeAll(childProperties);
         
-        changes = BeanReflectionHelper.getChangeEvents(classReflectionHelper,
-                beanLikeMap, otherMap);
+        LinkedList<PropertyChangeEvent> changeList = new LinkedList<PropertyChangeEvent>();
+        HashMap<String, Object> modified = new HashMap<String, Object>(beanLikeMap);
+        for (String key : allKeys) {
+            Object oldValue = beanLikeMap.get(key);
+            Object newValue = otherNonChildren.get(key);
+            
+            if (GeneralUtilities.safeEquals(oldValue, newValue)) continue;
+            
+            changeList.add(new PropertyChangeEvent(modified, key, oldValue, newValue));
+            modified.put(key, newValue);
+        }
+        
+        changes = changeList.toArray(new PropertyChangeEvent[changeList.size()]);
         
         // TODO:  Children
         
-        wt.modifyInstance(instanceName, otherMap, changes);
+        WriteableType wt = writeableDatabase.getWriteableType(xmlPath);
+        wt.modifyInstance(instanceName, modified, changes);
     }
     
     /**
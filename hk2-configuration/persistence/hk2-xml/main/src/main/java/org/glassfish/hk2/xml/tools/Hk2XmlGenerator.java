@@ -46,6 +46,8 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.Set;
 
 import javassist.ClassPool;
@@ -56,6 +58,7 @@ import javax.annotation.processing.AbstractProcessor;
 import javax.annotation.processing.Filer;
 import javax.annotation.processing.RoundEnvironment;
 import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.annotation.processing.SupportedOptions;
 import javax.annotation.processing.SupportedSourceVersion;
 import javax.lang.model.SourceVersion;
 import javax.lang.model.element.Element;
@@ -64,19 +67,39 @@ import javax.tools.Diagnostic.Kind;
 import javax.tools.JavaFileObject;
 
 import org.glassfish.hk2.xml.internal.Generator;
+import org.glassfish.hk2.xml.internal.Utilities;
+import org.glassfish.hk2.xml.internal.alt.AltClass;
 import org.glassfish.hk2.xml.internal.alt.papi.TypeElementAltClassImpl;
 
 /**
+ * Generates the proxies of interfaces annotated with
+ * {@link org.glassfish.hk2.xml.api.annotations.Hk2XmlPreGenerate}.
+ * If the {@link #PREGENERATE_REACHABLE_OPTION} processor option is
+ * set to true then the proxies of all child interfaces reachable from
+ * the annotated interfaces are also generated, so that at runtime
+ * no proxy needs to be generated with javassist
+ * 
  * @author jwells
  *
  */
 @SupportedAnnotationTypes("org.glassfish.hk2.xml.api.annotations.Hk2XmlPreGenerate")
 @SupportedSourceVersion(SourceVersion.RELEASE_7)
+@SupportedOptions(Hk2XmlGenerator.PREGENERATE_REACHABLE_OPTION)
 public class Hk2XmlGenerator extends AbstractProcessor {
+    /**
+     * Processor option (-Aorg.glassfish.hk2.xml.pregenerateReachable=true)
+     * that causes all child interfaces reachable from an annotated
+     * interface to be pre-generated as well
+     */
+    public final static String PREGENERATE_REACHABLE_OPTION = "org.glassfish.hk2.xml.pregenerateReachable";
+    
     private volatile boolean initialized;
     private ClassPool defaultClassPool;
     private CtClass superClazz;
     
+    /** Interfaces already generated in this compilation, across rounds */
+    private final Set<String> generated = new HashSet<String>();
+    
     private  void initializeHk2XmlGenerator() {
         if (initialized) return;
         
@@ -129,7 +152,7 @@ public class Hk2XmlGenerator extends AbstractProcessor {
     @Override
     public boolean process(Set<? extends TypeElement> annotations,
             RoundEnvironment roundEnv) {
-        Filer filer = processingEnv.getFiler();
+        boolean reachable = Boolean.parseBoolean(processingEnv.getOptions().get(PREGENERATE_REACHABLE_OPTION));
         
         for (TypeElement annotation : annotations) {
             Set<? extends Element> clazzes = roundEnv.getElementsAnnotatedWith(annotation);
@@ -141,41 +164,71 @@ public class Hk2XmlGenerator extends AbstractProcessor {
                 
                 TypeElement clazz = (TypeElement) clazzElement;
                 
-                TypeElementAltClassImpl altClass = new TypeElementAltClassImpl(clazz, processingEnv);
+                LinkedList<AltClass> toGenerate = new LinkedList<AltClass>();
+                toGenerate.add(new TypeElementAltClassImpl(clazz, processingEnv));
                 
-                try {
-                    CtClass ctClass = Generator.generate(altClass, superClazz, defaultClassPool);
-                    
-                    String ctClassName = ctClass.getName();
+                while (!toGenerate.isEmpty()) {
+                    AltClass altClass = toGenerate.removeFirst();
+                    if (!generated.add(altClass.getName())) continue;
                     
-                    JavaFileObject jfo = filer.createClassFile(ctClassName, clazzElement);
+                    if (!generateOne(altClass, clazz)) break;
                     
-                    OutputStream outputStream = jfo.openOutputStream();
-                    DataOutputStream dataOutputStream = null;
-                    try {
-                        dataOutputStream = new DataOutputStream(outputStream);
+                    if (!reachable) continue;
                     
-                        ctClass.toBytecode(dataOutputStream);
-                    }
-                    finally {
-                        if (dataOutputStream != null) {
-                            dataOutputStream.close();
+                    for (AltClass child : Generator.getChildInterfaces(altClass)) {
+                        if (generated.contains(child.getName())) continue;
+                        
+                        String childProxy = Utilities.getProxyNameFromInterfaceName(child.getName());
+                        if (processingEnv.getElementUtils().getTypeElement(childProxy) != null) {
+                            // Already pre-generated in some other compilation unit
+                            continue;
                         }
                         
-                        outputStream.close();
+                        toGenerate.add(child);
                     }
                 }
-                catch (Throwable e) {
-                    String msg = e.getMessage();
-                    if (msg == null) msg = "Exception of type " + e.getClass().getName();
-                
-                    processingEnv.getMessager().printMessage(Kind.ERROR, "While processing class: " + clazz.getQualifiedName() + " got exeption: " + msg);
-                    e.printStackTrace();
-                }
             }
         }
         
         return true;
     }
+    
+    private boolean generateOne(AltClass altClass, TypeElement originatingElement) {
+        Filer filer = processingEnv.getFiler();
+        
+        try {
+            CtClass ctClass = Generator.generate(altClass, superClazz, defaultClassPool);
+            
+            String ctClassName = ctClass.getName();
+            
+            JavaFileObject jfo = filer.createClassFile(ctClassName, originatingElement);
+            
+            OutputStream outputStream = jfo.openOutputStream();
+            DataOutputStream dataOutputStream = null;
+            try {
+                dataOutputStream = new DataOutputStream(outputStream);
+            
+                ctClass.toBytecode(dataOutputStream);
+            }
+            finally {
+                if (dataOutputStream != null) {
+                    dataOutputStream.close();
+                }
+                
+                outputStream.close();
+            }
+            
+            return true;
+        }
+        catch (Throwable e) {
+            String msg = e.getMessage();
+            if (msg == null) msg = "Exception of type " + e.getClass().getName();
+        
+            processingEnv.getMessager().printMessage(Kind.ERROR, "While processing class: " + altClass.getName() + " got exeption: " + msg);
+            e.printStackTrace();
+            
+            return false;
+        }
+    }
 
 }
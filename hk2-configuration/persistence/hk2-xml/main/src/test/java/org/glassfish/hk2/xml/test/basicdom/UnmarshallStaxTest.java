@@ -0,0 +1,285 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.glassfish.hk2.xml.test.basicdom;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URL;
+import java.util.List;
+
+import org.glassfish.hk2.api.ServiceLocator;
+import org.glassfish.hk2.configuration.hub.api.Hub;
+import org.glassfish.hk2.xml.api.XmlRootHandle;
+import org.glassfish.hk2.xml.api.XmlService;
+import org.glassfish.hk2.xml.lifecycle.config.LifecycleConfig;
+import org.glassfish.hk2.xml.lifecycle.config.Service;
+import org.glassfish.hk2.xml.lifecycle.config.Tenant;
+import org.glassfish.hk2.xml.test.utilities.Utilities;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for unmarshalling xml into the hk2 hub with the streaming parser
+ * 
+ * @author jwells
+ */
+public class UnmarshallStaxTest {
+    private final static String SAMPLE_CONFIG_FILE = "sample-config.xml";
+    private final static String ACME_SYMBOL = "acme";
+    private final static String NYSE = "NYSE";
+    private final static String COKE_TENANT = "coke";
+    private final static String HRPROD_SERVICE = "HRProd";
+    private final static String EMPLOYEE_PREFIX = "Employee-";
+    
+    private final static int LARGE_EMPLOYEE_COUNT = 2000;
+    
+    /**
+     * Set hk2.xml.benchmark.employees to the number of employees of the
+     * document to time and weigh the parsers with, the benchmark is not
+     * run otherwise
+     */
+    private final static int BENCHMARK_EMPLOYEE_COUNT = Integer.getInteger("hk2.xml.benchmark.employees", 0);
+    private final static int BENCHMARK_ITERATIONS = 5;
+    
+    private static File writeEmployeesFile(int count) throws IOException {
+        File retVal = File.createTempFile("largeEmployees", ".xml");
+        retVal.deleteOnExit();
+        
+        Writer writer = new OutputStreamWriter(new FileOutputStream(retVal), "UTF-8");
+        try {
+            writer.write("<employees>\n  <company-name>" + UnmarshallDomTest.ACME + "</company-name>\n");
+            for (int lcv = 0; lcv < count; lcv++) {
+                writer.write("  <employee>\n    <id>" + lcv + "</id>\n    <name>" +
+                    EMPLOYEE_PREFIX + lcv + "</name>\n  </employee>\n");
+            }
+            writer.write("</employees>\n");
+        }
+        finally {
+            writer.close();
+        }
+        
+        return retVal;
+    }
+    
+    /**
+     * Tests attributes and simple elements are read by the streaming parser
+     * 
+     * @throws Exception
+     */
+    @Test // @org.junit.Ignore
+    public void testStaxSimpleUnmarshalling() throws Exception {
+        ServiceLocator locator = Utilities.createStaxLocator();
+        XmlService xmlService = locator.getService(XmlService.class);
+        
+        URL url = getClass().getClassLoader().getResource(UnmarshallDomTest.MUSEUM1_FILE);
+        
+        XmlRootHandle<Museum> rootHandle = xmlService.unmarshall(url.toURI(), Museum.class);
+        Museum museum = rootHandle.getRoot();
+        
+        Assert.assertEquals(UnmarshallDomTest.HUNDRED_INT, museum.getId());
+        Assert.assertEquals(UnmarshallDomTest.BEN_FRANKLIN, museum.getName());
+        Assert.assertEquals(UnmarshallDomTest.HUNDRED_TEN_INT, museum.getAge());
+        
+        Museum asService = locator.getService(Museum.class);
+        Assert.assertNotNull(asService);
+        
+        Assert.assertEquals(museum, asService);
+    }
+    
+    /**
+     * Tests direct and list children are read by the streaming parser
+     * and end up in the hub
+     * 
+     * @throws Exception
+     */
+    @Test // @org.junit.Ignore
+    public void testStaxUnmarshallingWithChildren() throws Exception {
+        ServiceLocator locator = Utilities.createStaxLocator();
+        XmlService xmlService = locator.getService(XmlService.class);
+        Hub hub = locator.getService(Hub.class);
+        
+        URL url = getClass().getClassLoader().getResource(UnmarshallDomTest.ACME1_FILE);
+        
+        XmlRootHandle<Employees> rootHandle = xmlService.unmarshall(url.toURI(), Employees.class);
+        Employees employees = rootHandle.getRoot();
+        
+        Assert.assertEquals(UnmarshallDomTest.ACME, employees.getCompanyName());
+        
+        List<Employee> employeeList = employees.getEmployees();
+        Assert.assertEquals(2, employeeList.size());
+        
+        Assert.assertEquals(UnmarshallDomTest.HUNDRED_LONG, employeeList.get(0).getId());
+        Assert.assertEquals(UnmarshallDomTest.BOB, employeeList.get(0).getName());
+        Assert.assertEquals(UnmarshallDomTest.HUNDRED_ONE_LONG, employeeList.get(1).getId());
+        Assert.assertEquals(UnmarshallDomTest.CAROL, employeeList.get(1).getName());
+        
+        Financials financials = employees.getFinancials();
+        Assert.assertNotNull(financials);
+        
+        Assert.assertEquals(ACME_SYMBOL, financials.getSymbol());
+        Assert.assertEquals(NYSE, financials.getExchange());
+        
+        Assert.assertNotNull(hub.getCurrentDatabase().getInstance(UnmarshallDomTest.FINANCIALS_TYPE,
+                UnmarshallDomTest.FINANCIALS_INSTANCE));
+        
+        Assert.assertNotNull(locator.getService(Employee.class, UnmarshallDomTest.BOB));
+        Assert.assertNotNull(locator.getService(Employee.class, UnmarshallDomTest.CAROL));
+    }
+    
+    /**
+     * Tests a more complex XML format with the streaming parser
+     * 
+     * @throws Exception
+     */
+    @Test // @org.junit.Ignore
+    public void testStaxComplexUnmarshalling() throws Exception {
+        ServiceLocator locator = Utilities.createStaxLocator();
+        XmlService xmlService = locator.getService(XmlService.class);
+        
+        URL url = getClass().getClassLoader().getResource(SAMPLE_CONFIG_FILE);
+        
+        XmlRootHandle<LifecycleConfig> rootHandle = xmlService.unmarshall(url.toURI(), LifecycleConfig.class);
+        Assert.assertNotNull(rootHandle.getRoot());
+        
+        Tenant tenant = locator.getService(Tenant.class, COKE_TENANT);
+        Assert.assertNotNull(tenant);
+        
+        Service hrProdService = tenant.lookupService(HRPROD_SERVICE);
+        Assert.assertNotNull(hrProdService);
+        Assert.assertEquals(HRPROD_SERVICE, hrProdService.getName());
+    }
+    
+    /**
+     * Parses a large generated document with both the DOM and the
+     * streaming parser and ensures they produce the same tree
+     * 
+     * @throws Exception
+     */
+    @Test // @org.junit.Ignore
+    public void testStaxMatchesDomOnLargeDocument() throws Exception {
+        File largeFile = writeEmployeesFile(LARGE_EMPLOYEE_COUNT);
+        
+        ServiceLocator domLocator = Utilities.createDomLocator();
+        Employees domEmployees = domLocator.getService(XmlService.class).unmarshall(
+                largeFile.toURI(), Employees.class).getRoot();
+        
+        ServiceLocator staxLocator = Utilities.createStaxLocator();
+        Employees staxEmployees = staxLocator.getService(XmlService.class).unmarshall(
+                largeFile.toURI(), Employees.class).getRoot();
+        
+        Assert.assertEquals(domEmployees.getCompanyName(), staxEmployees.getCompanyName());
+        
+        List<Employee> domList = domEmployees.getEmployees();
+        List<Employee> staxList = staxEmployees.getEmployees();
+        Assert.assertEquals(LARGE_EMPLOYEE_COUNT, domList.size());
+        Assert.assertEquals(LARGE_EMPLOYEE_COUNT, staxList.size());
+        
+        for (int lcv = 0; lcv < LARGE_EMPLOYEE_COUNT; lcv++) {
+            Assert.assertEquals(domList.get(lcv).getId(), staxList.get(lcv).getId());
+            Assert.assertEquals(domList.get(lcv).getName(), staxList.get(lcv).getName());
+        }
+        
+        Assert.assertNotNull(staxLocator.getService(Employee.class, EMPLOYEE_PREFIX + (LARGE_EMPLOYEE_COUNT - 1)));
+    }
+    
+    private static long getUsedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int lcv = 0; lcv < 5; lcv++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+    
+    /**
+     * Unmarshalls the file with a new locator, printing how long it took
+     * to get the root and how much heap the locator retains afterwards
+     */
+    private static void measure(String parserName, boolean stax, File file) throws Exception {
+        long bestNanos = Long.MAX_VALUE;
+        long retainedBytes = 0;
+        
+        for (int lcv = 0; lcv < BENCHMARK_ITERATIONS; lcv++) {
+            ServiceLocator locator = (stax) ? Utilities.createStaxLocator() : Utilities.createDomLocator();
+            XmlService xmlService = locator.getService(XmlService.class);
+            
+            long before = getUsedHeap();
+            long start = System.nanoTime();
+            
+            XmlRootHandle<Employees> rootHandle = xmlService.unmarshall(file.toURI(), Employees.class);
+            Employees root = rootHandle.getRoot();
+            
+            bestNanos = Math.min(bestNanos, System.nanoTime() - start);
+            retainedBytes = getUsedHeap() - before;
+            
+            // keeps the whole tree reachable until it has been weighed
+            Assert.assertEquals(BENCHMARK_EMPLOYEE_COUNT, root.getEmployees().size());
+            locator.shutdown();
+        }
+        
+        System.out.println("UnmarshallStaxTest: " + parserName + " parsed " + BENCHMARK_EMPLOYEE_COUNT +
+                " employees, best time to root " + (bestNanos / 1000000L) + " ms, retained heap " +
+                (retainedBytes / 1024L) + " KB");
+    }
+    
+    /**
+     * Times how long the DOM and the streaming parser take to return the root
+     * of a large document and how much heap stays in use once they have.  Only
+     * run when -Dhk2.xml.benchmark.employees is set, e.g. to 100000
+     * 
+     * @throws Exception
+     */
+    @Test // @org.junit.Ignore
+    public void testTimeToRootAndRetainedHeap() throws Exception {
+        if (BENCHMARK_EMPLOYEE_COUNT <= 0) return;
+        
+        File benchmarkFile = writeEmployeesFile(BENCHMARK_EMPLOYEE_COUNT);
+        try {
+            measure("DOM", false, benchmarkFile);
+            measure("StAX", true, benchmarkFile);
+        }
+        finally {
+            benchmarkFile.delete();
+        }
+    }
+}
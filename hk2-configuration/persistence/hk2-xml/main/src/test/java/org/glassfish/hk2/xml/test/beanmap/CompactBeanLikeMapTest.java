@@ -0,0 +1,250 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.glassfish.hk2.xml.test.beanmap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.glassfish.hk2.xml.internal.CompactBeanLikeMap;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the slot based bean-like map.  The retained heap benchmark
+ * only runs when -Dhk2.xml.benchmark.beanmaps is set to the number of
+ * maps to hold, e.g. 200000
+ * 
+ * @author jwells
+ */
+public class CompactBeanLikeMapTest {
+    private final static String NAME = "name";
+    private final static String AGE = "age";
+    private final static String CHILD = "child";
+    private final static String UNKNOWN = "unknown";
+    private final static int BENCHMARK_MAP_COUNT = Integer.getInteger("hk2.xml.benchmark.beanmaps", 0);
+    private final static int[] BENCHMARK_PROPERTY_COUNTS = { 4, 8, 16, 32, 80 };
+    
+    /** Static so that the JIT cannot find the maps unreachable while they are measured */
+    private static Object[] held;
+    
+    private final static CompactBeanLikeMap.Layout LAYOUT =
+            new CompactBeanLikeMap.Layout(Arrays.asList(NAME, AGE, CHILD));
+    
+    /**
+     * Tests that slot and overflow keys behave like a HashMap
+     */
+    @Test
+    public void testBehavesLikeHashMap() {
+        CompactBeanLikeMap map = new CompactBeanLikeMap(LAYOUT);
+        HashMap<String, Object> expected = new HashMap<String, Object>();
+        
+        map.put(NAME, "Alice");
+        expected.put(NAME, "Alice");
+        
+        map.put(AGE, null);
+        expected.put(AGE, null);
+        
+        map.put(UNKNOWN, 13);
+        expected.put(UNKNOWN, 13);
+        
+        Assert.assertEquals(expected, map);
+        Assert.assertEquals(expected.hashCode(), map.hashCode());
+        Assert.assertEquals(3, map.size());
+        
+        Assert.assertTrue(map.containsKey(AGE));
+        Assert.assertNull(map.get(AGE));
+        Assert.assertFalse(map.containsKey(CHILD));
+        
+        Assert.assertEquals("Alice", map.remove(NAME));
+        Assert.assertFalse(map.containsKey(NAME));
+        Assert.assertEquals(2, map.size());
+        
+        map.clear();
+        Assert.assertTrue(map.isEmpty());
+    }
+    
+    /**
+     * Tests removal through the entry set iterator
+     */
+    @Test
+    public void testIteratorRemove() {
+        CompactBeanLikeMap map = new CompactBeanLikeMap(LAYOUT);
+        map.put(NAME, "Bob");
+        map.put(UNKNOWN, "other");
+        
+        Iterator<Map.Entry<String, Object>> iterator = map.entrySet().iterator();
+        while (iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+        
+        Assert.assertTrue(map.isEmpty());
+    }
+    
+    /**
+     * Tests copying between two maps of the same layout while
+     * skipping some keys
+     */
+    @Test
+    public void testCopyFromWithSkip() {
+        CompactBeanLikeMap from = new CompactBeanLikeMap(LAYOUT);
+        from.put(NAME, "Carol");
+        from.put(CHILD, "child");
+        from.put(UNKNOWN, 1);
+        
+        CompactBeanLikeMap to = new CompactBeanLikeMap(LAYOUT);
+        to.copyFrom(from, Arrays.asList(CHILD));
+        
+        Assert.assertEquals("Carol", to.get(NAME));
+        Assert.assertEquals(1, to.get(UNKNOWN));
+        Assert.assertFalse(to.containsKey(CHILD));
+        
+        // Copies must be independent
+        to.put(UNKNOWN, 2);
+        Assert.assertEquals(1, from.get(UNKNOWN));
+    }
+    
+    /**
+     * Tests a layout with more slots than fit in one presence word,
+     * including copies between maps of that layout
+     */
+    @Test
+    public void testMoreThanSixtyFourSlots() {
+        List<String> keys = new ArrayList<String>();
+        for (int lcv = 0; lcv < 130; lcv++) {
+            keys.add("key" + lcv);
+        }
+        CompactBeanLikeMap.Layout wide = new CompactBeanLikeMap.Layout(keys);
+        
+        CompactBeanLikeMap map = new CompactBeanLikeMap(wide);
+        HashMap<String, Object> expected = new HashMap<String, Object>();
+        for (int lcv = 0; lcv < keys.size(); lcv += 3) {
+            map.put(keys.get(lcv), lcv);
+            expected.put(keys.get(lcv), lcv);
+        }
+        map.put(keys.get(129), null);
+        expected.put(keys.get(129), null);
+        
+        Assert.assertEquals(expected, map);
+        Assert.assertEquals(expected.size(), map.size());
+        Assert.assertTrue(map.containsKey(keys.get(63)));
+        Assert.assertTrue(map.containsKey(keys.get(129)));
+        Assert.assertFalse(map.containsKey(keys.get(64)));
+        
+        CompactBeanLikeMap copy = new CompactBeanLikeMap(wide);
+        copy.copyFrom(map, Arrays.asList(keys.get(66)));
+        expected.remove(keys.get(66));
+        Assert.assertEquals(expected, copy);
+        
+        // Copies must be independent past the first word as well
+        Assert.assertEquals(126, copy.remove(keys.get(126)));
+        Assert.assertTrue(map.containsKey(keys.get(126)));
+        Assert.assertEquals(expected.size() - 1, copy.size());
+        
+        Iterator<Map.Entry<String, Object>> iterator = map.entrySet().iterator();
+        while (iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+        Assert.assertTrue(map.isEmpty());
+    }
+    
+    /**
+     * Reports the heap retained per map, with every property set, for
+     * a HashMap and for the bean-like map
+     */
+    @Test
+    public void benchmarkRetainedHeap() {
+        if (BENCHMARK_MAP_COUNT <= 0) return;
+        
+        for (int numProperties : BENCHMARK_PROPERTY_COUNTS) {
+            List<String> keys = new ArrayList<String>();
+            for (int lcv = 0; lcv < numProperties; lcv++) {
+                keys.add(("prop" + lcv).intern());
+            }
+            CompactBeanLikeMap.Layout layout = new CompactBeanLikeMap.Layout(keys);
+            
+            long hashMapBytes = retainedBytesPerMap(keys, null);
+            long compactBytes = retainedBytesPerMap(keys, layout);
+            
+            System.out.println("CompactBeanLikeMapTest: " + BENCHMARK_MAP_COUNT + " maps with " + numProperties +
+                    " properties retain " + hashMapBytes + " bytes per HashMap, " + compactBytes +
+                    " bytes per CompactBeanLikeMap");
+        }
+    }
+    
+    private static long retainedBytesPerMap(List<String> keys, CompactBeanLikeMap.Layout layout) {
+        Object value = "value";
+        
+        held = new Object[BENCHMARK_MAP_COUNT];
+        long before = usedHeap();
+        for (int lcv = 0; lcv < BENCHMARK_MAP_COUNT; lcv++) {
+            Map<String, Object> map = (layout == null) ? new HashMap<String, Object>() : new CompactBeanLikeMap(layout);
+            for (String key : keys) {
+                map.put(key, value);
+            }
+            held[lcv] = map;
+        }
+        long after = usedHeap();
+        held = null;
+        
+        return (after - before) / BENCHMARK_MAP_COUNT;
+    }
+    
+    private static long usedHeap() {
+        for (int lcv = 0; lcv < 5; lcv++) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            }
+            catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+}
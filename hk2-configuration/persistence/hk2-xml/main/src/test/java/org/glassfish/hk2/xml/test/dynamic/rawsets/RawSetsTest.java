@@ -42,8 +42,12 @@ package org.glassfish.hk2.xml.test.dynamic.rawsets;
 
 import java.beans.PropertyChangeEvent;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.inject.Singleton;
 
@@ -57,6 +61,8 @@ import org.glassfish.hk2.configuration.hub.api.Instance;
 import org.glassfish.hk2.xml.api.XmlRootCopy;
 import org.glassfish.hk2.xml.api.XmlRootHandle;
 import org.glassfish.hk2.xml.api.XmlService;
+import org.glassfish.hk2.xml.test.basic.Employee;
+import org.glassfish.hk2.xml.test.basic.Employees;
 import org.glassfish.hk2.xml.test.basic.Museum;
 import org.glassfish.hk2.xml.test.basic.UnmarshallTest;
 import org.glassfish.hk2.xml.test.utilities.Utilities;
@@ -76,6 +82,9 @@ public class RawSetsTest {
     private final static String AGE_TAG = "age";
     
     private final static int ONE_OH_ONE_INT = 101;
+    private final static int NUM_WRITES = 2000;
+    private final static int NUM_COPIERS = 4;
+    private final static long DEADLOCK_TIMEOUT = 60L * 1000L;
     
     /**
      * Just verifies that the original state of the Museum
@@ -214,12 +223,160 @@ public class RawSetsTest {
         }
     }
     
+    /**
+     * Ensures that children of a copy are isolated from the
+     * original tree, both when the copy is modified and when
+     * the original is modified before the copy is read
+     * 
+     * @throws Exception
+     */
+    @Test // @org.junit.Ignore
+    public void testCopyChildrenAreIsolated() throws Exception {
+        ServiceLocator locator = Utilities.createLocator(UpdateListener.class);
+        XmlService xmlService = locator.getService(XmlService.class);
+        
+        URL url = getClass().getClassLoader().getResource(UnmarshallTest.ACME1_FILE);
+        
+        XmlRootHandle<Employees> rootHandle = xmlService.unmarshall(url.toURI(), Employees.class);
+        Employees original = rootHandle.getRoot();
+        
+        XmlRootCopy<Employees> copy = rootHandle.getXmlRootCopy();
+        
+        // Modify the original before the children of the copy have been looked at
+        original.getEmployees().get(0).setId(ONE_OH_ONE_INT + 1);
+        
+        Employees employeesCopy = copy.getChildRoot();
+        List<Employee> copiedEmployees = employeesCopy.getEmployees();
+        Assert.assertEquals(2, copiedEmployees.size());
+        
+        Employee bobCopy = copiedEmployees.get(0);
+        Assert.assertEquals(UnmarshallTest.BOB, bobCopy.getName());
+        Assert.assertEquals(UnmarshallTest.HUNDRED_INT, bobCopy.getId());
+        
+        // Now modify the copy, the original must not change
+        copiedEmployees.get(1).setId(ONE_OH_ONE_INT + 2);
+        
+        Employee carolOriginal = original.getEmployees().get(1);
+        Assert.assertEquals(UnmarshallTest.CAROL, carolOriginal.getName());
+        Assert.assertEquals(ONE_OH_ONE_INT, carolOriginal.getId());
+        
+        Assert.assertNotSame(carolOriginal, copiedEmployees.get(1));
+    }
+    
     /**
      * Overlays original file with new file
      * 
      * @throws Exception
      */
     @SuppressWarnings("unchecked")
+    /**
+     * One thread keeps writing the original tree while other threads
+     * keep copying it, reading, adding to and removing from their copies.
+     * Nothing may deadlock and each copy must keep the values it had
+     * when it was made
+     * 
+     * @throws Exception
+     */
+    @Test // @org.junit.Ignore
+    public void testConcurrentWriterAndCopyReaders() throws Exception {
+        ServiceLocator locator = Utilities.createLocator(UpdateListener.class);
+        XmlService xmlService = locator.getService(XmlService.class);
+        
+        URL url = getClass().getClassLoader().getResource(UnmarshallTest.ACME1_FILE);
+        
+        final XmlRootHandle<Employees> rootHandle = xmlService.unmarshall(url.toURI(), Employees.class);
+        final Employees original = rootHandle.getRoot();
+        
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicBoolean done = new AtomicBoolean(false);
+        final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+        
+        List<Thread> threads = new ArrayList<Thread>();
+        threads.add(new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    start.await();
+                    
+                    for (int lcv = 0; lcv < NUM_WRITES; lcv++) {
+                        for (Employee employee : original.getEmployees()) {
+                            employee.setId(lcv);
+                        }
+                    }
+                }
+                catch (Throwable th) {
+                    failures.add(th);
+                }
+                finally {
+                    done.set(true);
+                }
+            }
+            
+        }));
+        
+        for (int lcv = 0; lcv < NUM_COPIERS; lcv++) {
+            final String addedName = "Copier" + lcv;
+            
+            threads.add(new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        
+                        while (!done.get()) {
+                            XmlRootCopy<Employees> copy = rootHandle.getXmlRootCopy();
+                            Employees copyRoot = copy.getChildRoot();
+                            
+                            List<Employee> employees = copyRoot.getEmployees();
+                            long firstId = employees.get(0).getId();
+                            long secondId = employees.get(1).getId();
+                            
+                            copyRoot.addEmployee(addedName);
+                            Assert.assertNotNull(copyRoot.lookupEmployee(addedName));
+                            Assert.assertNotNull(copyRoot.removeEmployee(addedName));
+                            
+                            employees.get(1).setId(-1);
+                            
+                            Thread.yield();
+                            
+                            // the writer has moved on, the copy must not have
+                            List<Employee> again = copy.getChildRoot().getEmployees();
+                            Assert.assertEquals(firstId, again.get(0).getId());
+                            Assert.assertEquals(-1, again.get(1).getId());
+                            Assert.assertTrue(secondId >= 0);
+                        }
+                    }
+                    catch (Throwable th) {
+                        failures.add(th);
+                    }
+                }
+                
+            }));
+        }
+        
+        for (Thread thread : threads) {
+            thread.setDaemon(true);
+            thread.start();
+        }
+        start.countDown();
+        
+        long deadline = System.currentTimeMillis() + DEADLOCK_TIMEOUT;
+        for (Thread thread : threads) {
+            thread.join(Math.max(1L, deadline - System.currentTimeMillis()));
+            Assert.assertFalse("Deadlocked thread " + thread, thread.isAlive());
+        }
+        
+        if (!failures.isEmpty()) {
+            throw new AssertionError(failures.get(0));
+        }
+        
+        for (Employee employee : original.getEmployees()) {
+            Assert.assertEquals(NUM_WRITES - 1, employee.getId());
+        }
+    }
+    
     @Test @org.junit.Ignore
     public void testOverlay() throws Exception {
         ServiceLocator locator = Utilities.createLocator(UpdateListener.class);
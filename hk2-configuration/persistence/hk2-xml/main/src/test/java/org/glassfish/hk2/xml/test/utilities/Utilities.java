@@ -83,5 +83,20 @@ public class Utilities {
         
         return retVal;
     }
+    
+    /**
+     * Creates a fresh service locator with the streaming XmlService added
+     * 
+     * @return A service locator with the streaming XmlService added
+     */
+    public static ServiceLocator createStaxLocator(Class<?>... classes) {
+        ServiceLocator retVal = ServiceLocatorFactory.getInstance().create(null, null, GENERATOR);
+        
+        ServiceLocatorUtilities.addClasses(retVal, classes);
+        
+        XmlServiceUtilities.enableStaxXmlService(retVal);
+        
+        return retVal;
+    }
 
 }
@@ -0,0 +1,215 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.glassfish.hk2.xml.test.precompile;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import org.glassfish.hk2.xml.tools.Hk2XmlGenerator;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the {@link Hk2XmlGenerator#PREGENERATE_REACHABLE_OPTION} option
+ * by compiling a small tree of interfaces with the generator
+ * 
+ * @author jwells
+ */
+public class PregenerateReachableTest {
+    private final static String TEST_NAME = "PregenerateReachableTest";
+    private final static String CLASS_ADD_ON_NAME = "_Hk2_Jaxb";
+    private final static String PACKAGE = "reachable";
+    
+    private final static String ROOT = "Root";
+    private final static String DIRECT = "Direct";
+    private final static String LISTED = "Listed";
+    private final static String ARRAYED = "Arrayed";
+    private final static String GRANDCHILD = "Grandchild";
+    
+    private final static String ROOT_SOURCE =
+            "@org.glassfish.hk2.xml.api.annotations.Hk2XmlPreGenerate\n" +
+            "@javax.xml.bind.annotation.XmlRootElement(name=\"root\")\n" +
+            "public interface Root {\n" +
+            "  @javax.xml.bind.annotation.XmlElement(name=\"direct\") public Direct getDirect();\n" +
+            "  @javax.xml.bind.annotation.XmlElement(name=\"listed\") public java.util.List<Listed> getListed();\n" +
+            "  @javax.xml.bind.annotation.XmlElement(name=\"arrayed\") public Arrayed[] getArrayed();\n" +
+            "  public void setArrayed(Arrayed arrayed[]);\n" +
+            "  @javax.xml.bind.annotation.XmlElement(name=\"pre-compiled\") public " +
+                    PreCompiledDirectChild.class.getName() + " getPreCompiled();\n" +
+            "}";
+    private final static String DIRECT_SOURCE =
+            "public interface Direct {\n" +
+            "  @javax.xml.bind.annotation.XmlElement(name=\"grandchild\") public Grandchild getGrandchild();\n" +
+            "}";
+    private final static String LEAF_SOURCE =
+            "public interface %s {\n" +
+            "  @javax.xml.bind.annotation.XmlElement(name=\"name\") public String getName();\n" +
+            "  public void setName(String name);\n" +
+            "}";
+    
+    private File root;
+    private File sources;
+    private File classes;
+    
+    private static void delete(File file) {
+        File children[] = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        
+        file.delete();
+    }
+    
+    @Before
+    public void before() throws IOException {
+        root = File.createTempFile(TEST_NAME, "");
+        Assert.assertTrue(root.delete());
+        
+        sources = new File(root, "src");
+        classes = new File(root, "classes");
+        
+        Assert.assertTrue(new File(sources, PACKAGE).mkdirs());
+        Assert.assertTrue(classes.mkdirs());
+    }
+    
+    @After
+    public void after() {
+        if (root != null) {
+            delete(root);
+        }
+    }
+    
+    private File writeSource(String className, String body) throws IOException {
+        File source = new File(new File(sources, PACKAGE), className + ".java");
+        
+        PrintWriter writer = new PrintWriter(new FileWriter(source));
+        try {
+            writer.println("package " + PACKAGE + ";");
+            writer.println(body);
+        }
+        finally {
+            writer.close();
+        }
+        
+        return source;
+    }
+    
+    private void compile(boolean pregenerateReachable) throws IOException {
+        List<String> args = new ArrayList<String>();
+        args.add("-processor");
+        args.add(Hk2XmlGenerator.class.getName());
+        if (pregenerateReachable) {
+            args.add("-A" + Hk2XmlGenerator.PREGENERATE_REACHABLE_OPTION + "=true");
+        }
+        args.add("-classpath");
+        args.add(System.getProperty("java.class.path"));
+        args.add("-d");
+        args.add(classes.getAbsolutePath());
+        
+        args.add(writeSource(ROOT, ROOT_SOURCE).getAbsolutePath());
+        args.add(writeSource(DIRECT, DIRECT_SOURCE).getAbsolutePath());
+        args.add(writeSource(LISTED, String.format(LEAF_SOURCE, LISTED)).getAbsolutePath());
+        args.add(writeSource(ARRAYED, String.format(LEAF_SOURCE, ARRAYED)).getAbsolutePath());
+        args.add(writeSource(GRANDCHILD, String.format(LEAF_SOURCE, GRANDCHILD)).getAbsolutePath());
+        
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        Assert.assertNotNull("These tests must run on a JDK", compiler);
+        
+        Assert.assertEquals(0, compiler.run(null, null, null, args.toArray(new String[args.size()])));
+    }
+    
+    private boolean isGenerated(String packageName, String interfaceName) {
+        File proxy = new File(classes, packageName.replace('.', File.separatorChar) + File.separator +
+                interfaceName + CLASS_ADD_ON_NAME + ".class");
+        return proxy.isFile();
+    }
+    
+    private boolean isGenerated(String interfaceName) {
+        return isGenerated(PACKAGE, interfaceName);
+    }
+    
+    /**
+     * Without the option only the annotated interface gets a proxy
+     * 
+     * @throws IOException
+     */
+    @Test
+    public void testOnlyAnnotatedIsGeneratedByDefault() throws IOException {
+        compile(false);
+        
+        Assert.assertTrue(isGenerated(ROOT));
+        Assert.assertFalse(isGenerated(DIRECT));
+        Assert.assertFalse(isGenerated(LISTED));
+        Assert.assertFalse(isGenerated(ARRAYED));
+        Assert.assertFalse(isGenerated(GRANDCHILD));
+    }
+    
+    /**
+     * With the option every interface reachable from the annotated one
+     * through direct, list and array children gets a proxy, except those
+     * that already have one on the class path
+     * 
+     * @throws IOException
+     */
+    @Test
+    public void testReachableAreGeneratedWithOption() throws IOException {
+        compile(true);
+        
+        Assert.assertTrue(isGenerated(ROOT));
+        Assert.assertTrue(isGenerated(DIRECT));
+        Assert.assertTrue(isGenerated(LISTED));
+        Assert.assertTrue(isGenerated(ARRAYED));
+        Assert.assertTrue(isGenerated(GRANDCHILD));
+        
+        Assert.assertFalse(isGenerated(PreCompiledDirectChild.class.getPackage().getName(),
+                PreCompiledDirectChild.class.getSimpleName()));
+    }
+}
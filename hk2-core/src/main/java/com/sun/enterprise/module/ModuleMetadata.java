@@ -147,6 +147,26 @@ public final class ModuleMetadata implements Serializable {
         return entries.values();
     }
 
+    /**
+     * Gets the names of the services for which an {@link Entry} has been loaded
+     *
+     * @return The service names, never null
+     */
+    public Set<String> getServiceNames() {
+        return Collections.unmodifiableSet(entries.keySet());
+    }
+
+    /**
+     * Sets the {@link Entry} of the given service, used when the metadata
+     * is restored from a cache rather than loaded from its source
+     *
+     * @param serviceName The name of the service
+     * @param entry The already loaded entry for that service
+     */
+    public void putEntry(String serviceName, Entry entry) {
+        entries.put(serviceName, entry);
+    }
+
     public List<URL> getDescriptors(String serviceName) {
         return getEntry(serviceName).resources;
     }
@@ -60,6 +60,7 @@ import org.glassfish.hk2.api.ServiceLocatorFactory;
 import org.glassfish.hk2.api.ServiceLocatorState;
 import org.glassfish.hk2.bootstrap.HK2Populator;
 import org.glassfish.hk2.utilities.BuilderHelper;
+import org.glassfish.hk2.utilities.DescriptorImpl;
 import org.glassfish.hk2.utilities.ServiceLocatorUtilities;
 
 import java.io.IOException;
@@ -78,9 +79,15 @@ import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.ArrayList;
 import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.*;
 
 /**
@@ -92,6 +99,13 @@ import java.util.logging.*;
  * @author Sanjeeb.Sahoo@Sun.COM
  */
 public abstract class AbstractModulesRegistryImpl implements ModulesRegistry {
+    /**
+     * The number of threads used to read the inhabitants of the modules while
+     * populating a service locator.  1 reads them on the calling thread
+     */
+    private final static int BOOTSTRAP_THREADS = Integer.getInteger("hk2.module.bootstrap.threads",
+            Runtime.getRuntime().availableProcessors());
+
     /**
      * {@link ModulesRegistry} can form a tree structure by using this pointer.
      * It works in a way similar to the classloader tree. Modules defined in the parent
@@ -174,29 +188,46 @@ public abstract class AbstractModulesRegistryImpl implements ModulesRegistry {
      */
      public void populateServiceLocator(String name, ServiceLocator serviceLocator, List<PopulatorPostProcessor> postProcessors) throws MultiException {
          try {
-             for (final Module module : getModules()) { 
-            	   // TODO: should get the inhabitantsParser out of Main instead since
-                 // this could have been overridden
-             	List<ActiveDescriptor> allDescriptors =
-             	        parseInhabitants(module, name, serviceLocator, postProcessors);
-             	if (allDescriptors == null) continue;
-             	if (allDescriptors.isEmpty()) continue;
-             	
-             	Map<ServiceLocator, List<ActiveDescriptor>> descriptorByServiceLocator = moduleDescriptors.get(module);
-             	if (descriptorByServiceLocator == null) {
-             	    descriptorByServiceLocator = new HashMap<ServiceLocator, List<ActiveDescriptor>>();
-             	    
-             	   moduleDescriptors.put(module, descriptorByServiceLocator);
-             	}
-             	
-             	List<ActiveDescriptor> foundDs = descriptorByServiceLocator.get(serviceLocator);
-             	if (foundDs == null) {
-             	    foundDs = new LinkedList<ActiveDescriptor>();
-             	    
-             	    descriptorByServiceLocator.put(serviceLocator, foundDs);
-             	}
-             	
-             	foundDs.addAll(allDescriptors);
+             List<Module> allModules = new ArrayList<Module>(getModules());
+             List<List<DescriptorImpl>> allInhabitants = readAllInhabitants(allModules, name);
+             
+             // All the modules that could be read ahead are bound in one configuration, in
+             // module order so that the descriptor ids do not depend on which read finished first
+             DynamicConfiguration config = null;
+             Map<Module, List<ActiveDescriptor>> bound = new LinkedHashMap<Module, List<ActiveDescriptor>>();
+             
+             for (int lcv = 0; lcv < allModules.size(); lcv++) {
+                 Module module = allModules.get(lcv);
+                 List<DescriptorImpl> inhabitants = allInhabitants.get(lcv);
+                 
+                 if (inhabitants == null) {
+                     // This module is parsed and committed in one go, commit the ones before it first
+                     if (config != null) {
+                         config.commit();
+                         config = null;
+                         
+                         recordInhabitants(bound, serviceLocator);
+                     }
+                     
+                     // TODO: should get the inhabitantsParser out of Main instead since
+                     // this could have been overridden
+                     bound.put(module, parseInhabitants(module, name, serviceLocator, postProcessors));
+                     recordInhabitants(bound, serviceLocator);
+                     
+                     continue;
+                 }
+                 // An empty list is bound too, the registry may remember that the module has none
+                 if (config == null) {
+                     config = serviceLocator.getService(DynamicConfigurationService.class).createDynamicConfiguration();
+                 }
+                 
+                 bound.put(module, bindInhabitants(module, name, inhabitants, serviceLocator, config, postProcessors));
+             }
+             
+             if (config != null) {
+                 config.commit();
+                 
+                 recordInhabitants(bound, serviceLocator);
              }
          } catch (Exception e) {
              throw new MultiException(e);
@@ -204,6 +235,107 @@ public abstract class AbstractModulesRegistryImpl implements ModulesRegistry {
          // From now on, we will keep this service registry up-to-date with module system state
          habitats.put(serviceLocator, name);
      }
+     
+     private void recordInhabitants(Map<Module, List<ActiveDescriptor>> bound, ServiceLocator serviceLocator) {
+         for (Map.Entry<Module, List<ActiveDescriptor>> entry : bound.entrySet()) {
+             Module module = entry.getKey();
+             List<ActiveDescriptor> allDescriptors = entry.getValue();
+             
+             if (allDescriptors == null) continue;
+             if (allDescriptors.isEmpty()) continue;
+             
+             Map<ServiceLocator, List<ActiveDescriptor>> descriptorByServiceLocator = moduleDescriptors.get(module);
+             if (descriptorByServiceLocator == null) {
+                 descriptorByServiceLocator = new HashMap<ServiceLocator, List<ActiveDescriptor>>();
+                 
+                 moduleDescriptors.put(module, descriptorByServiceLocator);
+             }
+             
+             List<ActiveDescriptor> foundDs = descriptorByServiceLocator.get(serviceLocator);
+             if (foundDs == null) {
+                 foundDs = new LinkedList<ActiveDescriptor>();
+                 
+                 descriptorByServiceLocator.put(serviceLocator, foundDs);
+             }
+             
+             foundDs.addAll(allDescriptors);
+         }
+         
+         bound.clear();
+     }
+     
+     /**
+      * Reads the inhabitants of one module.  A module whose inhabitants cannot be
+      * read ahead is left to {@link #parseInhabitants}, so that it neither stops the
+      * other modules from being read nor fails any differently than it used to
+      * 
+      * @return The result of {@link #readInhabitants(Module, String)}, or null if
+      * it failed
+      */
+     private List<DescriptorImpl> readInhabitantsOrNull(Module module, String name) {
+         try {
+             return readInhabitants(module, name);
+         }
+         catch (Exception e) {
+             Logger logger = LogHelper.getDefaultLogger();
+             if (logger.isLoggable(Level.FINE)) {
+                 logger.log(Level.FINE, "Could not read the inhabitants of " + module.getName() +
+                         ", they will be parsed when bound", e);
+             }
+             
+             return null;
+         }
+     }
+     
+     /**
+      * Reads the inhabitants of all the modules, on a bounded pool of threads
+      * 
+      * @return The result of {@link #readInhabitants(Module, String)} for each
+      * module, in the order of the modules
+      */
+     private List<List<DescriptorImpl>> readAllInhabitants(List<Module> allModules, final String name) throws Exception {
+         List<List<DescriptorImpl>> retVal = new ArrayList<List<DescriptorImpl>>(allModules.size());
+         
+         int threads = Math.min(BOOTSTRAP_THREADS, allModules.size());
+         if (threads <= 1) {
+             for (Module module : allModules) {
+                 retVal.add(readInhabitantsOrNull(module, name));
+             }
+             
+             return retVal;
+         }
+         
+         List<Callable<List<DescriptorImpl>>> reads = new ArrayList<Callable<List<DescriptorImpl>>>(allModules.size());
+         for (final Module module : allModules) {
+             reads.add(new Callable<List<DescriptorImpl>>() {
+
+                 @Override
+                 public List<DescriptorImpl> call() throws Exception {
+                     return readInhabitantsOrNull(module, name);
+                 }
+                 
+             });
+         }
+         
+         ExecutorService executor = Executors.newFixedThreadPool(threads);
+         try {
+             for (Future<List<DescriptorImpl>> read : executor.invokeAll(reads)) {
+                 try {
+                     retVal.add(read.get());
+                 }
+                 catch (ExecutionException ee) {
+                     Throwable cause = ee.getCause();
+                     if (cause instanceof Exception) throw (Exception) cause;
+                     throw (Error) cause;
+                 }
+             }
+         }
+         finally {
+             executor.shutdown();
+         }
+         
+         return retVal;
+     }
 
     @Override
 	public void populateConfig(ServiceLocator serviceLocator) {
@@ -232,6 +364,52 @@ public abstract class AbstractModulesRegistryImpl implements ModulesRegistry {
                                                                String name, ServiceLocator serviceLocator, List<PopulatorPostProcessor> postProcessors)
             throws IOException, BootException;
 
+    /**
+     * Reads, without binding them, the inhabitants descriptors of the given name
+     * in the module.  This is called concurrently for different modules while a
+     * service locator is populated, the descriptors are then given to
+     * {@link #bindInhabitants} on the populating thread.
+     *
+     * @param module the module to read
+     * @param name the name of the inhabitants files
+     * @return the descriptors read, or null if this registry cannot read the
+     * inhabitants ahead of binding them, in which case
+     * {@link #parseInhabitants} is used.  The default returns null
+     * @throws IOException if the inhabitants could not be read, the module is
+     * then also left to {@link #parseInhabitants}
+     */
+    protected List<DescriptorImpl> readInhabitants(Module module, String name)
+            throws IOException, BootException {
+        return null;
+    }
+
+    /**
+     * Runs the descriptors returned by {@link #readInhabitants} through the post
+     * processors and binds the ones they keep into the given configuration, which
+     * is committed by the caller once all the modules are bound
+     *
+     * @return the descriptors bound
+     */
+    protected List<ActiveDescriptor> bindInhabitants(Module module, String name, List<DescriptorImpl> inhabitants,
+            ServiceLocator serviceLocator, DynamicConfiguration config, List<PopulatorPostProcessor> postProcessors) {
+        List<ActiveDescriptor> retVal = new ArrayList<ActiveDescriptor>(inhabitants.size());
+        
+        for (DescriptorImpl descriptor : inhabitants) {
+            if (postProcessors != null) {
+                for (PopulatorPostProcessor postProcessor : postProcessors) {
+                    descriptor = postProcessor.process(serviceLocator, descriptor);
+                    if (descriptor == null) break;
+                }
+            }
+            
+            if (descriptor != null) {
+                retVal.add(config.bind(descriptor, false));
+            }
+        }
+        
+        return retVal;
+    }
+
     /**
      * Add a new <code>Repository</code> to this registry. From now on
      * the repository will be used to procure requested module not yet registered
@@ -93,6 +93,9 @@ final class ClassLoaderFacade extends URLClassLoader {
                 this.publicPkgs.add(publicPkg);
             }
         }
+
+        // proxies may already have indexed this facade by the packages it used to export
+        ClassLoaderProxy.exportsChanged();
     }
     
     public String[] getPublicPkgs() {
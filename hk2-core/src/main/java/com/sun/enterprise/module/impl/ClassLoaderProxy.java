@@ -45,7 +45,10 @@ import com.sun.enterprise.module.common_impl.FlattenEnumeration;
 import java.net.URLClassLoader;
 import java.net.URL;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.io.IOException;
 
 /**
@@ -55,9 +58,37 @@ import java.io.IOException;
  */
 public class ClassLoaderProxy extends URLClassLoader {
 
+    /**
+     * Set hk2.module.nopackageindex to true to probe every delegate in turn, as was
+     * done before delegates were indexed by package
+     */
+    private final static boolean packageIndexDisabled = Boolean.getBoolean("hk2.module.nopackageindex");
+    private final static int MAX_NOT_FOUND = 10000;
+
+    /**
+     * Bumped whenever a delegate or URL is added to or removed from any proxy, since
+     * that may make a class that could not be found before visible through a delegate
+     */
+    private final static AtomicInteger delegationGeneration = new AtomicInteger();
+
+    /**
+     * Bumped whenever a facade changes the packages it exports, since the facade
+     * does not know which proxies already indexed it
+     */
+    private final static AtomicInteger exportsGeneration = new AtomicInteger();
+
     private final List<ClassLoader> surrogates = new CopyOnWriteArrayList<ClassLoader>();
     private final List<ClassLoaderFacade> facadeSurrogates = new CopyOnWriteArrayList<ClassLoaderFacade>();
 
+    /**
+     * Package name to the facades exporting it, in delegation order.  Replaced
+     * rather than cleared when the delegates or their exports change
+     */
+    private volatile PackageIndex facadesByPackage = new PackageIndex(exportsGeneration.get());
+
+    /** Names of the classes none of the delegates could load */
+    private volatile NotFoundCache notFound = new NotFoundCache(delegationGeneration.get());
+
     /** Creates a new instance of ClassLoader */
     public ClassLoaderProxy(URL[] shared, ClassLoader parent) {
         super(shared, parent);
@@ -111,32 +142,135 @@ public class ClassLoaderProxy extends URLClassLoader {
             return findClassDirect(name);
         } catch(ClassNotFoundException cfne) {
             if (followImports) {
-                Class c=null;
-                for (ClassLoaderFacade classLoader : facadeSurrogates) {
-                    try {
-                        c = classLoader.getClass(name);
-                    } catch(ClassNotFoundException e) {
-                        // ignored.
-                    }
-                    if (c!=null) {
-                        return c;
-                    }
+                if (packageIndexDisabled) {
+                    return findClassInDelegates(name, facadeSurrogates, cfne);
+                }
+
+                NotFoundCache currentNotFound = getNotFoundCache();
+                if (currentNotFound.contains(name)) {
+                    throw cfne;
+                }
+
+                Class c = findClassInDelegates(name, getFacadesFor(name), null);
+                if (c != null) {
+                    return c;
                 }
-                for (ClassLoader classLoader : surrogates) {
-                    try {
-                        c = classLoader.loadClass(name);
-                    } catch(ClassNotFoundException e) {
-                        // ignored.
-                    }
-                    if (c!=null) {
-                        return c;
-                    }
+
+                // the contents of class loaders other than module facades are not under our control.
+                // If the delegates changed during the search currentNotFound is already stale
+                if (surrogates.isEmpty()) {
+                    currentNotFound.add(name);
                 }
             }
             throw cfne;
         }
     }
 
+    /**
+     * Tries the given facades and then all the surrogates, in order
+     *
+     * @param cfne thrown if the class is not found, or null to return null instead
+     */
+    private Class findClassInDelegates(String name, List<ClassLoaderFacade> facades, ClassNotFoundException cfne)
+            throws ClassNotFoundException {
+        Class c=null;
+        for (ClassLoaderFacade classLoader : facades) {
+            try {
+                c = classLoader.getClass(name);
+            } catch(ClassNotFoundException e) {
+                // ignored.
+            }
+            if (c!=null) {
+                return c;
+            }
+        }
+        for (ClassLoader classLoader : surrogates) {
+            try {
+                c = classLoader.loadClass(name);
+            } catch(ClassNotFoundException e) {
+                // ignored.
+            }
+            if (c!=null) {
+                return c;
+            }
+        }
+        if (cfne == null) return null;
+        throw cfne;
+    }
+
+    /**
+     * Returns the facades that export the package of the given class, in delegation order
+     */
+    private List<ClassLoaderFacade> getFacadesFor(String className) {
+        int index = className.lastIndexOf('.');
+        if (index < 0) {
+            return facadeSurrogates;
+        }
+
+        // read the map before the delegates, a map filled from a stale list of delegates
+        // has already been replaced
+        ConcurrentMap<String, List<ClassLoaderFacade>> currentIndex = getPackageIndex().facades;
+
+        String packagePrefix = className.substring(0, index + 1);
+        List<ClassLoaderFacade> retVal = currentIndex.get(packagePrefix);
+        if (retVal != null) {
+            return retVal;
+        }
+
+        retVal = new ArrayList<ClassLoaderFacade>();
+        for (ClassLoaderFacade facade : facadeSurrogates) {
+            // matchExportedPackage only looks at the package part of the name
+            if (facade.matchExportedPackage(packagePrefix)) {
+                retVal.add(facade);
+            }
+        }
+
+        currentIndex.putIfAbsent(packagePrefix, retVal);
+        return retVal;
+    }
+
+    private PackageIndex getPackageIndex() {
+        int generation = exportsGeneration.get();
+
+        PackageIndex retVal = facadesByPackage;
+        if (retVal.generation != generation) {
+            retVal = new PackageIndex(generation);
+            facadesByPackage = retVal;
+        }
+
+        return retVal;
+    }
+
+    private NotFoundCache getNotFoundCache() {
+        int generation = delegationGeneration.get();
+
+        NotFoundCache retVal = notFound;
+        if (retVal.generation != generation) {
+            retVal = new NotFoundCache(generation);
+            notFound = retVal;
+        }
+
+        return retVal;
+    }
+
+    /**
+     * Called whenever the delegation graph changes
+     */
+    private void delegatesChanged() {
+        delegationGeneration.incrementAndGet();
+        facadesByPackage = new PackageIndex(exportsGeneration.get());
+    }
+
+    /**
+     * Called by a facade once it has changed the packages it exports, so that
+     * every proxy rebuilds its package index and forgets the classes it could
+     * not find
+     */
+    /*package*/ static void exportsChanged() {
+        exportsGeneration.incrementAndGet();
+        delegationGeneration.incrementAndGet();
+    }
+
     /**
      * {@link #findClass(String)} except the classloader punch-in hack.
      */
@@ -206,6 +340,7 @@ public class ClassLoaderProxy extends URLClassLoader {
         } else {
             surrogates.add(cl);
         }
+        delegatesChanged();
     }
 
     public void removeDelegate(ClassLoader cl) {
@@ -214,6 +349,7 @@ public class ClassLoaderProxy extends URLClassLoader {
         } else {
             surrogates.remove(cl);
         }
+        delegatesChanged();
     }
 
     public Collection<ClassLoader> getDelegates() {
@@ -228,6 +364,7 @@ public class ClassLoaderProxy extends URLClassLoader {
     public void stop() {
        surrogates.clear();
        facadeSurrogates.clear();
+       delegatesChanged();
     }
 
     public String toString() {
@@ -252,5 +389,43 @@ public class ClassLoaderProxy extends URLClassLoader {
        */
     public void addURL(URL url) {
         super.addURL(url);
+        delegatesChanged();
+    }
+
+    /**
+     * Package name to the facades exporting it, built while the exports
+     * generation was the given one
+     */
+    private static final class PackageIndex {
+        private final int generation;
+        private final ConcurrentMap<String, List<ClassLoaderFacade>> facades =
+                new ConcurrentHashMap<String, List<ClassLoaderFacade>>();
+
+        private PackageIndex(int generation) {
+            this.generation = generation;
+        }
+    }
+
+    /**
+     * Class names that could not be found in any delegate while the
+     * delegation generation was the given one
+     */
+    private static final class NotFoundCache {
+        private final int generation;
+        private final Set<String> names = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+        private NotFoundCache(int generation) {
+            this.generation = generation;
+        }
+
+        private boolean contains(String name) {
+            return names.contains(name);
+        }
+
+        private void add(String name) {
+            if (names.size() < MAX_NOT_FOUND) {
+                names.add(name);
+            }
+        }
     }
 }
@@ -0,0 +1,214 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package com.sun.enterprise.module.common_impl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.glassfish.hk2.api.ActiveDescriptor;
+import org.glassfish.hk2.api.DynamicConfiguration;
+import org.glassfish.hk2.api.PopulatorPostProcessor;
+import org.glassfish.hk2.api.ServiceLocator;
+import org.glassfish.hk2.api.ServiceLocatorFactory;
+import org.glassfish.hk2.utilities.BuilderHelper;
+import org.glassfish.hk2.utilities.DescriptorImpl;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.enterprise.module.Module;
+import com.sun.enterprise.module.single.ProxyModule;
+import com.sun.enterprise.module.single.ProxyModuleDefinition;
+import com.sun.enterprise.module.single.SingleModulesRegistry;
+
+/**
+ * Tests for the way {@link AbstractModulesRegistryImpl#populateServiceLocator}
+ * reads the inhabitants of the modules ahead of binding them
+ * 
+ * @author jwells
+ */
+public class PopulateServiceLocatorTest {
+    private final static String TEST_NAME = "PopulateServiceLocatorTest";
+    private final static String INHABITANTS = "default";
+    private final static String CONTRACT = "test.Contract";
+    
+    private ServiceLocator locator;
+    private TestRegistry registry;
+    
+    /**
+     * A registry whose modules each read the given descriptors, or fail
+     * to be read if given null
+     */
+    private static class TestRegistry extends SingleModulesRegistry {
+        private final List<Module> testModules = new ArrayList<Module>();
+        private final Map<Module, List<DescriptorImpl>> reads = new ConcurrentHashMap<Module, List<DescriptorImpl>>();
+        private final Map<Module, List<DescriptorImpl>> bound = new ConcurrentHashMap<Module, List<DescriptorImpl>>();
+        private final List<Module> parsed = Collections.synchronizedList(new ArrayList<Module>());
+        private final List<Module> unreadable = Collections.synchronizedList(new ArrayList<Module>());
+        
+        private TestRegistry() {
+            super(PopulateServiceLocatorTest.class.getClassLoader());
+        }
+        
+        private Module addModule(List<DescriptorImpl> inhabitants) throws IOException {
+            ClassLoader loader = PopulateServiceLocatorTest.class.getClassLoader();
+            Module module = new ProxyModule(this, new ProxyModuleDefinition(loader), loader);
+            
+            testModules.add(module);
+            if (inhabitants == null) {
+                unreadable.add(module);
+            }
+            else {
+                reads.put(module, inhabitants);
+            }
+            
+            return module;
+        }
+        
+        @Override
+        public Collection<Module> getModules() {
+            return testModules;
+        }
+        
+        @Override
+        protected List<DescriptorImpl> readInhabitants(Module module, String name) throws IOException {
+            if (unreadable.contains(module)) throw new IOException("Expected failure reading " + module);
+            return reads.get(module);
+        }
+        
+        @SuppressWarnings("rawtypes")
+        @Override
+        protected List<ActiveDescriptor> bindInhabitants(Module module, String name, List<DescriptorImpl> inhabitants,
+                ServiceLocator serviceLocator, DynamicConfiguration config, List<PopulatorPostProcessor> postProcessors) {
+            bound.put(module, inhabitants);
+            return super.bindInhabitants(module, name, inhabitants, serviceLocator, config, postProcessors);
+        }
+        
+        @SuppressWarnings("rawtypes")
+        @Override
+        protected List<ActiveDescriptor> parseInhabitants(Module module, String name,
+                ServiceLocator serviceLocator, List<PopulatorPostProcessor> postProcessors) {
+            parsed.add(module);
+            return Collections.emptyList();
+        }
+    }
+    
+    private static List<DescriptorImpl> inhabitants(String... implementations) {
+        List<DescriptorImpl> retVal = new ArrayList<DescriptorImpl>();
+        for (String implementation : implementations) {
+            retVal.add(BuilderHelper.link(implementation).to(CONTRACT).build());
+        }
+        return retVal;
+    }
+    
+    private List<String> getBoundImplementations() {
+        List<String> retVal = new ArrayList<String>();
+        for (ActiveDescriptor<?> descriptor : locator.getDescriptors(BuilderHelper.createContractFilter(CONTRACT))) {
+            retVal.add(descriptor.getImplementation());
+        }
+        Collections.sort(retVal);
+        return retVal;
+    }
+    
+    @Before
+    public void before() {
+        locator = ServiceLocatorFactory.getInstance().create(null);
+        registry = new TestRegistry();
+    }
+    
+    @After
+    public void after() {
+        ServiceLocatorFactory.getInstance().destroy(locator);
+    }
+    
+    /**
+     * A module that fails to be read is parsed instead, and
+     * the other modules are still bound
+     * 
+     * @throws IOException
+     */
+    @Test
+    public void testUnreadableModuleIsParsed() throws IOException {
+        Module first = registry.addModule(inhabitants(TEST_NAME + ".A1", TEST_NAME + ".A2"));
+        Module unreadable = registry.addModule(null);
+        Module last = registry.addModule(inhabitants(TEST_NAME + ".C1"));
+        
+        registry.populateServiceLocator(INHABITANTS, locator, null);
+        
+        Assert.assertEquals(Collections.singletonList(unreadable), registry.parsed);
+        Assert.assertTrue(registry.bound.containsKey(first));
+        Assert.assertFalse(registry.bound.containsKey(unreadable));
+        Assert.assertTrue(registry.bound.containsKey(last));
+        
+        List<String> expected = new ArrayList<String>();
+        expected.add(TEST_NAME + ".A1");
+        expected.add(TEST_NAME + ".A2");
+        expected.add(TEST_NAME + ".C1");
+        Assert.assertEquals(expected, getBoundImplementations());
+    }
+    
+    /**
+     * A module with no inhabitants is still given to bindInhabitants, so
+     * that a registry can remember it has none
+     * 
+     * @throws IOException
+     */
+    @Test
+    public void testEmptyInhabitantsAreBound() throws IOException {
+        Module empty = registry.addModule(inhabitants());
+        Module full = registry.addModule(inhabitants(TEST_NAME + ".B1"));
+        
+        registry.populateServiceLocator(INHABITANTS, locator, null);
+        
+        Assert.assertTrue(registry.parsed.isEmpty());
+        
+        Assert.assertTrue(registry.bound.containsKey(empty));
+        Assert.assertTrue(registry.bound.get(empty).isEmpty());
+        Assert.assertEquals(1, registry.bound.get(full).size());
+        
+        Assert.assertEquals(Collections.singletonList(TEST_NAME + ".B1"), getBoundImplementations());
+    }
+}
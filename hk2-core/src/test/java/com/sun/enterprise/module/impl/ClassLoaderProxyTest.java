@@ -0,0 +1,297 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package com.sun.enterprise.module.impl;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.net.URL;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.enterprise.module.ModuleDefinition;
+import com.sun.enterprise.module.ModuleDependency;
+
+/**
+ * Tests for the way {@link ClassLoaderProxy} finds classes in the
+ * module facades it delegates to
+ * 
+ * @author jwells
+ */
+public class ClassLoaderProxyTest {
+    private final static String TEST_NAME = "ClassLoaderProxyTest";
+    private final static String EXPORTED_PACKAGE = Exported.class.getPackage().getName();
+    private final static String OTHER_PACKAGE = "org.example.other";
+    private final static String EXPORTED = Exported.class.getName();
+    
+    private ModulesRegistryImpl registry;
+    private File root;
+    
+    /**
+     * Copied into the modules, so that only they can load it
+     */
+    public static class Exported {
+    }
+    
+    @Before
+    public void before() throws IOException {
+        registry = new ModulesRegistryImpl(null);
+        
+        root = File.createTempFile(TEST_NAME, "");
+        Assert.assertTrue(root.delete());
+        Assert.assertTrue(root.mkdirs());
+    }
+    
+    @After
+    public void after() {
+        delete(root);
+    }
+    
+    private static void delete(File file) {
+        File children[] = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        
+        file.delete();
+    }
+    
+    private static ModuleDefinition createDefinition(final String name, final URI location) {
+        return (ModuleDefinition) Proxy.newProxyInstance(ClassLoaderProxyTest.class.getClassLoader(),
+                new Class<?>[] { ModuleDefinition.class }, new InvocationHandler() {
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                String methodName = method.getName();
+                if ("getName".equals(methodName)) return name;
+                if ("getLocations".equals(methodName)) return new URI[] { location };
+                if ("getDependencies".equals(methodName)) return new ModuleDependency[0];
+                if ("toString".equals(methodName)) return name;
+                if ("hashCode".equals(methodName)) return System.identityHashCode(proxy);
+                if ("equals".equals(methodName)) return proxy == args[0];
+                return null;
+            }
+            
+        });
+    }
+    
+    /**
+     * Creates the facade of a module whose classes are in a directory of
+     * their own, which holds {@link Exported} if withExported is true
+     */
+    private ClassLoaderFacade createFacade(String name, boolean withExported, String... publicPkgs) throws IOException {
+        File location = new File(root, name);
+        Assert.assertTrue(location.mkdirs());
+        if (withExported) {
+            copyExported(location);
+        }
+        
+        ModuleImpl module = new ModuleImpl(registry, createDefinition(name, location.toURI()));
+        
+        ClassLoaderFacade retVal = new ClassLoaderFacade(module.getPrivateClassLoader());
+        retVal.setPublicPkgs(publicPkgs);
+        return retVal;
+    }
+    
+    private static void copyExported(File location) throws IOException {
+        String path = EXPORTED.replace('.', '/') + ".class";
+        
+        File target = new File(location, path);
+        target.getParentFile().mkdirs();
+        
+        InputStream is = ClassLoaderProxyTest.class.getClassLoader().getResourceAsStream(path);
+        Assert.assertNotNull(is);
+        try {
+            OutputStream os = new FileOutputStream(target);
+            try {
+                byte buffer[] = new byte[1024];
+                int read;
+                while ((read = is.read(buffer)) >= 0) {
+                    os.write(buffer, 0, read);
+                }
+            }
+            finally {
+                os.close();
+            }
+        }
+        finally {
+            is.close();
+        }
+    }
+    
+    private static ClassLoaderProxy createProxy() {
+        return new ClassLoaderProxy(new URL[0], null);
+    }
+    
+    private static Class<?> loadOrNull(ClassLoaderProxy proxy, String name) {
+        try {
+            return proxy.loadClass(name);
+        }
+        catch (ClassNotFoundException cnfe) {
+            return null;
+        }
+    }
+    
+    /**
+     * Only the modules exporting the package of the class are asked for
+     * it, in the order they were added
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testClassComesFromFirstExportingModule() throws Exception {
+        ClassLoaderFacade hidden = createFacade("hidden", true, OTHER_PACKAGE);
+        ClassLoaderFacade first = createFacade("first", true, EXPORTED_PACKAGE);
+        ClassLoaderFacade second = createFacade("second", true, EXPORTED_PACKAGE);
+        
+        ClassLoaderProxy proxy = createProxy();
+        proxy.addDelegate(hidden);
+        proxy.addDelegate(first);
+        proxy.addDelegate(second);
+        
+        Class<?> found = loadOrNull(proxy, EXPORTED);
+        Assert.assertNotNull(found);
+        Assert.assertNotSame(Exported.class, found);
+        Assert.assertSame(first.getClass(EXPORTED), found);
+        
+        // and again from the index
+        Assert.assertSame(found, loadOrNull(proxy, EXPORTED));
+    }
+    
+    /**
+     * A module that declares no exports exposes every package
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testModuleWithoutExportsExportsEverything() throws Exception {
+        ClassLoaderFacade everything = createFacade("everything", true);
+        
+        ClassLoaderProxy proxy = createProxy();
+        proxy.addDelegate(everything);
+        
+        Class<?> found = loadOrNull(proxy, EXPORTED);
+        Assert.assertNotNull(found);
+        Assert.assertSame(everything.getClass(EXPORTED), found);
+    }
+    
+    /**
+     * A facade that exports a package after it was added to a proxy is
+     * asked for the classes of that package
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testExportsChangedAfterAdd() throws Exception {
+        ClassLoaderFacade late = createFacade("late", true, OTHER_PACKAGE);
+        
+        ClassLoaderProxy proxy = createProxy();
+        proxy.addDelegate(late);
+        
+        Assert.assertNull(loadOrNull(proxy, EXPORTED));
+        
+        late.setPublicPkgs(new String[] { EXPORTED_PACKAGE });
+        
+        Class<?> found = loadOrNull(proxy, EXPORTED);
+        Assert.assertNotNull(found);
+        Assert.assertSame(late.getClass(EXPORTED), found);
+    }
+    
+    /**
+     * A class no delegate could load is not looked for again until the
+     * delegates change
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testNotFoundIsRememberedUntilDelegatesChange() throws Exception {
+        ClassLoaderFacade empty = createFacade("empty", false, EXPORTED_PACKAGE);
+        
+        ClassLoaderProxy proxy = createProxy();
+        proxy.addDelegate(empty);
+        
+        Assert.assertNull(loadOrNull(proxy, EXPORTED));
+        
+        // the module could now load it, but the proxy remembers it could not
+        copyExported(new File(root, "empty"));
+        Assert.assertNull(loadOrNull(proxy, EXPORTED));
+        
+        ClassLoaderFacade other = createFacade("other", false, OTHER_PACKAGE);
+        proxy.addDelegate(other);
+        
+        Class<?> found = loadOrNull(proxy, EXPORTED);
+        Assert.assertNotNull(found);
+        Assert.assertSame(empty.getClass(EXPORTED), found);
+    }
+    
+    /**
+     * Classes not found while a delegate that is not a module facade is
+     * present are not remembered, as its contents may change at any time
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testNotFoundIsNotRememberedWithOtherDelegates() throws Exception {
+        ClassLoaderFacade empty = createFacade("empty", false, EXPORTED_PACKAGE);
+        
+        ClassLoaderProxy proxy = createProxy();
+        proxy.addDelegate(empty);
+        proxy.addDelegate(createProxy());
+        
+        Assert.assertNull(loadOrNull(proxy, EXPORTED));
+        
+        copyExported(new File(root, "empty"));
+        
+        Class<?> found = loadOrNull(proxy, EXPORTED);
+        Assert.assertNotNull(found);
+        Assert.assertSame(empty.getClass(EXPORTED), found);
+    }
+}
@@ -81,6 +81,10 @@ public class HabitatGenerator {
     public final static String DIRECTORY_ARG = "--directory";
     /** This option gives the name of directory in the target location where the file should be placed */
     public final static String NO_DATE_ARG = "--noDate";
+    /** The directory where the descriptors of each class are kept between runs, enables incremental generation */
+    public final static String CACHE_ARG = "--cache";
+    /** The number of threads with which classes are visited (defaults to the number of processors) */
+    public final static String THREADS_ARG = "--threads";
     
     private final String directoryOrFileToGenerateFor;
     private final String outjarName;
@@ -90,6 +94,8 @@ public class HabitatGenerator {
     private final boolean noSwap;
     private final String outputDirectory;
     private final boolean includeDate;
+    private final int threads;
+    private final File cacheDirectory;
     
     private HabitatGenerator(String directoryOrFileToGenerateFor,
             String outjarName,
@@ -98,7 +104,9 @@ public class HabitatGenerator {
             String searchPath,
             boolean noSwap,
             String outputDirectory,
-            boolean includeDate) {
+            boolean includeDate,
+            int threads,
+            File cacheDirectory) {
         this.directoryOrFileToGenerateFor = directoryOrFileToGenerateFor;
         this.outjarName = outjarName;
         this.locatorName = locatorName;
@@ -107,6 +115,8 @@ public class HabitatGenerator {
         this.noSwap = noSwap;
         this.outputDirectory = outputDirectory;
         this.includeDate = includeDate;
+        this.threads = threads;
+        this.cacheDirectory = cacheDirectory;
     }
     
     private void printThrowable(Throwable th) {
@@ -124,7 +134,7 @@ public class HabitatGenerator {
     private int go() {
         GeneratorRunner runner = new GeneratorRunner(directoryOrFileToGenerateFor,
                 outjarName, locatorName, verbose, searchPath, noSwap, outputDirectory,
-                includeDate);
+                includeDate, threads, cacheDirectory);
         
         try {
             runner.go();
@@ -161,6 +171,8 @@ public class HabitatGenerator {
           "\t[--searchPath path-separator-delimited-classpath]\n" +
           "\t[--outjar jarFile]\n" +
           "\t[--locator locatorName]\n" +
+          "\t[--cache cacheDirectory]\n" +
+          "\t[--threads numThreads]\n" +
           "\t[--verbose]");
     }
     
@@ -185,6 +197,13 @@ public class HabitatGenerator {
      * name of the output jar file that should be written.  This defaults to the input jar file
      * itself if not specified.  If specified and the jarFileOrDirectory parameter is a directory
      * then this parameter is ignored
+     * <p>
+     * --cache names a directory where the descriptors generated for each class are kept.  On
+     * the next run only the classes that changed (and those that depend on them) are visited
+     * again, and the inhabitants file is left untouched if its descriptors did not change
+     * <p>
+     * --threads is the number of threads with which the classes are visited.  This defaults
+     * to the number of processors
      * 
      * @param argv The set of command line arguments
      * @return 0 on success, non-zero on failure
@@ -198,6 +217,8 @@ public class HabitatGenerator {
         boolean userNoSwap = false;
         String outputDirectory = null;
         boolean defaultIncludeDate = true;
+        int threads = Runtime.getRuntime().availableProcessors();
+        File cacheDirectory = null;
         
         for (int lcv = 0; lcv < argv.length; lcv++) {
             if (VERBOSE_ARG.equals(argv[lcv])) {
@@ -254,6 +275,30 @@ public class HabitatGenerator {
                 
                 outputDirectory = argv[lcv];
             }
+            else if (CACHE_ARG.equals(argv[lcv])) {
+                lcv++;
+                if (lcv >= argv.length) {
+                    usage();
+                    return 5;
+                }
+                
+                cacheDirectory = new File(argv[lcv]);
+            }
+            else if (THREADS_ARG.equals(argv[lcv])) {
+                lcv++;
+                if (lcv >= argv.length) {
+                    usage();
+                    return 5;
+                }
+                
+                try {
+                    threads = Integer.parseInt(argv[lcv]);
+                }
+                catch (NumberFormatException nfe) {
+                    usage();
+                    return 5;
+                }
+            }
             else {
                 System.err.println("Uknown argument: " + argv[lcv]);
             }
@@ -289,7 +334,7 @@ public class HabitatGenerator {
         
         HabitatGenerator hg = new HabitatGenerator(defaultFileToHandle, outjarFile,
                 defaultLocatorName, defaultVerbose, searchPath, userNoSwap,
-                outputDirectory, defaultIncludeDate);
+                outputDirectory, defaultIncludeDate, threads, cacheDirectory);
         
         return hg.go();
     }
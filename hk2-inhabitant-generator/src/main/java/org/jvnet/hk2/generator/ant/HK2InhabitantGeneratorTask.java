@@ -61,6 +61,8 @@ public class HK2InhabitantGeneratorTask extends Task {
     private boolean noswap = false;
     private Path classpath = null;
     private boolean includeDate = true;
+    private File cacheDirectory = null;
+    private int threads = 0;
     
     public void setTargetDirectory(File targetDirectory) {
         this.targetDirectory = targetDirectory;
@@ -86,6 +88,14 @@ public class HK2InhabitantGeneratorTask extends Task {
         this.includeDate = includeDate;
     }
     
+    public void setCacheDirectory(File cacheDirectory) {
+        this.cacheDirectory = cacheDirectory;
+    }
+    
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+    
     public void addClasspath(Path classpath) {
         this.classpath = classpath;
     }
@@ -141,6 +151,16 @@ public class HK2InhabitantGeneratorTask extends Task {
             args.add(classpath.toString());
         }
         
+        if (cacheDirectory != null) {
+            args.add(HabitatGenerator.CACHE_ARG);
+            args.add(cacheDirectory.getAbsolutePath());
+        }
+        
+        if (threads > 0) {
+            args.add(HabitatGenerator.THREADS_ARG);
+            args.add(Integer.toString(threads));
+        }
+        
         String argv[] = args.toArray(new String[args.size()]);
         
         int result = HabitatGenerator.embeddedMain(argv);
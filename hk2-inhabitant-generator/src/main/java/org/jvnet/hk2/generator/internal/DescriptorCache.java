@@ -0,0 +1,301 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.jvnet.hk2.generator.internal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.glassfish.hk2.utilities.DescriptorImpl;
+
+/**
+ * The descriptors generated for each class of an input jar or directory,
+ * kept from one run of the generator to the next.  An entry is keyed by the
+ * hash of the class file and remembers which other classes were consulted
+ * to generate its descriptors, so that it can be discarded when one of those
+ * changed.  Classes outside the input are covered by the fingerprint of the
+ * search path, any change there discards the whole cache
+ * 
+ * @author jwells
+ *
+ */
+public class DescriptorCache {
+    private final static int MAGIC = 0x484b3247;
+    private final static int VERSION = 1;
+    
+    private final File cacheFile;
+    private final String fingerprint;
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+    
+    /**
+     * Creates the cache stored in the given file
+     * 
+     * @param cacheFile The file the cache is stored in
+     * @param fingerprint The state of everything outside of the input
+     * that the descriptors depend on
+     */
+    public DescriptorCache(File cacheFile, String fingerprint) {
+        this.cacheFile = cacheFile;
+        this.fingerprint = fingerprint;
+    }
+    
+    /**
+     * Loads the cache from its file.  A missing, unreadable or out of date
+     * file leaves the cache empty
+     * 
+     * @return The number of entries loaded
+     */
+    public int load() {
+        entries.clear();
+        if (!cacheFile.isFile()) return 0;
+        
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)));
+            try {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION) return 0;
+                if (!fingerprint.equals(in.readUTF())) return 0;
+                
+                int count = in.readInt();
+                for (int lcv = 0; lcv < count; lcv++) {
+                    String className = in.readUTF();
+                    String hash = in.readUTF();
+                    
+                    int numDependencies = in.readInt();
+                    Set<String> dependencies = new HashSet<String>();
+                    for (int dep = 0; dep < numDependencies; dep++) {
+                        dependencies.add(in.readUTF());
+                    }
+                    
+                    byte descriptors[] = new byte[in.readInt()];
+                    in.readFully(descriptors);
+                    
+                    entries.put(className, new Entry(hash, dependencies, new String(descriptors, "UTF-8")));
+                }
+            }
+            finally {
+                in.close();
+            }
+        }
+        catch (IOException ioe) {
+            entries.clear();
+        }
+        
+        return entries.size();
+    }
+    
+    /**
+     * Writes the cache to its file, through a temporary file
+     * 
+     * @throws IOException on failure
+     */
+    public void store() throws IOException {
+        File parent = cacheFile.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Could not create directory " + parent.getAbsolutePath());
+        }
+        
+        File tmpFile = new File(parent, cacheFile.getName() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(fingerprint);
+            out.writeInt(entries.size());
+            
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeUTF(entry.getValue().hash);
+                out.writeInt(entry.getValue().dependencies.size());
+                for (String dependency : entry.getValue().dependencies) {
+                    out.writeUTF(dependency);
+                }
+                
+                byte descriptors[] = entry.getValue().descriptors.getBytes("UTF-8");
+                out.writeInt(descriptors.length);
+                out.write(descriptors);
+            }
+        }
+        finally {
+            out.close();
+        }
+        
+        if (cacheFile.exists() && !cacheFile.delete()) {
+            tmpFile.delete();
+            throw new IOException("Could not delete cache file " + cacheFile.getAbsolutePath());
+        }
+        if (!tmpFile.renameTo(cacheFile)) {
+            tmpFile.delete();
+            throw new IOException("Could not move " + tmpFile.getAbsolutePath() + " to " + cacheFile.getAbsolutePath());
+        }
+    }
+    
+    /**
+     * Returns the names of all the classes in the cache
+     * 
+     * @return The dot-delimited class names, never null
+     */
+    public Set<String> getClassNames() {
+        return Collections.unmodifiableSet(entries.keySet());
+    }
+    
+    /**
+     * Returns the cached descriptors of the class if the class file has not
+     * changed and none of the classes consulted to generate them changed
+     * 
+     * @param className The dot-delimited name of the class
+     * @param hash The hash of the current class file
+     * @param changed The dot-delimited names of all the classes of the input
+     * that were added, removed or modified since the cache was written
+     * @return The descriptors or null if they must be generated again
+     * @throws IOException if the cached descriptors cannot be read
+     */
+    public List<DescriptorImpl> get(String className, String hash, Set<String> changed) throws IOException {
+        Entry entry = entries.get(className);
+        if (entry == null || !entry.hash.equals(hash)) return null;
+        
+        for (String dependency : entry.dependencies) {
+            if (changed.contains(dependency)) return null;
+        }
+        
+        List<DescriptorImpl> retVal = new ArrayList<DescriptorImpl>();
+        BufferedReader reader = new BufferedReader(new StringReader(entry.descriptors));
+        
+        DescriptorImpl di = new DescriptorImpl();
+        while (di.readObject(reader)) {
+            retVal.add(di);
+            di = new DescriptorImpl();
+        }
+        
+        return retVal;
+    }
+    
+    /**
+     * Returns true if the class file is the one the cache was written with
+     * 
+     * @param className The dot-delimited name of the class
+     * @param hash The hash of the current class file
+     * @return true if the class did not change
+     */
+    public boolean isUnchanged(String className, String hash) {
+        Entry entry = entries.get(className);
+        return entry != null && entry.hash.equals(hash);
+    }
+    
+    /**
+     * Replaces the entry for this class
+     * 
+     * @param className The dot-delimited name of the class
+     * @param hash The hash of the class file
+     * @param dependencies The dot-delimited names of the classes consulted
+     * while generating the descriptors
+     * @param descriptors The descriptors generated for the class
+     * @throws IOException if the descriptors cannot be written
+     */
+    public void put(String className, String hash, Set<String> dependencies, List<DescriptorImpl> descriptors) throws IOException {
+        StringWriter sw = new StringWriter();
+        PrintWriter writer = new PrintWriter(sw);
+        for (DescriptorImpl di : descriptors) {
+            di.writeObject(writer);
+        }
+        writer.close();
+        
+        entries.put(className, new Entry(hash, dependencies, sw.toString()));
+    }
+    
+    /**
+     * Keeps only the entries of the given classes
+     * 
+     * @param classNames The classes currently in the input
+     */
+    public void retain(Set<String> classNames) {
+        entries.keySet().retainAll(classNames);
+    }
+    
+    /**
+     * Returns the hash of a class file
+     * 
+     * @param classFile The bytes of the class file
+     * @return A hex encoded SHA-1 of the bytes
+     */
+    public static String hash(byte classFile[]) {
+        try {
+            byte digest[] = MessageDigest.getInstance("SHA-1").digest(classFile);
+            
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.toString();
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+    
+    private static class Entry {
+        private final String hash;
+        private final Set<String> dependencies;
+        private final String descriptors;
+        
+        private Entry(String hash, Set<String> dependencies, String descriptors) {
+            this.hash = hash;
+            this.dependencies = dependencies;
+            this.descriptors = descriptors;
+        }
+    }
+}
@@ -47,8 +47,10 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.net.URI;
 import java.nio.file.FileSystem;
 import java.nio.file.FileSystems;
@@ -60,10 +62,18 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 import java.util.zip.ZipEntry;
@@ -91,6 +101,9 @@ public class GeneratorRunner {
     private final String outputDirectory;  // Not used in the JAR case
     private final boolean includeDate;
     private final boolean outJarIsInJar;
+    private final String searchPath;
+    private final int threads;
+    private final File cacheDirectory;  // null if not incremental
 
     /**
      * This initializes the GeneratorRunner with the values needed to run
@@ -113,6 +126,38 @@ public class GeneratorRunner {
             boolean noSwap,
             String outputDirectory,
             boolean includeDate) {
+        this(fileOrDirectory, outjarName, locatorName, verbose, searchPath, noSwap,
+                outputDirectory, includeDate, Runtime.getRuntime().availableProcessors(), null);
+    }
+    
+    /**
+     * This initializes the GeneratorRunner with the values needed to run
+     * 
+     * @param fileOrDirectory The fileOrDirectory to inspect for services
+     * @param outjarName The name of the jar file to create (can be the fileOrDirectory)
+     * @param locatorName The name of the locator these files should be put into
+     * @param verbose true if this should print information about progress
+     * @param searchPath The path-separator delimited list of files or directories to search for
+     *   contracts and qualifiers and various other annotations
+     * @param noSwap true if this run should NOT swap files (faster but riskier)
+     * @param outputDirectory The directory where the file should go
+     * @param includeDate Whether or not the output file should include a date
+     * @param threads The number of threads with which to visit the classes, one or less
+     *   visits the classes on the calling thread
+     * @param cacheDirectory The directory in which the descriptors of each class are kept
+     *   between runs, or null if every class should be visited on every run.  When given the
+     *   inhabitants file is only rewritten if its descriptors changed
+     */
+    public GeneratorRunner(String fileOrDirectory,
+            String outjarName,
+            String locatorName,
+            boolean verbose,
+            String searchPath,
+            boolean noSwap,
+            String outputDirectory,
+            boolean includeDate,
+            int threads,
+            File cacheDirectory) {
         this.fileOrDirectory = fileOrDirectory;
         this.outjarName = outjarName;
         this.locatorName = locatorName;
@@ -122,10 +167,14 @@ public class GeneratorRunner {
         utilities = new Utilities(verbose, searchPath);
         this.includeDate = includeDate;
         outJarIsInJar = fileOrDirectory.equals(outjarName);
+        this.searchPath = searchPath;
+        this.threads = threads;
+        this.cacheDirectory = cacheDirectory;
         
         if (verbose) {
             System.out.println("HabitatGenerator: inputFile=" + fileOrDirectory + " outjarName=" + outjarName +
-                    " locatorName=" + locatorName + " noSwap=" + noSwap + " outputDirectory=" + outputDirectory);
+                    " locatorName=" + locatorName + " noSwap=" + noSwap + " outputDirectory=" + outputDirectory +
+                    " threads=" + threads + " cacheDirectory=" + cacheDirectory);
         }
     }
     
@@ -145,17 +194,25 @@ public class GeneratorRunner {
         
         List<DescriptorImpl> allDescriptors;
         if (toInspect.isDirectory()) {
-            allDescriptors = utilities.findAllServicesFromDirectory(toInspect, Collections.singletonList(toInspect));
+            Map<String, byte[]> classes = new LinkedHashMap<String, byte[]>();
+            readClassesFromDirectory(toInspect, "", classes);
+            
+            allDescriptors = findAllServices(toInspect, classes);
             if (allDescriptors.isEmpty()) return;
             writeToDirectory(allDescriptors);
         }
         else {
-            allDescriptors = findAllServicesFromJar(toInspect);
+            allDescriptors = findAllServices(toInspect, readClassesFromJar(toInspect));
             
             // Do this here to close all FDs so that on Windows we can rewrite the file
             utilities.close();
             
-            if (noSwap && outJarIsInJar) {
+            if (cacheDirectory != null && outJarIsInJar && isJarUpToDate(toInspect, allDescriptors)) {
+                if (verbose) {
+                    System.out.println("The inhabitants of " + toInspect.getAbsolutePath() + " did not change");
+                }
+            }
+            else if (noSwap && outJarIsInJar) {
                 writeToJarNoSwap(toInspect, allDescriptors);
             }
             else {
@@ -199,6 +256,15 @@ public class GeneratorRunner {
             
             File inhabitantsDir = new File(outputDirectory);
             File outputFile = new File(inhabitantsDir, targetHabitatName);
+            
+            if (cacheDirectory != null && outputFile.isFile() &&
+                    stripHeader(readUTF8(Files.readAllBytes(outputFile.toPath()))).equals(getDescriptorText(descriptors))) {
+                if (verbose) {
+                    System.out.println("Inhabitant file " + outputFile.getAbsolutePath() + " did not change");
+                }
+                
+                continue;
+            }
 
             if (!inhabitantsDir.exists()) {
                 if (!inhabitantsDir.mkdirs()) {
@@ -412,8 +478,28 @@ public class GeneratorRunner {
         
     }
     
-    private List<DescriptorImpl> findAllServicesFromJar(File jar) throws IOException {
-        TreeSet<DescriptorImpl> retVal = new TreeSet<DescriptorImpl>(new DescriptorComparitor());
+    private static void readClassesFromDirectory(File directory, String prefix, Map<String, byte[]> addToMe) throws IOException {
+        File children[] = directory.listFiles();
+        if (children == null) {
+            throw new IOException("Could not list the files of directory " + directory.getAbsolutePath());
+        }
+        
+        for (File child : children) {
+            String name = child.getName();
+            
+            if (child.isDirectory()) {
+                readClassesFromDirectory(child, prefix + name + ".", addToMe);
+            }
+            else if (name.endsWith(DOT_CLASS)) {
+                addToMe.put(prefix + name.substring(0, name.length() - DOT_CLASS.length()),
+                        Files.readAllBytes(child.toPath()));
+            }
+        }
+    }
+    
+    private static Map<String, byte[]> readClassesFromJar(File jar) throws IOException {
+        Map<String, byte[]> retVal = new LinkedHashMap<String, byte[]>();
+        byte buffer[] = new byte[8192];
         
         JarFile jarFile = new JarFile(jar);
         
@@ -425,30 +511,317 @@ public class GeneratorRunner {
                 String entryName = entry.getName();
                 if (!entryName.endsWith(DOT_CLASS)) continue;
                 
-                InputStream is = null;
+                InputStream is = jarFile.getInputStream(entry);
                 try {
-                    is = jarFile.getInputStream(entry);
+                    ByteArrayOutputStream baos = new ByteArrayOutputStream();
                     
-                    List<DescriptorImpl> dis = utilities.createDescriptorIfService(is, Collections.singletonList(jar));
-                    retVal.addAll(dis);
+                    int len;
+                    while ((len = is.read(buffer)) > 0) {
+                        baos.write(buffer, 0, len);
+                    }
+                    
+                    String className = entryName.substring(0, entryName.length() - DOT_CLASS.length()).replace('/', '.');
+                    retVal.put(className, baos.toByteArray());
                 }
                 finally {
-                    if (is != null) {
-                        try {
-                            is.close();
-                        }
-                        catch (IOException ioe) {
-                            // ignore
-                        }
+                    try {
+                        is.close();
+                    }
+                    catch (IOException ioe) {
+                        // ignore
                     }
                 }
-                
             }
         }
         finally {
             jarFile.close();
         }
         
+        return retVal;
+    }
+    
+    /**
+     * Generates the descriptors of all the given classes.  Classes whose cached
+     * descriptors are still valid are not visited again, the others are visited
+     * on the thread pool
+     * 
+     * @param toInspect The jar or directory the classes came from
+     * @param classes The dot-delimited names of the classes to their class files
+     * @return The sorted descriptors of all the services found
+     * @throws IOException on failure
+     */
+    private List<DescriptorImpl> findAllServices(File toInspect, Map<String, byte[]> classes) throws IOException {
+        TreeSet<DescriptorImpl> retVal = new TreeSet<DescriptorImpl>(new DescriptorComparitor());
+        List<File> searchHeres = Collections.singletonList(toInspect);
+        
+        DescriptorCache cache = null;
+        Map<String, String> hashes = null;
+        Set<String> changed = null;
+        if (cacheDirectory != null) {
+            cache = new DescriptorCache(getCacheFile(toInspect), getSearchPathFingerprint(toInspect));
+            int loaded = cache.load();
+            
+            hashes = new HashMap<String, String>();
+            changed = new HashSet<String>();
+            for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+                String hash = DescriptorCache.hash(entry.getValue());
+                hashes.put(entry.getKey(), hash);
+                
+                if (!cache.isUnchanged(entry.getKey(), hash)) {
+                    changed.add(entry.getKey());
+                }
+            }
+            for (String cachedClass : cache.getClassNames()) {
+                if (!classes.containsKey(cachedClass)) {
+                    changed.add(cachedClass);
+                }
+            }
+            
+            if (verbose) {
+                System.out.println("Loaded " + loaded + " cached classes, " + changed.size() + " classes were added, removed or modified");
+            }
+        }
+        
+        List<ClassVisit> visits = new ArrayList<ClassVisit>();
+        for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+            String className = entry.getKey();
+            String hash = (hashes == null) ? null : hashes.get(className);
+            
+            if (cache != null) {
+                List<DescriptorImpl> cached = cache.get(className, hash, changed);
+                if (cached != null) {
+                    retVal.addAll(cached);
+                    continue;
+                }
+            }
+            
+            visits.add(new ClassVisit(className, hash, entry.getValue(), searchHeres, cache != null));
+        }
+        
+        if (verbose && cache != null) {
+            System.out.println("Visiting " + visits.size() + " of " + classes.size() + " classes");
+        }
+        
+        if (threads <= 1 || visits.size() <= 1) {
+            for (ClassVisit visit : visits) {
+                visit.call();
+            }
+        }
+        else {
+            ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, visits.size()));
+            try {
+                List<Future<ClassVisit>> futures = executor.invokeAll(visits);
+                for (Future<ClassVisit> future : futures) {
+                    future.get();
+                }
+            }
+            catch (InterruptedException ie) {
+                InterruptedIOException iioe = new InterruptedIOException("Interrupted while visiting the classes of " +
+                        toInspect.getAbsolutePath());
+                iioe.initCause(ie);
+                throw iioe;
+            }
+            catch (ExecutionException ee) {
+                Throwable cause = ee.getCause();
+                if (cause instanceof IOException) throw (IOException) cause;
+                if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+                if (cause instanceof Error) throw (Error) cause;
+                throw new IOException(cause);
+            }
+            finally {
+                executor.shutdownNow();
+            }
+        }
+        
+        for (ClassVisit visit : visits) {
+            retVal.addAll(visit.descriptors);
+            
+            if (cache != null) {
+                cache.put(visit.className, visit.hash, visit.dependencies, visit.descriptors);
+            }
+        }
+        
+        if (cache != null) {
+            cache.retain(classes.keySet());
+            
+            try {
+                cache.store();
+            }
+            catch (IOException ioe) {
+                // The next run will just visit everything again
+                if (verbose) {
+                    System.out.println("Could not write descriptor cache for " + toInspect.getAbsolutePath() +
+                            ": " + ioe.getMessage());
+                }
+            }
+        }
+        
         return new ArrayList<DescriptorImpl>(retVal);
     }
+    
+    private File getCacheFile(File toInspect) throws IOException {
+        String key = DescriptorCache.hash(toInspect.getAbsolutePath().getBytes("UTF-8"));
+        
+        return new File(cacheDirectory, toInspect.getName() + "-" + key + ".cache");
+    }
+    
+    /**
+     * Describes the state of the search path, which holds the classes outside of
+     * the input that the descriptors may depend on.  The input itself is skipped
+     * wherever it appears since its classes are tracked one by one
+     */
+    private String getSearchPathFingerprint(File toInspect) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        
+        if (searchPath != null) {
+            StringTokenizer st = new StringTokenizer(searchPath, File.pathSeparator);
+            while (st.hasMoreTokens()) {
+                File pathElement = new File(st.nextToken());
+                if (pathElement.getAbsoluteFile().equals(toInspect.getAbsoluteFile())) continue;
+                
+                sb.append(pathElement.getAbsolutePath()).append('=');
+                if (pathElement.isDirectory()) {
+                    long state[] = new long[2];
+                    addDirectoryState(pathElement, toInspect.getAbsoluteFile(), state);
+                    
+                    sb.append(state[0]).append(':').append(state[1]);
+                }
+                else if (pathElement.exists()) {
+                    sb.append(pathElement.length()).append(':').append(pathElement.lastModified());
+                }
+                sb.append(File.pathSeparatorChar);
+            }
+        }
+        
+        return DescriptorCache.hash(sb.toString().getBytes("UTF-8"));
+    }
+    
+    private static void addDirectoryState(File directory, File skip, long state[]) {
+        File children[] = directory.getAbsoluteFile().listFiles();
+        if (children == null) return;
+        
+        for (File child : children) {
+            if (child.equals(skip)) continue;
+            
+            if (child.isDirectory()) {
+                addDirectoryState(child, skip, state);
+            }
+            else {
+                state[0]++;
+                state[1] = Math.max(state[1], child.lastModified());
+            }
+        }
+    }
+    
+    private boolean isJarUpToDate(File jar, List<DescriptorImpl> descriptors) throws IOException {
+        JarFile jarFile = new JarFile(jar);
+        
+        try {
+            ZipEntry entry = jarFile.getEntry(META_INF + "/" + INHABITANTS + "/" + locatorName);
+            if (entry == null) return descriptors.isEmpty();
+            
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            byte buffer[] = new byte[1024];
+            
+            InputStream is = jarFile.getInputStream(entry);
+            try {
+                int len;
+                while ((len = is.read(buffer)) > 0) {
+                    baos.write(buffer, 0, len);
+                }
+            }
+            finally {
+                is.close();
+            }
+            
+            return stripHeader(readUTF8(baos.toByteArray())).equals(getDescriptorText(descriptors));
+        }
+        finally {
+            jarFile.close();
+        }
+    }
+    
+    /**
+     * Decodes an existing inhabitants file.  It is always decoded as UTF-8 so
+     * that the result does not depend on the platform.  A file holding other
+     * characters in another encoding then compares unequal and is rewritten,
+     * it is never wrongly left in place
+     */
+    private static String readUTF8(byte contents[]) throws IOException {
+        return new String(contents, "UTF-8");
+    }
+    
+    private static String getDescriptorText(List<DescriptorImpl> descriptors) throws IOException {
+        StringWriter sw = new StringWriter();
+        PrintWriter writer = new PrintWriter(sw);
+        
+        for (DescriptorImpl di : descriptors) {
+            di.writeObject(writer);
+        }
+        
+        writer.close();
+        return sw.toString();
+    }
+    
+    /**
+     * Removes what {@link #writeHeader(PrintWriter)} wrote, which may hold a date
+     */
+    private static String stripHeader(String contents) {
+        int index = 0;
+        while (contents.startsWith("#", index)) {
+            int eol = contents.indexOf('\n', index);
+            if (eol < 0) return "";
+            
+            index = eol + 1;
+        }
+        
+        if (contents.startsWith("\r\n", index)) {
+            index += 2;
+        }
+        else if (contents.startsWith("\n", index)) {
+            index++;
+        }
+        
+        return contents.substring(index);
+    }
+    
+    /**
+     * Visits a single class, possibly on another thread
+     */
+    private class ClassVisit implements Callable<ClassVisit> {
+        private final String className;
+        private final String hash;
+        private final byte classFile[];
+        private final List<File> searchHeres;
+        private final boolean record;
+        
+        private List<DescriptorImpl> descriptors;
+        private Set<String> dependencies;
+        
+        private ClassVisit(String className, String hash, byte classFile[], List<File> searchHeres, boolean record) {
+            this.className = className;
+            this.hash = hash;
+            this.classFile = classFile;
+            this.searchHeres = searchHeres;
+            this.record = record;
+        }
+
+        @Override
+        public ClassVisit call() throws IOException {
+            if (record) {
+                utilities.startRecording();
+            }
+            
+            try {
+                descriptors = utilities.createDescriptorIfService(new ByteArrayInputStream(classFile), searchHeres);
+            }
+            finally {
+                if (record) {
+                    dependencies = utilities.stopRecording();
+                }
+            }
+            
+            return this;
+        }
+    }
 }
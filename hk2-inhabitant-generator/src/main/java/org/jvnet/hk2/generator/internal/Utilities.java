@@ -61,6 +61,10 @@ import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 import java.util.jar.JarFile;
 import java.util.zip.ZipEntry;
 
@@ -97,20 +101,21 @@ public class Utilities {
     
     private final static String METADATA_DESC = "Lorg/glassfish/hk2/api/Metadata;";
     
-    private final Map<String, Boolean> ISA_CONTRACT = new HashMap<String, Boolean>();
-    private final Map<String, Boolean> ISA_SCOPE = new HashMap<String, Boolean>();
-    private final Map<String, Boolean> ISA_QUALIFIER = new HashMap<String, Boolean>();
-    private final Map<String, String> FOUND_SUPERCLASS = new HashMap<String, String>();  // Terminal is null
-    private final Map<String, Set<String>> FOUND_INTERFACES = new HashMap<String, Set<String>>();
-    private final Map<String, GenerateMethodAnnotationData> FOUND_GENERATORS = new HashMap<String, GenerateMethodAnnotationData>();
-    
-    // Map from scope or qualifier name to method name to metadata key value
-    private final Map<String, Map<String, String>> METADATA =
-            new HashMap<String, Map<String, String>>();
+    // Classes may be visited from several threads, each class file is read at most once
+    private final ConcurrentHashMap<String, FutureTask<ClassInfo>> CLASS_INFO =
+            new ConcurrentHashMap<String, FutureTask<ClassInfo>>();
+    private final ConcurrentHashMap<String, FutureTask<GenerateMethodAnnotationData>> FOUND_GENERATORS =
+            new ConcurrentHashMap<String, FutureTask<GenerateMethodAnnotationData>>();
     
     private final boolean verbose;
     private final List<File> searchPath = new LinkedList<File>();
-    private final Map<File, JarFile> openedJarFiles = new HashMap<File, JarFile>();
+    private final ConcurrentHashMap<File, JarFile> openedJarFiles = new ConcurrentHashMap<File, JarFile>();
+    
+    /**
+     * The classes consulted on this thread since {@link #startRecording()}, or null
+     * if this thread is not recording
+     */
+    private final ThreadLocal<Set<String>> recordedDependencies = new ThreadLocal<Set<String>>();
     
     private final static String CONFIGURED_CONTRACT = "org.jvnet.hk2.config.Configured";
     
@@ -301,13 +306,15 @@ public class Utilities {
         }
         
         // We can pre-load the cache with some obvious ones and thus reduce searching quite a bit
+        Map<String, String> noMetadata = Collections.emptyMap();
         for (KnownClassData kcd : KNOWN_DATA) {
-            ISA_CONTRACT.put(kcd.getClazz(), kcd.isIsa_contract());
-            ISA_SCOPE.put(kcd.getClazz(), kcd.isIsa_scope());
-            ISA_QUALIFIER.put(kcd.getClazz(), kcd.isIsa_qualifier());
-            FOUND_SUPERCLASS.put(kcd.getClazz(), kcd.getSuperclass());
-            FOUND_INTERFACES.put(kcd.getClazz(), kcd.getiFaces());
-            FOUND_GENERATORS.put(kcd.getClazz(), null);
+            CLASS_INFO.put(kcd.getClazz(), computed(new ClassInfo(kcd.isIsa_contract(),
+                    kcd.isIsa_scope(),
+                    kcd.isIsa_qualifier(),
+                    kcd.getSuperclass(),
+                    kcd.getiFaces(),
+                    noMetadata)));
+            FOUND_GENERATORS.put(kcd.getClazz(), computed((GenerateMethodAnnotationData) null));
         }
         
         if (verbose && searchPath != null) {
@@ -372,8 +379,15 @@ public class Utilities {
             else {
                 JarFile jar = openedJarFiles.get(searchHere);
                 if (jar == null) {
-                    jar = new JarFile(searchHere);
-                    openedJarFiles.put(searchHere, jar);
+                    JarFile opened = new JarFile(searchHere);
+                    
+                    jar = openedJarFiles.putIfAbsent(searchHere, opened);
+                    if (jar == null) {
+                        jar = opened;
+                    }
+                    else {
+                        opened.close();
+                    }
                 }
             
                 String entryName = dotDelimitedName.replace('.', '/') + DOT_CLASS;
@@ -402,94 +416,121 @@ public class Utilities {
         return null;
     }
     
-    private void nullCaches(String dotDelimitedName) {
-        ISA_CONTRACT.put(dotDelimitedName, false);
-        ISA_SCOPE.put(dotDelimitedName, false);
-        ISA_QUALIFIER.put(dotDelimitedName, false);
-        FOUND_SUPERCLASS.put(dotDelimitedName, null);
-        FOUND_GENERATORS.put(dotDelimitedName, null);
-    }
-    
     /**
-     * Returns true if the given class is a contract
-     * 
-     * @param searchHere The file or jar to look in
-     * @param dotDelimitedName The fully qualified class name to look for
-     * @return true if this can determine that this is a contract
+     * Returns the value cached under the given key, computing it first if
+     * this is the first time the key is asked for.  The value is computed once,
+     * by the first thread to ask, and the other threads asking for the same key
+     * wait for it.  No lock is held while the value is computed
+     *
+     * @param cache The cache to look in
+     * @param key The key of the value
+     * @param compute Computes the value, must not look up other keys of the same cache
+     * @return The cached value
      */
-    private boolean isClassAContract(List<File> searchHeres, String dotDelimitedName) {
-        if (ISA_CONTRACT.containsKey(dotDelimitedName)) {
-            return ISA_CONTRACT.get(dotDelimitedName);
+    private static <T> T computeOnce(ConcurrentHashMap<String, FutureTask<T>> cache, String key, Callable<T> compute) {
+        FutureTask<T> task = cache.get(key);
+        if (task == null) {
+            FutureTask<T> created = new FutureTask<T>(compute);
+            
+            task = cache.putIfAbsent(key, created);
+            if (task == null) {
+                task = created;
+                created.run();
+            }
         }
         
-        InputStream is = null;
+        return await(cache, key, task);
+    }
+    
+    /**
+     * Waits for the given value of the cache to be computed
+     *
+     * @param cache The cache the value is in
+     * @param key The key of the value
+     * @param task The task computing the value
+     * @return The computed value
+     */
+    private static <T> T await(ConcurrentHashMap<String, FutureTask<T>> cache, String key, FutureTask<T> task) {
+        boolean interrupted = false;
         try {
-            is = findClass(searchHeres, dotDelimitedName, true, "isaContract");
-            if (is == null) {
-                nullCaches(dotDelimitedName);
-                
-                return false;
+            while (true) {
+                try {
+                    return task.get();
+                }
+                catch (InterruptedException ie) {
+                    interrupted = true;
+                }
             }
-            
-            ClassReader reader = new ClassReader(is);
-            
-            ContractClassVisitor ccv = new ContractClassVisitor(searchHeres, CONTRACT_WITH_SLASHES, dotDelimitedName);
-            
-            reader.accept(ccv, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
-            
-            return ccv.isALookedForThing();
         }
-        catch (IOException ioe) {
-            nullCaches(dotDelimitedName);
+        catch (ExecutionException ee) {
+            // Do not remember the failure, the next caller tries again
+            cache.remove(key, task);
             
-            return false;
+            Throwable cause = ee.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new RuntimeException(cause);
         }
         finally {
-            if (is != null) {
-                try {
-                    is.close();
-                }
-                catch (IOException e) {
-                    // Ignore
-                }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
             }
         }
     }
     
+    private static <T> FutureTask<T> computed(final T value) {
+        FutureTask<T> retVal = new FutureTask<T>(new Callable<T>() {
+            
+            @Override
+            public T call() {
+                return value;
+            }
+            
+        });
+        
+        retVal.run();
+        return retVal;
+    }
+    
     /**
-     * Returns true if the given class is a contract
-     * 
-     * @param searchHere The file or jar to look in
+     * Returns what is known about the given class, reading its class file
+     * the first time the class is asked for
+     *
+     * @param searchHeres The files or jars to look in
      * @param dotDelimitedName The fully qualified class name to look for
-     * @return The dot-delimited superclass name or null if this is terminal (is
-     *   an interface or extends java.lang.Object)
+     * @param calledFrom Why the class is looked for, for verbose output
+     * @return What is known about the class, never null
      */
-    private String getSuperclass(List<File> searchHeres, String dotDelimitedName) {
-        if (FOUND_SUPERCLASS.containsKey(dotDelimitedName)) {
-            return FOUND_SUPERCLASS.get(dotDelimitedName);
-        }
-        
+    private ClassInfo getClassInfo(final List<File> searchHeres, final String dotDelimitedName, final String calledFrom) {
+        return computeOnce(CLASS_INFO, dotDelimitedName, new Callable<ClassInfo>() {
+            
+            @Override
+            public ClassInfo call() {
+                return readClassInfo(searchHeres, dotDelimitedName, calledFrom);
+            }
+            
+        });
+    }
+    
+    private ClassInfo readClassInfo(List<File> searchHeres, String dotDelimitedName, String calledFrom) {
         InputStream is = null;
         try {
-            is = findClass(searchHeres, dotDelimitedName, true, "superclass");
+            is = findClass(searchHeres, dotDelimitedName, true, calledFrom);
             if (is == null) {
-                nullCaches(dotDelimitedName);
-                
-                return null;
+                return ClassInfo.NOT_FOUND;
             }
             
             ClassReader reader = new ClassReader(is);
             
-            ContractClassVisitor ccv = new ContractClassVisitor(searchHeres, null, dotDelimitedName);
+            ContractClassVisitor ccv = new ContractClassVisitor();
             
             reader.accept(ccv, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
             
-            return ccv.getDotDelimitedSuperclass();
+            return ccv.getClassInfo();
         }
         catch (IOException ioe) {
-            nullCaches(dotDelimitedName);
-            
-            return null;
+            // Error on the side of not a contract
+            return ClassInfo.NOT_FOUND;
         }
         finally {
             if (is != null) {
@@ -503,124 +544,90 @@ public class Utilities {
         }
     }
     
+    /**
+     * Returns true if the given class is a contract
+     *
+     * @param searchHere The file or jar to look in
+     * @param dotDelimitedName The fully qualified class name to look for
+     * @return true if this can determine that this is a contract
+     */
+    private boolean isClassAContract(List<File> searchHeres, String dotDelimitedName) {
+        dependsOn(dotDelimitedName);
+        
+        return getClassInfo(searchHeres, dotDelimitedName, "isaContract").isContract;
+    }
+    
+    /**
+     * Returns true if the given class is a contract
+     *
+     * @param searchHere The file or jar to look in
+     * @param dotDelimitedName The fully qualified class name to look for
+     * @return The dot-delimited superclass name or null if this is terminal (is
+     *   an interface or extends java.lang.Object)
+     */
+    private String getSuperclass(List<File> searchHeres, String dotDelimitedName) {
+        dependsOn(dotDelimitedName);
+        
+        return getClassInfo(searchHeres, dotDelimitedName, "superclass").superclass;
+    }
+    
     /**
      * Returns true if it can be determined that this class is a scope
-     * 
+     *
      * @param searchHere
      * @param dotDelimitedName
      * @return true if this class is a scope
      */
     public boolean isClassAScope(List<File> searchHeres, String dotDelimitedName) {
-        if (ISA_SCOPE.containsKey(dotDelimitedName)) {
-            return ISA_SCOPE.get(dotDelimitedName);
-        }
+        dependsOn(dotDelimitedName);
         
-        InputStream is = null;
-        try {
-            is = findClass(searchHeres, dotDelimitedName, true, "isascope");
-            if (is == null) {
-                nullCaches(dotDelimitedName);
-                
-                return false;
-            }
-            
-            ClassReader reader = new ClassReader(is);
-            
-            ContractClassVisitor ccv = new ContractClassVisitor(searchHeres, SCOPE_WITH_SLASHES, dotDelimitedName);
-            
-            reader.accept(ccv, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
-            
-            return ccv.isALookedForThing();
-        }
-        catch (IOException ioe) {
-            // Error on the side of not a contract
-            nullCaches(dotDelimitedName);
-            
-            return false;
-        }
-        finally {
-            if (is != null) {
-                try {
-                    is.close();
-                }
-                catch (IOException e) {
-                    // Ignore
-                }
-            }
-        }
+        return getClassInfo(searchHeres, dotDelimitedName, "isascope").isScope;
     }
     
     /**
      * Returns true if it can be determined that this class is a qualifier
-     * 
+     *
      * @param searchHere
      * @param dotDelimitedName
      * @return true if this class is a qualifier
      */
     public boolean isClassAQualifier(List<File> searchHeres, String dotDelimitedName) {
-        if (ISA_QUALIFIER.containsKey(dotDelimitedName)) {
-            return ISA_QUALIFIER.get(dotDelimitedName);
-        }
+        dependsOn(dotDelimitedName);
         
-        InputStream is = null;
-        try {
-            is = findClass(searchHeres, dotDelimitedName, true, "isaQualifier");
-            if (is == null) {
-                nullCaches(dotDelimitedName);
-                
-                return false;
-            }
-            
-            ClassReader reader = new ClassReader(is);
-            
-            ContractClassVisitor ccv = new ContractClassVisitor(searchHeres, QUALIFIER_WITH_SLASHES, dotDelimitedName);
-            
-            reader.accept(ccv, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
-            
-            return ccv.isALookedForThing();
-        }
-        catch (IOException ioe) {
-            // Error on the side of not a contract
-            nullCaches(dotDelimitedName);
-            
-            return false;
-        }
-        finally {
-            if (is != null) {
-                try {
-                    is.close();
-                }
-                catch (IOException e) {
-                    // Ignore
-                }
-            }
-        }
+        return getClassInfo(searchHeres, dotDelimitedName, "isaQualifier").isQualifier;
     }
     
     /**
      * Returns true if it can be determined that this class is a generator
-     * 
+     *
      * @param searchHere
      * @param dotDelimitedName
      * @return true if this class is a qualifier
      */
-    public GenerateMethodAnnotationData isClassAGenerator(List<File> searchHeres, String dotDelimitedName) {
-        if (FOUND_GENERATORS.containsKey(dotDelimitedName)) {
-            return FOUND_GENERATORS.get(dotDelimitedName);
-        }
+    public GenerateMethodAnnotationData isClassAGenerator(final List<File> searchHeres, final String dotDelimitedName) {
+        dependsOn(dotDelimitedName);
         
+        return computeOnce(FOUND_GENERATORS, dotDelimitedName, new Callable<GenerateMethodAnnotationData>() {
+            
+            @Override
+            public GenerateMethodAnnotationData call() {
+                return readGenerator(searchHeres, dotDelimitedName);
+            }
+            
+        });
+    }
+    
+    private GenerateMethodAnnotationData readGenerator(List<File> searchHeres, String dotDelimitedName) {
         InputStream is = null;
         try {
             is = findClass(searchHeres, dotDelimitedName, true, "isaMethodGenerator");
             if (is == null) {
-                nullCaches(dotDelimitedName);
-                
                 return null;
             }
             
             ClassReader reader = new ClassReader(is);
             
-            GeneratorClassVisitor gcv = new GeneratorClassVisitor(dotDelimitedName);
+            GeneratorClassVisitor gcv = new GeneratorClassVisitor();
             
             reader.accept(gcv, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
             
@@ -628,8 +635,6 @@ public class Utilities {
         }
         catch (IOException ioe) {
             // Error on the side of not a contract
-            nullCaches(dotDelimitedName);
-            
             return null;
         }
         finally {
@@ -662,14 +667,16 @@ public class Utilities {
      * @return The set of contracts associated with this dotDelimited name (ordered iterator)
      */
     public Set<String> getAssociatedContracts(List<File> searchHeres, String dotDelimitedName) {
+        dependsOn(dotDelimitedName);
+        
         LinkedHashSet<String> retVal = new LinkedHashSet<String>();
         retVal.add(dotDelimitedName);
         
         getAssociatedSuperclassContracts(searchHeres, dotDelimitedName, retVal);
         
         while (dotDelimitedName != null) {
-            // getAssociatedSuperclassContracts is guaranteed to fill in the INTERFACES cache
-            Set<String> allInterfaces = FOUND_INTERFACES.get(dotDelimitedName);
+            // getAssociatedSuperclassContracts has already read every class in the chain
+            Set<String> allInterfaces = getClassInfo(searchHeres, dotDelimitedName, "interfaces").interfaces;
             if (allInterfaces == null) {
                 dotDelimitedName = getSuperclass(searchHeres, dotDelimitedName);
                 
@@ -678,7 +685,7 @@ public class Utilities {
             
             for (String dotDelimitedInterface : allInterfaces) {
                 if (isClassAContract(searchHeres, dotDelimitedInterface)) {
-                    retVal.add(dotDelimitedInterface);  
+                    retVal.add(dotDelimitedInterface);
                 }
                 
                 addSubInterface(searchHeres, dotDelimitedInterface, retVal);
@@ -691,7 +698,8 @@ public class Utilities {
     }
     
     private void addSubInterface(List<File> searchHeres, String dotDelimitedInterface, LinkedHashSet<String> retVal) {
-        Set<String> subInterfaces = FOUND_INTERFACES.get(dotDelimitedInterface);
+        // isClassAContract has already read the interface
+        Set<String> subInterfaces = getClassInfo(searchHeres, dotDelimitedInterface, "interfaces").interfaces;
         if (subInterfaces == null) return;
         
         for (String dotDelimitedSubInterface : subInterfaces) {
@@ -703,28 +711,53 @@ public class Utilities {
         }
     }
     
-    private class ContractClassVisitor extends AbstractClassVisitorImpl {
-        private final String cacheKey;
-        private final String lookForMe;
-        private final List<File> searchHeres;
+    /**
+     * What is known about a class from its class file.  Never modified once
+     * created, so it can be shared by all the threads visiting classes
+     */
+    private static final class ClassInfo {
+        private final static ClassInfo NOT_FOUND = new ClassInfo(false, false, false, null, null,
+                Collections.<String, String>emptyMap());
+        
+        private final boolean isContract;
+        private final boolean isScope;
+        private final boolean isQualifier;
+        
+        /** Null if this is terminal (is an interface or extends java.lang.Object) */
+        private final String superclass;
+        
+        /** Null if the class could not be found */
+        private final Set<String> interfaces;
         
+        /** Method name to metadata key, only kept for scopes and qualifiers */
+        private final Map<String, String> metadata;
+        
+        private ClassInfo(boolean isContract,
+                boolean isScope,
+                boolean isQualifier,
+                String superclass,
+                Set<String> interfaces,
+                Map<String, String> metadata) {
+            this.isContract = isContract;
+            this.isScope = isScope;
+            this.isQualifier = isQualifier;
+            this.superclass = superclass;
+            this.interfaces = interfaces;
+            this.metadata = metadata;
+        }
+    }
+    
+    private static class ContractClassVisitor extends AbstractClassVisitorImpl {
         private final Map<String, String> methodNameToMetadataKey =
                 new HashMap<String, String>();
         
-        private boolean isLookedFor = false;
-        
         private boolean isContract = false;
         private boolean isScope = false;
         private boolean isQualifier = false;
         
+        private Set<String> interfaces;
         private String dotDelimitedSuperclass;
         
-        private ContractClassVisitor(List<File> searchHeres, String lookForMe, String cacheKey) {
-            this.searchHeres = searchHeres;
-            this.lookForMe = lookForMe;
-            this.cacheKey = cacheKey;
-        }
-        
         /* (non-Javadoc)
          * @see org.objectweb.asm.ClassVisitor#visit(int, int, java.lang.String, java.lang.String, java.lang.String, java.lang.String[])
          */
@@ -735,23 +768,13 @@ public class Utilities {
                 String signature,
                 String superName,
                 String[] interfaces) {
-            if (!FOUND_INTERFACES.containsKey(cacheKey)) {
-                LinkedHashSet<String> iFaces = new LinkedHashSet<String>();
-                
-                for (String iFace : interfaces) {
-                    String iWithDots = iFace.replace('/', '.');
-                    iFaces.add(iWithDots);
-                    
-                    // Fill in the cache with all sub interfaces
-                    getSuperclass(searchHeres, iWithDots);
-                }
-                
-                FOUND_INTERFACES.put(cacheKey, iFaces);
+            LinkedHashSet<String> iFaces = new LinkedHashSet<String>();
+            for (String iFace : interfaces) {
+                iFaces.add(iFace.replace('/', '.'));
             }
+            this.interfaces = Collections.unmodifiableSet(iFaces);
             
             if (superName == null) {
-                FOUND_SUPERCLASS.put(cacheKey, null);
-                
                 return;
             }
             
@@ -760,8 +783,6 @@ public class Utilities {
             if (Object.class.getName().equals(dotDelimitedSuperclass)) {
                 dotDelimitedSuperclass = null;
             }
-            
-            FOUND_SUPERCLASS.put(cacheKey, dotDelimitedSuperclass);
         }
         
         /* (non-Javadoc)
@@ -769,10 +790,6 @@ public class Utilities {
          */
         @Override
         public AnnotationVisitor visitAnnotation(String desc, boolean arg1) {
-            if (lookForMe != null && desc.equals(lookForMe)) {
-                isLookedFor = true;
-            }
-            
             if (desc.equals(CONTRACT_WITH_SLASHES)) {
                 isContract = true;
             }
@@ -785,10 +802,6 @@ public class Utilities {
                 isQualifier = true;
             }
             
-            if (desc.equals(QUALIFIER_WITH_SLASHES)) {
-                isQualifier = true;
-            }
-            
             return null;
         }
         
@@ -801,22 +814,15 @@ public class Utilities {
             return new ContractMethodVisitor(this, name);
         }
         
-        public void visitEnd() {
-            ISA_CONTRACT.put(cacheKey, isContract);
-            ISA_SCOPE.put(cacheKey, isScope);
-            ISA_QUALIFIER.put(cacheKey, isQualifier);
-            
+        private ClassInfo getClassInfo() {
+            Map<String, String> metadata = Collections.emptyMap();
             if ((isScope || isQualifier) && !methodNameToMetadataKey.isEmpty()) {
-                METADATA.put(cacheKey, methodNameToMetadataKey);
+                metadata = methodNameToMetadataKey;
             }
-        }
-        
-        private boolean isALookedForThing() {
-            return isLookedFor;
-        }
-        
-        private String getDotDelimitedSuperclass() {
-            return dotDelimitedSuperclass;
+            
+            return new ClassInfo(isContract, isScope, isQualifier, dotDelimitedSuperclass,
+                    (interfaces == null) ? Collections.<String>emptySet() : interfaces,
+                    metadata);
         }
         
         private void associateMethodNameWithMetadataKey(
@@ -824,9 +830,9 @@ public class Utilities {
                 String metadataKey) {
             methodNameToMetadataKey.put(methodName, metadataKey);
         }
-        
-    }
     
+    }
+
     private static class ContractMethodVisitor extends AbstractMethodVisitorImpl {
         private final ContractClassVisitor parent;
         private final String methodName;
@@ -879,14 +885,9 @@ public class Utilities {
         }
     }
     
-    private class GeneratorClassVisitor extends AbstractClassVisitorImpl {
-        private final String cacheKey;
+    private static class GeneratorClassVisitor extends AbstractClassVisitorImpl {
         private GenerateMethodAnnotationData methodGenerateData = null;
         
-        private GeneratorClassVisitor(String cacheKey) {
-            this.cacheKey = cacheKey;
-        }
-        
         /* (non-Javadoc)
          * @see org.objectweb.asm.ClassVisitor#visitAnnotation(java.lang.String, boolean)
          */
@@ -927,14 +928,6 @@ public class Utilities {
         private void setNameMethodName(String methodName) {
             methodGenerateData.setNameMethodName(methodName);
         }
-        
-        /* (non-Javadoc)
-         * @see org.objectweb.asm.ClassVisitor#visitEnd()
-         */
-        @Override
-        public void visitEnd() {
-            FOUND_GENERATORS.put(cacheKey, methodGenerateData);
-        }
     }
     
     private final static String GENERATOR_IMPL_NAME = "implementation";
@@ -1086,10 +1079,12 @@ public class Utilities {
     }
     
     public String getMetadataKey(String scopeOrQualifier, String methodName) {
-        Map<String, String> methodToKey = METADATA.get(scopeOrQualifier);
-        if (methodToKey == null) return null;
+        dependsOn(scopeOrQualifier);
+        
+        FutureTask<ClassInfo> task = CLASS_INFO.get(scopeOrQualifier);
+        if (task == null) return null;
         
-        return methodToKey.get(methodName);
+        return await(CLASS_INFO, scopeOrQualifier, task).metadata.get(methodName);
     }
     
     private final static String LIST_WITH_PTYPE = "Ljava/util/List<";
@@ -1180,6 +1175,35 @@ public class Utilities {
         return new LinkedList<DescriptorImpl>(retVal);
     }
     
+    /**
+     * Starts recording, on this thread, the names of the classes that are
+     * consulted while generating descriptors
+     */
+    public void startRecording() {
+        recordedDependencies.set(new HashSet<String>());
+    }
+    
+    /**
+     * Stops the recording started on this thread with {@link #startRecording()}
+     * 
+     * @return The dot-delimited names of the classes consulted since recording
+     * was started, never null
+     */
+    public Set<String> stopRecording() {
+        Set<String> retVal = recordedDependencies.get();
+        recordedDependencies.remove();
+        
+        if (retVal == null) return Collections.emptySet();
+        return retVal;
+    }
+    
+    private void dependsOn(String dotDelimitedName) {
+        Set<String> recording = recordedDependencies.get();
+        if (recording != null && dotDelimitedName != null) {
+            recording.add(dotDelimitedName);
+        }
+    }
+    
     public void close() {
         for (JarFile closeMe : openedJarFiles.values()) {
             try {
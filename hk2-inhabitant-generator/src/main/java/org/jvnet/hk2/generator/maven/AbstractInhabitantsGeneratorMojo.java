@@ -61,6 +61,7 @@ public abstract class AbstractInhabitantsGeneratorMojo extends AbstractMojo {
     
     private final static String WEB_INF = "WEB-INF";
     private final static String CLASSES = "classes";
+    private final static String CACHE_DIRECTORY = "hk2-inhabitant-generator-cache";
     
     /**
      * @parameter expression="${project.build.directory}"
@@ -94,6 +95,22 @@ public abstract class AbstractInhabitantsGeneratorMojo extends AbstractMojo {
      */
     private String supportedProjectTypes;
     
+    /**
+     * If true the descriptors of each class are kept under the build directory
+     * and only the classes that changed are visited again on the next build
+     * 
+     * @parameter expression="${hk2.generator.incremental}" default-value=false
+     */
+    private boolean incremental;
+    
+    /**
+     * The number of threads with which classes are visited, defaults to the
+     * number of processors
+     * 
+     * @parameter expression="${hk2.generator.threads}"
+     */
+    private Integer threads;
+    
     protected abstract boolean getNoSwap();
     protected abstract File getOutputDirectory();
     
@@ -161,6 +178,16 @@ public abstract class AbstractInhabitantsGeneratorMojo extends AbstractMojo {
             arguments.add(HabitatGenerator.NO_DATE_ARG);
         }
         
+        if (incremental) {
+            arguments.add(HabitatGenerator.CACHE_ARG);
+            arguments.add(new File(targetDirectory, CACHE_DIRECTORY).getAbsolutePath());
+        }
+        
+        if (threads != null) {
+            arguments.add(HabitatGenerator.THREADS_ARG);
+            arguments.add(threads.toString());
+        }
+        
         if (isWar()) {
             // For WAR files, the hk2-locator files goes under WEB-INF/classes/hk2-locator, not META-INF/hk2-locator
             
@@ -99,6 +99,8 @@ public class InhabitantsGeneratorTest {
     private final static String VERBOSE_ARGUMENT = "--verbose";
     private final static String NOSWAP_ARGUMENT = "--noswap";
     private final static String LOCATOR_ARGUMENT = "--locator";
+    private final static String CACHE_ARGUMENT = "--cache";
+    private final static String THREADS_ARGUMENT = "--threads";
     private final static String CLASS_DIRECTORY = "gendir";
     private final static String NEGATIVE_CLASS_DIRECTORY = "negative";
     private final static String JAR_FILE = "gendir.jar";
@@ -740,6 +742,79 @@ public class InhabitantsGeneratorTest {
         }
     }
     
+    private static void deleteDirectory(File directory) {
+        File children[] = directory.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                if (child.isDirectory()) {
+                    deleteDirectory(child);
+                }
+                else {
+                    child.delete();
+                }
+            }
+        }
+        
+        directory.delete();
+    }
+    
+    /**
+     * Tests that a second incremental run into a directory generates
+     * the same descriptors and leaves the unchanged file alone
+     * @throws IOException On failure
+     */
+    @Test
+    public void testIncrementalDirectoryGeneration() throws IOException {
+        File cacheDirectory = File.createTempFile("hk2-generator-cache", ".dir");
+        Assert.assertTrue(cacheDirectory.delete());
+        
+        String argv[] = new String[6];
+        
+        argv[0] = FILE_ARGUMENT;
+        argv[1] = gendirDirectory.getAbsolutePath();
+        argv[2] = CACHE_ARGUMENT;
+        argv[3] = cacheDirectory.getAbsolutePath();
+        argv[4] = THREADS_ARGUMENT;
+        argv[5] = "4";
+        
+        File defaultOutput = new File(inhabitantsDirectory, DEFAULT);
+        if (defaultOutput.exists()) {
+            // Start with a clean plate
+            Assert.assertTrue(defaultOutput.delete());
+        }
+        
+        try {
+            int result = HabitatGenerator.embeddedMain(argv);
+            Assert.assertEquals("Got error code: " + result, 0, result);
+            
+            Assert.assertTrue("did not generate " + defaultOutput.getAbsolutePath(),
+                    defaultOutput.exists());
+            
+            File cacheFiles[] = cacheDirectory.listFiles();
+            Assert.assertNotNull(cacheFiles);
+            Assert.assertEquals(1, cacheFiles.length);
+            
+            // Nothing changed, so the second run must not touch the file
+            long oldTime = 1000L * ((System.currentTimeMillis() / 1000L) - 3600L);
+            Assert.assertTrue(defaultOutput.setLastModified(oldTime));
+            
+            result = HabitatGenerator.embeddedMain(argv);
+            Assert.assertEquals("Got error code: " + result, 0, result);
+            
+            Assert.assertEquals(oldTime, defaultOutput.lastModified());
+            
+            Set<DescriptorImpl> generatedImpls = getAllDescriptorsFromInputStream(
+                    new FileInputStream(defaultOutput));
+            
+            checkDescriptors(generatedImpls);
+        }
+        finally {
+            // The test should be clean
+            defaultOutput.delete();
+            deleteDirectory(cacheDirectory);
+        }
+    }
+    
     /**
      * Tests generating into a jar file
      * @throws IOException On failure
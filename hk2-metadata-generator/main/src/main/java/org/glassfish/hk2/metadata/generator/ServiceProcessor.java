@@ -39,11 +39,16 @@
  */
 package org.glassfish.hk2.metadata.generator;
 
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
 import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
@@ -54,8 +59,10 @@ import javax.annotation.processing.RoundEnvironment;
 import javax.annotation.processing.SupportedAnnotationTypes;
 import javax.annotation.processing.SupportedOptions;
 import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
 import javax.lang.model.element.Element;
 import javax.lang.model.element.TypeElement;
+import javax.lang.model.util.Elements;
 import javax.tools.Diagnostic.Kind;
 import javax.tools.FileObject;
 import javax.tools.StandardLocation;
@@ -65,18 +72,38 @@ import org.glassfish.hk2.utilities.DescriptorImpl;
 
 /**
  * The entry point for service &#64;Service annotations
+ * <p>
+ * Unless the org.glassfish.hk2.metadata.incremental option is false the
+ * file written by an earlier compilation is merged with the services of
+ * this one, since an incremental compilation only hands over the classes
+ * that changed.  All types are supported, without claiming any annotation,
+ * so that the file is also rewritten when the only change is that the
+ * last &#64;Service annotation of the compilation was removed
+ * <p>
+ * The processor is registered with Gradle as aggregating.  Gradle then
+ * hands every class annotated with &#64;Service (which has runtime
+ * retention) over to each compilation and may or may not remove the file
+ * beforehand.  Either way the result is the same: the services handed over
+ * replace their earlier descriptors and an earlier descriptor is only kept
+ * if its class is still annotated with &#64;Service, which is looked up
+ * through the compilation and not read from the earlier file
  * 
  * @author jwells
  *
  */
-@SupportedAnnotationTypes("org.jvnet.hk2.annotations.Service")
-@SupportedOptions("org.glassfish.hk2.metadata.location")
+@SupportedAnnotationTypes("*")
+@SupportedOptions({"org.glassfish.hk2.metadata.location", "org.glassfish.hk2.metadata.incremental"})
 public class ServiceProcessor extends AbstractProcessor {
     private static final String LOCATION_OPTION = "org.glassfish.hk2.metadata.location";
     private static final String LOCATION_DEFAULT = "META-INF/hk2-locator/default";
+    private static final String INCREMENTAL_OPTION = "org.glassfish.hk2.metadata.incremental";
+    private static final String SERVICE_ANNOTATION = "org.jvnet.hk2.annotations.Service";
     
     private final TreeSet<DescriptorImpl> allDescriptors = new TreeSet<DescriptorImpl>(new DescriptorComparitor());
     private final ArrayList<Element> originators = new ArrayList<Element>();
+    
+    /** The binary names of all the classes processed in this compilation, with or without descriptors */
+    private final HashSet<String> processedClasses = new HashSet<String>();
 
     /* (non-Javadoc)
      * @see javax.annotation.processing.AbstractProcessor#process(java.util.Set, javax.annotation.processing.RoundEnvironment)
@@ -85,13 +112,15 @@ public class ServiceProcessor extends AbstractProcessor {
     public boolean process(Set<? extends TypeElement> annotations,
             RoundEnvironment roundEnv) {
         MultiException collectedExceptions = null;
-        for (TypeElement annotation : annotations) {
-            Set<? extends Element> clazzes = roundEnv.getElementsAnnotatedWith(annotation);
+        TypeElement serviceAnnotation = processingEnv.getElementUtils().getTypeElement(SERVICE_ANNOTATION);
+        if (serviceAnnotation != null && annotations.contains(serviceAnnotation)) {
+            Set<? extends Element> clazzes = roundEnv.getElementsAnnotatedWith(serviceAnnotation);
             
             for (Element clazzElement : clazzes) {
                 if (!(clazzElement instanceof TypeElement)) continue;
                 
                 TypeElement clazz = (TypeElement) clazzElement;
+                processedClasses.add(processingEnv.getElementUtils().getBinaryName(clazz).toString());
                 
                 List<DescriptorImpl> descriptors;
                 try {
@@ -118,11 +147,11 @@ public class ServiceProcessor extends AbstractProcessor {
         if (collectedExceptions != null) {
             processingEnv.getMessager().printMessage(Kind.ERROR, collectedExceptions.getMessage());
             collectedExceptions.printStackTrace();
-            return true;
+            return false;
         }
         
-        if (allDescriptors.isEmpty()) return true;
-        if (!roundEnv.processingOver()) return true;
+        // The earlier file may need rewriting even if no service was seen in this compilation
+        if (!roundEnv.processingOver()) return false;
         
         try {
             createFile();
@@ -132,7 +161,7 @@ public class ServiceProcessor extends AbstractProcessor {
             e.printStackTrace();
         }
         
-        return true;
+        return false;
     }
     
     /**
@@ -153,9 +182,51 @@ public class ServiceProcessor extends AbstractProcessor {
         }
         
         Filer filer = processingEnv.getFiler();
+        
+        LinkedHashSet<Element> allOriginators = new LinkedHashSet<Element>(originators);
+        
+        String existing = null;
+        if (!"false".equalsIgnoreCase(processingEnv.getOptions().get(INCREMENTAL_OPTION))) {
+            existing = readExistingFile(filer, location);
+        }
+        
+        if (existing == null && allDescriptors.isEmpty()) return;
+        
+        if (existing != null) {
+            // An incremental compilation only hands us the classes that changed, so keep the
+            // descriptors of the services that were not compiled this time around
+            BufferedReader reader = new BufferedReader(new StringReader(existing));
+            
+            DescriptorImpl di = new DescriptorImpl();
+            while (di.readObject(reader)) {
+                String implementation = di.getImplementation();
+                if (implementation != null && !processedClasses.contains(implementation)) {
+                    TypeElement service = getServiceClass(implementation);
+                    if (service != null) {
+                        allDescriptors.add(di);
+                        allOriginators.add(service);
+                    }
+                }
+                
+                di = new DescriptorImpl();
+            }
+        }
+        
+        StringWriter body = new StringWriter();
+        PrintWriter bodyWriter = new PrintWriter(body);
+        for (DescriptorImpl di : allDescriptors) {
+            di.writeObject(bodyWriter);
+        }
+        bodyWriter.close();
+        
+        if (existing != null && stripHeader(existing).equals(body.toString())) {
+            // Nothing changed, leave the file alone so that it does not look modified
+            return;
+        }
+        
         FileObject fileObject = filer.createResource(StandardLocation.CLASS_OUTPUT,
                 "", location, 
-                originators.toArray(new Element[originators.size()]));
+                allOriginators.toArray(new Element[allOriginators.size()]));
         
         Writer fileWriter = fileObject.openWriter();
         PrintWriter printWriter = null;
@@ -167,10 +238,7 @@ public class ServiceProcessor extends AbstractProcessor {
             printWriter.println("#");
             printWriter.println();
             
-            for (DescriptorImpl di : allDescriptors) {
-                di.writeObject(printWriter);
-            }
-            
+            printWriter.print(body.toString());
         }
         finally {
             if (printWriter != null) {
@@ -182,6 +250,105 @@ public class ServiceProcessor extends AbstractProcessor {
         
     }
     
+    /**
+     * Returns the file written by an earlier compilation
+     * 
+     * @return The contents of the file or null if there is none
+     */
+    private static String readExistingFile(Filer filer, String location) {
+        try {
+            FileObject fileObject = filer.getResource(StandardLocation.CLASS_OUTPUT, "", location);
+            
+            return fileObject.getCharContent(true).toString();
+        }
+        catch (IOException ioe) {
+            // No earlier file
+            return null;
+        }
+    }
+    
+    /**
+     * Returns the class if it still exists and is still a service
+     * 
+     * @param binaryName The binary name of the class
+     * @return The class or null if it is gone or is no longer a service
+     */
+    private TypeElement getServiceClass(String binaryName) {
+        TypeElement clazz = findClass(processingEnv.getElementUtils(), binaryName);
+        if (clazz == null) return null;
+        
+        for (AnnotationMirror mirror : clazz.getAnnotationMirrors()) {
+            TypeElement annotationType = (TypeElement) mirror.getAnnotationType().asElement();
+            if (SERVICE_ANNOTATION.equals(annotationType.getQualifiedName().toString())) {
+                return clazz;
+            }
+        }
+        
+        return null;
+    }
+    
+    /**
+     * Finds a class from its binary name.  A '$' in a binary name either separates
+     * a nested class from its enclosing class or is part of a class name, so the
+     * name is tried as a top level class up to each '$' in turn and the nested
+     * classes of any found are then searched by their own binary names
+     * 
+     * @param elements The element utilities of this compilation
+     * @param binaryName The binary name of the class
+     * @return The class or null if there is no class with that binary name
+     */
+    private static TypeElement findClass(Elements elements, String binaryName) {
+        int dollar = -1;
+        do {
+            dollar = binaryName.indexOf('$', dollar + 1);
+            
+            TypeElement topLevel = elements.getTypeElement((dollar < 0) ? binaryName : binaryName.substring(0, dollar));
+            if (topLevel != null) {
+                TypeElement retVal = findNestedClass(elements, topLevel, binaryName);
+                if (retVal != null) return retVal;
+            }
+        } while (dollar >= 0);
+        
+        return null;
+    }
+    
+    private static TypeElement findNestedClass(Elements elements, TypeElement clazz, String binaryName) {
+        String clazzName = elements.getBinaryName(clazz).toString();
+        if (clazzName.equals(binaryName)) return clazz;
+        if (!binaryName.startsWith(clazzName + "$")) return null;
+        
+        for (Element enclosed : clazz.getEnclosedElements()) {
+            if (!(enclosed instanceof TypeElement)) continue;
+            
+            TypeElement retVal = findNestedClass(elements, (TypeElement) enclosed, binaryName);
+            if (retVal != null) return retVal;
+        }
+        
+        return null;
+    }
+    
+    /**
+     * Removes the comment lines and the blank line at the top of the file
+     */
+    private static String stripHeader(String contents) {
+        int index = 0;
+        while (contents.startsWith("#", index)) {
+            int eol = contents.indexOf('\n', index);
+            if (eol < 0) return "";
+            
+            index = eol + 1;
+        }
+        
+        if (contents.startsWith("\r\n", index)) {
+            index += 2;
+        }
+        else if (contents.startsWith("\n", index)) {
+            index++;
+        }
+        
+        return contents.substring(index);
+    }
+    
     /**
      * This is a comparator making things that don't really compare, compare.
      * It is done to ensure that given the same set of descriptors we always
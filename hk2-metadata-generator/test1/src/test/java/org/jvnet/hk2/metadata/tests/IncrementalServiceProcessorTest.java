@@ -0,0 +1,328 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.jvnet.hk2.metadata.tests;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+
+import javax.tools.JavaCompiler;
+import javax.tools.JavaCompiler.CompilationTask;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import org.glassfish.hk2.metadata.generator.ServiceProcessor;
+import org.glassfish.hk2.utilities.DescriptorImpl;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that {@link ServiceProcessor} keeps the services of an earlier
+ * compilation when only some classes are compiled again
+ * 
+ * @author jwells
+ */
+public class IncrementalServiceProcessorTest {
+    private final static String TEST_NAME = "IncrementalServiceProcessorTest";
+    private final static String PACKAGE = "incremental";
+    private final static String LOCATOR_FILE = "META-INF/hk2-locator/default";
+    
+    private final static String ALICE = "Alice";
+    private final static String HOLDER = "Holder";
+    private final static String DOLLAR = "Dollar$Service";
+    
+    private final static String ALICE_SOURCE = "@org.jvnet.hk2.annotations.Service public class Alice {}";
+    private final static String NAMED_ALICE_SOURCE = "@org.jvnet.hk2.annotations.Service(name=\"Renamed\") public class Alice {}";
+    private final static String HOLDER_SOURCE = "public class Holder { @org.jvnet.hk2.annotations.Service public static class Nested {} }";
+    private final static String PLAIN_HOLDER_SOURCE = "public class Holder { public static class Nested {} }";
+    private final static String PLAIN_ALICE_SOURCE = "public class Alice {}";
+    private final static String DOLLAR_SOURCE = "@org.jvnet.hk2.annotations.Service public class Dollar$Service {}";
+    
+    private final static String ALICE_IMPL = PACKAGE + "." + ALICE;
+    private final static String NESTED_IMPL = PACKAGE + "." + HOLDER + "$Nested";
+    private final static String DOLLAR_IMPL = PACKAGE + "." + DOLLAR;
+    
+    private File root;
+    private File sources;
+    private File classes;
+    
+    private static File createTempDir(String name) throws IOException {
+        File retVal = File.createTempFile(TEST_NAME, name);
+        Assert.assertTrue(retVal.delete());
+        Assert.assertTrue(retVal.mkdirs());
+        return retVal;
+    }
+    
+    private static void delete(File file) {
+        File children[] = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        
+        file.delete();
+    }
+    
+    @Before
+    public void before() throws IOException {
+        root = createTempDir("");
+        sources = new File(root, "src");
+        classes = new File(root, "classes");
+        
+        Assert.assertTrue(new File(sources, PACKAGE).mkdirs());
+        Assert.assertTrue(classes.mkdirs());
+    }
+    
+    @After
+    public void after() {
+        if (root != null) {
+            delete(root);
+        }
+    }
+    
+    private File writeSource(String className, String body) throws IOException {
+        File source = new File(new File(sources, PACKAGE), className + ".java");
+        
+        PrintWriter writer = new PrintWriter(new FileWriter(source));
+        try {
+            writer.println("package " + PACKAGE + ";");
+            writer.println(body);
+        }
+        finally {
+            writer.close();
+        }
+        
+        return source;
+    }
+    
+    /**
+     * Compiles only the given sources, the classes of earlier compilations
+     * being on the class path as they would be for an incremental build
+     */
+    private void compile(File... toCompile) throws IOException {
+        compileAndProcess(Collections.<String>emptyList(), toCompile);
+    }
+    
+    /**
+     * Compiles the given sources and also hands the given already compiled
+     * classes over to the annotation processors, as Gradle does with the
+     * unchanged classes of an aggregating processor
+     */
+    private void compileAndProcess(List<String> classNames, File... toCompile) throws IOException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        Assert.assertNotNull("These tests must run on a JDK", compiler);
+        
+        List<String> args = new ArrayList<String>();
+        args.add("-processor");
+        args.add(ServiceProcessor.class.getName());
+        args.add("-classpath");
+        args.add(System.getProperty("java.class.path") + File.pathSeparator + classes.getAbsolutePath());
+        args.add("-d");
+        args.add(classes.getAbsolutePath());
+        
+        StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, null);
+        try {
+            CompilationTask task = compiler.getTask(null, fileManager, null, args, classNames,
+                    fileManager.getJavaFileObjects(toCompile));
+            
+            Assert.assertTrue(task.call());
+        }
+        finally {
+            fileManager.close();
+        }
+    }
+    
+    private File getLocatorFile() {
+        return new File(classes, LOCATOR_FILE);
+    }
+    
+    private List<DescriptorImpl> readLocatorFile() throws IOException {
+        List<DescriptorImpl> retVal = new ArrayList<DescriptorImpl>();
+        
+        BufferedReader reader = new BufferedReader(new FileReader(getLocatorFile()));
+        try {
+            DescriptorImpl di = new DescriptorImpl();
+            while (di.readObject(reader)) {
+                retVal.add(di);
+                di = new DescriptorImpl();
+            }
+        }
+        finally {
+            reader.close();
+        }
+        
+        return retVal;
+    }
+    
+    private TreeSet<String> readImplementations() throws IOException {
+        TreeSet<String> retVal = new TreeSet<String>();
+        for (DescriptorImpl di : readLocatorFile()) {
+            retVal.add(di.getImplementation());
+        }
+        return retVal;
+    }
+    
+    private static TreeSet<String> setOf(String... values) {
+        TreeSet<String> retVal = new TreeSet<String>();
+        for (String value : values) {
+            retVal.add(value);
+        }
+        return retVal;
+    }
+    
+    /**
+     * Compiling one class again keeps the services of the classes that were
+     * not compiled, including nested classes and classes with a '$' in
+     * their name
+     * 
+     * @throws IOException
+     */
+    @Test
+    public void testIncrementalCompilationKeepsOtherServices() throws IOException {
+        File alice = writeSource(ALICE, ALICE_SOURCE);
+        File holder = writeSource(HOLDER, HOLDER_SOURCE);
+        File dollar = writeSource(DOLLAR, DOLLAR_SOURCE);
+        
+        compile(alice, holder, dollar);
+        Assert.assertEquals(setOf(ALICE_IMPL, NESTED_IMPL, DOLLAR_IMPL), readImplementations());
+        
+        writeSource(ALICE, NAMED_ALICE_SOURCE);
+        compile(alice);
+        
+        Assert.assertEquals(setOf(ALICE_IMPL, NESTED_IMPL, DOLLAR_IMPL), readImplementations());
+        
+        for (DescriptorImpl di : readLocatorFile()) {
+            if (ALICE_IMPL.equals(di.getImplementation())) {
+                Assert.assertEquals("Renamed", di.getName());
+            }
+        }
+    }
+    
+    /**
+     * Compiling a class again without changing its service leaves the
+     * file alone, changing the service rewrites it
+     * 
+     * @throws IOException
+     */
+    @Test
+    public void testUnchangedFileIsNotRewritten() throws IOException {
+        File alice = writeSource(ALICE, ALICE_SOURCE);
+        File holder = writeSource(HOLDER, HOLDER_SOURCE);
+        
+        compile(alice, holder);
+        
+        File locatorFile = getLocatorFile();
+        long longAgo = (System.currentTimeMillis() - (60L * 60L * 1000L)) / 1000L * 1000L;
+        Assert.assertTrue(locatorFile.setLastModified(longAgo));
+        
+        compile(alice);
+        
+        Assert.assertEquals(longAgo, locatorFile.lastModified());
+        Assert.assertEquals(setOf(ALICE_IMPL, NESTED_IMPL), readImplementations());
+        
+        writeSource(ALICE, NAMED_ALICE_SOURCE);
+        compile(alice);
+        
+        Assert.assertTrue(locatorFile.lastModified() != longAgo);
+        Assert.assertEquals(setOf(ALICE_IMPL, NESTED_IMPL), readImplementations());
+    }
+    
+    /**
+     * Compiling a class that is no longer a service removes its descriptor,
+     * even when no class of the compilation is a service any more
+     * 
+     * @throws IOException
+     */
+    @Test
+    public void testRemovedServiceIsDropped() throws IOException {
+        File alice = writeSource(ALICE, ALICE_SOURCE);
+        File holder = writeSource(HOLDER, HOLDER_SOURCE);
+        
+        compile(alice, holder);
+        Assert.assertEquals(setOf(ALICE_IMPL, NESTED_IMPL), readImplementations());
+        
+        writeSource(HOLDER, PLAIN_HOLDER_SOURCE);
+        compile(holder);
+        Assert.assertEquals(setOf(ALICE_IMPL), readImplementations());
+        
+        writeSource(ALICE, PLAIN_ALICE_SOURCE);
+        compile(alice);
+        Assert.assertEquals(setOf(), readImplementations());
+    }
+    
+    /**
+     * Gradle hands every class annotated with &#64;Service over to an
+     * aggregating processor and may or may not have removed the earlier
+     * file, which must give the same file either way
+     * 
+     * @throws IOException
+     */
+    @Test
+    public void testGradleAggregatingRecompilation() throws IOException {
+        for (boolean removeEarlierFile : new boolean[] { false, true }) {
+            File alice = writeSource(ALICE, ALICE_SOURCE);
+            File holder = writeSource(HOLDER, HOLDER_SOURCE);
+            File dollar = writeSource(DOLLAR, DOLLAR_SOURCE);
+            
+            compile(alice, holder, dollar);
+            Assert.assertEquals(setOf(ALICE_IMPL, NESTED_IMPL, DOLLAR_IMPL), readImplementations());
+            
+            if (removeEarlierFile) {
+                Assert.assertTrue(getLocatorFile().delete());
+            }
+            
+            writeSource(HOLDER, PLAIN_HOLDER_SOURCE);
+            compileAndProcess(Arrays.asList(ALICE_IMPL, DOLLAR_IMPL), holder);
+            
+            Assert.assertEquals(setOf(ALICE_IMPL, DOLLAR_IMPL), readImplementations());
+        }
+    }
+}
@@ -101,6 +101,20 @@ public abstract class ServiceLoader {
         return _me.lookupProviderInstances1(serviceClass, factory);
     }
 
+    /**
+     * Like {@link #lookupProviderInstances(Class)}, except that the provider instances are created once and then
+     * returned to every caller until a bundle is installed, resolved, unresolved, updated or uninstalled.
+     * Only use this for services whose providers are stateless and thread safe.
+     *
+     * @param serviceClass type of service requested
+     * @param <T>
+     * @return provider instances implementing the given service class, shared with other callers.
+     */
+    public static <T> Iterable<? extends T> lookupSharedProviderInstances(Class<T> serviceClass) {
+        if (_me == null) return null;
+        return _me.lookupSharedProviderInstances1(serviceClass);
+    }
+
     /**
      * It is not clear why one needs this method, but it is provided just in case one needs it.
      * Returns classes found in META-INF/services/serviceClass.getName() in OSGi bundles. This method searches for
@@ -134,5 +148,6 @@ public abstract class ServiceLoader {
 
     /*package*/ abstract <T> Iterable<? extends T> lookupProviderInstances1(Class<T> serviceType, ProviderFactory<T> factory);
     /*package*/ abstract <T> Iterable<Class> lookupProviderClasses1(Class<T> serviceType);
+    /*package*/ abstract <T> Iterable<? extends T> lookupSharedProviderInstances1(Class<T> serviceType);
 
 }
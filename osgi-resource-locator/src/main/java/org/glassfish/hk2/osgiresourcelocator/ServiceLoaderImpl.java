@@ -50,6 +50,7 @@ import java.security.PrivilegedAction;
 import java.security.PrivilegedActionException;
 import java.security.PrivilegedExceptionAction;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -63,6 +64,32 @@ public final class ServiceLoaderImpl extends org.glassfish.hk2.osgiresourcelocat
     private BundleContext bundleContext;
     private ProvidersList providersList = new ProvidersList();
 
+    /**
+     * Map of service name to the bundles providing the service, in ascending order of bundle id.
+     * Guarded by rwLock.
+     */
+    private Map<String, List<ProvidersPerBundle>> serviceIndex = new HashMap<String, List<ProvidersPerBundle>>();
+
+    /**
+     * Compatible provider classes of each service class. Only service classes that can not outlive
+     * the bundles are cached, and the cache is cleared by any bundle event that can change a result.
+     * Written with the read lock held, cleared with the write lock held.
+     */
+    private final ConcurrentHashMap<Class<?>, List<Class>> providerClassCache =
+            new ConcurrentHashMap<Class<?>, List<Class>>();
+
+    /**
+     * Provider instances handed out by {@link #lookupSharedProviderInstances1(Class)}
+     */
+    private final ConcurrentHashMap<Class<?>, List<?>> providerInstanceCache =
+            new ConcurrentHashMap<Class<?>, List<?>>();
+
+    /**
+     * Incremented whenever the caches are cleared, so that instances created
+     * without holding the lock are not cached once they are stale
+     */
+    private volatile int cacheGeneration;
+
 //    /**
 //     * Map of service type to bundles providing the service
 //     */
@@ -79,6 +106,14 @@ public final class ServiceLoaderImpl extends org.glassfish.hk2.osgiresourcelocat
         }
     }
 
+    /**
+     * Creates a loader that tracks the bundles of the given context, for tests
+     * which are not run as a bundle
+     */
+    /*package*/ ServiceLoaderImpl(BundleContext bundleContext) {
+        this.bundleContext = bundleContext;
+    }
+
     private BundleContext getBundleContextSecured(final Bundle bundle) {
         if (System.getSecurityManager() != null) {
             return AccessController.doPrivileged(new PrivilegedAction<BundleContext>() {
@@ -127,21 +162,56 @@ public final class ServiceLoaderImpl extends org.glassfish.hk2.osgiresourcelocat
         return providers;
     }
 
+    /*package*/ <T> Iterable<? extends T> lookupSharedProviderInstances1(Class<T> serviceClass) {
+        List<?> cached = providerInstanceCache.get(serviceClass);
+        if (cached != null) {
+            return (List<T>) cached;
+        }
+
+        final int generation = cacheGeneration;
+        List<T> providers = new ArrayList<T>();
+        for (T provider : lookupProviderInstances1(serviceClass, null)) {
+            providers.add(provider);
+        }
+        providers = Collections.unmodifiableList(providers);
+
+        // the instances were created without the lock, as a provider constructor may install bundles
+        rwLock.readLock().lock();
+        try {
+            if (generation == cacheGeneration && isCacheable(serviceClass)) {
+                List<?> previous = providerInstanceCache.putIfAbsent(serviceClass, providers);
+                if (previous != null) {
+                    return (List<T>) previous;
+                }
+            }
+        } finally {
+            rwLock.readLock().unlock();
+        }
+        return providers;
+    }
+
     /*package*/ <T> Iterable<Class> lookupProviderClasses1(Class<T> serviceClass) {
+        List<Class> cached = providerClassCache.get(serviceClass);
+        if (cached != null) {
+            return cached;
+        }
+
         List<Class> providerClasses = new ArrayList<Class>();
         rwLock.readLock().lock();
         try {
             final String serviceName = serviceClass.getName();
-            for (ProvidersPerBundle providersPerBundle : providersList.getAllProviders()) {
+            List<ProvidersPerBundle> providersOfService = serviceIndex.get(serviceName);
+            if (providersOfService == null) {
+                // misses are cached as well, they are common for JAXB and JSON-P factory lookups
+                providersOfService = Collections.emptyList();
+            }
+            for (ProvidersPerBundle providersPerBundle : providersOfService) {
                 final Bundle bundle = bundleContext.getBundle(providersPerBundle.getBundleId());
                 if (bundle == null) {
                     // bundle may have been uninstalled
                     continue;
                 }
                 final List<String> providerNames = providersPerBundle.getServiceToProvidersMap().get(serviceName);
-                if (providerNames == null) {
-                    continue;
-                }
                 for (String providerName : providerNames) {
                     try {
                         final Class providerClass = loadClassSecured(bundle, providerName);
@@ -153,12 +223,55 @@ public final class ServiceLoaderImpl extends org.glassfish.hk2.osgiresourcelocat
                     }
                 }
             }
+            providerClasses = Collections.unmodifiableList(providerClasses);
+            if (isCacheable(serviceClass)) {
+                providerClassCache.put(serviceClass, providerClasses);
+            }
             return providerClasses;
         } finally {
             rwLock.readLock().unlock();
         }
     }
 
+    /**
+     * Only results for service classes from the boot class path or from a bundle are cached,
+     * since the cache is only cleared by bundle events. Caching a service class of any other
+     * class loader, e.g. that of a web application, would leak that class loader.
+     */
+    private boolean isCacheable(Class<?> serviceClass) {
+        final ClassLoader cl = serviceClass.getClassLoader();
+        return cl == null || cl instanceof BundleReference;
+    }
+
+    /**
+     * Must be called with the write lock held
+     */
+    private void clearCaches() {
+        cacheGeneration++;
+        providerClassCache.clear();
+        providerInstanceCache.clear();
+    }
+
+    /**
+     * Rebuilds the index entries of the given services from the providers list.
+     * Must be called with the write lock held
+     */
+    private void reindex(Set<String> serviceNames) {
+        for (String serviceName : serviceNames) {
+            List<ProvidersPerBundle> providersOfService = new ArrayList<ProvidersPerBundle>();
+            for (ProvidersPerBundle providersPerBundle : providersList.getAllProviders()) {
+                if (providersPerBundle.getServiceToProvidersMap().containsKey(serviceName)) {
+                    providersOfService.add(providersPerBundle);
+                }
+            }
+            if (providersOfService.isEmpty()) {
+                serviceIndex.remove(serviceName);
+            } else {
+                serviceIndex.put(serviceName, providersOfService);
+            }
+        }
+    }
+
     private Class loadClassSecured(final Bundle bundle, final String name)
             throws ClassNotFoundException {
         if (System.getSecurityManager()!=null) {
@@ -261,6 +374,12 @@ public final class ServiceLoaderImpl extends org.glassfish.hk2.osgiresourcelocat
                     removeProviders(bundle);
                     addProviders(bundle);
                     break;
+                case BundleEvent.RESOLVED:
+                case BundleEvent.UNRESOLVED:
+                    // providers that could not be loaded may be loadable now, or
+                    // the ones that were loaded may come from a stale class loader
+                    invalidateProviders();
+                    break;
             }
         }
     }
@@ -288,6 +407,8 @@ public final class ServiceLoaderImpl extends org.glassfish.hk2.osgiresourcelocat
                     }
                 }
                 providersList.addProviders(providers);
+                reindex(providers.getServiceToProvidersMap().keySet());
+                clearCaches();
             }
         } finally {
             rwLock.writeLock().unlock();
@@ -297,7 +418,20 @@ public final class ServiceLoaderImpl extends org.glassfish.hk2.osgiresourcelocat
     private synchronized void removeProviders(Bundle bundle) {
         rwLock.writeLock().lock();
         try {
-            providersList.removeProviders(bundle.getBundleId());
+            ProvidersPerBundle removed = providersList.removeProviders(bundle.getBundleId());
+            if (removed != null) {
+                reindex(removed.getServiceToProvidersMap().keySet());
+            }
+            clearCaches();
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+    }
+
+    private void invalidateProviders() {
+        rwLock.writeLock().lock();
+        try {
+            clearCaches();
         } finally {
             rwLock.writeLock().unlock();
         }
@@ -345,19 +479,24 @@ public final class ServiceLoaderImpl extends org.glassfish.hk2.osgiresourcelocat
                     getAllProviders().add(idx, providers);
                     return;
                 }
+                idx++;
             }
             getAllProviders().add(providers);
         }
 
-        void removeProviders(long bundleId) {
+        /**
+         * @return the providers removed, null if the bundle provided nothing
+         */
+        ProvidersPerBundle removeProviders(long bundleId) {
             Iterator<ProvidersPerBundle> iterator = getAllProviders().iterator();
             while (iterator.hasNext()) {
                 ProvidersPerBundle providersPerBundle = iterator.next();
                 if (providersPerBundle.getBundleId() == bundleId) {
                     iterator.remove();
-                    return;
+                    return providersPerBundle;
                 }
             }
+            return null;
         }
 
         /**
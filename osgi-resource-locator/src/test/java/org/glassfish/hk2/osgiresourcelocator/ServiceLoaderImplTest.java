@@ -0,0 +1,346 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.glassfish.hk2.osgiresourcelocator;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.BundleListener;
+
+/**
+ * Tests for the way {@link ServiceLoaderImpl} finds and caches the
+ * providers of a service
+ * 
+ * @author jwells
+ */
+public class ServiceLoaderImplTest {
+    private final static String TEST_NAME = "ServiceLoaderImplTest";
+    private final static String SERVICES = "META-INF/services";
+    private final static String RUNNABLE_ENTRY = SERVICES + "/" + Runnable.class.getName();
+    
+    private File root;
+    private final Map<Long, Bundle> bundles = new HashMap<Long, Bundle>();
+    private final List<Bundle> installed = new ArrayList<Bundle>();
+    private final Map<Long, Integer> classLoads = new HashMap<Long, Integer>();
+    private BundleListener listener;
+    
+    public static class TwoProvider implements Runnable {
+        @Override
+        public void run() {
+        }
+    }
+    
+    public static class FiveProvider implements Runnable {
+        @Override
+        public void run() {
+        }
+    }
+    
+    public static class NineProvider implements Runnable {
+        @Override
+        public void run() {
+        }
+    }
+    
+    @Before
+    public void before() throws IOException {
+        root = File.createTempFile(TEST_NAME, "");
+        Assert.assertTrue(root.delete());
+        Assert.assertTrue(root.mkdirs());
+    }
+    
+    @After
+    public void after() {
+        File children[] = root.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                child.delete();
+            }
+        }
+        root.delete();
+    }
+    
+    /**
+     * Creates a bundle whose services file for {@link Runnable} names the
+     * given provider
+     */
+    private Bundle createBundle(final long bundleId, final Class<?> provider) throws IOException {
+        final File services = new File(root, bundleId + ".services");
+        FileWriter writer = new FileWriter(services);
+        try {
+            writer.write("# providers of bundle " + bundleId + "\n");
+            writer.write(provider.getName() + "\n");
+        }
+        finally {
+            writer.close();
+        }
+        
+        Bundle retVal = (Bundle) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { Bundle.class }, new InvocationHandler() {
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                String methodName = method.getName();
+                if ("getBundleId".equals(methodName)) return bundleId;
+                if ("getEntry".equals(methodName)) {
+                    if (SERVICES.equals(args[0])) return root.toURI().toURL();
+                    if (RUNNABLE_ENTRY.equals(args[0])) return services.toURI().toURL();
+                    return null;
+                }
+                if ("getEntryPaths".equals(methodName)) {
+                    if (SERVICES.equals(args[0])) return Collections.enumeration(Collections.singletonList(RUNNABLE_ENTRY));
+                    return null;
+                }
+                if ("loadClass".equals(methodName)) {
+                    synchronized (classLoads) {
+                        Integer loads = classLoads.get(bundleId);
+                        classLoads.put(bundleId, (loads == null) ? 1 : loads + 1);
+                    }
+                    if (provider.getName().equals(args[0])) return provider;
+                    throw new ClassNotFoundException((String) args[0]);
+                }
+                if ("toString".equals(methodName)) return "Bundle(" + bundleId + ")";
+                if ("hashCode".equals(methodName)) return (int) bundleId;
+                if ("equals".equals(methodName)) return proxy == args[0];
+                throw new UnsupportedOperationException(methodName);
+            }
+            
+        });
+        
+        bundles.put(bundleId, retVal);
+        installed.add(retVal);
+        return retVal;
+    }
+    
+    private ServiceLoaderImpl createServiceLoader() {
+        BundleContext context = (BundleContext) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { BundleContext.class }, new InvocationHandler() {
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                String methodName = method.getName();
+                if ("getProperty".equals(methodName)) return null;
+                if ("getBundles".equals(methodName)) return installed.toArray(new Bundle[installed.size()]);
+                if ("getBundle".equals(methodName) && args != null) return bundles.get(args[0]);
+                if ("addBundleListener".equals(methodName)) {
+                    listener = (BundleListener) args[0];
+                    return null;
+                }
+                if ("toString".equals(methodName)) return "BundleContext";
+                if ("hashCode".equals(methodName)) return System.identityHashCode(proxy);
+                if ("equals".equals(methodName)) return proxy == args[0];
+                throw new UnsupportedOperationException(methodName);
+            }
+            
+        });
+        
+        ServiceLoaderImpl retVal = new ServiceLoaderImpl(context);
+        retVal.trackBundles();
+        Assert.assertNotNull(listener);
+        return retVal;
+    }
+    
+    private int getTotalClassLoads() {
+        int retVal = 0;
+        synchronized (classLoads) {
+            for (Integer loads : classLoads.values()) {
+                retVal += loads;
+            }
+        }
+        return retVal;
+    }
+    
+    private static List<Class> asList(Iterable<Class> classes) {
+        List<Class> retVal = new ArrayList<Class>();
+        for (Class clazz : classes) {
+            retVal.add(clazz);
+        }
+        return retVal;
+    }
+    
+    private static List<Class<?>> classesOf(Iterable<? extends Runnable> instances) {
+        List<Class<?>> retVal = new ArrayList<Class<?>>();
+        for (Runnable instance : instances) {
+            retVal.add(instance.getClass());
+        }
+        return retVal;
+    }
+    
+    private static List<Class> expected(Class<?>... classes) {
+        List<Class> retVal = new ArrayList<Class>();
+        for (Class<?> clazz : classes) {
+            retVal.add(clazz);
+        }
+        return retVal;
+    }
+    
+    /**
+     * Providers are returned in ascending order of bundle id, whatever the
+     * order in which their bundles were found
+     * 
+     * @throws IOException
+     */
+    @Test
+    public void testProvidersAreOrderedByBundleId() throws IOException {
+        createBundle(2, TwoProvider.class);
+        createBundle(9, NineProvider.class);
+        createBundle(5, FiveProvider.class);
+        
+        ServiceLoaderImpl loader = createServiceLoader();
+        
+        Assert.assertEquals(expected(TwoProvider.class, FiveProvider.class, NineProvider.class),
+                asList(loader.lookupProviderClasses1(Runnable.class)));
+        Assert.assertEquals(expected(TwoProvider.class, FiveProvider.class, NineProvider.class),
+                classesOf(loader.lookupProviderInstances1(Runnable.class, null)));
+    }
+    
+    /**
+     * A bundle installed after the tracking started is put in its place
+     * amongst the bundles already known
+     * 
+     * @throws IOException
+     */
+    @Test
+    public void testInstalledBundleIsOrderedByBundleId() throws IOException {
+        createBundle(2, TwoProvider.class);
+        createBundle(9, NineProvider.class);
+        
+        ServiceLoaderImpl loader = createServiceLoader();
+        Assert.assertEquals(expected(TwoProvider.class, NineProvider.class),
+                asList(loader.lookupProviderClasses1(Runnable.class)));
+        
+        listener.bundleChanged(new BundleEvent(BundleEvent.INSTALLED, createBundle(5, FiveProvider.class)));
+        
+        Assert.assertEquals(expected(TwoProvider.class, FiveProvider.class, NineProvider.class),
+                asList(loader.lookupProviderClasses1(Runnable.class)));
+    }
+    
+    /**
+     * Repeated lookups do not load the providers again, and services with
+     * no providers are looked up too
+     * 
+     * @throws IOException
+     */
+    @Test
+    public void testLookupsAreCached() throws IOException {
+        createBundle(2, TwoProvider.class);
+        createBundle(5, FiveProvider.class);
+        
+        ServiceLoaderImpl loader = createServiceLoader();
+        
+        List<Class> first = asList(loader.lookupProviderClasses1(Runnable.class));
+        int loads = getTotalClassLoads();
+        Assert.assertEquals(2, loads);
+        
+        Assert.assertEquals(first, asList(loader.lookupProviderClasses1(Runnable.class)));
+        Assert.assertEquals(loads, getTotalClassLoads());
+        
+        Assert.assertFalse(loader.lookupProviderClasses1(Comparable.class).iterator().hasNext());
+        Assert.assertEquals(loads, getTotalClassLoads());
+        
+        Iterable<? extends Runnable> shared = loader.lookupSharedProviderInstances1(Runnable.class);
+        Assert.assertSame(shared, loader.lookupSharedProviderInstances1(Runnable.class));
+    }
+    
+    /**
+     * Removing a bundle removes its providers from the cached results
+     * 
+     * @throws IOException
+     */
+    @Test
+    public void testCachesAreClearedWhenBundleIsRemoved() throws IOException {
+        createBundle(2, TwoProvider.class);
+        Bundle five = createBundle(5, FiveProvider.class);
+        createBundle(9, NineProvider.class);
+        
+        ServiceLoaderImpl loader = createServiceLoader();
+        
+        Assert.assertEquals(expected(TwoProvider.class, FiveProvider.class, NineProvider.class),
+                asList(loader.lookupProviderClasses1(Runnable.class)));
+        Iterable<? extends Runnable> shared = loader.lookupSharedProviderInstances1(Runnable.class);
+        Assert.assertEquals(expected(TwoProvider.class, FiveProvider.class, NineProvider.class), classesOf(shared));
+        
+        listener.bundleChanged(new BundleEvent(BundleEvent.UNINSTALLED, five));
+        
+        Assert.assertEquals(expected(TwoProvider.class, NineProvider.class),
+                asList(loader.lookupProviderClasses1(Runnable.class)));
+        
+        Iterable<? extends Runnable> sharedAfter = loader.lookupSharedProviderInstances1(Runnable.class);
+        Assert.assertNotSame(shared, sharedAfter);
+        Assert.assertEquals(expected(TwoProvider.class, NineProvider.class), classesOf(sharedAfter));
+    }
+    
+    /**
+     * A resolved or unresolved bundle makes the providers be loaded again,
+     * as their class loaders may have changed
+     * 
+     * @throws IOException
+     */
+    @Test
+    public void testCachesAreClearedWhenBundleIsResolved() throws IOException {
+        Bundle two = createBundle(2, TwoProvider.class);
+        
+        ServiceLoaderImpl loader = createServiceLoader();
+        
+        loader.lookupProviderClasses1(Runnable.class);
+        int loads = getTotalClassLoads();
+        
+        listener.bundleChanged(new BundleEvent(BundleEvent.RESOLVED, two));
+        
+        Assert.assertEquals(expected(TwoProvider.class), asList(loader.lookupProviderClasses1(Runnable.class)));
+        Assert.assertEquals(loads + 1, getTotalClassLoads());
+    }
+}
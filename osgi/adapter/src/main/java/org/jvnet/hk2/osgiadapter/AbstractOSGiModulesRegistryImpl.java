@@ -148,6 +148,78 @@ public abstract class AbstractOSGiModulesRegistryImpl extends AbstractModulesReg
 
     }
 
+    /**
+     * Reads the descriptors from the module definition cache or, failing that, from the bundle
+     */
+    @Override
+    protected List<DescriptorImpl> readInhabitants(Module module, String name) throws IOException {
+        List<Descriptor> cached = module.getModuleDefinition().getMetadata().getDescriptors().get(name);
+        if (cached == null) {
+            List<DescriptorImpl> read = ((OSGiModuleImpl) module).readInhabitants(name);
+            return (read == null) ? NO_INHABITANTS : read;
+        }
+        
+        CachedInhabitants retVal = new CachedInhabitants();
+        for (Descriptor descriptor : cached) {
+            retVal.add((descriptor instanceof DescriptorImpl) ? (DescriptorImpl) descriptor : new DescriptorImpl(descriptor));
+        }
+        
+        return retVal;
+    }
+    
+    /**
+     * Binds the descriptors the same way {@link #parseInhabitants} does, filling the
+     * module definition cache with the descriptors read from the bundle
+     */
+    @Override
+    protected List<ActiveDescriptor> bindInhabitants(Module module, String name, List<DescriptorImpl> inhabitants,
+            ServiceLocator serviceLocator, DynamicConfiguration config, List<PopulatorPostProcessor> postProcessors) {
+        // like parseInhabitants, nothing is cached for a bundle with no inhabitants file, but
+        // an empty file is cached as an empty list
+        if (inhabitants == NO_INHABITANTS) return Collections.emptyList();
+        
+        OSGiModuleImpl osgiModuleImpl = (OSGiModuleImpl) module;
+        
+        List<PopulatorPostProcessor> allPostProcessors = new ArrayList<PopulatorPostProcessor>();
+        allPostProcessors.add(new OsgiPopulatorPostProcessor(osgiModuleImpl));
+        
+        if (inhabitants instanceof CachedInhabitants) {
+            // the other post processors already ran before the descriptors were cached
+            return super.bindInhabitants(module, name, inhabitants, serviceLocator, config, allPostProcessors);
+        }
+        
+        if (postProcessors != null) {
+            allPostProcessors.addAll(postProcessors);
+        }
+        
+        List<ActiveDescriptor> activeDescriptors = super.bindInhabitants(module, name, inhabitants,
+                serviceLocator, config, allPostProcessors);
+        osgiModuleImpl.activeDescriptors = activeDescriptors;
+        
+        // use the copy constructor to create (nonactive) descriptor for serialization into the cache
+        List<Descriptor> descriptors = new ArrayList<Descriptor>();
+        for (Descriptor d : activeDescriptors) {
+            descriptors.add(new DescriptorImpl(d));
+        }
+        
+        module.getModuleDefinition().getMetadata().addDescriptors(name, descriptors);
+        
+        return activeDescriptors;
+    }
+    
+    /**
+     * Read for a bundle that has no inhabitants file of the requested name
+     */
+    private final static List<DescriptorImpl> NO_INHABITANTS =
+            Collections.unmodifiableList(new ArrayList<DescriptorImpl>(0));
+    
+    /**
+     * Descriptors that came from the module definition cache
+     */
+    @SuppressWarnings("serial")
+    private static class CachedInhabitants extends ArrayList<DescriptorImpl> {
+    }
+
     public ModulesRegistry createChild() {
         throw new UnsupportedOperationException("Not Yet Implemented"); // TODO(Sahoo)
     }
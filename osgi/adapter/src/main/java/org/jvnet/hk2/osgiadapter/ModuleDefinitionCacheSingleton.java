@@ -37,7 +37,6 @@
  * only if the new code is made subject to such option by the copyright
  * holder.
  */
-
 package org.jvnet.hk2.osgiadapter;
 
 import com.sun.enterprise.module.ModuleDefinition;
@@ -46,108 +45,303 @@ import org.osgi.framework.FrameworkUtil;
 
 import java.io.*;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 
 import static org.jvnet.hk2.osgiadapter.Logger.logger;
 
+/**
+ * Caches the module definitions of the installed bundles between runs.
+ * <p>
+ * The cache file starts with a magic number and a format version, followed
+ * by one record per bundle location:
+ * <pre>
+ * byte   state (LIVE or DEAD)
+ * int    length of the location, followed by the location in UTF-8
+ * int    length of the payload, followed by the payload
+ * </pre>
+ * When the file is opened it is read once and the live records are copied
+ * out of it; a definition is decoded the first time its location is
+ * looked up.  The file is not kept open or mapped, so it can be extended,
+ * truncated, renamed or deleted on every platform.  Saving appends the new
+ * and changed records and marks the records they replace as dead in place,
+ * so unchanged bundles are never rewritten.  The file is compacted once
+ * the dead records take up half of it, or when it cannot be read.
+ */
 class ModuleDefinitionCacheSingleton {
 
+    private static final int MAGIC = 0x484b324d;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+
+    private static final byte DEAD = 0;
+    private static final byte LIVE = 1;
+
+    /** The payload is written by {@link OSGiModuleDefinition#writeTo(DataOutputStream)} */
+    private static final byte OSGI_DEFINITION = 1;
+
+    /** The payload is any other module definition, java serialized */
+    private static final byte SERIALIZED_DEFINITION = 2;
+
     private static ModuleDefinitionCacheSingleton _instance;
 
-    private Map<URI, ModuleDefinition> cachedData = new HashMap<URI, ModuleDefinition>();
-    private boolean cacheInvalidated = false;
+    /** The definitions that have been decoded from the file or added since */
+    private final ConcurrentHashMap<URI, ModuleDefinition> cachedData = new ConcurrentHashMap<URI, ModuleDefinition>();
+
+    /** Locations whose definitions must be written by the next save */
+    private final Set<URI> dirty = Collections.newSetFromMap(new ConcurrentHashMap<URI, Boolean>());
 
-    private ModuleDefinitionCacheSingleton() {
+    /** Locations whose records must be marked dead by the next save */
+    private final Set<URI> removed = Collections.newSetFromMap(new ConcurrentHashMap<URI, Boolean>());
+
+    /**
+     * The number of locators with descriptors in each definition decoded from the
+     * file, so that descriptors added to it later on get saved
+     */
+    private final ConcurrentHashMap<URI, Integer> decodedLocators = new ConcurrentHashMap<URI, Integer>();
+
+    /** The cache file called inhabitants, or null if there is no cache directory */
+    private final File io;
+
+    private volatile CacheFile cacheFile = CacheFile.EMPTY;
+    private volatile boolean cacheInvalidated = false;
+
+    /* package */ ModuleDefinitionCacheSingleton(File io) {
+        this.io = io;
         try {
             loadCachedData();
         } catch (Exception e) {
-            e.printStackTrace();  //To change body of catch statement use File | Settings | File Templates.
+            logger.logp(Level.WARNING, getClass().getSimpleName(), "ModuleDefinitionCacheSingleton",
+                    "Could not read the module definition cache", e);
         }
     }
 
     public synchronized static ModuleDefinitionCacheSingleton getInstance() {
        if (_instance == null) {
-           _instance = new ModuleDefinitionCacheSingleton();
+           _instance = new ModuleDefinitionCacheSingleton(getCacheFile());
        }
 
        return _instance;
     }
 
-    public synchronized  void cacheModuleDefinition(URI uri, ModuleDefinition md) {
-       if (!cachedData.containsKey(uri)) {
+    public void cacheModuleDefinition(URI uri, ModuleDefinition md) {
+       removed.remove(uri);
+       if (cachedData.put(uri, md) != md) {
+           dirty.add(uri);
            cacheInvalidated = true;
-       } else {
-           // should check if md is the same
        }
-
-       cachedData.put(uri, md);
     }
 
-    public synchronized void remove(URI uri) {
-        if (cachedData.remove(uri) != null) {
-            cacheInvalidated =true;
+    public void remove(URI uri) {
+        boolean known = cachedData.remove(uri) != null || cacheFile.records.containsKey(uri);
+
+        dirty.remove(uri);
+        decodedLocators.remove(uri);
+        if (known) {
+            removed.add(uri);
+            cacheInvalidated = true;
         }
     }
+
     /**
-     * Loads the inhabitants metadata from the cache. metadata is saved in a file
-     * called inhabitants
+     * Reads the cache file called inhabitants and indexes its records.  No
+     * definition is decoded here
      *
      * @throws Exception if the file cannot be read correctly
      */
     private void loadCachedData() throws Exception {
-        String cacheLocation = getProperty(Constants.HK2_CACHE_DIR);
-        if (cacheLocation == null) {
-            return;
-        }
-        File io = new File(cacheLocation, Constants.INHABITANTS_CACHE);
-        if (!io.exists()) return;
+        if (io == null || !io.exists()) return;
         if(logger.isLoggable(Level.FINE)) {
             logger.logp(Level.INFO, getClass().getSimpleName(), "loadCachedData", "HK2 cache file = {0}", new Object[]{io});
         }
 
-       ObjectInputStream stream = new ObjectInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(io), getBufferSize())));
-
-       cachedData = (Map<URI, ModuleDefinition>) stream.readObject();
-       stream.close();
+        cacheFile = CacheFile.open(io);
     }
 
     /**
-     * Saves the inhabitants metadata to the cache in a file called inhabitants
+     * Saves the new, changed and removed definitions to the cache file
+     * called inhabitants
+     *
      * @throws java.io.IOException if the file cannot be saved successfully
      */
     public synchronized void saveCache() throws IOException {
+        Set<URI> toWrite = new LinkedHashSet<URI>(dirty);
+        for (Map.Entry<URI, Integer> decoded : decodedLocators.entrySet()) {
+            ModuleDefinition md = cachedData.get(decoded.getKey());
+            if (md != null && md.getMetadata().getDescriptors().size() != decoded.getValue()) {
+                toWrite.add(decoded.getKey());
+            }
+        }
 
-        if (!cacheInvalidated) {
+        if (!cacheInvalidated && toWrite.isEmpty()) {
             return;
         }
 
-        String cacheLocation = getProperty(Constants.HK2_CACHE_DIR);
-        if (cacheLocation == null) {
+        if (io == null) {
             return;
         }
-        File io = new File(cacheLocation, Constants.INHABITANTS_CACHE);
         if(logger.isLoggable(Level.FINE)) {
             logger.logp(Level.INFO, getClass().getSimpleName(), "saveCache", "HK2 cache file = {0}", new Object[]{io});
         }
-        if (io.exists()) io.delete();
-        io.createNewFile();
-        Map<URI, ModuleDefinition> data = new HashMap<URI, ModuleDefinition>();
-        for (ModuleDefinition m : cachedData.values()) {
-            data.put(m.getLocations()[0], m);
+
+        Set<URI> handledRemovals = new HashSet<URI>(removed);
+        Map<URI, byte[]> written = new LinkedHashMap<URI, byte[]>();
+        for (URI uri : toWrite) {
+            ModuleDefinition md = cachedData.get(uri);
+            if (md == null) continue;
+
+            written.put(md.getLocations()[0], encodeRecord(md));
+        }
+
+        CacheFile current = cacheFile;
+        List<Record> superseded = new ArrayList<Record>();
+        long supersededBytes = 0;
+        for (Map.Entry<URI, Record> entry : current.records.entrySet()) {
+            if (written.containsKey(entry.getKey()) || handledRemovals.contains(entry.getKey())) {
+                superseded.add(entry.getValue());
+                supersededBytes += entry.getValue().bytes.length;
+            }
+        }
+
+        if (!io.exists() || current.damaged ||
+                2 * (current.deadBytes + supersededBytes) > current.validLength) {
+            compact(io, current, written, handledRemovals);
+        }
+        else {
+            append(io, current, written, superseded);
         }
-        ObjectOutputStream os = new ObjectOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(io)), getBufferSize()));
 
-        os.writeObject(data);
-        os.close();
+        cacheFile = CacheFile.open(io);
+
+        for (URI uri : toWrite) {
+            dirty.remove(uri);
+            ModuleDefinition md = cachedData.get(uri);
+            if (md != null && decodedLocators.containsKey(uri)) {
+                decodedLocators.put(uri, md.getMetadata().getDescriptors().size());
+            }
+        }
+        removed.removeAll(handledRemovals);
+        cacheInvalidated = !dirty.isEmpty() || !removed.isEmpty();
+    }
+
+    /**
+     * Appends the given records to the end of the valid part of the file and
+     * then marks the records they replace as dead
+     */
+    private static void append(File io, CacheFile current, Map<URI, byte[]> written,
+            List<Record> superseded) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(io, "rw");
+        try {
+            raf.seek(current.validLength);
+            for (byte[] record : written.values()) {
+                raf.write(record);
+            }
+            raf.setLength(raf.getFilePointer());
 
-        cacheInvalidated =false;
+            for (Record record : superseded) {
+                raf.seek(record.offset);
+                raf.writeByte(DEAD);
+            }
+        }
+        finally {
+            raf.close();
+        }
     }
 
-    private int getBufferSize() {
+    /**
+     * Rewrites the whole file with only the live records, copying the records
+     * that did not change without decoding them
+     */
+    private void compact(File io, CacheFile current, Map<URI, byte[]> written,
+            Set<URI> handledRemovals) throws IOException {
+        File tmp = new File(io.getParentFile(), io.getName() + ".tmp");
+        DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), getBufferSize()));
+        try {
+            os.writeInt(MAGIC);
+            os.writeInt(VERSION);
+
+            for (Map.Entry<URI, Record> entry : current.records.entrySet()) {
+                if (written.containsKey(entry.getKey()) || handledRemovals.contains(entry.getKey())) continue;
+
+                os.write(entry.getValue().bytes);
+            }
+            for (byte[] record : written.values()) {
+                os.write(record);
+            }
+        }
+        finally {
+            os.close();
+        }
+
+        if (!tmp.renameTo(io)) {
+            io.delete();
+            if (!tmp.renameTo(io)) {
+                throw new IOException("Could not replace " + io + " with " + tmp);
+            }
+        }
+    }
+
+    private static byte[] encodeRecord(ModuleDefinition md) throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(payload);
+        if (md instanceof OSGiModuleDefinition) {
+            out.writeByte(OSGI_DEFINITION);
+            ((OSGiModuleDefinition) md).writeTo(out);
+        }
+        else {
+            out.writeByte(SERIALIZED_DEFINITION);
+            ObjectOutputStream oos = new ObjectOutputStream(out);
+            oos.writeObject(md);
+            oos.flush();
+        }
+        out.close();
+
+        byte[] location = md.getLocations()[0].toString().getBytes("UTF-8");
+        ByteArrayOutputStream record = new ByteArrayOutputStream(payload.size() + location.length + 9);
+        DataOutputStream recordOut = new DataOutputStream(record);
+        recordOut.writeByte(LIVE);
+        recordOut.writeInt(location.length);
+        recordOut.write(location);
+        recordOut.writeInt(payload.size());
+        payload.writeTo(recordOut);
+        recordOut.close();
+
+        return record.toByteArray();
+    }
+
+    private static ModuleDefinition decodeRecord(byte[] payload) throws IOException, ClassNotFoundException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        byte kind = in.readByte();
+        if (kind == OSGI_DEFINITION) {
+            return OSGiModuleDefinition.readFrom(in);
+        }
+        if (kind == SERIALIZED_DEFINITION) {
+            return (ModuleDefinition) new ObjectInputStream(in).readObject();
+        }
+
+        throw new IOException("Unknown module definition record type " + kind);
+    }
+
+    private static File getCacheFile() {
+        String cacheLocation = getProperty(Constants.HK2_CACHE_DIR);
+        if (cacheLocation == null) {
+            return null;
+        }
+        return new File(cacheLocation, Constants.INHABITANTS_CACHE);
+    }
+
+    private static int getBufferSize() {
         int bufsize = Constants.DEFAULT_BUFFER_SIZE;
         try {
             bufsize = Integer.valueOf(getProperty(Constants.HK2_CACHE_IO_BUFFER_SIZE));
@@ -159,9 +353,33 @@ class ModuleDefinitionCacheSingleton {
         return bufsize;
     }
 
-    public synchronized ModuleDefinition get(URI uri) {
+    public ModuleDefinition get(URI uri) {
         ModuleDefinition md = cachedData.get(uri);
+        if (md != null || removed.contains(uri)) {
+            return md;
+        }
+
+        CacheFile current = cacheFile;
+        Record record = current.records.get(uri);
+        if (record == null) {
+            return null;
+        }
+
+        try {
+            md = decodeRecord(record.getPayload());
+        } catch (Exception e) {
+            // the bundle may have been uninstalled or the record may be damaged, so it is a miss
+            logger.logp(Level.FINE, getClass().getSimpleName(), "get",
+                    "Could not read the cached module definition of " + uri, e);
+            return null;
+        }
+
+        ModuleDefinition previous = cachedData.putIfAbsent(uri, md);
+        if (previous != null) {
+            return previous;
+        }
 
+        decodedLocators.put(uri, md.getMetadata().getDescriptors().size());
         return md;
     }
 
@@ -173,13 +391,137 @@ class ModuleDefinitionCacheSingleton {
         return cacheInvalidated;
     }
 
-    private String getProperty(String property) {
+    private static String getProperty(String property) {
         BundleContext bctx = null;
         try {
-            bctx = FrameworkUtil.getBundle(getClass()).getBundleContext();
+            bctx = FrameworkUtil.getBundle(ModuleDefinitionCacheSingleton.class).getBundleContext();
         } catch (Exception e) {
         }
         String value = bctx != null ? bctx.getProperty(property) : null;
         return value != null ? value : System.getProperty(property);
     }
+
+    /**
+     * A live record, copied out of the file together with where it was
+     */
+    private static class Record {
+        private final long offset;
+        private final byte[] bytes;
+        private final int payloadStart;
+
+        private Record(long offset, byte[] bytes, int payloadStart) {
+            this.offset = offset;
+            this.bytes = bytes;
+            this.payloadStart = payloadStart;
+        }
+
+        private byte[] getPayload() {
+            byte[] retVal = new byte[bytes.length - payloadStart];
+            System.arraycopy(bytes, payloadStart, retVal, 0, retVal.length);
+            return retVal;
+        }
+    }
+
+    /**
+     * An opened cache file, never modified once it has been indexed
+     */
+    private static class CacheFile {
+        private static final CacheFile EMPTY = new CacheFile(Collections.<URI, Record>emptyMap(), HEADER_SIZE, 0, true);
+
+        private final Map<URI, Record> records;
+        private final long validLength;
+        private final long deadBytes;
+        private final boolean damaged;
+
+        private CacheFile(Map<URI, Record> records, long validLength, long deadBytes, boolean damaged) {
+            this.records = records;
+            this.validLength = validLength;
+            this.deadBytes = deadBytes;
+            this.damaged = damaged;
+        }
+
+        /**
+         * Reads the file and copies out its live records.  A file from
+         * another version, or whose last record was cut short, is flagged
+         * as damaged so that the next save rewrites it
+         */
+        private static CacheFile open(File io) throws IOException {
+            ByteBuffer buffer = read(io);
+
+            if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                logger.logp(Level.INFO, "ModuleDefinitionCacheSingleton", "open",
+                        "Ignoring HK2 cache file {0} as it is not of version {1}", new Object[]{io, VERSION});
+                return EMPTY;
+            }
+
+            Map<URI, Record> records = new HashMap<URI, Record>();
+            long deadBytes = 0;
+            boolean damaged = false;
+            while (buffer.hasRemaining()) {
+                int offset = buffer.position();
+                try {
+                    byte state = buffer.get();
+                    byte[] location = new byte[buffer.getInt()];
+                    buffer.get(location);
+                    int payloadLength = buffer.getInt();
+                    int payloadStart = buffer.position() - offset;
+                    if (payloadLength < 0 || payloadLength > buffer.remaining()) {
+                        throw new IOException("Truncated record");
+                    }
+                    buffer.position(buffer.position() + payloadLength);
+
+                    int length = buffer.position() - offset;
+                    if (state != LIVE) {
+                        deadBytes += length;
+                        continue;
+                    }
+
+                    byte[] bytes = new byte[length];
+                    ByteBuffer view = buffer.duplicate();
+                    view.position(offset);
+                    view.get(bytes);
+
+                    // a save that stopped before marking the old record dead leaves two
+                    Record previous = records.put(URI.create(new String(location, "UTF-8")),
+                            new Record(offset, bytes, payloadStart));
+                    if (previous != null) {
+                        deadBytes += previous.bytes.length;
+                    }
+                }
+                catch (Exception e) {
+                    buffer.position(offset);
+                    damaged = true;
+                    break;
+                }
+            }
+
+            return new CacheFile(records, buffer.position(), deadBytes, damaged);
+        }
+
+        /**
+         * Reads the whole file into the heap.  The file is not mapped, as a
+         * mapping can only be released by the garbage collector and, until
+         * it is, some platforms refuse to resize, rename or delete the file
+         */
+        private static ByteBuffer read(File io) throws IOException {
+            RandomAccessFile raf = new RandomAccessFile(io, "r");
+            try {
+                FileChannel channel = raf.getChannel();
+                long size = channel.size();
+                if (size > Integer.MAX_VALUE) {
+                    throw new IOException("HK2 cache file " + io + " is too large: " + size);
+                }
+
+                ByteBuffer buffer = ByteBuffer.allocate((int) size);
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer) < 0) break;
+                }
+                buffer.flip();
+                return buffer;
+            }
+            finally {
+                raf.close();
+            }
+        }
+    }
 }
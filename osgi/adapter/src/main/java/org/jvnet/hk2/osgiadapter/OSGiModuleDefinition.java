@@ -51,6 +51,8 @@ import java.util.Collections;
 import java.util.Dictionary;
 import java.util.Enumeration;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.jar.Attributes;
 import java.util.jar.Manifest;
@@ -83,6 +85,15 @@ public class OSGiModuleDefinition implements ModuleDefinition, Serializable {
     private String lifecyclePolicyClassName;
     private ModuleMetadata metadata = new ModuleMetadata();
 
+    /** The manifest of an installed bundle, recorded by bundle id */
+    private static final byte BUNDLE_MANIFEST = 1;
+
+    /** A manifest read from a jar, recorded in full */
+    private static final byte JAR_MANIFEST = 2;
+
+    private OSGiModuleDefinition() {
+    }
+
     public OSGiModuleDefinition(File jar) throws IOException {
         this(Jar.create(jar), jar.toURI());
     }
@@ -216,6 +227,161 @@ public class OSGiModuleDefinition implements ModuleDefinition, Serializable {
         return name + "(" + bundleName + ")" + ':' + version;
     }
 
+    /**
+     * Writes this definition in the record format of the binary
+     * module definition cache.  The manifest of an installed bundle is
+     * written as its bundle id only, just as it is when serialized
+     *
+     * @param out Where to write the definition
+     * @throws IOException if the definition could not be written
+     */
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeUTF(name);
+        writeNullable(out, bundleName);
+        out.writeUTF(location.toString());
+        writeNullable(out, version);
+        writeNullable(out, lifecyclePolicyClassName);
+
+        if (manifest instanceof BundleJar.BundleManifest) {
+            out.writeByte(BUNDLE_MANIFEST);
+            out.writeLong(((BundleJar.BundleManifest) manifest).bundleId);
+        }
+        else {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            manifest.write(bytes);
+
+            out.writeByte(JAR_MANIFEST);
+            writeBytes(out, bytes.toByteArray());
+        }
+
+        Map<String, List<Descriptor>> descriptors = metadata.getDescriptors();
+        synchronized (metadata) {
+            out.writeInt(descriptors.size());
+            for (Map.Entry<String, List<Descriptor>> entry : descriptors.entrySet()) {
+                StringWriter text = new StringWriter();
+                PrintWriter writer = new PrintWriter(text);
+                for (Descriptor descriptor : entry.getValue()) {
+                    DescriptorImpl descriptorImpl = (descriptor instanceof DescriptorImpl) ?
+                            (DescriptorImpl) descriptor : new DescriptorImpl(descriptor);
+                    descriptorImpl.writeObject(writer);
+                }
+                writer.close();
+
+                out.writeUTF(entry.getKey());
+                writeBytes(out, text.toString().getBytes("UTF-8"));
+            }
+        }
+
+        Set<String> serviceNames = metadata.getServiceNames();
+        out.writeInt(serviceNames.size());
+        for (String serviceName : serviceNames) {
+            ModuleMetadata.Entry entry = metadata.getEntry(serviceName);
+
+            out.writeUTF(serviceName);
+            out.writeInt(entry.providerNames.size());
+            for (String providerName : entry.providerNames) {
+                out.writeUTF(providerName);
+            }
+            out.writeInt(entry.resources.size());
+            for (URL resource : entry.resources) {
+                out.writeUTF(resource.toExternalForm());
+            }
+        }
+    }
+
+    /**
+     * Reads a definition written by {@link #writeTo(DataOutputStream)}
+     *
+     * @param in Where to read the definition from
+     * @return The definition read
+     * @throws IOException if the definition could not be read
+     */
+    static OSGiModuleDefinition readFrom(DataInputStream in) throws IOException {
+        OSGiModuleDefinition retVal = new OSGiModuleDefinition();
+
+        retVal.name = in.readUTF();
+        retVal.bundleName = readNullable(in);
+        try {
+            retVal.location = new URI(in.readUTF());
+        }
+        catch (URISyntaxException e) {
+            throw new IOException(e.getMessage());
+        }
+        retVal.version = readNullable(in);
+        retVal.lifecyclePolicyClassName = readNullable(in);
+
+        byte manifestType = in.readByte();
+        if (manifestType == BUNDLE_MANIFEST) {
+            retVal.manifest = new BundleJar.BundleManifest(BundleJar.BundleManifest.getBundle(in.readLong()));
+        }
+        else if (manifestType == JAR_MANIFEST) {
+            retVal.manifest = new SerializableManifest(new Manifest(new ByteArrayInputStream(readBytes(in))));
+        }
+        else {
+            throw new IOException("Unknown manifest type " + manifestType + " for " + retVal.location);
+        }
+
+        int numLocators = in.readInt();
+        for (int lcv = 0; lcv < numLocators; lcv++) {
+            String serviceLocatorName = in.readUTF();
+            BufferedReader br = new BufferedReader(new InputStreamReader(
+                    new ByteArrayInputStream(readBytes(in)), "UTF-8"));
+
+            List<Descriptor> descriptors = new ArrayList<Descriptor>();
+            boolean readOne;
+            do {
+                DescriptorImpl descriptorImpl = new DescriptorImpl();
+
+                readOne = descriptorImpl.readObject(br);
+
+                if (readOne) {
+                    descriptors.add(descriptorImpl);
+                }
+            } while (readOne);
+
+            retVal.metadata.addDescriptors(serviceLocatorName, descriptors);
+        }
+
+        int numServices = in.readInt();
+        for (int lcv = 0; lcv < numServices; lcv++) {
+            String serviceName = in.readUTF();
+            ModuleMetadata.Entry entry = new ModuleMetadata.Entry();
+
+            int numProviders = in.readInt();
+            for (int p = 0; p < numProviders; p++) {
+                entry.providerNames.add(in.readUTF());
+            }
+            int numResources = in.readInt();
+            for (int r = 0; r < numResources; r++) {
+                entry.resources.add(new URL(in.readUTF()));
+            }
+
+            retVal.metadata.putEntry(serviceName, entry);
+        }
+
+        return retVal;
+    }
+
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) out.writeUTF(value);
+    }
+
+    private static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] retVal = new byte[in.readInt()];
+        in.readFully(retVal);
+        return retVal;
+    }
+
     private static class BundleJar extends Jar {
         private static final String HK2_DESCRIPTOR_LOCATION = "META-INF/hk2-locator";
 
@@ -365,15 +531,26 @@ public class OSGiModuleDefinition implements ModuleDefinition, Serializable {
 
             private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
                 in.defaultReadObject();
+                init(getBundle(bundleId));
+            }
+
+            /**
+             * Finds an installed bundle through the bundle context of this adapter
+             *
+             * @param bundleId The id of the bundle
+             * @return The bundle, never null
+             * @throws RuntimeException if there is no such bundle
+             */
+            private static Bundle getBundle(long bundleId) {
                 ClassLoader cl;
                 if (System.getSecurityManager() != null) {
                     cl = AccessController.doPrivileged(new PrivilegedAction<ClassLoader>() {
                         public ClassLoader run() {
-                            return getClass().getClassLoader();
+                            return BundleManifest.class.getClassLoader();
                         }
                     });
                 } else {
-                    cl = getClass().getClassLoader();
+                    cl = BundleManifest.class.getClassLoader();
                 }
 
                 Bundle clBundle = ((BundleReference)cl).getBundle();
@@ -394,7 +571,7 @@ public class OSGiModuleDefinition implements ModuleDefinition, Serializable {
                    throw new RuntimeException("Cannot obtain bundle " + bundleId);
                 }
 
-                init(bundle);
+                return bundle;
             }
 
         }
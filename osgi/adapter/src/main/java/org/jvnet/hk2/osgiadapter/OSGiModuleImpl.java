@@ -397,6 +397,33 @@ public class OSGiModuleImpl implements Module {
         return this.activeDescriptors;
     }
 
+    /**
+     * Reads, without binding them, the inhabitants descriptors of the given name in this module.
+     * Unlike {@link #parseInhabitants} this may be called from any thread
+     * 
+     * @return the descriptors, or null if this module has no inhabitants file of that name
+     */
+    List<DescriptorImpl> readInhabitants(String name) throws IOException {
+        URL entry = bundle.getEntry("META-INF/hk2-locator/" + name);
+        if (entry == null) return null;
+        
+        List<DescriptorImpl> retVal = new ArrayList<DescriptorImpl>();
+        
+        BufferedReader reader = new BufferedReader(new InputStreamReader(entry.openStream()));
+        try {
+            DescriptorImpl descriptor = new DescriptorImpl();
+            while (descriptor.readObject(reader)) {
+                retVal.add(descriptor);
+                descriptor = new DescriptorImpl();
+            }
+        }
+        finally {
+            reader.close();
+        }
+        
+        return retVal;
+    }
+
     /**
      * This method is used as the parent loader of the class loader that we return in {@link #getClassLoader}
      */
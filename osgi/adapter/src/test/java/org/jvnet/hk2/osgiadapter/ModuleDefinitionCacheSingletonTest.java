@@ -0,0 +1,352 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.jvnet.hk2.osgiadapter;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.jar.Manifest;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.enterprise.module.ModuleDefinition;
+import com.sun.enterprise.module.ModuleDependency;
+import com.sun.enterprise.module.ModuleMetadata;
+
+/**
+ * Tests for the record file written by {@link ModuleDefinitionCacheSingleton}
+ * 
+ * @author jwells
+ */
+public class ModuleDefinitionCacheSingletonTest {
+    private final static URI ALICE = URI.create("reference:file:/bundles/alice.jar");
+    private final static URI BOB = URI.create("reference:file:/bundles/bob.jar");
+    private final static URI CAROL = URI.create("reference:file:/bundles/carol.jar");
+    private final static URI DAVE = URI.create("reference:file:/bundles/dave.jar");
+    
+    private File dir;
+    private File io;
+    
+    @Before
+    public void before() throws IOException {
+        dir = File.createTempFile("hk2-cache", "");
+        Assert.assertTrue(dir.delete());
+        Assert.assertTrue(dir.mkdir());
+        
+        io = new File(dir, Constants.INHABITANTS_CACHE);
+    }
+    
+    @After
+    public void after() {
+        File files[] = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+    
+    private static void cache(ModuleDefinitionCacheSingleton cache, URI uri, String name) {
+        cache.cacheModuleDefinition(uri, new TestModuleDefinition(uri, name));
+    }
+    
+    private static void assertCached(ModuleDefinitionCacheSingleton cache, URI uri, String name) {
+        ModuleDefinition md = cache.get(uri);
+        Assert.assertNotNull("Missing " + uri, md);
+        Assert.assertEquals(name, md.getName());
+    }
+    
+    private static byte[] readFile(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            byte retVal[] = new byte[(int) raf.length()];
+            raf.readFully(retVal);
+            return retVal;
+        }
+        finally {
+            raf.close();
+        }
+    }
+    
+    /**
+     * Saving a new definition appends it and leaves the records
+     * already in the file where they were
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testAppend() throws Exception {
+        ModuleDefinitionCacheSingleton cache = new ModuleDefinitionCacheSingleton(io);
+        cache(cache, ALICE, "alice");
+        cache(cache, BOB, "bob");
+        cache.saveCache();
+        
+        byte before[] = readFile(io);
+        
+        cache = new ModuleDefinitionCacheSingleton(io);
+        assertCached(cache, ALICE, "alice");
+        cache(cache, CAROL, "carol");
+        cache.saveCache();
+        Assert.assertFalse(cache.isCacheInvalidated());
+        
+        byte after[] = readFile(io);
+        Assert.assertTrue(after.length > before.length);
+        Assert.assertTrue(Arrays.equals(before, Arrays.copyOf(after, before.length)));
+        
+        cache = new ModuleDefinitionCacheSingleton(io);
+        assertCached(cache, ALICE, "alice");
+        assertCached(cache, BOB, "bob");
+        assertCached(cache, CAROL, "carol");
+    }
+    
+    /**
+     * Replacing a definition appends the new one and the old record
+     * is no longer found
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testReplace() throws Exception {
+        ModuleDefinitionCacheSingleton cache = new ModuleDefinitionCacheSingleton(io);
+        cache(cache, ALICE, "alice");
+        cache(cache, BOB, "bob");
+        cache(cache, CAROL, "carol");
+        cache.saveCache();
+        
+        cache = new ModuleDefinitionCacheSingleton(io);
+        cache(cache, BOB, "robert");
+        cache.saveCache();
+        
+        cache = new ModuleDefinitionCacheSingleton(io);
+        assertCached(cache, ALICE, "alice");
+        assertCached(cache, BOB, "robert");
+        assertCached(cache, CAROL, "carol");
+    }
+    
+    /**
+     * Once half of the file is dead it is rewritten with only the
+     * live records
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testCompaction() throws Exception {
+        ModuleDefinitionCacheSingleton cache = new ModuleDefinitionCacheSingleton(io);
+        cache(cache, ALICE, "alice");
+        cache(cache, BOB, "bob");
+        cache(cache, CAROL, "carol");
+        cache.saveCache();
+        
+        long before = io.length();
+        
+        cache = new ModuleDefinitionCacheSingleton(io);
+        cache.remove(ALICE);
+        cache.remove(BOB);
+        cache.saveCache();
+        
+        Assert.assertTrue(io.length() < before);
+        Assert.assertFalse(new File(dir, Constants.INHABITANTS_CACHE + ".tmp").exists());
+        
+        cache = new ModuleDefinitionCacheSingleton(io);
+        Assert.assertNull(cache.get(ALICE));
+        Assert.assertNull(cache.get(BOB));
+        assertCached(cache, CAROL, "carol");
+    }
+    
+    /**
+     * A file whose last record was cut short keeps the records before
+     * it and is rewritten by the next save
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testTruncatedFile() throws Exception {
+        ModuleDefinitionCacheSingleton cache = new ModuleDefinitionCacheSingleton(io);
+        cache(cache, ALICE, "alice");
+        cache.saveCache();
+        
+        cache = new ModuleDefinitionCacheSingleton(io);
+        cache(cache, BOB, "bob");
+        cache.saveCache();
+        
+        RandomAccessFile raf = new RandomAccessFile(io, "rw");
+        try {
+            raf.setLength(raf.length() - 3);
+        }
+        finally {
+            raf.close();
+        }
+        
+        cache = new ModuleDefinitionCacheSingleton(io);
+        assertCached(cache, ALICE, "alice");
+        Assert.assertNull(cache.get(BOB));
+        
+        cache(cache, DAVE, "dave");
+        cache.saveCache();
+        
+        cache = new ModuleDefinitionCacheSingleton(io);
+        assertCached(cache, ALICE, "alice");
+        Assert.assertNull(cache.get(BOB));
+        assertCached(cache, DAVE, "dave");
+        
+        // the file was rewritten without the cut record
+        String contents = new String(readFile(io), "ISO-8859-1");
+        Assert.assertFalse(contents.contains(BOB.toString()));
+        Assert.assertTrue(contents.contains(DAVE.toString()));
+    }
+    
+    /**
+     * A file that is not a cache file at all is ignored and replaced
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testCorruptFile() throws Exception {
+        FileOutputStream fos = new FileOutputStream(io);
+        try {
+            fos.write("not an hk2 cache file".getBytes("UTF-8"));
+        }
+        finally {
+            fos.close();
+        }
+        
+        ModuleDefinitionCacheSingleton cache = new ModuleDefinitionCacheSingleton(io);
+        Assert.assertNull(cache.get(ALICE));
+        
+        cache(cache, ALICE, "alice");
+        cache.saveCache();
+        
+        cache = new ModuleDefinitionCacheSingleton(io);
+        assertCached(cache, ALICE, "alice");
+    }
+    
+    /**
+     * Reading the file must not leave it open or mapped, otherwise it
+     * could not be deleted or replaced on some platforms
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testFileIsNotHeld() throws Exception {
+        ModuleDefinitionCacheSingleton cache = new ModuleDefinitionCacheSingleton(io);
+        cache(cache, ALICE, "alice");
+        cache.saveCache();
+        
+        cache = new ModuleDefinitionCacheSingleton(io);
+        Assert.assertTrue(io.delete());
+        
+        // the records were copied out before the file went away
+        assertCached(cache, ALICE, "alice");
+        
+        cache(cache, BOB, "bob");
+        cache.saveCache();
+        
+        cache = new ModuleDefinitionCacheSingleton(io);
+        assertCached(cache, ALICE, "alice");
+        assertCached(cache, BOB, "bob");
+    }
+    
+    private static class TestModuleDefinition implements ModuleDefinition, Serializable {
+        private static final long serialVersionUID = -2871520237427386410L;
+        
+        private final URI location;
+        private final String name;
+        private final ModuleMetadata metadata = new ModuleMetadata();
+        
+        private TestModuleDefinition(URI location, String name) {
+            this.location = location;
+            this.name = name;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public String[] getPublicInterfaces() {
+            return new String[0];
+        }
+
+        @Override
+        public ModuleDependency[] getDependencies() {
+            return new ModuleDependency[0];
+        }
+
+        @Override
+        public URI[] getLocations() {
+            return new URI[] { location };
+        }
+
+        @Override
+        public String getVersion() {
+            return "1.0.0";
+        }
+
+        @Override
+        public String getImportPolicyClassName() {
+            return null;
+        }
+
+        @Override
+        public String getLifecyclePolicyClassName() {
+            return null;
+        }
+
+        @Override
+        public Manifest getManifest() {
+            return null;
+        }
+
+        @Override
+        public ModuleMetadata getMetadata() {
+            return metadata;
+        }
+        
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2016 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.jvnet.hk2.osgiadapter;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.glassfish.hk2.utilities.BuilderHelper;
+import org.glassfish.hk2.utilities.DescriptorImpl;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+
+/**
+ * Tests for reading the inhabitants files of a bundle ahead of binding them
+ * 
+ * @author jwells
+ */
+public class OSGiModuleImplTest {
+    private final static String TEST_NAME = "OSGiModuleImplTest";
+    private final static String INHABITANTS = "default";
+    private final static String LOCATOR_DIR = "META-INF/hk2-locator/";
+    
+    private final Map<String, URL> entries = new HashMap<String, URL>();
+    private File entry;
+    
+    @After
+    public void after() {
+        if (entry != null) {
+            entry.delete();
+        }
+    }
+    
+    private OSGiModuleImpl createModule() {
+        Bundle bundle = (Bundle) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Bundle.class },
+                new InvocationHandler() {
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if ("getEntry".equals(method.getName())) {
+                    return entries.get(args[0]);
+                }
+                
+                throw new UnsupportedOperationException(method.toString());
+            }
+            
+        });
+        
+        return new OSGiModuleImpl(null, bundle, null);
+    }
+    
+    private void addEntry(DescriptorImpl... descriptors) throws IOException {
+        entry = File.createTempFile(TEST_NAME, ".txt");
+        
+        PrintWriter writer = new PrintWriter(new FileWriter(entry));
+        try {
+            for (DescriptorImpl descriptor : descriptors) {
+                descriptor.writeObject(writer);
+            }
+        }
+        finally {
+            writer.close();
+        }
+        
+        entries.put(LOCATOR_DIR + INHABITANTS, entry.toURI().toURL());
+    }
+    
+    /**
+     * A bundle with no inhabitants file gives null, so that nothing is
+     * cached for it
+     * 
+     * @throws IOException
+     */
+    @Test
+    public void testMissingInhabitantsFile() throws IOException {
+        Assert.assertNull(createModule().readInhabitants(INHABITANTS));
+    }
+    
+    /**
+     * A bundle with an empty inhabitants file gives an empty list, which
+     * is cached as such
+     * 
+     * @throws IOException
+     */
+    @Test
+    public void testEmptyInhabitantsFile() throws IOException {
+        addEntry();
+        
+        List<DescriptorImpl> read = createModule().readInhabitants(INHABITANTS);
+        Assert.assertNotNull(read);
+        Assert.assertTrue(read.isEmpty());
+    }
+    
+    /**
+     * Every descriptor of the inhabitants file is read
+     * 
+     * @throws IOException
+     */
+    @Test
+    public void testInhabitantsFile() throws IOException {
+        addEntry(BuilderHelper.link(TEST_NAME + ".Alice").to(TEST_NAME + ".Contract").build(),
+                BuilderHelper.link(TEST_NAME + ".Bob").to(TEST_NAME + ".Contract").named("Bob").build());
+        
+        List<DescriptorImpl> read = createModule().readInhabitants(INHABITANTS);
+        Assert.assertEquals(2, read.size());
+        
+        Assert.assertEquals(TEST_NAME + ".Alice", read.get(0).getImplementation());
+        Assert.assertEquals(TEST_NAME + ".Bob", read.get(1).getImplementation());
+        Assert.assertEquals("Bob", read.get(1).getName());
+        Assert.assertTrue(read.get(1).getAdvertisedContracts().contains(TEST_NAME + ".Contract"));
+    }
+}